@@ -0,0 +1,118 @@
+package firefly;
+
+import java.util.SplittableRandom;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Firefly Benchmarks Class which runs our JMH benchmarks with the GC profiler
+ * switched on, so every result comes with its allocation rate as well as its
+ * time. It also sets up the grids the benchmarks use from a fixed seed, so
+ * every run and every engine starts from exactly the same fireflies
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyBenchmarks {
+    
+    // Seed every benchmark grid starts from
+    public static final long SEED = 20140314L;
+    
+    /**
+     * Ensure we can't construct a new object of Firefly Benchmarks
+     */
+    private FireflyBenchmarks() { }
+    
+    /**
+     * Method which creates one of our engines on an open square grid and sets
+     * the step of every firefly from a seed, picking steps the same way as
+     * our FireflyGrid does
+     * 
+     * @param engine Name of the engine (grid, array, bit or event)
+     * @param size Number of fireflies along each side
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param seed Seed to pick the steps from
+     * @return Seeded engine
+     */
+    public static FireflyEngine create(String engine, int size, FireflyInteraction.Neighbourhood neighbourhood, long seed) {
+        FireflyTopology topology = new FireflyTopology(size, size, neighbourhood, FireflyTopology.Boundary.OPEN);
+        SplittableRandom random = new SplittableRandom(seed);
+        
+        if (engine.equals("grid")) {
+            FireflyGrid grid = new FireflyGrid(topology, 1, 1);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    grid.setCurrentStep(x, y, step(random));
+                }
+            }
+            return grid;
+        } else if (engine.equals("array")) {
+            FireflyArrayGrid grid = new FireflyArrayGrid(topology, false);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    grid.setCurrentStep(x, y, step(random));
+                }
+            }
+            return grid;
+        } else if (engine.equals("bit")) {
+            FireflyBitGrid grid = new FireflyBitGrid(topology, false);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    grid.setCurrentStep(x, y, step(random));
+                }
+            }
+            return grid;
+        } else if (engine.equals("event")) {
+            FireflyEventGrid grid = new FireflyEventGrid(topology, false);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    grid.setCurrentStep(x, y, step(random));
+                }
+            }
+            return grid;
+        }
+        
+        throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+    
+    /**
+     * Method which picks a random starting step
+     * 
+     * @param random Random number generator to pick with
+     * @return Starting step
+     */
+    private static int step(SplittableRandom random) {
+        return (int)Math.round(random.nextDouble() * Firefly.FIREFLY_FINAL_STEP);
+    }
+    
+    /**
+     * Main Class which runs the benchmarks picked on the command line, or all
+     * of them, with the GC profiler added. Takes all the usual JMH options
+     * 
+     * @param args JMH Command Line Args
+     * @throws Exception If the options are wrong or a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+        if (cli.shouldList()) {
+            new Runner(cli).list();
+            return;
+        }
+        
+        Options options = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
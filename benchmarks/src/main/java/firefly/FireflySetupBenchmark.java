@@ -0,0 +1,64 @@
+package firefly;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Firefly Setup Benchmark Class which times building the neighbour table of a
+ * grid, and building a whole grid of Firefly objects and setting all of their
+ * neighbours
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FireflySetupBenchmark {
+    
+    @Param({"10", "100", "1000", "4096"})
+    public int size;
+    
+    @Param({"MOORE", "VON_NEUMANN"})
+    public FireflyInteraction.Neighbourhood neighbourhood;
+    
+    @Param({"OPEN", "TOROIDAL"})
+    public FireflyTopology.Boundary boundary;
+    
+    // Topology for building object grids from
+    private FireflyTopology topology;
+    
+    @Setup
+    public void setUp() {
+        this.topology = new FireflyTopology(size, size, neighbourhood, boundary);
+    }
+    
+    @Benchmark
+    public FireflyTopology topology() {
+        return new FireflyTopology(size, size, neighbourhood, boundary);
+    }
+    
+    @Benchmark
+    public FireflyGrid objectGrid() {
+        return new FireflyGrid(topology, 1, 1);
+    }
+}
@@ -0,0 +1,61 @@
+package firefly;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Firefly Step Benchmark Class which times a single step of a whole grid. For
+ * the object grid this is Firefly.prepareStep and Firefly.performStep on
+ * every firefly, the other engines are there so they can be compared on the
+ * same starting fireflies. Each iteration starts again from our seed
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FireflyStepBenchmark {
+    
+    @Param({"10", "100", "1000", "4096"})
+    public int size;
+    
+    @Param({"MOORE", "VON_NEUMANN"})
+    public FireflyInteraction.Neighbourhood neighbourhood;
+    
+    @Param({"grid", "array", "bit", "event"})
+    public String engine;
+    
+    // Grid we are stepping
+    private FireflyEngine grid;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        this.grid = FireflyBenchmarks.create(engine, size, neighbourhood, FireflyBenchmarks.SEED);
+    }
+    
+    @Benchmark
+    public void step() {
+        grid.step();
+    }
+}
@@ -0,0 +1,86 @@
+package firefly;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Firefly Sync Benchmark Class which times checking a grid for sync. The
+ * running check is what FireflyInteraction.isSynchronised asks the grid for
+ * every timestep, and the full check looks at every firefly and all of its
+ * neighbours, which is what a check costs without a running count
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FireflySyncBenchmark {
+    
+    @Param({"10", "100", "1000", "4096"})
+    public int size;
+    
+    @Param({"MOORE", "VON_NEUMANN"})
+    public FireflyInteraction.Neighbourhood neighbourhood;
+    
+    @Param({"grid", "array", "bit"})
+    public String engine;
+    
+    // Grid we are checking, stepped once so it has a running count
+    private FireflyEngine grid;
+    
+    @Setup
+    public void setUp() {
+        this.grid = FireflyBenchmarks.create(engine, size, neighbourhood, FireflyBenchmarks.SEED);
+        grid.step();
+        grid.isSynchronised();
+    }
+    
+    @Benchmark
+    public boolean running() {
+        return grid.isSynchronised();
+    }
+    
+    @Benchmark
+    public boolean full() {
+        // Ask every firefly, in the same way the check did before we kept a
+        // running count. Stopping at the first firefly out of sync would
+        // stop almost straight away on a grid that isn't synced, so count
+        // every disagreement like the flat grids' recount does
+        if (grid instanceof FireflyGrid) {
+            FireflyGrid objects = (FireflyGrid)grid;
+            int disagreements = 0;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    disagreements += objects.getFirefly(x, y).countDisagreements();
+                }
+            }
+            return disagreements == 0;
+        }
+        
+        // Setting a step makes the flat grids recount everyone next check
+        int step = grid.getCurrentStep(0, 0);
+        if (grid instanceof FireflyArrayGrid) ((FireflyArrayGrid)grid).setCurrentStep(0, 0, step);
+        if (grid instanceof FireflyBitGrid) ((FireflyBitGrid)grid).setCurrentStep(0, 0, step);
+        return grid.isSynchronised();
+    }
+}
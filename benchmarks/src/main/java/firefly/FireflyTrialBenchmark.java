@@ -0,0 +1,68 @@
+package firefly;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Firefly Trial Benchmark Class which times whole trials, stepping a grid
+ * until it syncs, falls into a loop or hits the timestep limit. Each trial
+ * starts from the next of a fixed run of seeds, so every run sees the same
+ * trials in the same order
+ * 
+ * A trial on a 4096x4096 grid takes minutes, so it isn't in the default sizes
+ * and has to be asked for with -p size=4096
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FireflyTrialBenchmark {
+    
+    @Param({"10", "100", "1000"})
+    public int size;
+    
+    @Param({"MOORE", "VON_NEUMANN"})
+    public FireflyInteraction.Neighbourhood neighbourhood;
+    
+    @Param({"grid", "array", "bit", "event"})
+    public String engine;
+    
+    @Param({"2500"})
+    public int timestepLimit;
+    
+    // Grid for the next trial, and how many trials we have set up
+    private FireflyEngine grid;
+    private int trials = 0;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        this.grid = FireflyBenchmarks.create(engine, size, neighbourhood, FireflyBenchmarks.SEED + trials++);
+    }
+    
+    @Benchmark
+    public FireflyTrialResult trial() {
+        return FireflyTrialRunner.runTrial(grid, 0, timestepLimit, true);
+    }
+}
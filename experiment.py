@@ -10,11 +10,13 @@
 # @author Suhail
 
 import subprocess
-import time
-import re
+import glob
+import csv
+import random
+import multiprocessing
 
 # Compile the files first...
-command = ['javac', 'firefly/Firefly.java', 'firefly/FireflyInteraction.java', 'firefly/FireflyExperiment.java']
+command = ['javac'] + glob.glob('firefly/*.java')
 process = subprocess.Popen(command, stdout=subprocess.PIPE)
 process.wait()
 
@@ -22,48 +24,55 @@ print ""
 print "All files have been compiled! We are now ready to proceed with the experiment"
 print ""
 
-# This will hold all our successful experiments
-success = []
+# How many repitions do we want at most? We stop as soon as we are sure
+# enough of our numbers, which is usually well before this
+repetitions = 2000
 
-# How many repitions do we want?
-repetitions = 100
+# How sure do we want to be? These are the widest 95% intervals on the
+# chance of syncing and on the average timesteps (as a fraction of it)
+success_width = 0.05
+mean_width = 0.05
 
-# Now repeat our FireflyExperiment 20 times
-for x in range(0, repetitions):
-    command = ['java', 'firefly/FireflyExperiment']
-    process = subprocess.Popen(command, stdout=subprocess.PIPE)
-    process.wait()
-    
-    # Get all the lines of our program
-    lines = process.stdout.readlines()
-    
-    # Print out the results...
-    print "Experiment: " + str(x + 1)
-    print "-------------------------------------------------"
-    for line in lines:
-        print line[:-1]
-    print "-------------------------------------------------"
+# How many timesteps before we give up on a repitition?
+timestep_limit = 2500
 
-    # In search for success
-    search = re.search('Synchronisation achieved in (?P<value>[0-9]+) timesteps', lines[-1], re.IGNORECASE)
-    if search:
-        success.append(int(search.group('value')))
-        print "Experiment was a success and was added to the array"
-        print ""
-    else:
-        print "Experiment was a failure and was not added to the array"
-        print ""
-        
-# Print out some info
-print "Successful Syncronisations: " + str(len(success)) + " out of " + str(repetitions) + " repetitions"
-print "Total Time Steps: " + str(sum(success))
+# What grid we want to run them on, which is the same as the GUI's
+engine = 'grid'
+width = 10
+height = 10
+neighbourhood = 'MOORE'
+boundary = 'OPEN'
+
+# Every trial gets streamed out to this file as it finishes, so we read
+# the numbers from there rather than picking apart what gets printed
+results_file = 'results.csv'
+seed = random.getrandbits(63)
+
+# Run all our repetitions inside the one JVM using the headless trial runner
+# rather than starting up a new JVM and a window for each one
+command = ['java', 'firefly.FireflyTrialRunner', str(repetitions), str(timestep_limit),
+           str(multiprocessing.cpu_count()), engine, str(width), str(height), neighbourhood, boundary,
+           str(seed), results_file, str(success_width), str(mean_width)]
+process = subprocess.Popen(command, stdout=subprocess.PIPE)
+
+# Print out the summary as it comes in
+for line in process.stdout:
+    print line[:-1]
+process.wait()
+
+# Work out our own numbers from the results file
+synced = []
+runs = 0
+with open(results_file) as results:
+    for row in csv.DictReader(results):
+        runs += 1
+        if row['outcome'] == 'SYNCHRONISED':
+            synced.append(int(row['timesteps']))
+
+print ""
+print "Synchronised in %d out of %d repetitions" % (len(synced), runs)
+if synced:
+    print "Average timesteps to synchronise: %.2f" % (float(sum(synced)) / len(synced))
 
-# More information if we have any?
-if len(success) > 0:
-    print ""
-    print "Average Time Steps: " + str(float(sum(success)) / len(success))
-    print "Minimum: " + str(min(success))
-    print "Maximum: " + str(max(success))
-    
 # Clean out the ending...    
 print ""
\ No newline at end of file
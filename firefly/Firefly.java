@@ -33,9 +33,9 @@ public class Firefly {
     public static final int FIREFLY_FINAL_STEP     = 9;
     
     // Colors
-    private final Color FIREFLY_CHARGING_COLOR;
-    private final Color FIREFLY_NONSENS_COLOR;
-    private final Color FIREFLY_FLASH_COLOR;
+    public static final Color FIREFLY_CHARGING_COLOR = new Color(21, 47, 74);
+    public static final Color FIREFLY_NONSENS_COLOR  = new Color(42, 78, 121);
+    public static final Color FIREFLY_FLASH_COLOR    = new Color(128, 208, 249);
     
     // Positioning and Size
     private int positionX;
@@ -59,6 +59,9 @@ public class Firefly {
     private Firefly southWest;
     private Firefly west;
     private Firefly northWest;
+    
+    // Were we given a Moore neighbourhood rather than a Von-Neumann one
+    private boolean moore;
 
     /**
      * Constructor Method which takes in a few parameters and sets up the
@@ -70,11 +73,6 @@ public class Firefly {
      * @param cellHeight How high is each firefly in the grid
      */
     public Firefly(int positionX, int positionY, int cellWidth, int cellHeight) {
-        // Set some default colours
-        FIREFLY_CHARGING_COLOR  = new Color(21, 47, 74);
-        FIREFLY_NONSENS_COLOR   = new Color(42, 78, 121);
-        FIREFLY_FLASH_COLOR     = new Color(128, 208, 249);
-        
         // Set our Positioning
         this.positionX = positionX;
         this.positionY = positionY;
@@ -111,6 +109,9 @@ public class Firefly {
         this.southWest  = fireflies[5];
         this.west       = fireflies[6];
         this.northWest  = fireflies[7];
+        
+        // Remember which neighbourhood we have
+        this.moore = true;
     }
     
     
@@ -138,13 +139,28 @@ public class Firefly {
         this.northWest = null;
         this.southEast = null;
         this.southWest = null;
+        
+        // Remember which neighbourhood we have
+        this.moore = false;
+    }
+    
+    /**
+     * Method which tells us if this firefly was given a Moore neighbourhood
+     * rather than a Von-Neumann one
+     * 
+     * @return True if we have a Moore neighbourhood
+     */
+    public boolean hasMooreNeighbourhood() {
+        return this.moore;
     }
     
     /**
      * Prepare Step method which checks if any of our neighbors have flashed
      * and sets the next step of our firefly cycle based on this information
+     * 
+     * @return True if we were reset back to the start of charging
      */
-    public void prepareStep() { 
+    public boolean prepareStep() { 
         // Declare some booleans to make our if statement more readable
         boolean isCharging = currentState == FireflyState.FIREFLY_CHARGING;
         boolean neighbours = (north != null && north.didFlash()) || 
@@ -160,6 +176,7 @@ public class Firefly {
         // If any are true, reset back to the charging state
         if (isCharging && neighbours) {
             nextStep = FIREFLY_CHARGING_START;
+            return true;
         } else {
             // Increment our Timestep
             nextStep = currentStep + 1;
@@ -167,6 +184,7 @@ public class Firefly {
             // If we've gone beyond our timescale we need to go back to the
             // beginning otherwise everything muddles up
             if (nextStep > FIREFLY_FINAL_STEP) nextStep = FIREFLY_START_STEP;
+            return false;
         }
     }
     
@@ -223,26 +241,34 @@ public class Firefly {
     
     /**
      * Method which returns a boolean based on if this particular firefly is
-     * in sync with it's neighbors.
+     * in sync with it's neighbors, which is when every neighbour we have is
+     * on the same step as us
      * 
      * @return Are we in sync with the neighbors 
      */
     public boolean inSyncWithNeighbours() {
-        // Declare some booleans to make our if statement more readable
-        boolean n = (north != null && this.currentStep != north.getCurrentStep()) &&
-                    (northEast != null && this.currentStep != northEast.getCurrentStep()) && 
-                    (northWest != null && this.currentStep != northWest.getCurrentStep());
+        return this.countDisagreements() == 0;
+    }
+    
+    /**
+     * Method which counts how many of our neighbours are on a different step
+     * to us. Missing neighbours at the edge of the grid don't count
+     * 
+     * @return Number of neighbours we disagree with
+     */
+    public int countDisagreements() {
+        int count = 0;
         
-        boolean s = (south != null && this.currentStep != south.getCurrentStep()) && 
-                    (southEast != null && this.currentStep != southEast.getCurrentStep()) && 
-                    (southWest != null && this.currentStep != southWest.getCurrentStep());
+        if (north != null && this.currentStep != north.getCurrentStep()) count++;
+        if (northEast != null && this.currentStep != northEast.getCurrentStep()) count++;
+        if (east != null && this.currentStep != east.getCurrentStep()) count++;
+        if (southEast != null && this.currentStep != southEast.getCurrentStep()) count++;
+        if (south != null && this.currentStep != south.getCurrentStep()) count++;
+        if (southWest != null && this.currentStep != southWest.getCurrentStep()) count++;
+        if (west != null && this.currentStep != west.getCurrentStep()) count++;
+        if (northWest != null && this.currentStep != northWest.getCurrentStep()) count++;
         
-        boolean rem = (east != null && this.currentStep != east.getCurrentStep()) && 
-                      (west != null && this.currentStep != west.getCurrentStep());
-                
-        if (!n && !s && !rem) { return true; }
-      
-        return false;
+        return count;
     }
     
     /**
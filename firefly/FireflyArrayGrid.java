@@ -0,0 +1,520 @@
+package firefly;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Firefly Array Grid Class which steps the same automaton as our Firefly
+ * objects but keeps the whole grid in flat primitive arrays. Each firefly is
+ * a single byte holding its current step, with a second byte array holding
+ * whether it is flashing. Neighbours are looked up in our topology's flat
+ * table of indices rather than by following references, and the current and
+ * next generations are double buffered so a step is just one pass over the
+ * arrays and a swap
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyArrayGrid implements FireflyEngine {
+    
+    // View of a byte array as longs, so we can hash eight steps at once
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long [].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // Size of our grid in fireflies
+    private final int width;
+    private final int height;
+    
+    // Size, neighbourhood and boundary of our grid, and its neighbour table
+    private final FireflyTopology topology;
+    private final int [] neighbours;
+    private final int stride;
+    
+    // How many orthogonal neighbours each firefly has, how many neighbours
+    // it has altogether and how many of them it listens to
+    private final byte [] orthogonals;
+    private final byte [] sizes;
+    private final byte [] degrees;
+    
+    // The clock every firefly runs, and its steps copied out so the inner
+    // loops don't have to go through it
+    private final FireflyCycle cycle;
+    private final int chargingFinal;
+    private final int flashStep;
+    private final int finalStep;
+    
+    // Current and next step of every firefly, indexed by y * width + x
+    private byte [] steps;
+    private byte [] nextSteps;
+    
+    // Current and next flash mask, 1 if the firefly is flashing
+    private byte [] flash;
+    private byte [] nextFlash;
+    
+    // How many timesteps have elapsed
+    private int timesteps = 0;
+    
+    // Running count of neighbours that disagree, summed over every firefly,
+    // and whether a step was set from outside so it needs a full recount
+    private long disagreements = 0;
+    private boolean recount = true;
+    
+    /**
+     * Constructor Method which creates an empty grid with every firefly at the
+     * starting step
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param cycle Clock every firefly runs
+     */
+    private FireflyArrayGrid(FireflyTopology topology, FireflyCycle cycle) {
+        this.topology = topology;
+        this.cycle = cycle;
+        this.chargingFinal = cycle.getChargingFinal();
+        this.flashStep = cycle.getFlashStep();
+        this.finalStep = cycle.getFinalStep();
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.neighbours = topology.getNeighbours();
+        this.stride = topology.getStride();
+        this.orthogonals = topology.getOrthogonals();
+        this.sizes = topology.getSizes();
+        this.degrees = topology.getDegrees();
+        
+        // Allocate both generations up front so stepping never allocates
+        int cells = width * height;
+        this.steps     = new byte[cells];
+        this.nextSteps = new byte[cells];
+        this.flash     = new byte[cells];
+        this.nextFlash = new byte[cells];
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does, on a grid with
+     * open edges
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyArrayGrid(int width, int height, FireflyInteraction.Neighbourhood neighbourhood, boolean random) {
+        this(new FireflyTopology(width, height, neighbourhood, FireflyTopology.Boundary.OPEN), random);
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyArrayGrid(FireflyTopology topology, boolean random) {
+        this(topology, FireflyCycle.DEFAULT, random);
+    }
+    
+    /**
+     * Constructor Method which creates a grid whose fireflies run a different
+     * clock to the one in Firefly, with a random starting step for each
+     * firefly picked in the same way as our FireflyGrid does
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param cycle Clock every firefly runs
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyArrayGrid(FireflyTopology topology, FireflyCycle cycle, boolean random) {
+        this(topology, cycle);
+        
+        if (random) {
+            this.randomise(FireflyRandom.newSeed());
+        }
+    }
+    
+    /**
+     * Constructor Method which creates a grid with the starting step of each
+     * firefly picked from a seed, so the same seed always gives the same grid
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyArrayGrid(FireflyTopology topology, long seed) {
+        this(topology, FireflyCycle.DEFAULT, seed);
+    }
+    
+    /**
+     * Constructor Method which creates a grid whose fireflies run a different
+     * clock to the one in Firefly, with the starting step of each firefly
+     * picked from a seed
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param cycle Clock every firefly runs
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyArrayGrid(FireflyTopology topology, FireflyCycle cycle, long seed) {
+        this(topology, cycle);
+        this.randomise(seed);
+    }
+    
+    /**
+     * Constructor Method which copies the current steps out of an existing
+     * object grid and shares its topology, so both can be stepped side by side
+     * 
+     * @param grid Grid of Firefly objects to copy
+     */
+    public FireflyArrayGrid(FireflyGrid grid) {
+        this(grid.getTopology(), FireflyCycle.DEFAULT);
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                this.setStep(y * width + x, grid.getCurrentStep(x, y));
+            }
+        }
+    }
+    
+    /**
+     * Constructor Method which makes an exact copy of another grid, including
+     * the neighbourhood of every firefly
+     * 
+     * @param grid Grid to copy
+     */
+    public FireflyArrayGrid(FireflyArrayGrid grid) {
+        this(grid.topology, grid.cycle);
+        
+        System.arraycopy(grid.steps, 0, steps, 0, steps.length);
+        System.arraycopy(grid.flash, 0, flash, 0, flash.length);
+        this.timesteps = grid.timesteps;
+    }
+    
+    /**
+     * Step method which works out the next step of every firefly from the
+     * current generation and then swaps the generations over. This follows
+     * Firefly.prepareStep exactly, a charging firefly goes back to the start
+     * if any of its neighbours flashed and otherwise every firefly moves on
+     */
+    @Override
+    public void step() {
+        this.finishStep(this.stepRows(0, height));
+    }
+    
+    /**
+     * Method which works out the next step of every firefly in a band of rows.
+     * It only reads the current generation and only writes its own rows of the
+     * next generation, so bands can be stepped on different threads at once
+     * 
+     * @param from First row of the band
+     * @param to Row after the last row of the band
+     * @return Change in the number of disagreements for this band
+     */
+    long stepRows(int from, int to) {
+        long delta = 0;
+        
+        for (int y = from; y < to; y++) {
+            int row = y * width;
+            
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                int step = steps[i];
+                int next;
+                
+                // Only bother looking at the neighbours if we are charging
+                if (isCharging(step) && neighbourFlashed(i)) {
+                    next = Firefly.FIREFLY_CHARGING_START;
+                    
+                    // Work out how our disagreements changed, unless we are
+                    // going to recount everything anyway
+                    if (!recount) delta += this.resetDelta(i);
+                } else {
+                    // Increment our Timestep and wrap around if we need to
+                    next = increment(step);
+                }
+                
+                nextSteps[i] = (byte)next;
+                nextFlash[i] = (byte)(next == flashStep ? 1 : 0);
+            }
+        }
+        
+        return delta;
+    }
+    
+    /**
+     * Method which finishes off a step once every band has been stepped, by
+     * swapping the generations over
+     * 
+     * @param delta Change in the number of disagreements over all bands
+     */
+    void finishStep(long delta) {
+        disagreements += delta;
+        
+        // Swap our generations over
+        byte [] swap = steps;
+        steps = nextSteps;
+        nextSteps = swap;
+        
+        swap = flash;
+        flash = nextFlash;
+        nextFlash = swap;
+        
+        // Increment our timestep counter
+        this.timesteps++;
+    }
+    
+    /**
+     * Method which tells us if a step is in the charging part of the cycle
+     * 
+     * @param step Step of the Firefly
+     * @return True if the firefly is charging
+     */
+    private boolean isCharging(int step) {
+        return step >= Firefly.FIREFLY_CHARGING_START && step <= chargingFinal;
+    }
+    
+    /**
+     * Method which works out if a firefly will be reset in this step, using
+     * only the current generation
+     * 
+     * @param i Index of the firefly
+     * @return True if the firefly is charging and a neighbour flashed
+     */
+    private boolean willReset(int i) {
+        return isCharging(steps[i]) && neighbourFlashed(i);
+    }
+    
+    /**
+     * Method which checks if any of the neighbours of a firefly flashed in the
+     * current generation
+     * 
+     * @param i Index of the firefly
+     * @return True if any neighbour it listens to flashed
+     */
+    private boolean neighbourFlashed(int i) {
+        int base = i * stride;
+        int flashed = 0;
+        
+        // Our topology puts the neighbours we listen to first
+        for (int k = 0; k < degrees[i]; k++) {
+            flashed |= flash[neighbours[base + k]];
+        }
+        
+        return flashed != 0;
+    }
+    
+    /**
+     * Method which works out how much the disagreements between a reset firefly
+     * and the fireflies around it will change in the next generation. Each
+     * pair is weighted by how many of the two listen to the other, and pairs
+     * of reset fireflies are only counted from the lower one. Everything is
+     * worked out from the current generation, so it doesn't matter if another
+     * band has written its next generation yet
+     * 
+     * @param r Index of the reset firefly
+     * @return Change in the number of disagreements
+     */
+    private long resetDelta(int r) {
+        int base = r * stride;
+        long delta = 0;
+        
+        for (int k = 0; k < sizes[r]; k++) {
+            int o = neighbours[base + k];
+            
+            // We listen to the first few of our neighbours, and they listen
+            // to us if we are orthogonal or they have a Moore neighbourhood
+            int weight = (k < degrees[r] ? 1 : 0) + (k < orthogonals[r] || topology.isMoore(o) ? 1 : 0);
+            if (weight == 0) continue;
+            
+            // Don't count a pair of reset fireflies twice
+            boolean reset = willReset(o);
+            if (o < r && reset) continue;
+            
+            // We go back to the start and they either do too or move on
+            int next = reset ? Firefly.FIREFLY_CHARGING_START : increment(steps[o]);
+            int before = steps[r] != steps[o] ? 1 : 0;
+            int after = next != Firefly.FIREFLY_CHARGING_START ? 1 : 0;
+            delta += weight * (after - before);
+        }
+        
+        return delta;
+    }
+    
+    /**
+     * Method which returns the step a firefly moves on to if it isn't reset
+     * 
+     * @param step Current step of the Firefly
+     * @return Next step of the Firefly
+     */
+    private int increment(int step) {
+        int next = step + 1;
+        if (next > finalStep) next = Firefly.FIREFLY_START_STEP;
+        return next;
+    }
+    
+    /**
+     * Method which counts how many of a firefly's neighbours are on a different
+     * step to it, in the same way as Firefly.countDisagreements
+     * 
+     * @param i Index of the firefly
+     * @return Number of neighbours it disagrees with
+     */
+    private int countDisagreements(int i) {
+        int base = i * stride;
+        int count = 0;
+        
+        for (int k = 0; k < degrees[i]; k++) {
+            if (steps[i] != steps[neighbours[base + k]]) count++;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with all of it's
+     * neighbours. We keep a running count of disagreeing neighbours up to date
+     * as we step, so this is just one check unless someone has set a step
+     * from outside since we last counted
+     * 
+     * @return True if the grid is synchronised
+     */
+    @Override
+    public boolean isSynchronised() {
+        if (recount) {
+            disagreements = 0;
+            for (int i = 0; i < steps.length; i++) {
+                disagreements += this.countDisagreements(i);
+            }
+            recount = false;
+        }
+        
+        return disagreements == 0;
+    }
+    
+    /**
+     * Method which picks the starting step of every firefly from a seed and
+     * updates our flash mask to match
+     * 
+     * @param seed Seed to pick the starting steps from
+     */
+    private void randomise(long seed) {
+        // Set the state randomly to start
+        FireflyRandom.fillSteps(steps, seed, finalStep);
+        
+        for (int i = 0; i < steps.length; i++) {
+            flash[i] = (byte)(steps[i] == flashStep ? 1 : 0);
+        }
+        this.recount = true;
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly, which
+     * also updates our flash mask
+     * 
+     * @param i Index of the firefly
+     * @param step New step of the Firefly
+     */
+    private void setStep(int i, int step) {
+        if (step < Firefly.FIREFLY_START_STEP || step > finalStep) {
+            throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+        }
+        
+        steps[i] = (byte)step;
+        recount = true;
+        flash[i] = (byte)(step == flashStep ? 1 : 0);
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @param step New step of the Firefly
+     */
+    public void setCurrentStep(int x, int y, int step) {
+        this.setStep(y * width + x, step);
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return steps[y * width + x];
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        System.arraycopy(this.steps, 0, steps, 0, this.steps.length);
+    }
+    
+    /**
+     * Method which hashes our steps eight at a time by reading them out of
+     * the byte array as longs
+     * 
+     * @return Hash of the current generation
+     */
+    @Override
+    public long stateHash() {
+        long hash = 0;
+        int i = 0;
+        for (; i + 8 <= steps.length; i += 8) {
+            hash = FireflyCycleDetector.mix(hash, (long)LONGS.get(steps, i));
+        }
+        for (; i < steps.length; i++) {
+            hash = FireflyCycleDetector.mix(hash, steps[i]);
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Method which works out our second hash eight steps at a time, in the
+     * same way as stateHash but adding up a value for each word rather than
+     * chaining them
+     * 
+     * @return Second hash of the current generation
+     */
+    @Override
+    public long checkHash() {
+        long hash = 0;
+        int i = 0;
+        for (; i + 8 <= steps.length; i += 8) {
+            hash += FireflyCycleDetector.checkValue(i, (long)LONGS.get(steps, i));
+        }
+        for (; i < steps.length; i++) {
+            hash += FireflyCycleDetector.checkValue(i, steps[i]);
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Getter method to return the size, neighbourhood and boundary of our grid
+     * 
+     * @return Topology of our grid
+     */
+    public FireflyTopology getTopology() {
+        return this.topology;
+    }
+    
+    /**
+     * Getter method to return the clock every firefly runs
+     * 
+     * @return Cycle of our fireflies
+     */
+    public FireflyCycle getCycle() {
+        return this.cycle;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+}
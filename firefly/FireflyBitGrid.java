@@ -0,0 +1,499 @@
+package firefly;
+
+import java.util.Arrays;
+
+/**
+ * Firefly Bit Grid Class which steps the same automaton as our Firefly objects
+ * but sixty four fireflies at a time. Each row of the grid is packed into long
+ * words, one bit per firefly, and the step counter is bit sliced into four
+ * planes so bit x of plane k is bit k of firefly x's step. The flash, charging
+ * and "did a neighbour flash" masks are then just shifts, ANDs and ORs across
+ * whole words, and the increment is a four bit ripple carry adder. On a
+ * toroidal grid the shifts carry in from the other end of the row and the
+ * rows above and below wrap around
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyBitGrid implements FireflyEngine {
+    
+    // Number of bit planes needed to hold steps 0 to 9
+    private static final int PLANES = 4;
+    
+    // Size of our grid in fireflies and in words per row
+    private final int width;
+    private final int height;
+    private final int words;
+    
+    // Mask of the bits in the last word of each row that are real fireflies
+    private final long tailMask;
+    
+    // Size, neighbourhood and boundary of our grid
+    private final FireflyTopology topology;
+    private final FireflyInteraction.Neighbourhood neighbourhood;
+    private final boolean toroidal;
+    
+    // Current and next step bit planes, word w of row y is at y * words + w
+    private long [][] planes;
+    private long [][] nextPlanes;
+    
+    // Flash mask of the current generation, worked out at the start of a step
+    private final long [] flash;
+    
+    // For a RANDOM neighbourhood, set bits have a Moore neighbourhood
+    private final long [] moore;
+    
+    // How many timesteps have elapsed
+    private int timesteps = 0;
+    
+    // Running count of neighbours that disagree, summed over every firefly,
+    // and whether a step was set from outside so it needs a full recount
+    private long disagreements = 0;
+    private boolean recount = true;
+    
+    // Words which had a reset in the current step, and a stamp of the last
+    // step each word was recounted in so we only recount each one once
+    private int [] resets = new int[64];
+    private int resetCount = 0;
+    private final int [] recounted;
+    
+    /**
+     * Constructor Method which creates an empty grid with every firefly at the
+     * starting step
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     */
+    private FireflyBitGrid(FireflyTopology topology) {
+        this.topology = topology;
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.words = (width + 63) >>> 6;
+        this.neighbourhood = topology.getNeighbourhood();
+        this.toroidal = topology.getBoundary() == FireflyTopology.Boundary.TOROIDAL;
+        
+        // If the width is a multiple of 64 the whole last word is used
+        this.tailMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        
+        // Allocate both generations up front so stepping never allocates
+        this.planes = new long[PLANES][height * words];
+        this.nextPlanes = new long[PLANES][height * words];
+        this.flash = new long[height * words];
+        this.recounted = new int[height * words];
+        
+        // We only need to remember the neighbourhood per firefly if it varies
+        this.moore = neighbourhood == FireflyInteraction.Neighbourhood.RANDOM ? new long[height * words] : null;
+        if (moore != null) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (topology.isMoore(y * width + x)) moore[y * words + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does, on a grid with
+     * open edges
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyBitGrid(int width, int height, FireflyInteraction.Neighbourhood neighbourhood, boolean random) {
+        this(new FireflyTopology(width, height, neighbourhood, FireflyTopology.Boundary.OPEN), random);
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyBitGrid(FireflyTopology topology, boolean random) {
+        this(topology);
+        
+        if (random) {
+            this.randomise(FireflyRandom.newSeed());
+        }
+    }
+    
+    /**
+     * Constructor Method which creates a grid with the starting step of each
+     * firefly picked from a seed, so the same seed always gives the same grid
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyBitGrid(FireflyTopology topology, long seed) {
+        this(topology);
+        this.randomise(seed);
+    }
+    
+    /**
+     * Method which picks the starting step of every firefly from a seed
+     * 
+     * @param seed Seed to pick the starting steps from
+     */
+    private void randomise(long seed) {
+        byte [] steps = FireflyRandom.steps(width * height, seed, Firefly.FIREFLY_FINAL_STEP);
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Set the state randomly to start
+                this.setCurrentStep(x, y, steps[y * width + x]);
+            }
+        }
+    }
+    
+    /**
+     * Constructor Method which copies the current steps out of an existing
+     * object grid and shares its topology, so both can be stepped side by side
+     * 
+     * @param grid Grid of Firefly objects to copy
+     */
+    public FireflyBitGrid(FireflyGrid grid) {
+        this(grid.getTopology());
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                this.setCurrentStep(x, y, grid.getCurrentStep(x, y));
+            }
+        }
+    }
+    
+    /**
+     * Step method which works out the next step of every firefly from the
+     * current generation and then swaps the generations over. This follows
+     * Firefly.prepareStep exactly, a charging firefly goes back to the start
+     * if any of its neighbours flashed and otherwise every firefly moves on
+     */
+    @Override
+    public void step() {
+        long [] p0 = planes[0], p1 = planes[1], p2 = planes[2], p3 = planes[3];
+        
+        // Work out who is flashing first, step 9 is 1001 in binary
+        for (int i = 0; i < flash.length; i++) {
+            flash[i] = p0[i] & ~p1[i] & ~p2[i] & p3[i];
+        }
+        
+        for (int y = 0; y < height; y++) {
+            int row = y * words;
+            int north = this.wrapRow(y - 1) * words;
+            int south = this.wrapRow(y + 1) * words;
+            boolean hasNorth = toroidal || y > 0;
+            boolean hasSouth = toroidal || y < height - 1;
+            
+            for (int w = 0; w < words; w++) {
+                int i = row + w;
+                
+                // North, South, East and West are in both neighbourhoods
+                long flashed = west(flash, row, w) | east(flash, row, w);
+                if (hasNorth) flashed |= flash[north + w];
+                if (hasSouth) flashed |= flash[south + w];
+                
+                // The diagonals are only in a Moore neighbourhood
+                long diagonals = mooreMask(i);
+                if (diagonals != 0) {
+                    long diagonal = 0;
+                    if (hasNorth) diagonal |= west(flash, north, w) | east(flash, north, w);
+                    if (hasSouth) diagonal |= west(flash, south, w) | east(flash, south, w);
+                    flashed |= diagonal & diagonals;
+                }
+                
+                // Steps 0 to 5 are charging, which is everything apart from
+                // 6 (0110), 7 (0111) and anything with the top bit set
+                long charging = ~p3[i] & ~(p2[i] & p1[i]);
+                
+                // Add one to every step with a ripple carry
+                long c0 = p0[i];
+                long c1 = p1[i] & c0;
+                long c2 = p2[i] & c1;
+                long q0 = ~p0[i];
+                long q1 = p1[i] ^ c0;
+                long q2 = p2[i] ^ c1;
+                long q3 = p3[i] ^ c2;
+                
+                // Anything that flashed wraps around to the start and anything
+                // charging with a flashing neighbour goes back to the start,
+                // both of which are step 0
+                long reset = charging & flashed;
+                long keep = ~(flash[i] | reset);
+                if (w == words - 1) keep &= tailMask;
+                
+                // Remember this word had a reset, growing our list if we need
+                // to, unless we are going to recount everything anyway
+                if (reset != 0 && !recount) {
+                    if (resetCount == resets.length) resets = Arrays.copyOf(resets, resetCount * 2);
+                    resets[resetCount++] = i;
+                }
+                
+                nextPlanes[0][i] = q0 & keep;
+                nextPlanes[1][i] = q1 & keep;
+                nextPlanes[2][i] = q2 & keep;
+                nextPlanes[3][i] = q3 & keep;
+            }
+        }
+        
+        // Every firefly that wasn't reset moved on by one, so two of them
+        // agree now exactly when they agreed before. Only the words with a
+        // reset in them and the words around them can have changed
+        if (!recount) {
+            int stamp = timesteps + 1;
+            for (int r = 0; r < resetCount; r++) {
+                int y = resets[r] / words;
+                int w = resets[r] % words;
+                
+                for (int dy = -1; dy <= 1; dy++) {
+                    int j = this.wrapRow(y + dy);
+                    if (j < 0 || j >= height) continue;
+                    
+                    for (int dw = -1; dw <= 1; dw++) {
+                        // Words wrap around too, as the first and last
+                        // fireflies of a row are neighbours
+                        int k = w + dw;
+                        if (toroidal) k = (k + words) % words;
+                        if (k < 0 || k >= words) continue;
+                        
+                        if (recounted[j * words + k] == stamp) continue;
+                        recounted[j * words + k] = stamp;
+                        
+                        disagreements += countDisagreements(nextPlanes, j, k) - countDisagreements(planes, j, k);
+                    }
+                }
+            }
+        }
+        resetCount = 0;
+        
+        // Swap our generations over
+        long [][] swap = planes;
+        planes = nextPlanes;
+        nextPlanes = swap;
+        
+        // Increment our timestep counter
+        this.timesteps++;
+    }
+    
+    /**
+     * Method which returns a word of a row shifted so that each bit holds the
+     * value of its western neighbour, carrying in from the previous word
+     * 
+     * @param a Array of words
+     * @param row Index of the first word of the row
+     * @param w Word within the row
+     * @return Western neighbours of each bit
+     */
+    private long west(long [] a, int row, int w) {
+        long value = a[row + w] << 1;
+        if (w > 0) value |= a[row + w - 1] >>> 63;
+        else if (toroidal) value |= (a[row + words - 1] >>> ((width - 1) & 63)) & 1L;
+        return value;
+    }
+    
+    /**
+     * Method which returns a word of a row shifted so that each bit holds the
+     * value of its eastern neighbour, carrying in from the next word
+     * 
+     * @param a Array of words
+     * @param row Index of the first word of the row
+     * @param w Word within the row
+     * @return Eastern neighbours of each bit
+     */
+    private long east(long [] a, int row, int w) {
+        long value = a[row + w] >>> 1;
+        if (w < words - 1) value |= a[row + w + 1] << 63;
+        else if (toroidal) value |= (a[row] & 1L) << ((width - 1) & 63);
+        return value;
+    }
+    
+    /**
+     * Method which wraps a row index around if our grid is toroidal
+     * 
+     * @param y Row index, which can be one off either end
+     * @return Row index, which is off the grid only if our edges are open
+     */
+    private int wrapRow(int y) {
+        if (!toroidal) return y;
+        return (y + height) % height;
+    }
+    
+    /**
+     * Method which returns which fireflies in a word have a Moore neighbourhood
+     * 
+     * @param i Index of the word
+     * @return Mask of fireflies with a Moore neighbourhood
+     */
+    private long mooreMask(int i) {
+        if (moore != null) return moore[i];
+        return neighbourhood == FireflyInteraction.Neighbourhood.MOORE ? -1L : 0L;
+    }
+    
+    /**
+     * Method which returns which fireflies in a word have a different step to
+     * their neighbour in a given direction
+     * 
+     * @param p Bit planes of the generation to look at
+     * @param row Index of the first word of our row
+     * @param other Index of the first word of the neighbour's row
+     * @param w Word within the row
+     * @param shift -1 for west, 0 for straight up or down and 1 for east
+     * @return Mask of fireflies that differ from that neighbour
+     */
+    private long differs(long [][] p, int row, int other, int w, int shift) {
+        long difference = 0;
+        for (int k = 0; k < PLANES; k++) {
+            long [] plane = p[k];
+            long neighbour = shift < 0 ? west(plane, other, w) : shift > 0 ? east(plane, other, w) : plane[other + w];
+            difference |= plane[row + w] ^ neighbour;
+        }
+        return difference;
+    }
+    
+    /**
+     * Method which counts how many neighbours the fireflies in one word
+     * disagree with, in the same way as Firefly.countDisagreements
+     * 
+     * @param p Bit planes of the generation to look at
+     * @param y Row of the word
+     * @param w Word within the row
+     * @return Number of disagreeing neighbours summed over the word
+     */
+    private int countDisagreements(long [][] p, int y, int w) {
+        int row = y * words;
+        
+        // Work out which fireflies are real and which have East and West
+        long valid = w == words - 1 ? tailMask : -1L;
+        long hasWest = w == 0 && !toroidal ? valid & ~1L : valid;
+        long hasEast = w == words - 1 && !toroidal ? valid & ~(1L << (width - 1)) : valid;
+        long diagonals = mooreMask(row + w);
+        
+        int count = Long.bitCount(differs(p, row, row, w, -1) & hasWest) +
+                    Long.bitCount(differs(p, row, row, w, 1) & hasEast);
+        
+        // Now the rows above and below us if we have them
+        for (int dy = -1; dy <= 1; dy += 2) {
+            int other = this.wrapRow(y + dy);
+            if (other < 0 || other >= height) continue;
+            
+            count += Long.bitCount(differs(p, row, other * words, w, 0) & valid);
+            if (diagonals != 0) {
+                count += Long.bitCount(differs(p, row, other * words, w, -1) & hasWest & diagonals) +
+                         Long.bitCount(differs(p, row, other * words, w, 1) & hasEast & diagonals);
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with all of it's
+     * neighbours. We keep a running count of disagreeing neighbours up to date
+     * as we step, so this is just one check unless someone has set a step
+     * from outside since we last counted
+     * 
+     * @return True if the grid is synchronised
+     */
+    @Override
+    public boolean isSynchronised() {
+        if (recount) {
+            disagreements = 0;
+            for (int y = 0; y < height; y++) {
+                for (int w = 0; w < words; w++) {
+                    disagreements += countDisagreements(planes, y, w);
+                }
+            }
+            recount = false;
+        }
+        
+        return disagreements == 0;
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @param step New step of the Firefly
+     */
+    public void setCurrentStep(int x, int y, int step) {
+        if (step < Firefly.FIREFLY_START_STEP || step > Firefly.FIREFLY_FINAL_STEP) {
+            throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+        }
+        
+        int i = y * words + (x >>> 6);
+        long bit = 1L << x;
+        for (int k = 0; k < PLANES; k++) {
+            if ((step & (1 << k)) != 0) planes[k][i] |= bit;
+            else planes[k][i] &= ~bit;
+        }
+        recount = true;
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        int i = y * words + (x >>> 6);
+        int step = 0;
+        for (int k = 0; k < PLANES; k++) {
+            step |= (int)((planes[k][i] >>> x) & 1L) << k;
+        }
+        return step;
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                steps[y * width + x] = (byte)this.getCurrentStep(x, y);
+            }
+        }
+    }
+    
+    /**
+     * Method which hashes our bit planes a word at a time, so each word hashed
+     * covers sixty four fireflies
+     * 
+     * @return Hash of the current generation
+     */
+    @Override
+    public long stateHash() {
+        long hash = 0;
+        for (int k = 0; k < PLANES; k++) {
+            for (long word : planes[k]) {
+                hash = FireflyCycleDetector.mix(hash, word);
+            }
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Getter method to return the size, neighbourhood and boundary of our grid
+     * 
+     * @return Topology of our grid
+     */
+    public FireflyTopology getTopology() {
+        return this.topology;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+}
@@ -0,0 +1,422 @@
+package firefly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Firefly Cluster Class which steps a grid split across several worker
+ * processes, which can be on this machine or on others. The grid is cut into
+ * strips of rows and each FireflyWorker owns one, swapping its edge rows with
+ * the workers above and below it every timestep. All we do is hand out the
+ * strips and add up the disagreement counts the workers send back
+ * 
+ * Waiting for every worker to answer after every timestep would hold them all
+ * up, so when stepping until sync we let the workers run a batch of timesteps
+ * at a time and send back a count for each one. If the grid synchronised part
+ * way through a batch nobody has been reset since, so every firefly has just
+ * moved on by one each timestep and the workers can wind straight back to the
+ * timestep it synchronised on. Stepping this way gives exactly the same grid
+ * and timestep as stepping a single FireflyGrid
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyCluster implements FireflyEngine, Closeable {
+    
+    // Port we listen for workers on unless told otherwise
+    public static final int DEFAULT_PORT = 5150;
+    
+    // Most timesteps a worker runs before we hear from it
+    private static final int MAX_BATCH = 64;
+    
+    // Size of our grid in fireflies
+    private final int width;
+    private final int height;
+    
+    // Channels and streams to every worker, top strip first
+    private final SocketChannel [] channels;
+    private final DataInputStream [] ins;
+    private final DataOutputStream [] outs;
+    
+    // First row of each worker's strip, with one extra at the end
+    private final int [] starts;
+    
+    // How many timesteps have elapsed and how many neighbours disagree
+    private int timesteps = 0;
+    private long disagreements;
+    
+    // The grid as the workers last sent it, null if it has moved on since
+    private byte [] gathered;
+    
+    /**
+     * Constructor Method which waits for our workers to join and hands each
+     * of them a strip of the grid
+     * 
+     * @param server Channel the workers join on
+     * @param workers Number of workers to wait for
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param steps Starting step of every firefly, row after row
+     * @throws IOException If a worker goes away
+     */
+    public FireflyCluster(ServerSocketChannel server, int workers, FireflyTopology topology, byte [] steps) throws IOException {
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        
+        if (workers < 1 || workers > height) {
+            throw new IllegalArgumentException("Need between 1 and " + height + " workers");
+        }
+        if (steps.length != width * height) {
+            throw new IllegalArgumentException("Need a step for each of the " + (width * height) + " fireflies");
+        }
+        
+        this.channels = new SocketChannel[workers];
+        this.ins = new DataInputStream[workers];
+        this.outs = new DataOutputStream[workers];
+        
+        // Strips are as even as they can be, the first few get an extra row
+        this.starts = new int[workers + 1];
+        for (int w = 0; w < workers; w++) {
+            starts[w + 1] = starts[w] + height / workers + (w < height % workers ? 1 : 0);
+        }
+        
+        // Everyone joins and tells us where their peer port is
+        String [] hosts = new String[workers];
+        int [] ports = new int[workers];
+        try {
+            for (int w = 0; w < workers; w++) {
+                channels[w] = server.accept();
+                channels[w].socket().setTcpNoDelay(true);
+                ins[w] = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channels[w]), 1 << 16));
+                outs[w] = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channels[w]), 1 << 16));
+                
+                hosts[w] = ((InetSocketAddress)channels[w].getRemoteAddress()).getAddress().getHostAddress();
+                ports[w] = ins[w].readInt();
+            }
+            
+            boolean wrap = topology.getBoundary() == FireflyTopology.Boundary.TOROIDAL;
+            for (int w = 0; w < workers; w++) {
+                int rows = starts[w + 1] - starts[w];
+                int below = (w + 1) % workers;
+                
+                // Each worker connects to the one below it, and a single
+                // worker on a torus is its own neighbour
+                boolean downPeer = workers > 1 && (w < workers - 1 || wrap);
+                boolean upPeer = workers > 1 && (w > 0 || wrap);
+                
+                DataOutputStream out = outs[w];
+                out.writeInt(width);
+                out.writeInt(rows);
+                out.writeByte(topology.getNeighbourhood().ordinal());
+                out.writeByte(topology.getBoundary().ordinal());
+                out.writeBoolean(w > 0 || wrap);
+                out.writeBoolean(w < workers - 1 || wrap);
+                out.writeBoolean(upPeer);
+                out.writeUTF(downPeer ? hosts[below] : "");
+                out.writeInt(downPeer ? ports[below] : -1);
+                out.write(steps, starts[w] * width, rows * width);
+                
+                if (topology.getNeighbourhood() == FireflyInteraction.Neighbourhood.RANDOM) {
+                    for (int i = starts[w] * width; i < starts[w + 1] * width; i++) {
+                        out.writeByte(topology.isMoore(i) ? 1 : 0);
+                    }
+                }
+                out.flush();
+            }
+            
+            // Once everyone has swapped halos they tell us how they started
+            long total = 0;
+            for (int w = 0; w < workers; w++) total += ins[w].readLong();
+            this.disagreements = total;
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+        
+        this.gathered = steps.clone();
+    }
+    
+    /**
+     * Step method which moves every worker on one timestep
+     */
+    @Override
+    public void step() {
+        this.run(1);
+    }
+    
+    /**
+     * Method which moves every worker on a number of timesteps and adds up
+     * their disagreements after each one
+     * 
+     * @param batch Number of timesteps to run
+     * @return Total disagreements after each timestep
+     */
+    private long [] run(int batch) {
+        long [] totals = new long[batch];
+        
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeByte(FireflyWorker.RUN);
+                out.writeInt(batch);
+                out.flush();
+            }
+            
+            // Each worker sends its counts together once it has run the whole
+            // batch, so this is one round trip per batch rather than one per
+            // timestep
+            for (int t = 0; t < batch; t++) {
+                for (DataInputStream in : ins) totals[t] += in.readLong();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Lost a worker", e);
+        }
+        
+        this.timesteps += batch;
+        this.disagreements = totals[batch - 1];
+        this.gathered = null;
+        return totals;
+    }
+    
+    /**
+     * Method which keeps stepping until the grid synchronises or we hit the
+     * timestep limit, letting the workers run ahead in batches that grow as
+     * long as the grid stays out of sync. We always stop on the timestep that
+     * stepping one at a time would have stopped on
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return True if the grid synchronised
+     */
+    public boolean stepUntilSynchronised(int timestepLimit) {
+        int limit = timestepLimit > 0 ? timestepLimit : Integer.MAX_VALUE;
+        int batch = 1;
+        
+        while (timesteps < limit) {
+            int size = Math.min(batch, limit - timesteps);
+            long [] totals = this.run(size);
+            
+            for (int t = 0; t < size; t++) {
+                if (totals[t] == 0) {
+                    this.rewind(size - 1 - t);
+                    return true;
+                }
+            }
+            
+            batch = Math.min(batch * 2, MAX_BATCH);
+        }
+        
+        return this.isSynchronised();
+    }
+    
+    /**
+     * Method which takes every worker back a number of timesteps, which is
+     * only right when the grid has been in sync for all of them
+     * 
+     * @param back Number of timesteps to go back
+     */
+    private void rewind(int back) {
+        if (back == 0) return;
+        
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeByte(FireflyWorker.REWIND);
+                out.writeInt(back);
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Lost a worker", e);
+        }
+        
+        this.timesteps -= back;
+        this.disagreements = 0;
+        this.gathered = null;
+    }
+    
+    /**
+     * Method which fetches the whole grid back from the workers, unless we
+     * already have it
+     * 
+     * @return Step of every firefly, row after row
+     */
+    private byte [] gather() {
+        if (gathered != null) return gathered;
+        
+        byte [] steps = new byte[width * height];
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeByte(FireflyWorker.GATHER);
+                out.flush();
+            }
+            for (int w = 0; w < ins.length; w++) {
+                ins[w].readFully(steps, starts[w] * width, (starts[w + 1] - starts[w]) * width);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Lost a worker", e);
+        }
+        
+        this.gathered = steps;
+        return steps;
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with all of it's
+     * neighbours, which is when no worker has any disagreeing neighbours
+     * 
+     * @return True if the grid is synchronised
+     */
+    @Override
+    public boolean isSynchronised() {
+        return disagreements == 0;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Getter method to return the current step of an individual firefly,
+     * which fetches the whole grid from the workers if it has moved on
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Current Step of that Firefly
+     */
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return this.gather()[y * width + x];
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        System.arraycopy(this.gather(), 0, steps, 0, width * height);
+    }
+    
+    @Override
+    public long stateHash() {
+        long hash = 0;
+        for (byte step : this.gather()) {
+            hash = FireflyCycleDetector.mix(hash, step);
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Method which tells every worker to stop and closes our channels to them
+     */
+    @Override
+    public void close() {
+        for (int w = 0; w < channels.length; w++) {
+            if (channels[w] == null) continue;
+            
+            try {
+                outs[w].writeByte(FireflyWorker.STOP);
+                outs[w].flush();
+            } catch (IOException e) {
+                // It has already gone
+            }
+            try {
+                channels[w].close();
+            } catch (IOException e) {
+                // Nothing more we can do
+            }
+        }
+    }
+    
+    /**
+     * Method which starts worker processes on this machine with the same Java
+     * and classpath we are running with, all joining us over loopback
+     * 
+     * @param workers Number of workers to start
+     * @param port Port we are listening on
+     * @return The worker processes
+     * @throws IOException If a process can't be started
+     */
+    public static List<Process> launch(int workers, int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        
+        List<Process> processes = new ArrayList<Process>();
+        for (int w = 0; w < workers; w++) {
+            processes.add(new ProcessBuilder(java, "-cp", classpath, FireflyWorker.class.getName(),
+                                             "localhost", Integer.toString(port)).inheritIO().start());
+        }
+        return processes;
+    }
+    
+    /**
+     * Main Class which runs a grid until it syncs across a number of worker
+     * processes and times it
+     * 
+     * @param args Number of workers, grid width, grid height, neighbourhood,
+     *             boundary, timestep limit, port, local to start the
+     *             workers on this machine or remote to wait for them to join,
+     *             and the seed of the grid
+     * @throws IOException If a worker goes away
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : FireflyInteraction.FIREFLY_ROWS;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : FireflyInteraction.FIREFLY_COLUMNS;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 3 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[3]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 4 ?
+            FireflyTopology.Boundary.valueOf(args[4]) : FireflyInteraction.FIREFLY_BOUNDARY;
+        int timestepLimit = args.length > 5 ? Integer.parseInt(args[5]) : FireflyTrialRunner.DEFAULT_TIMESTEP_LIMIT;
+        int port = args.length > 6 ? Integer.parseInt(args[6]) : DEFAULT_PORT;
+        boolean local = args.length <= 7 || args[7].equals("local");
+        long seed = args.length > 8 ? Long.parseLong(args[8]) : FireflyRandom.newSeed();
+        
+        // Start from the same random grid as a single process would
+        FireflyTopology topology = new FireflyTopology(width, height, neighbourhood, boundary, seed);
+        System.out.println("Seed: " + seed);
+        byte [] steps = new byte[width * height];
+        new FireflyArrayGrid(topology, seed).copySteps(steps);
+        
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            
+            // Port 0 picks a free port, so tell the workers the one we got
+            int bound = server.socket().getLocalPort();
+            List<Process> processes = local ? launch(workers, bound) : new ArrayList<Process>();
+            
+            long start = System.nanoTime();
+            try (FireflyCluster cluster = new FireflyCluster(server, workers, topology, steps)) {
+                boolean synced = cluster.stepUntilSynchronised(timestepLimit);
+                long elapsed = System.nanoTime() - start;
+                
+                System.out.println((synced ? "Synchronisation achieved in " : "No synchronisation after ")
+                                   + cluster.getTimesteps() + " timesteps on " + workers + " workers");
+                System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+            }
+            
+            for (Process process : processes) process.waitFor();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package firefly;
+
+/**
+ * Firefly Cycle Class which describes the clock every firefly runs at
+ * runtime, rather than using the constants in Firefly. A firefly always
+ * starts charging at step 0 and is reset back there if it sees a flash while
+ * charging. After the charging steps come the non sensitive ones, one of
+ * which is the step the firefly flashes on, and after the final step the
+ * firefly goes back round to 0
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyCycle {
+    
+    // The cycle from the constants in Firefly, which every engine runs
+    public static final FireflyCycle DEFAULT = new FireflyCycle(Firefly.FIREFLY_CHARGING_FINAL,
+                                                                Firefly.FIREFLY_FLASH_STEP,
+                                                                Firefly.FIREFLY_FINAL_STEP);
+    
+    // Last charging step, the step we flash on and the last step of all
+    private final int chargingFinal;
+    private final int flashStep;
+    private final int finalStep;
+    
+    /**
+     * Constructor Method which checks the steps make a sensible cycle. We
+     * keep steps in a byte, so the final step can be at most 127
+     * 
+     * @param chargingFinal Last step which can be reset by a flash
+     * @param flashStep Step the firefly flashes on, after the charging ones
+     * @param finalStep Last step before going back round to 0
+     */
+    public FireflyCycle(int chargingFinal, int flashStep, int finalStep) {
+        if (chargingFinal < Firefly.FIREFLY_CHARGING_START || chargingFinal >= flashStep
+            || flashStep > finalStep || finalStep > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Need 0 <= charging final < flash step <= final step <= 127, got "
+                                               + chargingFinal + ", " + flashStep + ", " + finalStep);
+        }
+        
+        this.chargingFinal = chargingFinal;
+        this.flashStep = flashStep;
+        this.finalStep = finalStep;
+    }
+    
+    /**
+     * Method which tells us if a step is in the charging part of the cycle
+     * 
+     * @param step Step of the Firefly
+     * @return True if the firefly is charging
+     */
+    public boolean isCharging(int step) {
+        return step >= Firefly.FIREFLY_CHARGING_START && step <= chargingFinal;
+    }
+    
+    /**
+     * Getter method to return the last charging step
+     * 
+     * @return Last step which can be reset by a flash
+     */
+    public int getChargingFinal() {
+        return this.chargingFinal;
+    }
+    
+    /**
+     * Getter method to return the first non sensitive step
+     * 
+     * @return First step which can't be reset by a flash
+     */
+    public int getNonSensitiveStart() {
+        return this.chargingFinal + 1;
+    }
+    
+    /**
+     * Getter method to return the step a firefly flashes on
+     * 
+     * @return Flash step
+     */
+    public int getFlashStep() {
+        return this.flashStep;
+    }
+    
+    /**
+     * Getter method to return the last step before going back round to 0
+     * 
+     * @return Final step
+     */
+    public int getFinalStep() {
+        return this.finalStep;
+    }
+    
+    /**
+     * Getter method to return how many steps there are in the cycle
+     * 
+     * @return Length of the cycle
+     */
+    public int getLength() {
+        return this.finalStep + 1;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FireflyCycle)) return false;
+        
+        FireflyCycle other = (FireflyCycle)o;
+        return chargingFinal == other.chargingFinal && flashStep == other.flashStep && finalStep == other.finalStep;
+    }
+    
+    @Override
+    public int hashCode() {
+        return (chargingFinal * 31 + flashStep) * 31 + finalStep;
+    }
+    
+    @Override
+    public String toString() {
+        return "charging=" + chargingFinal + " flash=" + flashStep + " final=" + finalStep;
+    }
+}
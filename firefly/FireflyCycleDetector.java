@@ -0,0 +1,200 @@
+package firefly;
+
+import java.util.Arrays;
+
+/**
+ * Firefly Cycle Detector Class which spots when a grid has fallen into a loop.
+ * Once seeded the automaton is completely deterministic, so if the whole grid
+ * ever comes back to a state it has been in before it will go round the same
+ * loop forever, and if it hasn't synchronised by then it never will
+ * 
+ * We use Brent's algorithm on a 64 bit hash of the grid, so we only keep one
+ * saved generation (the tortoise) and compare hashes each step. When the
+ * hashes match we compare the full generations as well, so a hash collision
+ * can never end a run early. Two independent hashes per timestep are also
+ * kept so we can work out when the loop was entered. Only the current and
+ * tortoise generations are ever held whole, so the entry is found from the
+ * hashes, and a generation only counts as a repeat when both of its hashes
+ * match, so a single collision can't make the loop look like it started early
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyCycleDetector {
+    
+    // Multiplier used when mixing values into a hash, and a seed which keeps
+    // the values of our second hash apart from anything hashed with it
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+    private static final long CHECK_SEED = 0xD6E8FEB86659FD93L;
+    
+    // The engine we are watching
+    private final FireflyEngine engine;
+    
+    // The tortoise generation, its hash, and a scratch array for the hare
+    private final byte [] tortoise;
+    private final byte [] hare;
+    private long tortoiseHash;
+    
+    // Brent's power of two and how far the hare is ahead of the tortoise
+    private int power = 1;
+    private int lambda = 1;
+    
+    // Both hashes of every generation we have seen, indexed by timestep
+    private long [] history = new long[64];
+    private long [] checks = new long[64];
+    private int start;
+    
+    // Once found, the length of the loop and the timestep it was entered
+    private int period = 0;
+    private int entered = -1;
+    
+    /**
+     * Constructor Method which saves the current generation of the engine as
+     * our starting tortoise
+     * 
+     * @param engine Engine to watch for loops
+     */
+    public FireflyCycleDetector(FireflyEngine engine) {
+        this.engine = engine;
+        this.tortoise = new byte[engine.getWidth() * engine.getHeight()];
+        this.hare = new byte[tortoise.length];
+        
+        this.start = engine.getTimesteps();
+        this.tortoiseHash = engine.stateHash();
+        engine.copySteps(tortoise);
+        this.record(start, tortoiseHash, engine.checkHash());
+    }
+    
+    /**
+     * Method which should be called after every step of the engine. It checks
+     * the new generation against the tortoise and moves the tortoise on to
+     * the hare every power of two steps
+     * 
+     * @return True if a loop has been found
+     */
+    public boolean observe() {
+        if (period > 0) return true;
+        
+        long hash = engine.stateHash();
+        this.record(engine.getTimesteps(), hash, engine.checkHash());
+        
+        // Only compare the full generations if the hashes match
+        if (hash == tortoiseHash) {
+            engine.copySteps(hare);
+            if (Arrays.equals(hare, tortoise)) {
+                this.period = lambda;
+                this.entered = this.findEntry();
+                return true;
+            }
+        }
+        
+        // Time to move the tortoise on and double the distance
+        if (power == lambda) {
+            engine.copySteps(tortoise);
+            tortoiseHash = hash;
+            power *= 2;
+            lambda = 0;
+        }
+        lambda++;
+        
+        return false;
+    }
+    
+    /**
+     * Method which remembers both hashes of a generation
+     * 
+     * @param timestep Timestep of the generation
+     * @param hash State hash of the generation
+     * @param check Second hash of the generation
+     */
+    private void record(int timestep, long hash, long check) {
+        int i = timestep - start;
+        if (i >= history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+            checks = Arrays.copyOf(checks, checks.length * 2);
+        }
+        history[i] = hash;
+        checks[i] = check;
+    }
+    
+    /**
+     * Method which works out when the loop was entered, which is the first
+     * generation that matches the one a whole period after it. Once a
+     * generation matches every later one does too, so we walk back from the
+     * tortoise, which we know matches, until both hashes stop agreeing. A
+     * collision in one hash alone can't stretch the loop back any further
+     * 
+     * @return Timestep the loop was entered
+     */
+    private int findEntry() {
+        int i = engine.getTimesteps() - start - period;
+        while (i > 0 && history[i - 1] == history[i - 1 + period] && checks[i - 1] == checks[i - 1 + period]) {
+            i--;
+        }
+        return start + i;
+    }
+    
+    /**
+     * Getter method to return the length of the loop
+     * 
+     * @return Period of the loop, or 0 if no loop has been found
+     */
+    public int getPeriod() {
+        return this.period;
+    }
+    
+    /**
+     * Getter method to return when the loop was entered
+     * 
+     * @return Timestep the loop was entered, or -1 if no loop has been found
+     */
+    public int getEntered() {
+        return this.entered;
+    }
+    
+    /**
+     * Method which mixes another value into a running hash
+     * 
+     * @param hash Hash so far
+     * @param value Value to mix in
+     * @return New hash
+     */
+    static long mix(long hash, long value) {
+        hash = (hash ^ value) * MIX;
+        return hash ^ (hash >>> 29);
+    }
+    
+    /**
+     * Method which returns the pseudo random value a firefly, or a word of
+     * packed fireflies, adds to our second hash for holding a value. Mixing
+     * in the index first means moving a value to another index changes it
+     * 
+     * @param i Index of the firefly or word
+     * @param value Step of the firefly or the whole word
+     * @return Value to add to the hash
+     */
+    static long checkValue(int i, long value) {
+        return finish(value + finish(i + CHECK_SEED));
+    }
+    
+    /**
+     * Method which finishes off a running hash so every bit of the result
+     * depends on every value mixed in
+     * 
+     * @param hash Hash so far
+     * @return Finished hash
+     */
+    static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,99 @@
+package firefly;
+
+/**
+ * Firefly Engine Interface which is implemented by anything that can step a
+ * grid of fireflies through time, so experiments can swap between the plain
+ * object grid and the faster engines without caring which one they have
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public interface FireflyEngine {
+    
+    /**
+     * Step method which moves every firefly on to its next step, with every
+     * firefly seeing the same previous generation
+     */
+    public void step();
+    
+    /**
+     * Method which checks if all of our fireflies are in sync
+     * 
+     * @return True if the grid is synchronised
+     */
+    public boolean isSynchronised();
+    
+    /**
+     * Getter method to return how many timesteps have elapsed
+     * 
+     * @return Number of timesteps elapsed
+     */
+    public int getTimesteps();
+    
+    /**
+     * Getter method to return how many fireflies wide our grid is
+     * 
+     * @return Number of fireflies along X
+     */
+    public int getWidth();
+    
+    /**
+     * Getter method to return how many fireflies high our grid is
+     * 
+     * @return Number of fireflies along Y
+     */
+    public int getHeight();
+    
+    /**
+     * Getter method to return the current step of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Current Step of that Firefly
+     */
+    public int getCurrentStep(int x, int y);
+    
+    /**
+     * Method which copies the current step of every firefly into an array,
+     * indexed by y * width + x
+     * 
+     * @param steps Array of at least width * height to copy into
+     */
+    public void copySteps(byte [] steps);
+    
+    /**
+     * Method which returns a 64 bit hash of the current step of every
+     * firefly. Equal grids always have equal hashes, but the hash is only
+     * comparable between grids stepped by the same kind of engine
+     * 
+     * @return Hash of the current generation
+     */
+    public long stateHash();
+    
+    /**
+     * Method which returns a second 64 bit hash of the current step of every
+     * firefly, worked out independently of stateHash, so two generations
+     * whose state hashes collide still almost certainly differ here. By
+     * default every firefly adds a pseudo random value for its index and step,
+     * and engines that keep stateHash up to date as they step should keep
+     * this one up to date too
+     * 
+     * @return Second hash of the current generation
+     */
+    public default long checkHash() {
+        int width = this.getWidth();
+        long hash = 0;
+        for (int y = 0; y < this.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                hash += FireflyCycleDetector.checkValue(y * width + x, this.getCurrentStep(x, y));
+            }
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+}
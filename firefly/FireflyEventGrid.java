@@ -0,0 +1,547 @@
+package firefly;
+
+import java.util.Arrays;
+
+/**
+ * Firefly Event Grid Class which steps the same automaton as our Firefly
+ * objects but only does any work when a firefly flashes. Between flashes every
+ * firefly just moves on by one, so instead of storing each firefly's step we
+ * store its phase, which is its step minus the timestep. A firefly's phase
+ * only changes when it is reset, and everyone with the same phase flashes at
+ * the same time
+ * 
+ * Fireflies are kept in a bucket for each of the ten phases, like a calendar
+ * queue over the cycle. Each timestep only the bucket that is flashing is
+ * looked at, and only the neighbours of those fireflies can be reset, so a
+ * timestep with nobody flashing costs nothing at all and the cost of a run is
+ * proportional to how many flashes there are rather than to the size of the
+ * grid. A reset firefly always ends up in the same phase as the fireflies
+ * that made it reset, which is why the grid synchronises
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyEventGrid implements FireflyEngine {
+    
+    // Length of the firefly cycle
+    private static final int CYCLE = Firefly.FIREFLY_FINAL_STEP + 1;
+    
+    // Prime modulus for our state hash and an element of order CYCLE, so that
+    // moving every firefly on by one multiplies the hash by OMEGA
+    static final long PRIME = (1L << 61) - 1;
+    static final long [] OMEGA = omegaPowers();
+    
+    // Size of our grid in fireflies
+    private final int width;
+    private final int height;
+    
+    // Size, neighbourhood and boundary of our grid, and its neighbour table
+    private final FireflyTopology topology;
+    private final int [] neighbours;
+    private final int stride;
+    
+    // How many orthogonal neighbours each firefly has and how many neighbours
+    // it has altogether
+    private final byte [] orthogonals;
+    private final byte [] neighbourCounts;
+    
+    // Phase of every firefly and where it is in its bucket
+    private final byte [] phases;
+    private final int [] positions;
+    
+    // Fireflies in each phase and how many phases have anyone in them
+    private final int [][] buckets = new int[CYCLE][];
+    private final int [] sizes = new int[CYCLE];
+    private int occupied = 0;
+    
+    // Fireflies being reset in the current timestep
+    private int [] pending = new int[64];
+    private boolean [] marked;
+    
+    // How many timesteps have elapsed, and the same modulo the cycle
+    private int timesteps = 0;
+    private int offset = 0;
+    
+    // Sum over fireflies of a per firefly value times OMEGA to their phase,
+    // and the same with a second value for our check hash
+    private long phaseSum = 0;
+    private long checkSum = 0;
+    
+    // Clusters of fireflies in sync, if anyone has asked us to track them
+    private FireflySyncClusters clusters;
+    
+    /**
+     * Constructor Method which creates an empty grid with every firefly at the
+     * starting step
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     */
+    private FireflyEventGrid(FireflyTopology topology) {
+        this.topology = topology;
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.neighbours = topology.getNeighbours();
+        this.stride = topology.getStride();
+        this.orthogonals = topology.getOrthogonals();
+        this.neighbourCounts = topology.getSizes();
+        
+        int cells = width * height;
+        this.phases = new byte[cells];
+        this.positions = new int[cells];
+        this.marked = new boolean[cells];
+        
+        // Everyone starts at step 0 in the bucket for phase 0
+        for (int c = 0; c < CYCLE; c++) buckets[c] = new int[16];
+        buckets[0] = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            buckets[0][i] = i;
+            positions[i] = i;
+            phaseSum = add(phaseSum, weight(i));
+            checkSum = add(checkSum, checkWeight(i));
+        }
+        sizes[0] = cells;
+        occupied = 1;
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does, on a grid with
+     * open edges
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyEventGrid(int width, int height, FireflyInteraction.Neighbourhood neighbourhood, boolean random) {
+        this(new FireflyTopology(width, height, neighbourhood, FireflyTopology.Boundary.OPEN), random);
+    }
+    
+    /**
+     * Constructor Method which creates a grid with a random starting step for
+     * each firefly, in the same way as our FireflyGrid does
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyEventGrid(FireflyTopology topology, boolean random) {
+        this(topology);
+        
+        if (random) {
+            this.randomise(FireflyRandom.newSeed());
+        }
+    }
+    
+    /**
+     * Constructor Method which creates a grid with the starting step of each
+     * firefly picked from a seed, so the same seed always gives the same grid
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyEventGrid(FireflyTopology topology, long seed) {
+        this(topology);
+        this.randomise(seed);
+    }
+    
+    /**
+     * Method which picks the starting step of every firefly from a seed
+     * 
+     * @param seed Seed to pick the starting steps from
+     */
+    private void randomise(long seed) {
+        byte [] steps = FireflyRandom.steps(phases.length, seed, Firefly.FIREFLY_FINAL_STEP);
+        
+        // Set the state randomly to start
+        for (int i = 0; i < steps.length; i++) {
+            this.setStep(i, steps[i]);
+        }
+    }
+    
+    /**
+     * Constructor Method which copies the current steps out of an existing
+     * object grid and shares its topology, so both can be stepped side by side
+     * 
+     * @param grid Grid of Firefly objects to copy
+     */
+    public FireflyEventGrid(FireflyGrid grid) {
+        this(grid.getTopology());
+        
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                this.setStep(y * width + x, grid.getCurrentStep(x, y));
+            }
+        }
+    }
+    
+    /**
+     * Step method which moves on one timestep. If nobody is flashing this is
+     * just a counter increment, otherwise only the neighbours of the flashing
+     * fireflies are looked at
+     */
+    @Override
+    public void step() {
+        int flashing = this.phaseOf(Firefly.FIREFLY_FLASH_STEP);
+        int count = 0;
+        
+        // Find every charging firefly that can see one of the flashers. We
+        // mark them rather than moving them straight away so they don't look
+        // like they are flashing themselves
+        int [] bucket = buckets[flashing];
+        for (int b = 0; b < sizes[flashing]; b++) {
+            int f = bucket[b];
+            int base = f * stride;
+            
+            for (int k = 0; k < neighbourCounts[f]; k++) {
+                int n = neighbours[base + k];
+                if (marked[n]) continue;
+                
+                // Diagonal flashes are only seen with a Moore neighbourhood
+                if (k >= orthogonals[f] && !topology.isMoore(n)) continue;
+                
+                int step = this.stepOf(n);
+                if (step >= Firefly.FIREFLY_CHARGING_START && step <= Firefly.FIREFLY_CHARGING_FINAL) {
+                    if (count == pending.length) pending = Arrays.copyOf(pending, count * 2);
+                    pending[count++] = n;
+                    marked[n] = true;
+                }
+            }
+        }
+        
+        // Increment our timestep counter, everyone else moves on by one
+        this.timesteps++;
+        this.offset = (offset + 1) % CYCLE;
+        
+        // Now move the reset fireflies back to the start of charging
+        int reset = this.phaseOf(Firefly.FIREFLY_CHARGING_START);
+        for (int p = 0; p < count; p++) {
+            marked[pending[p]] = false;
+            this.move(pending[p], reset);
+        }
+        
+        // Only the reset fireflies can change who is in sync with who
+        if (clusters != null) clusters.update(pending, count);
+    }
+    
+    /**
+     * Method which jumps straight to a timestep, skipping over every timestep
+     * where nobody flashes without looking at them
+     * 
+     * @param timestep Timestep to step to
+     */
+    public void stepTo(int timestep) {
+        while (timesteps < timestep) {
+            int skip = Math.min(this.ticksToNextFlash(), timestep - timesteps);
+            this.skip(skip);
+            
+            if (timesteps < timestep) this.step();
+        }
+    }
+    
+    /**
+     * Method which keeps stepping until the grid synchronises or we hit the
+     * timestep limit, jumping over every timestep where nobody flashes. We
+     * only stop on a timestep where stepping one at a time would have stopped
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return True if the grid synchronised
+     */
+    public boolean stepUntilSynchronised(int timestepLimit) {
+        int limit = timestepLimit > 0 ? timestepLimit : Integer.MAX_VALUE;
+        if (timesteps >= limit) return this.isSynchronised();
+        
+        // Nothing can change without a flash, so if we are already in sync
+        // the first timestep is the one it is seen on
+        if (this.isSynchronised()) {
+            this.step();
+            return true;
+        }
+        
+        while (timesteps < limit) {
+            // Sync can only change on a timestep with a flash in it
+            int skip = Math.min(this.ticksToNextFlash(), limit - timesteps);
+            this.skip(skip);
+            if (timesteps >= limit) break;
+            
+            this.step();
+            if (this.isSynchronised()) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Method which works out how many timesteps there are until the next one
+     * where somebody flashes
+     * 
+     * @return Number of timesteps we can skip, at most one less than the cycle
+     */
+    private int ticksToNextFlash() {
+        for (int skip = 0; skip < CYCLE; skip++) {
+            int flashing = ((Firefly.FIREFLY_FLASH_STEP - offset - skip) % CYCLE + CYCLE) % CYCLE;
+            if (sizes[flashing] > 0) return skip;
+        }
+        return CYCLE;
+    }
+    
+    /**
+     * Method which moves the timestep on without anyone flashing
+     * 
+     * @param skip Number of timesteps to skip
+     */
+    private void skip(int skip) {
+        this.timesteps += skip;
+        this.offset = (offset + skip) % CYCLE;
+    }
+    
+    /**
+     * Method which returns the phase a firefly on a given step has right now
+     * 
+     * @param step Step of the firefly
+     * @return Phase of the firefly
+     */
+    private int phaseOf(int step) {
+        return ((step - offset) % CYCLE + CYCLE) % CYCLE;
+    }
+    
+    /**
+     * Method which returns the current step of a firefly from its phase
+     * 
+     * @param i Index of the firefly
+     * @return Current step of the firefly
+     */
+    private int stepOf(int i) {
+        return (phases[i] + offset) % CYCLE;
+    }
+    
+    /**
+     * Method which moves a firefly into the bucket for another phase
+     * 
+     * @param i Index of the firefly
+     * @param phase New phase of the firefly
+     */
+    private void move(int i, int phase) {
+        int old = phases[i];
+        if (old == phase) return;
+        
+        // Take us out of our old bucket by moving the last one into our place
+        int last = buckets[old][--sizes[old]];
+        buckets[old][positions[i]] = last;
+        positions[last] = positions[i];
+        if (sizes[old] == 0) occupied--;
+        
+        // And put us on the end of the new one, growing it if we need to
+        if (sizes[phase] == buckets[phase].length) {
+            buckets[phase] = Arrays.copyOf(buckets[phase], Math.min(buckets[phase].length * 2, phases.length));
+        }
+        if (sizes[phase] == 0) occupied++;
+        positions[i] = sizes[phase];
+        buckets[phase][sizes[phase]++] = i;
+        phases[i] = (byte)phase;
+        
+        // Keep our hashes up to date
+        long w = weight(i);
+        phaseSum = add(phaseSum, PRIME - multiply(w, OMEGA[old]));
+        phaseSum = add(phaseSum, multiply(w, OMEGA[phase]));
+        w = checkWeight(i);
+        checkSum = add(checkSum, PRIME - multiply(w, OMEGA[old]));
+        checkSum = add(checkSum, multiply(w, OMEGA[phase]));
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with all of it's
+     * neighbours. Every firefly can see the ones North, South, East and West
+     * of it, so this is the same as everyone being in the one phase
+     * 
+     * @return True if the grid is synchronised
+     */
+    @Override
+    public boolean isSynchronised() {
+        return occupied == 1;
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly
+     * 
+     * @param i Index of the firefly
+     * @param step New step of the Firefly
+     */
+    private void setStep(int i, int step) {
+        if (step < Firefly.FIREFLY_START_STEP || step > Firefly.FIREFLY_FINAL_STEP) {
+            throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+        }
+        
+        this.move(i, this.phaseOf(step));
+        if (clusters != null) clusters.invalidate();
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @param step New step of the Firefly
+     */
+    public void setCurrentStep(int x, int y, int step) {
+        this.setStep(y * width + x, step);
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return this.stepOf(y * width + x);
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        for (int i = 0; i < phases.length; i++) {
+            steps[i] = (byte)this.stepOf(i);
+        }
+    }
+    
+    /**
+     * Method which returns a hash of every firefly's step without looking at
+     * them. The hash is the sum of a per firefly value times OMEGA to the
+     * power of its step, and as OMEGA to the power of the cycle is 1 this is
+     * just OMEGA to the power of the offset times our sum over the phases
+     * 
+     * @return Hash of the current generation
+     */
+    @Override
+    public long stateHash() {
+        return FireflyCycleDetector.finish(multiply(phaseSum, OMEGA[offset]));
+    }
+    
+    /**
+     * Method which returns our second hash without looking at any fireflies,
+     * in the same way as stateHash but from a second set of values
+     * 
+     * @return Second hash of the current generation
+     */
+    @Override
+    public long checkHash() {
+        return FireflyCycleDetector.finish(multiply(checkSum, OMEGA[offset]));
+    }
+    
+    /**
+     * Method which starts keeping track of the clusters of fireflies in sync
+     * with each other as we step, which only costs anything for the fireflies
+     * that are reset
+     * 
+     * @return Clusters of our grid, kept up to date from now on
+     */
+    public FireflySyncClusters trackClusters() {
+        if (clusters == null) clusters = new FireflySyncClusters(topology, phases);
+        return clusters;
+    }
+    
+    /**
+     * Getter method to return the size, neighbourhood and boundary of our grid
+     * 
+     * @return Topology of our grid
+     */
+    public FireflyTopology getTopology() {
+        return this.topology;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Method which returns the pseudo random value each firefly contributes to
+     * our hash, which is between 1 and PRIME - 1
+     * 
+     * @param i Index of the firefly
+     * @return Value of the firefly
+     */
+    static long weight(int i) {
+        long z = FireflyCycleDetector.finish(i + 0x9E3779B97F4A7C15L) & PRIME;
+        return z == 0 || z == PRIME ? 1 : z;
+    }
+    
+    /**
+     * Method which returns the value each firefly contributes to our check
+     * hash, picked independently of its weight and between 1 and PRIME - 1
+     * 
+     * @param i Index of the firefly
+     * @return Value of the firefly
+     */
+    static long checkWeight(int i) {
+        long z = FireflyCycleDetector.checkValue(i, 0) & PRIME;
+        return z == 0 || z == PRIME ? 1 : z;
+    }
+    
+    /**
+     * Method which adds two numbers modulo our prime
+     * 
+     * @param a First number, less than PRIME
+     * @param b Second number, less than PRIME
+     * @return Sum modulo PRIME
+     */
+    static long add(long a, long b) {
+        long sum = a + b;
+        return sum >= PRIME ? sum - PRIME : sum;
+    }
+    
+    /**
+     * Method which multiplies two numbers modulo our Mersenne prime
+     * 
+     * @param a First number, less than PRIME
+     * @param b Second number, less than PRIME
+     * @return Product modulo PRIME
+     */
+    static long multiply(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        
+        // The product is high * 2^64 + low, and 2^61 is 1 modulo PRIME
+        long result = (low & PRIME) + (low >>> 61) + (high << 3);
+        result = (result & PRIME) + (result >>> 61);
+        return result >= PRIME ? result - PRIME : result;
+    }
+    
+    /**
+     * Method which finds an element of order CYCLE modulo our prime and
+     * returns its powers, by raising small numbers to (PRIME - 1) / CYCLE
+     * until one doesn't have a smaller order
+     * 
+     * @return Powers 0 to CYCLE - 1 of our element
+     */
+    private static long [] omegaPowers() {
+        for (long base = 2; ; base++) {
+            // Raise base to (PRIME - 1) / CYCLE by squaring
+            long omega = 1, square = base;
+            for (long e = (PRIME - 1) / CYCLE; e > 0; e >>= 1) {
+                if ((e & 1) != 0) omega = multiply(omega, square);
+                square = multiply(square, square);
+            }
+            
+            long [] powers = new long[CYCLE];
+            powers[0] = 1;
+            boolean exact = true;
+            for (int k = 1; k < CYCLE; k++) {
+                powers[k] = multiply(powers[k - 1], omega);
+                if (powers[k] == 1) exact = false;
+            }
+            
+            if (exact) return powers;
+        }
+    }
+}
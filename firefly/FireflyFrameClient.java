@@ -0,0 +1,393 @@
+package firefly;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Firefly Frame Client Class which connects to a FireflyFrameServer to list
+ * its simulations or watch one. Watching decodes every frame onto the steps
+ * of the frame before, just like FireflyTimelineReader, so after each frame
+ * we hold the whole generation the server sent. Each frame is answered as
+ * soon as it is decoded, so a viewer that spends a while on each frame is
+ * sent the newest frame next rather than the ones it missed
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyFrameClient implements Closeable {
+    
+    // Our connection to the server
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    
+    // Size of the grid we are watching in fireflies and in packed bytes
+    private int width;
+    private int height;
+    private int packedLength;
+    private boolean odd;
+    
+    // Packed steps of the last frame, and the encoded bytes of the next
+    private byte [] packed;
+    private byte [] encoded = new byte[0];
+    
+    // Timestep and flags of the last frame, -1 until we have one
+    private int timestep = -1;
+    private int flags = 0;
+    
+    // How many frames and keyframes we've had and how many bytes they took
+    private long frames = 0;
+    private long keyframes = 0;
+    private long bytes = 0;
+    
+    /**
+     * Constructor Method which connects to a server
+     * 
+     * @param host Host the server is on
+     * @param port Port the server listens on
+     * @throws IOException If we can't connect
+     */
+    public FireflyFrameClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+    }
+    
+    /**
+     * Method which asks for the line describing every simulation
+     * 
+     * @return Line for each simulation
+     * @throws IOException If the server goes away
+     */
+    public List<String> list() throws IOException {
+        this.send("LIST");
+        
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while (!(line = this.readLine()).isEmpty()) lines.add(line);
+        return lines;
+    }
+    
+    /**
+     * Method which asks for the line describing a simulation
+     * 
+     * @param name Name of the simulation
+     * @return Line for the simulation
+     * @throws IOException If the server goes away or has no such simulation
+     */
+    public String info(String name) throws IOException {
+        this.send("INFO " + name);
+        return this.expect(this.readLine());
+    }
+    
+    /**
+     * Method which starts watching a simulation. Nothing else can be asked
+     * of the server on this connection afterwards
+     * 
+     * @param name Name of the simulation
+     * @throws IOException If the server goes away or has no such simulation
+     */
+    public void watch(String name) throws IOException {
+        this.send("WATCH " + name);
+        String [] words = this.expect(this.readLine()).split(" ");
+        
+        this.width = Integer.parseInt(words[1]);
+        this.height = Integer.parseInt(words[2]);
+        this.packedLength = (width * height + 1) / 2;
+        this.odd = (width * height & 1) != 0;
+        this.packed = new byte[packedLength];
+    }
+    
+    /**
+     * Method which reads the next frame and decodes it onto the last one
+     * 
+     * @return False if the stream has ended
+     * @throws IOException If the server goes away or the frame is corrupt
+     */
+    public boolean readFrame() throws IOException {
+        if (packed == null) {
+            throw new IllegalStateException("Not watching anything");
+        }
+        
+        int next;
+        try {
+            next = in.readUnsignedByte();
+        } catch (EOFException e) {
+            return false;
+        }
+        int frameTimestep = in.readInt();
+        int length = in.readInt();
+        if (encoded.length < length) encoded = new byte[length];
+        in.readFully(encoded, 0, length);
+        
+        // A keyframe replaces our steps and anything else is XORed onto them
+        // once they have been moved on
+        boolean keyframe = (next & FireflyTimelineWriter.FLAG_KEYFRAME) != 0;
+        if (!keyframe) {
+            if (timestep < 0) throw new IOException("Frame against nothing before a keyframe");
+            FireflyTimelineWriter.advance(packed, packed, packedLength, frameTimestep - timestep, odd);
+        }
+        FireflyTimelineReader.apply(ByteBuffer.wrap(encoded, 0, length), packed, packedLength, keyframe);
+        
+        // Tell the server we are ready for another, unless this is the last
+        if ((next & FireflyFrameServer.FLAG_FINISHED) == 0) {
+            out.write('\n');
+            out.flush();
+        }
+        
+        this.flags = next;
+        this.timestep = frameTimestep;
+        frames++;
+        if (keyframe) keyframes++;
+        bytes += FireflyTimelineWriter.FRAME_HEADER_SIZE + length;
+        return true;
+    }
+    
+    /**
+     * Method which copies out the steps of the last frame
+     * 
+     * @param steps Array to put the steps in, indexed by y * width + x
+     */
+    public void copySteps(byte [] steps) {
+        FireflyTimelineReader.unpack(packed, steps, width * height);
+    }
+    
+    /**
+     * Method which sends a line to the server
+     * 
+     * @param line Line to send, without its newline
+     * @throws IOException If the server goes away
+     */
+    private void send(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+    
+    /**
+     * Method which reads a line from the server
+     * 
+     * @return Line read, without its newline
+     * @throws IOException If the server goes away
+     */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) throw new EOFException("Server hung up");
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Method which turns an error from the server into an exception
+     * 
+     * @param line Line from the server
+     * @return The same line if it isn't an error
+     * @throws IOException If it is an error
+     */
+    private String expect(String line) throws IOException {
+        if (line.startsWith("ERROR")) throw new IOException(line.substring(Math.min(6, line.length())));
+        return line;
+    }
+    
+    /**
+     * Getter method to return how many fireflies wide the grid is
+     * 
+     * @return Number of fireflies along X
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Getter method to return how many fireflies high the grid is
+     * 
+     * @return Number of fireflies along Y
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Getter method to return the timestep of the last frame
+     * 
+     * @return Timestep, -1 before the first frame
+     */
+    public int getTimestep() {
+        return this.timestep;
+    }
+    
+    /**
+     * Getter method to return whether the last frame was a keyframe
+     * 
+     * @return True if it was sent whole
+     */
+    public boolean isKeyframe() {
+        return (flags & FireflyTimelineWriter.FLAG_KEYFRAME) != 0;
+    }
+    
+    /**
+     * Getter method to return whether the simulation had synchronised by the
+     * last frame
+     * 
+     * @return True if synchronisation was achieved
+     */
+    public boolean isSynchronised() {
+        return (flags & FireflyTimelineWriter.FLAG_SYNCHRONISED) != 0;
+    }
+    
+    /**
+     * Getter method to return whether the last frame was the last there will
+     * be, as the simulation has stopped
+     * 
+     * @return True if the simulation has finished
+     */
+    public boolean isFinished() {
+        return (flags & FireflyFrameServer.FLAG_FINISHED) != 0;
+    }
+    
+    /**
+     * Getter method to return how many frames we have read
+     * 
+     * @return Number of frames
+     */
+    public long getFrames() {
+        return this.frames;
+    }
+    
+    /**
+     * Getter method to return how many of our frames were keyframes
+     * 
+     * @return Number of keyframes
+     */
+    public long getKeyframes() {
+        return this.keyframes;
+    }
+    
+    /**
+     * Getter method to return how many bytes our frames took
+     * 
+     * @return Number of bytes
+     */
+    public long getBytes() {
+        return this.bytes;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+    
+    /**
+     * Main Class which watches a simulation with a number of viewers for a
+     * while, and prints how fast the simulation ran and what each viewer got
+     * 
+     * @param args Host, port, simulation name, number of viewers, seconds to
+     *             watch for and how long each viewer dawdles over a frame in
+     *             milliseconds, to act like a slow viewer
+     * @throws IOException If we can't talk to the server
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String host = args.length > 0 ? args[0] : "localhost";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : FireflyFrameServer.DEFAULT_PORT;
+        final int viewers = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final long seconds = args.length > 4 ? Long.parseLong(args[4]) : 10;
+        final long dawdle = args.length > 5 ? Long.parseLong(args[5]) : 0;
+        
+        // Watch the first simulation if we weren't told which
+        String first;
+        try (FireflyFrameClient control = new FireflyFrameClient(host, port)) {
+            first = args.length > 2 ? args[2] : control.list().get(0).split(" ")[0];
+        }
+        final String name = first;
+        
+        final long end = System.nanoTime() + seconds * 1000000000L;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, viewers));
+        List<Future<FireflyFrameClient>> futures = new ArrayList<Future<FireflyFrameClient>>();
+        
+        long start;
+        String before, after;
+        try (FireflyFrameClient control = new FireflyFrameClient(host, port)) {
+            before = control.info(name);
+            start = System.nanoTime();
+            
+            for (int v = 0; v < viewers; v++) {
+                futures.add(executor.submit(new Callable<FireflyFrameClient>() {
+                    @Override
+                    public FireflyFrameClient call() throws IOException, InterruptedException {
+                        try (FireflyFrameClient viewer = new FireflyFrameClient(host, port)) {
+                            viewer.watch(name);
+                            while (System.nanoTime() < end && viewer.readFrame() && !viewer.isFinished()) {
+                                if (dawdle > 0) Thread.sleep(dawdle);
+                            }
+                            return viewer;
+                        }
+                    }
+                }));
+            }
+            
+            // Wait for every viewer to finish watching, and for the time to
+            // be up even if nobody is watching
+            for (Future<FireflyFrameClient> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Viewer failed", e.getCause());
+                }
+            }
+            long left = end - System.nanoTime();
+            if (left > 0) Thread.sleep(left / 1000000);
+            after = control.info(name);
+        } finally {
+            executor.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        // Timesteps are the fourth word of the line
+        int steps = Integer.parseInt(after.split(" ")[3]) - Integer.parseInt(before.split(" ")[3]);
+        FireflyRunningStats frames = new FireflyRunningStats();
+        FireflyRunningStats keyframes = new FireflyRunningStats();
+        FireflyRunningStats bytes = new FireflyRunningStats();
+        for (Future<FireflyFrameClient> future : futures) {
+            try {
+                FireflyFrameClient viewer = future.get();
+                frames.add(viewer.getFrames());
+                keyframes.add(viewer.getKeyframes());
+                bytes.add(viewer.getBytes());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Viewer failed", e.getCause());
+            }
+        }
+        
+        System.out.println("Watched " + name + " with " + viewers + " viewers for " + (elapsed / 1000000) + " ms");
+        System.out.println("Timesteps per Second: " + (long)(steps * 1e9 / elapsed));
+        System.out.println("Frames per Viewer: " + frames);
+        System.out.println("Keyframes per Viewer: " + keyframes);
+        System.out.println("Bytes per Viewer: " + bytes);
+        System.out.println("Server: " + after);
+    }
+}
@@ -0,0 +1,633 @@
+package firefly;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Firefly Frame Server Class which hosts any number of simulations on a
+ * headless box and streams them to as many viewers as want to watch. Each
+ * simulation steps on its own thread inside a FireflySimulation, and a pump
+ * thread takes a frame from it a set number of times a second, so however
+ * many people are watching the simulation only ever copies its steps out once
+ * per frame and never waits on anybody
+ * 
+ * Frames go out in the same format as a FireflyTimelineWriter frame. The pump
+ * packs each one and encodes it once as the XOR against the frame before moved
+ * on to its timestep, which is zero apart from the fireflies that were reset
+ * and run length encodes down to the runs of changed fireflies, and every
+ * viewer that saw the frame before is sent those same bytes. Anyone who joins
+ * late, or is too slow and misses frames, skips straight to the newest frame
+ * as a keyframe instead, which is encoded at most once per frame however many
+ * viewers need it, so a slow viewer drops frames rather than holding anyone up
+ * 
+ * Each connection gets a thread of its own, which is a virtual thread on any
+ * Java that has them, and talks in lines of text. LIST gives a line for each
+ * simulation, with its name, width, height, timestep, whether it has synced,
+ * its viewers and how many frames went out as deltas, went out as keyframes
+ * and were dropped, ending with an empty line. INFO name gives the line for
+ * one, and WATCH name answers OK with the width and height and then streams
+ * frames until the simulation finishes or the viewer hangs up. Anything wrong
+ * is answered with ERROR. FireflyFrameClient does all of this
+ * 
+ * A viewer answers every frame with a newline once it has dealt with it, and
+ * is never more than two frames behind. Without this, socket buffers would
+ * soak up hundreds of frames for a slow viewer, which it would then watch long
+ * after they happened, rather than skipping to the newest
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyFrameServer implements Closeable {
+    
+    // Port we listen on and frames a second we send unless told otherwise
+    public static final int DEFAULT_PORT = 5160;
+    public static final int DEFAULT_FRAME_RATE = 30;
+    
+    // Flag on the last frame of a simulation that has stopped stepping
+    static final int FLAG_FINISHED = 4;
+    
+    // Most frames a viewer can have that it hasn't answered yet
+    static final int WINDOW = 2;
+    
+    /**
+     * Frame Class which is one frame taken by a pump, packed and encoded once
+     * for every viewer
+     */
+    private static final class Frame {
+        
+        // Where the frame comes in the stream, its timestep and its flags
+        private final long sequence;
+        private final int timestep;
+        private final int flags;
+        
+        // Packed steps, and the whole message against the frame before
+        private final byte [] packed;
+        private final byte [] delta;
+        
+        // Whole message as a keyframe, made when someone first needs it
+        private byte [] keyframe;
+        
+        /**
+         * Constructor Method which stores an encoded frame
+         * 
+         * @param sequence Where the frame comes in the stream
+         * @param timestep Timestep of the frame
+         * @param flags Flags of the frame, without the keyframe flag
+         * @param packed Packed steps of the frame
+         * @param delta Message against the frame before, or null for the first
+         */
+        private Frame(long sequence, int timestep, int flags, byte [] packed, byte [] delta) {
+            this.sequence = sequence;
+            this.timestep = timestep;
+            this.flags = flags;
+            this.packed = packed;
+            this.delta = delta;
+        }
+        
+        /**
+         * Method which returns the frame as a keyframe message, encoding it
+         * the first time anyone asks
+         * 
+         * @return Keyframe message
+         */
+        private synchronized byte [] getKeyframe() {
+            if (keyframe == null) {
+                keyframe = message(flags | FireflyTimelineWriter.FLAG_KEYFRAME, timestep, packed, packed.length);
+            }
+            return keyframe;
+        }
+    }
+    
+    /**
+     * Broadcast Class which is one simulation we host, along with the pump
+     * that takes frames from it and hands them to its viewers
+     */
+    private final class Broadcast implements Runnable {
+        
+        // Name and simulation, and how big its packed frames are
+        private final String name;
+        private final FireflySimulation simulation;
+        private final int width;
+        private final int height;
+        private final int packedLength;
+        private final boolean odd;
+        private Thread pump;
+        
+        // Newest frame, which viewers wait on
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        private volatile Frame latest;
+        
+        // Packed frame before, and space to predict this one from it
+        private byte [] previous;
+        private final byte [] predicted;
+        private final byte [] delta;
+        
+        // How many are watching, and how many frames they were sent whole,
+        // against the frame before or skipped
+        private final AtomicInteger viewers = new AtomicInteger();
+        private final AtomicLong deltas = new AtomicLong();
+        private final AtomicLong keyframes = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        
+        /**
+         * Constructor Method which sets up the frame buffers for a simulation
+         * 
+         * @param name Name viewers ask for it by
+         * @param simulation Simulation to broadcast
+         */
+        private Broadcast(String name, FireflySimulation simulation) {
+            this.name = name;
+            this.simulation = simulation;
+            this.width = simulation.getEngine().getWidth();
+            this.height = simulation.getEngine().getHeight();
+            
+            int cells = width * height;
+            this.packedLength = (cells + 1) / 2;
+            this.odd = (cells & 1) != 0;
+            this.predicted = new byte[packedLength];
+            this.delta = new byte[packedLength];
+        }
+        
+        /**
+         * Run method which takes a frame from the simulation every frame
+         * period and publishes it if the simulation has moved on, until the
+         * simulation finishes or we are closed
+         */
+        @Override
+        public void run() {
+            long deadline = System.nanoTime();
+            int last = -1;
+            
+            while (!closed) {
+                // Only the frame taken after the simulation has stopped and
+                // caught up is the last one
+                boolean stopped = !simulation.isRunning();
+                byte [] steps = simulation.takeFrame();
+                int timestep = simulation.getFrameTimesteps();
+                boolean finished = stopped && timestep == simulation.getTimesteps();
+                
+                if (timestep != last || finished) {
+                    this.publish(steps, timestep, finished);
+                    last = timestep;
+                }
+                if (finished) return;
+                
+                // Wait for our next frame without trying to catch up
+                deadline = Math.max(deadline + frameNanos, System.nanoTime());
+                LockSupport.parkNanos(deadline - System.nanoTime());
+            }
+        }
+        
+        /**
+         * Method which packs and encodes a frame and wakes every viewer
+         * 
+         * @param steps Steps of the frame
+         * @param timestep Timestep of the frame
+         * @param finished Whether it is the last frame
+         */
+        private void publish(byte [] steps, int timestep, boolean finished) {
+            byte [] packed = new byte[packedLength];
+            FireflyTimelineWriter.pack(steps, packed);
+            
+            int flags = (simulation.isSynced() ? FireflyTimelineWriter.FLAG_SYNCHRONISED : 0)
+                        | (finished ? FLAG_FINISHED : 0);
+            Frame before = latest;
+            byte [] message = null;
+            if (before != null) {
+                FireflyTimelineWriter.advance(previous, predicted, packedLength, timestep - before.timestep, odd);
+                FireflyTimelineWriter.difference(packed, predicted, delta, packedLength);
+                message = message(flags, timestep, delta, packedLength);
+            }
+            previous = packed;
+            
+            lock.lock();
+            try {
+                latest = new Frame(before != null ? before.sequence + 1 : 0, timestep, flags, packed, message);
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Method which waits for a frame newer than the one a viewer was last
+         * sent
+         * 
+         * @param sent Sequence of the frame last sent, -1 if none yet
+         * @return Newest frame, or null if we have been closed
+         * @throws InterruptedException If we are interrupted while waiting
+         */
+        private Frame next(long sent) throws InterruptedException {
+            Frame frame = latest;
+            if (frame != null && frame.sequence > sent) return frame;
+            
+            lock.lock();
+            try {
+                while (!closed && ((frame = latest) == null || frame.sequence <= sent)) {
+                    published.await();
+                }
+                return closed ? null : frame;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Method which wakes every viewer so they see we have closed
+         */
+        private void wake() {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return name + " " + width + " " + height + " " + simulation.getTimesteps() + " " + simulation.isSynced()
+                   + " " + viewers.get() + " " + deltas.get() + " " + keyframes.get() + " " + dropped.get();
+        }
+    }
+    
+    // Where we listen for viewers and the threads their connections run on
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final boolean virtual;
+    private final Thread acceptor;
+    
+    // Every simulation we host by name, and every open connection
+    private final Map<String, Broadcast> broadcasts = new ConcurrentSkipListMap<String, Broadcast>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    
+    // How long between frames, and have we been closed
+    private final long frameNanos;
+    private volatile boolean closed = false;
+    
+    /**
+     * Constructor Method which starts listening on a port
+     * 
+     * @param port Port to listen on, 0 for any free port
+     * @param frameRate Frames a second sent to each viewer at most
+     * @throws IOException If we can't listen on the port
+     */
+    public FireflyFrameServer(int port, int frameRate) throws IOException {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Need at least one frame a second");
+        }
+        
+        this.frameNanos = 1000000000L / frameRate;
+        this.server = new ServerSocket();
+        this.server.bind(new InetSocketAddress(port));
+        
+        // One virtual thread per connection if we have them, otherwise a
+        // thread that goes away once its connection closes
+        ExecutorService executor;
+        boolean found;
+        try {
+            executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            found = true;
+        } catch (ReflectiveOperationException e) {
+            executor = Executors.newCachedThreadPool(daemon("firefly-viewer"));
+            found = false;
+        }
+        this.connections = executor;
+        this.virtual = found;
+        
+        this.acceptor = daemon("firefly-frame-server").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        this.acceptor.start();
+    }
+    
+    /**
+     * Method which returns a thread factory making named daemon threads, so
+     * a server never keeps a finished run alive
+     * 
+     * @param name Name of the threads
+     * @return Thread factory
+     */
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    /**
+     * Method which starts a simulation, if it isn't already, and lets viewers
+     * watch it
+     * 
+     * @param name Name viewers ask for it by, without any spaces
+     * @param simulation Simulation to host
+     */
+    public void host(String name, FireflySimulation simulation) {
+        if (name.isEmpty() || name.matches(".*\\s.*")) {
+            throw new IllegalArgumentException("Simulation names can't be empty or have spaces: " + name);
+        }
+        
+        Broadcast broadcast = new Broadcast(name, simulation);
+        if (broadcasts.putIfAbsent(name, broadcast) != null) {
+            throw new IllegalArgumentException("Already hosting a simulation called " + name);
+        }
+        
+        simulation.start();
+        broadcast.pump = daemon("firefly-pump-" + name).newThread(broadcast);
+        broadcast.pump.start();
+    }
+    
+    /**
+     * Method which accepts connections until we are closed, handing each to
+     * a thread of its own
+     */
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed) System.err.println("Couldn't accept a viewer: " + e);
+            }
+        }
+    }
+    
+    /**
+     * Method which answers the commands on a connection until it asks to
+     * watch something or hangs up
+     * 
+     * @param socket Connection to serve
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            
+            String line;
+            while ((line = in.readLine()) != null) {
+                String [] words = line.trim().split("\\s+");
+                String command = words[0].toUpperCase();
+                Broadcast broadcast = words.length > 1 ? broadcasts.get(words[1]) : null;
+                
+                if (command.equals("LIST")) {
+                    for (Broadcast b : broadcasts.values()) writeLine(out, b.toString());
+                    writeLine(out, "");
+                } else if (!command.equals("INFO") && !command.equals("WATCH")) {
+                    writeLine(out, "ERROR Unknown command " + words[0]);
+                } else if (broadcast == null) {
+                    writeLine(out, "ERROR No simulation called " + (words.length > 1 ? words[1] : ""));
+                } else if (command.equals("INFO")) {
+                    writeLine(out, broadcast.toString());
+                } else {
+                    writeLine(out, "OK " + broadcast.width + " " + broadcast.height);
+                    this.watch(broadcast, in, out);
+                    return;
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // The viewer hung up, or we closed
+        } catch (IOException e) {
+            if (!closed) System.err.println("Lost a viewer: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+    
+    /**
+     * Method which streams frames to a viewer. A viewer that saw the frame
+     * before gets the shared delta and anyone else the newest keyframe, and
+     * only this viewer's thread ever waits on its socket or its answers
+     * 
+     * @param broadcast Simulation being watched
+     * @param in Answers from the viewer
+     * @param out Stream to the viewer
+     * @throws IOException If the viewer goes away
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    private void watch(Broadcast broadcast, BufferedReader in, DataOutputStream out)
+            throws IOException, InterruptedException {
+        broadcast.viewers.incrementAndGet();
+        try {
+            long sent = -1;
+            int unanswered = 0;
+            Frame frame;
+            while ((frame = broadcast.next(sent)) != null) {
+                if (frame.sequence == sent + 1 && frame.delta != null) {
+                    out.write(frame.delta);
+                    broadcast.deltas.incrementAndGet();
+                } else {
+                    out.write(frame.getKeyframe());
+                    broadcast.keyframes.incrementAndGet();
+                    if (sent >= 0) broadcast.dropped.addAndGet(frame.sequence - sent - 1);
+                }
+                out.flush();
+                
+                sent = frame.sequence;
+                if ((frame.flags & FLAG_FINISHED) != 0) return;
+                
+                // Take any answers already here, then wait for enough to
+                // send again. Frames published while we wait are skipped
+                unanswered++;
+                while (unanswered > 0 && in.ready()) {
+                    if (in.read() < 0) return;
+                    unanswered--;
+                }
+                while (unanswered >= WINDOW) {
+                    if (in.read() < 0) return;
+                    unanswered--;
+                }
+            }
+        } finally {
+            broadcast.viewers.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Method which encodes a frame into a message, a flags byte, its
+     * timestep, its length and its run length encoded bytes
+     * 
+     * @param flags Flags of the frame
+     * @param timestep Timestep of the frame
+     * @param source Packed steps, or XOR of them against the frame before
+     * @param length Number of packed bytes
+     * @return Message to send
+     */
+    private static byte [] message(int flags, int timestep, byte [] source, int length) {
+        ByteBuffer out = ByteBuffer.allocate(FireflyTimelineWriter.FRAME_HEADER_SIZE
+                                             + FireflyTimelineWriter.maxEncodedLength(length));
+        out.put((byte)flags).putInt(timestep).putInt(0);
+        FireflyTimelineWriter.encode(source, length, out);
+        out.putInt(5, out.position() - FireflyTimelineWriter.FRAME_HEADER_SIZE);
+        
+        byte [] message = new byte[out.position()];
+        out.flip();
+        out.get(message);
+        return message;
+    }
+    
+    /**
+     * Method which writes a line of text to a connection
+     * 
+     * @param out Stream to write to
+     * @param line Line to write, without its newline
+     * @throws IOException If the write fails
+     */
+    private static void writeLine(DataOutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * Getter method to return the port we are listening on
+     * 
+     * @return Port number
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+    
+    /**
+     * Getter method to return whether connections run on virtual threads
+     * 
+     * @return True if each connection has a virtual thread
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+    
+    /**
+     * Method which returns the names of every simulation we host
+     * 
+     * @return Names in order
+     */
+    public List<String> getNames() {
+        return new ArrayList<String>(broadcasts.keySet());
+    }
+    
+    /**
+     * Method which stops listening, hangs up on every viewer and stops every
+     * simulation we host
+     * 
+     * @throws IOException If the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        server.close();
+        
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        
+        try {
+            for (Broadcast broadcast : broadcasts.values()) {
+                broadcast.wake();
+                broadcast.simulation.stop();
+                if (broadcast.pump != null) broadcast.pump.join();
+            }
+            acceptor.join();
+            connections.shutdownNow();
+            connections.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Main Class which hosts some simulations until we are killed
+     * 
+     * @param args Port, number of simulations, engine (grid, array, bit,
+     *             event, hashlife or lanes), grid width, grid height,
+     *             neighbourhood (VON_NEUMANN, MOORE or RANDOM), boundary
+     *             (OPEN or TOROIDAL), seed, timesteps a second each
+     *             simulation runs at, 0 for as fast as it can, frames a
+     *             second sent to viewers and timestep limit, 0 for forever
+     * @throws IOException If we can't listen on the port
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int simulations = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        String engine = args.length > 2 ? args[2] : "array";
+        int width = args.length > 3 ? Integer.parseInt(args[3]) : FireflyInteraction.FIREFLY_ROWS;
+        int height = args.length > 4 ? Integer.parseInt(args[4]) : FireflyInteraction.FIREFLY_COLUMNS;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 5 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[5]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 6 ?
+            FireflyTopology.Boundary.valueOf(args[6]) : FireflyInteraction.FIREFLY_BOUNDARY;
+        long seed = args.length > 7 ? Long.parseLong(args[7]) : FireflyRandom.newSeed();
+        int rate = args.length > 8 ? Integer.parseInt(args[8]) : 0;
+        int frameRate = args.length > 9 ? Integer.parseInt(args[9]) : DEFAULT_FRAME_RATE;
+        int timestepLimit = args.length > 10 ? Integer.parseInt(args[10]) : 0;
+        
+        // Each simulation is one trial of a batch, so each has its own seed
+        FireflyTrialRunner.EngineFactory factory = FireflyTrialRunner.factory(engine, width, height, neighbourhood,
+                                                                              boundary, seed);
+        FireflyFrameServer server = new FireflyFrameServer(port, frameRate);
+        for (int i = 0; i < simulations; i++) {
+            FireflySimulation simulation = new FireflySimulation(factory.create(i), timestepLimit);
+            simulation.setTimestepsPerSecond(rate);
+            server.host(engine + "-" + i, simulation);
+        }
+        
+        System.out.println("Serving " + server.getNames() + " on port " + server.getPort() + " with "
+                           + (server.isVirtual() ? "virtual" : "platform") + " threads");
+        System.out.println("Seed: " + seed);
+        
+        // Keep going until we are killed
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,434 @@
+package firefly;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Firefly Graph Class which describes who listens to who when the fireflies
+ * aren't laid out on a grid at all. Any interaction graph can be used, such as
+ * a small world ring, a scale free network with a few hubs that thousands of
+ * fireflies can see, or a graph loaded from an edge list file
+ * 
+ * The graph is kept in compressed sparse row form, so the fireflies node i
+ * listens to are targets[offsets[i]] up to targets[offsets[i + 1]] and the
+ * whole graph is just two int arrays however lopsided it is. Every row is
+ * sorted with no repeats and nobody listens to themselves. Like a topology a
+ * graph never changes once it is made, so several engines can share one
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyGraph {
+    
+    // How many fireflies there are
+    private final int nodes;
+    
+    // Where each firefly's row starts in targets, with one extra at the end
+    private final int [] offsets;
+    
+    // The fireflies each firefly listens to, row after row
+    private final int [] targets;
+    
+    /**
+     * Constructor Method which wraps a graph that is already in compressed
+     * sparse row form, checking that it is well formed
+     * 
+     * @param offsets Where each firefly's row starts, nodes + 1 entries long
+     * @param targets The fireflies each firefly listens to, sorted in each row
+     */
+    public FireflyGraph(int [] offsets, int [] targets) {
+        if (offsets.length < 1 || offsets[0] != 0 || offsets[offsets.length - 1] != targets.length) {
+            throw new IllegalArgumentException("Offsets don't cover the targets");
+        }
+        
+        this.nodes = offsets.length - 1;
+        this.offsets = offsets;
+        this.targets = targets;
+        
+        for (int i = 0; i < nodes; i++) {
+            if (offsets[i] > offsets[i + 1]) {
+                throw new IllegalArgumentException("Offsets go backwards at firefly " + i);
+            }
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                int t = targets[e];
+                if (t < 0 || t >= nodes || t == i || (e > offsets[i] && t <= targets[e - 1])) {
+                    throw new IllegalArgumentException("Bad neighbour " + t + " of firefly " + i);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which builds a graph from a list of edges. An undirected edge
+     * means both fireflies can see each other, a directed edge from a to b
+     * means b can see a's flash. Repeated edges and edges from a firefly to
+     * itself are dropped
+     * 
+     * @param nodes Number of fireflies
+     * @param from First firefly of each edge
+     * @param to Second firefly of each edge
+     * @param edges Number of edges in the arrays
+     * @param directed Whether each edge only goes one way
+     * @return Graph with those edges
+     */
+    public static FireflyGraph fromEdges(int nodes, int [] from, int [] to, int edges, boolean directed) {
+        if (nodes < 1) {
+            throw new IllegalArgumentException("Graph must have at least one firefly");
+        }
+        if ((directed ? 1L : 2L) * edges > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many edges: " + edges);
+        }
+        
+        // Count how many each firefly listens to, before repeats are dropped
+        int [] offsets = new int[nodes + 1];
+        for (int e = 0; e < edges; e++) {
+            int a = from[e], b = to[e];
+            if (a < 0 || a >= nodes || b < 0 || b >= nodes) {
+                throw new IllegalArgumentException("Edge " + a + " " + b + " is outside the graph");
+            }
+            if (a == b) continue;
+            
+            offsets[b + 1]++;
+            if (!directed) offsets[a + 1]++;
+        }
+        for (int i = 0; i < nodes; i++) offsets[i + 1] += offsets[i];
+        
+        // Drop each edge into its listener's row
+        int [] targets = new int[offsets[nodes]];
+        int [] fill = Arrays.copyOf(offsets, nodes);
+        for (int e = 0; e < edges; e++) {
+            int a = from[e], b = to[e];
+            if (a == b) continue;
+            
+            targets[fill[b]++] = a;
+            if (!directed) targets[fill[a]++] = b;
+        }
+        
+        // Sort each row and squeeze out the repeats as we go
+        int n = 0;
+        for (int i = 0; i < nodes; i++) {
+            int start = offsets[i], end = offsets[i + 1];
+            Arrays.sort(targets, start, end);
+            
+            offsets[i] = n;
+            for (int e = start; e < end; e++) {
+                if (e > start && targets[e] == targets[e - 1]) continue;
+                targets[n++] = targets[e];
+            }
+        }
+        offsets[nodes] = n;
+        
+        return new FireflyGraph(offsets, n == targets.length ? targets : Arrays.copyOf(targets, n));
+    }
+    
+    /**
+     * Method which builds the graph of a grid, so each firefly listens to
+     * exactly the neighbours it would on that grid. Stepping a graph engine
+     * on this gives exactly the same generations as our grid engines
+     * 
+     * @param topology Size, neighbourhood and boundary of the grid
+     * @return Graph of the grid
+     */
+    public static FireflyGraph fromTopology(FireflyTopology topology) {
+        int cells = topology.getCells();
+        int stride = topology.getStride();
+        int [] neighbours = topology.getNeighbours();
+        byte [] degrees = topology.getDegrees();
+        
+        int [] offsets = new int[cells + 1];
+        for (int i = 0; i < cells; i++) offsets[i + 1] = offsets[i] + degrees[i];
+        
+        // A tiny torus can see the same firefly from two sides, so each row
+        // is sorted and squeezed like any other edge list
+        int [] targets = new int[offsets[cells]];
+        int n = 0;
+        for (int i = 0; i < cells; i++) {
+            int start = n;
+            for (int k = 0; k < degrees[i]; k++) {
+                int t = neighbours[i * stride + k];
+                if (t != i) targets[n++] = t;
+            }
+            Arrays.sort(targets, start, n);
+            
+            offsets[i] = start;
+            int end = n;
+            n = start;
+            for (int e = start; e < end; e++) {
+                if (e > start && targets[e] == targets[e - 1]) continue;
+                targets[n++] = targets[e];
+            }
+        }
+        offsets[cells] = n;
+        
+        return new FireflyGraph(offsets, n == targets.length ? targets : Arrays.copyOf(targets, n));
+    }
+    
+    /**
+     * Method which builds a Watts-Strogatz small world graph. Fireflies start
+     * on a ring each seeing the degree / 2 nearest on either side, then each
+     * edge has its far end moved to a random firefly with some probability.
+     * A rewired edge which lands on an edge we already have is dropped, so
+     * the average degree can come out very slightly under what was asked for
+     * 
+     * @param nodes Number of fireflies
+     * @param degree Number of neighbours on the ring, an even number
+     * @param rewire Probability of each edge being rewired, 0 keeps the ring
+     * @param seed Seed for the random number generator
+     * @return Small world graph
+     */
+    public static FireflyGraph wattsStrogatz(int nodes, int degree, double rewire, long seed) {
+        if (degree < 2 || degree % 2 != 0 || degree >= nodes) {
+            throw new IllegalArgumentException("Degree must be even and less than the number of fireflies");
+        }
+        if (rewire < 0 || rewire > 1) {
+            throw new IllegalArgumentException("Rewire probability must be between 0 and 1");
+        }
+        if ((long)nodes * degree > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Graph is too big: " + nodes + " fireflies of degree " + degree);
+        }
+        
+        SplittableRandom random = new SplittableRandom(seed);
+        int edges = nodes * (degree / 2);
+        int [] from = new int[edges];
+        int [] to = new int[edges];
+        
+        int e = 0;
+        for (int i = 0; i < nodes; i++) {
+            for (int j = 1; j <= degree / 2; j++) {
+                from[e] = i;
+                to[e] = (i + j) % nodes;
+                
+                // Move the far end anywhere but back onto ourselves
+                if (random.nextDouble() < rewire) {
+                    int t = random.nextInt(nodes - 1);
+                    to[e] = t >= i ? t + 1 : t;
+                }
+                e++;
+            }
+        }
+        
+        return fromEdges(nodes, from, to, edges, false);
+    }
+    
+    /**
+     * Method which builds a Barabasi-Albert scale free graph. We start with a
+     * small clique and every firefly after that joins with a number of edges
+     * to fireflies picked in proportion to how many edges they already have,
+     * so the early fireflies grow into hubs that huge numbers can see
+     * 
+     * Picking in proportion to degree is done by keeping every end of every
+     * edge in one list and picking uniformly from it, so building the graph
+     * takes time proportional to the number of edges
+     * 
+     * @param nodes Number of fireflies
+     * @param links Number of edges each new firefly joins with
+     * @param seed Seed for the random number generator
+     * @return Scale free graph
+     */
+    public static FireflyGraph barabasiAlbert(int nodes, int links, long seed) {
+        if (links < 1 || links >= nodes) {
+            throw new IllegalArgumentException("Links must be at least 1 and less than the number of fireflies");
+        }
+        if ((long)nodes * links * 2 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Graph is too big: " + nodes + " fireflies with " + links + " links");
+        }
+        
+        SplittableRandom random = new SplittableRandom(seed);
+        int seeds = links + 1;
+        int edges = seeds * links / 2 + (nodes - seeds) * links;
+        int [] from = new int[edges];
+        int [] to = new int[edges];
+        int [] ends = new int[edges * 2];
+        int e = 0;
+        
+        // Everyone in the starting clique sees everyone else
+        for (int i = 0; i < seeds; i++) {
+            for (int j = i + 1; j < seeds; j++) {
+                ends[2 * e] = from[e] = i;
+                ends[2 * e + 1] = to[e] = j;
+                e++;
+            }
+        }
+        
+        // Then each new firefly picks its distinct neighbours by degree
+        int [] picked = new int[links];
+        for (int i = seeds; i < nodes; i++) {
+            int ends0 = 2 * e;
+            for (int l = 0; l < links; l++) {
+                int t;
+                boolean repeat;
+                do {
+                    t = ends[random.nextInt(ends0)];
+                    repeat = false;
+                    for (int p = 0; p < l; p++) repeat |= picked[p] == t;
+                } while (repeat);
+                picked[l] = t;
+                
+                ends[2 * e] = from[e] = i;
+                ends[2 * e + 1] = to[e] = t;
+                e++;
+            }
+        }
+        
+        return fromEdges(nodes, from, to, edges, false);
+    }
+    
+    /**
+     * Method which loads a graph from an edge list file, with one edge per
+     * line given as two firefly indices split by spaces, tabs or a comma.
+     * Blank lines and lines starting with # or % are skipped, and the number
+     * of fireflies is one more than the biggest index seen
+     * 
+     * @param path Edge list file to read
+     * @param directed Whether an edge from a to b only lets b see a
+     * @return Graph of the edges in the file
+     * @throws IOException If the file can't be read or has a bad line in it
+     */
+    public static FireflyGraph load(Path path, boolean directed) throws IOException {
+        int [] from = new int[1024];
+        int [] to = new int[1024];
+        int edges = 0;
+        int nodes = 0;
+        
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#' || line.charAt(0) == '%') continue;
+                
+                String [] parts = line.split("[\\s,]+");
+                if (parts.length < 2) {
+                    throw new IOException(path + ":" + number + ": expected two fireflies but got '" + line + "'");
+                }
+                
+                int a, b;
+                try {
+                    a = Integer.parseInt(parts[0]);
+                    b = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + number + ": " + e.getMessage());
+                }
+                if (a < 0 || b < 0 || a == Integer.MAX_VALUE || b == Integer.MAX_VALUE) {
+                    throw new IOException(path + ":" + number + ": firefly indices must be between 0 and "
+                                          + (Integer.MAX_VALUE - 1));
+                }
+                
+                if (edges == from.length) {
+                    from = Arrays.copyOf(from, edges * 2);
+                    to = Arrays.copyOf(to, edges * 2);
+                }
+                from[edges] = a;
+                to[edges] = b;
+                edges++;
+                nodes = Math.max(nodes, Math.max(a, b) + 1);
+            }
+        }
+        
+        if (nodes == 0) {
+            throw new IOException(path + ": no edges found");
+        }
+        
+        return fromEdges(nodes, from, to, edges, directed);
+    }
+    
+    /**
+     * Method which builds the graph the other way round, so each firefly's
+     * row holds everyone who listens to it
+     * 
+     * @return Transposed graph
+     */
+    public FireflyGraph transpose() {
+        int [] reverseOffsets = new int[nodes + 1];
+        for (int t : targets) reverseOffsets[t + 1]++;
+        for (int i = 0; i < nodes; i++) reverseOffsets[i + 1] += reverseOffsets[i];
+        
+        // Walking the rows in order keeps every reversed row sorted
+        int [] reverseTargets = new int[targets.length];
+        int [] fill = Arrays.copyOf(reverseOffsets, nodes);
+        for (int i = 0; i < nodes; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                reverseTargets[fill[targets[e]]++] = i;
+            }
+        }
+        
+        return new FireflyGraph(reverseOffsets, reverseTargets);
+    }
+    
+    /**
+     * Getter method to return how many fireflies there are
+     * 
+     * @return Number of fireflies
+     */
+    public int getNodes() {
+        return this.nodes;
+    }
+    
+    /**
+     * Getter method to return how many edges there are, counting an edge that
+     * goes both ways twice
+     * 
+     * @return Number of directed edges
+     */
+    public int getEdges() {
+        return this.targets.length;
+    }
+    
+    /**
+     * Getter method to return how many fireflies a firefly listens to
+     * 
+     * @param i Index of the firefly
+     * @return Number of fireflies it listens to
+     */
+    public int getDegree(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+    
+    /**
+     * Method which finds the most fireflies any one firefly listens to
+     * 
+     * @return Largest degree in the graph
+     */
+    public int getMaxDegree() {
+        int max = 0;
+        for (int i = 0; i < nodes; i++) max = Math.max(max, getDegree(i));
+        return max;
+    }
+    
+    /**
+     * Getter method to return where each firefly's row starts, which must
+     * not be changed
+     * 
+     * @return Row offsets, one longer than the number of fireflies
+     */
+    int [] getOffsets() {
+        return this.offsets;
+    }
+    
+    /**
+     * Getter method to return the rows of every firefly, which must not be
+     * changed
+     * 
+     * @return Targets of every row
+     */
+    int [] getTargets() {
+        return this.targets;
+    }
+    
+    @Override
+    public String toString() {
+        return nodes + " fireflies, " + targets.length + " edges, max degree " + getMaxDegree();
+    }
+}
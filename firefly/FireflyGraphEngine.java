@@ -0,0 +1,507 @@
+package firefly;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Firefly Graph Engine Class which steps the same automaton as our Firefly
+ * objects on any interaction graph rather than a grid. Fireflies are numbered
+ * 0 upwards and laid out as a single row, so the engine is as wide as the
+ * graph has fireflies and one high
+ * 
+ * On a grid everyone listens to at most eight others, but on a scale free
+ * graph a hub can be seen by a large part of the graph, so asking every
+ * charging firefly whether anyone it can see is flashing would cost the hubs
+ * their whole row every timestep. Instead we work like our FireflyEventGrid,
+ * keeping fireflies in a bucket for each phase and pushing each flash out
+ * along the transposed graph to everyone who can see it. A firefly's row is
+ * only touched on the one timestep in ten it flashes, and a listener that has
+ * already been reset is skipped without looking at it again, so the work each
+ * timestep is the number of edges out of the flashing fireflies and a hub
+ * costs nothing at all while it is charging
+ * 
+ * Sync is kept up to date the same way. Two fireflies that can see each
+ * other are in sync when they are in the same phase, so the graph is in sync
+ * when every connected part of it is in one phase. We keep a count of how
+ * many of each part are in each phase, so resetting a firefly is a couple of
+ * counter updates however many fireflies can see it
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyGraphEngine implements FireflyEngine {
+    
+    // Length of the firefly cycle
+    private static final int CYCLE = Firefly.FIREFLY_FINAL_STEP + 1;
+    
+    // The graph we are stepping on
+    private final FireflyGraph graph;
+    private final int nodes;
+    
+    // Everyone who can see each firefly, which is where its flashes go
+    private final int [] listenerOffsets;
+    private final int [] listeners;
+    
+    // Phase of every firefly and where it is in its bucket
+    private final byte [] phases;
+    private final int [] positions;
+    
+    // Fireflies in each phase
+    private final int [][] buckets = new int[CYCLE][];
+    private final int [] sizes = new int[CYCLE];
+    
+    // Connected part each firefly is in, or -1 if it can't see or be seen by
+    // anyone, how many of each part are in each phase, how many phases each
+    // part is spread over and how many parts are in more than one phase
+    private final int [] parts;
+    private final int [] partCounts;
+    private final byte [] spread;
+    private int unsynchronised = 0;
+    
+    // Fireflies being reset in the current timestep
+    private int [] pending = new int[64];
+    private final boolean [] marked;
+    
+    // How many timesteps have elapsed, and the same modulo the cycle
+    private int timesteps = 0;
+    private int offset = 0;
+    
+    // Sum over fireflies of a per firefly value times OMEGA to their phase,
+    // and the same with a second value for our check hash
+    private long phaseSum = 0;
+    private long checkSum = 0;
+    
+    /**
+     * Constructor Method which creates an engine with every firefly at the
+     * starting step, or a random step in the same way as our FireflyGrid does
+     * 
+     * @param graph Who listens to who
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyGraphEngine(FireflyGraph graph, boolean random) {
+        this.graph = graph;
+        this.nodes = graph.getNodes();
+        
+        FireflyGraph transposed = graph.transpose();
+        this.listenerOffsets = transposed.getOffsets();
+        this.listeners = transposed.getTargets();
+        
+        this.phases = new byte[nodes];
+        this.positions = new int[nodes];
+        this.marked = new boolean[nodes];
+        
+        // Work out the connected parts, then give each one a row of counters
+        this.parts = findParts(graph);
+        int count = 0;
+        for (int part : parts) count = Math.max(count, part + 1);
+        this.partCounts = new int[count * CYCLE];
+        this.spread = new byte[count];
+        
+        // Everyone starts at step 0 in the bucket for phase 0
+        for (int c = 0; c < CYCLE; c++) buckets[c] = new int[16];
+        buckets[0] = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            buckets[0][i] = i;
+            positions[i] = i;
+            phaseSum = FireflyEventGrid.add(phaseSum, FireflyEventGrid.weight(i));
+            checkSum = FireflyEventGrid.add(checkSum, FireflyEventGrid.checkWeight(i));
+            if (parts[i] >= 0 && partCounts[parts[i] * CYCLE]++ == 0) spread[parts[i]] = 1;
+        }
+        sizes[0] = nodes;
+        
+        if (random) {
+            this.randomise(FireflyRandom.newSeed());
+        }
+    }
+    
+    /**
+     * Constructor Method which creates an engine with the starting step of
+     * each firefly picked from a seed, so the same seed always gives the same
+     * run
+     * 
+     * @param graph Who listens to who
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyGraphEngine(FireflyGraph graph, long seed) {
+        this(graph, false);
+        this.randomise(seed);
+    }
+    
+    /**
+     * Method which picks the starting step of every firefly from a seed
+     * 
+     * @param seed Seed to pick the starting steps from
+     */
+    private void randomise(long seed) {
+        byte [] steps = FireflyRandom.steps(nodes, seed, Firefly.FIREFLY_FINAL_STEP);
+        
+        // Set the state randomly to start
+        for (int i = 0; i < nodes; i++) {
+            this.setStep(i, steps[i]);
+        }
+    }
+    
+    /**
+     * Method which numbers the connected parts of a graph, ignoring which way
+     * the edges go, using union find with path halving. Fireflies with no
+     * edges at all are always in sync so they get no part
+     * 
+     * @param graph Graph to split up
+     * @return Part of every firefly, numbered from 0, or -1 for no edges
+     */
+    private static int [] findParts(FireflyGraph graph) {
+        int nodes = graph.getNodes();
+        int [] offsets = graph.getOffsets();
+        int [] targets = graph.getTargets();
+        
+        int [] parent = new int[nodes];
+        for (int i = 0; i < nodes; i++) parent[i] = i;
+        
+        for (int i = 0; i < nodes; i++) {
+            for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+                int a = root(parent, i), b = root(parent, targets[e]);
+                if (a != b) parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        
+        // Roots are always the smallest firefly in their part, so numbering
+        // them in order means every part is numbered before it is used
+        boolean [] connected = new boolean[nodes];
+        for (int i = 0; i < nodes; i++) {
+            if (offsets[i + 1] > offsets[i]) {
+                connected[i] = true;
+                for (int e = offsets[i]; e < offsets[i + 1]; e++) connected[targets[e]] = true;
+            }
+        }
+        
+        int [] parts = new int[nodes];
+        int count = 0;
+        for (int i = 0; i < nodes; i++) {
+            int r = root(parent, i);
+            if (!connected[i]) parts[i] = -1;
+            else if (r == i) parts[i] = count++;
+            else parts[i] = parts[r];
+        }
+        return parts;
+    }
+    
+    /**
+     * Method which finds the root of a firefly's set, halving the path to it
+     * as we go
+     * 
+     * @param parent Parent of every firefly
+     * @param i Index of the firefly
+     * @return Root of its set
+     */
+    private static int root(int [] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+    
+    /**
+     * Step method which moves on one timestep. If nobody is flashing this is
+     * just a counter increment, otherwise each flash is pushed out to the
+     * fireflies that can see it
+     */
+    @Override
+    public void step() {
+        int flashing = this.phaseOf(Firefly.FIREFLY_FLASH_STEP);
+        int count = 0;
+        
+        // Find every charging firefly that can see one of the flashers. We
+        // mark them rather than moving them straight away so they don't look
+        // like they are flashing themselves
+        int [] bucket = buckets[flashing];
+        for (int b = 0; b < sizes[flashing]; b++) {
+            int f = bucket[b];
+            
+            for (int e = listenerOffsets[f]; e < listenerOffsets[f + 1]; e++) {
+                int n = listeners[e];
+                if (marked[n]) continue;
+                
+                int step = this.stepOf(n);
+                if (step >= Firefly.FIREFLY_CHARGING_START && step <= Firefly.FIREFLY_CHARGING_FINAL) {
+                    if (count == pending.length) pending = Arrays.copyOf(pending, count * 2);
+                    pending[count++] = n;
+                    marked[n] = true;
+                }
+            }
+        }
+        
+        // Increment our timestep counter, everyone else moves on by one
+        this.timesteps++;
+        this.offset = (offset + 1) % CYCLE;
+        
+        // Now move the reset fireflies back to the start of charging
+        int reset = this.phaseOf(Firefly.FIREFLY_CHARGING_START);
+        for (int p = 0; p < count; p++) {
+            marked[pending[p]] = false;
+            this.move(pending[p], reset);
+        }
+    }
+    
+    /**
+     * Method which keeps stepping until the graph synchronises or we hit the
+     * timestep limit, jumping over every timestep where nobody flashes. We
+     * only stop on a timestep where stepping one at a time would have stopped
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return True if the graph synchronised
+     */
+    public boolean stepUntilSynchronised(int timestepLimit) {
+        int limit = timestepLimit > 0 ? timestepLimit : Integer.MAX_VALUE;
+        if (timesteps >= limit) return this.isSynchronised();
+        
+        // Nothing can change without a flash, so if we are already in sync
+        // the first timestep is the one it is seen on
+        if (this.isSynchronised()) {
+            this.step();
+            return true;
+        }
+        
+        while (timesteps < limit) {
+            // Sync can only change on a timestep with a flash in it
+            int skip = Math.min(this.ticksToNextFlash(), limit - timesteps);
+            this.timesteps += skip;
+            this.offset = (offset + skip) % CYCLE;
+            if (timesteps >= limit) break;
+            
+            this.step();
+            if (this.isSynchronised()) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Method which works out how many timesteps there are until the next one
+     * where somebody flashes
+     * 
+     * @return Number of timesteps we can skip, at most one less than the cycle
+     */
+    private int ticksToNextFlash() {
+        for (int skip = 0; skip < CYCLE; skip++) {
+            int flashing = ((Firefly.FIREFLY_FLASH_STEP - offset - skip) % CYCLE + CYCLE) % CYCLE;
+            if (sizes[flashing] > 0) return skip;
+        }
+        return CYCLE;
+    }
+    
+    /**
+     * Method which returns the phase a firefly on a given step has right now
+     * 
+     * @param step Step of the firefly
+     * @return Phase of the firefly
+     */
+    private int phaseOf(int step) {
+        return ((step - offset) % CYCLE + CYCLE) % CYCLE;
+    }
+    
+    /**
+     * Method which returns the current step of a firefly from its phase
+     * 
+     * @param i Index of the firefly
+     * @return Current step of the firefly
+     */
+    private int stepOf(int i) {
+        return (phases[i] + offset) % CYCLE;
+    }
+    
+    /**
+     * Method which moves a firefly into the bucket for another phase
+     * 
+     * @param i Index of the firefly
+     * @param phase New phase of the firefly
+     */
+    private void move(int i, int phase) {
+        int old = phases[i];
+        if (old == phase) return;
+        
+        // Take us out of our old bucket by moving the last one into our place
+        int last = buckets[old][--sizes[old]];
+        buckets[old][positions[i]] = last;
+        positions[last] = positions[i];
+        
+        // And put us on the end of the new one, growing it if we need to
+        if (sizes[phase] == buckets[phase].length) {
+            buckets[phase] = Arrays.copyOf(buckets[phase], Math.min(buckets[phase].length * 2, nodes));
+        }
+        positions[i] = sizes[phase];
+        buckets[phase][sizes[phase]++] = i;
+        phases[i] = (byte)phase;
+        
+        // Move us between phases in our part, and keep track of how many
+        // parts are spread over more than one phase
+        int part = parts[i];
+        if (part >= 0) {
+            int before = spread[part];
+            if (--partCounts[part * CYCLE + old] == 0) spread[part]--;
+            if (partCounts[part * CYCLE + phase]++ == 0) spread[part]++;
+            
+            if (before > 1 && spread[part] == 1) unsynchronised--;
+            if (before == 1 && spread[part] > 1) unsynchronised++;
+        }
+        
+        // Keep our hashes up to date
+        long w = FireflyEventGrid.weight(i);
+        phaseSum = FireflyEventGrid.add(phaseSum, FireflyEventGrid.PRIME - FireflyEventGrid.multiply(w, FireflyEventGrid.OMEGA[old]));
+        phaseSum = FireflyEventGrid.add(phaseSum, FireflyEventGrid.multiply(w, FireflyEventGrid.OMEGA[phase]));
+        w = FireflyEventGrid.checkWeight(i);
+        checkSum = FireflyEventGrid.add(checkSum, FireflyEventGrid.PRIME - FireflyEventGrid.multiply(w, FireflyEventGrid.OMEGA[old]));
+        checkSum = FireflyEventGrid.add(checkSum, FireflyEventGrid.multiply(w, FireflyEventGrid.OMEGA[phase]));
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with everyone it can
+     * see, which is the same as every connected part being in one phase
+     * 
+     * @return True if the graph is synchronised
+     */
+    @Override
+    public boolean isSynchronised() {
+        return unsynchronised == 0;
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly
+     * 
+     * @param i Index of the firefly
+     * @param step New step of the Firefly
+     */
+    public void setStep(int i, int step) {
+        if (step < Firefly.FIREFLY_START_STEP || step > Firefly.FIREFLY_FINAL_STEP) {
+            throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+        }
+        
+        this.move(i, this.phaseOf(step));
+    }
+    
+    /**
+     * Getter method to return the current step of an individual firefly
+     * 
+     * @param i Index of the firefly
+     * @return Current Step of that Firefly
+     */
+    public int getStep(int i) {
+        return this.stepOf(i);
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return this.stepOf(y * nodes + x);
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        for (int i = 0; i < nodes; i++) {
+            steps[i] = (byte)this.stepOf(i);
+        }
+    }
+    
+    /**
+     * Method which returns a hash of every firefly's step without looking at
+     * them, in the same way as our FireflyEventGrid does
+     * 
+     * @return Hash of the current generation
+     */
+    @Override
+    public long stateHash() {
+        return FireflyCycleDetector.finish(FireflyEventGrid.multiply(phaseSum, FireflyEventGrid.OMEGA[offset]));
+    }
+    
+    /**
+     * Method which returns our second hash without looking at any fireflies,
+     * in the same way as stateHash but from a second set of values
+     * 
+     * @return Second hash of the current generation
+     */
+    @Override
+    public long checkHash() {
+        return FireflyCycleDetector.finish(FireflyEventGrid.multiply(checkSum, FireflyEventGrid.OMEGA[offset]));
+    }
+    
+    /**
+     * Getter method to return the graph we are stepping on
+     * 
+     * @return Graph of who listens to who
+     */
+    public FireflyGraph getGraph() {
+        return this.graph;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.nodes;
+    }
+    
+    @Override
+    public int getHeight() {
+        return 1;
+    }
+    
+    /**
+     * Main Class which builds or loads a graph once and runs a batch of
+     * trials on it, each from different random starting steps. The seed
+     * picks both the graph and the starting steps of every trial
+     * 
+     * @param args Graph (ws, ba or the path of an edge list file), number of
+     *             fireflies, degree for ws or links for ba, rewire
+     *             probability for ws or directed for a file, seed, number of
+     *             trials, timestep limit and number of threads
+     * @throws IOException If the edge list file can't be read
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String kind = args.length > 0 ? args[0] : "ws";
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int degree = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        String extra = args.length > 3 ? args[3] : null;
+        final long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        int trials = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        int timestepLimit = args.length > 6 ? Integer.parseInt(args[6]) : FireflyTrialRunner.DEFAULT_TIMESTEP_LIMIT;
+        int threads = args.length > 7 ? Integer.parseInt(args[7]) : Runtime.getRuntime().availableProcessors();
+        
+        // Build the graph once, every trial shares it
+        long start = System.nanoTime();
+        final FireflyGraph graph;
+        if (kind.equals("ws")) {
+            graph = FireflyGraph.wattsStrogatz(nodes, degree, extra != null ? Double.parseDouble(extra) : 0.1, seed);
+        } else if (kind.equals("ba")) {
+            graph = FireflyGraph.barabasiAlbert(nodes, degree, seed);
+        } else {
+            graph = FireflyGraph.load(Paths.get(kind), extra != null && Boolean.parseBoolean(extra));
+        }
+        System.out.println("Graph: " + graph + " in " + ((System.nanoTime() - start) / 1000000) + " ms");
+        
+        FireflyTrialRunner.EngineFactory factory = new FireflyTrialRunner.EngineFactory() {
+            @Override
+            public FireflyEngine create(int trial) {
+                return new FireflyGraphEngine(graph, FireflyRandom.derive(seed, trial));
+            }
+        };
+        
+        // Run them all and time how long it took
+        start = System.nanoTime();
+        FireflyTrialSummary summary = new FireflyTrialRunner(threads, factory).run(trials, timestepLimit);
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.print(summary);
+        System.out.println("");
+        System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+    }
+}
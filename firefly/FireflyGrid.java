@@ -0,0 +1,363 @@
+package firefly;
+
+import java.awt.Graphics2D;
+
+/**
+ * Firefly Grid Class which holds all of our fireflies together and steps them
+ * through time. It has no GUI aspects at all, so it can be used headless for
+ * running lots of experiments without a window or a timer
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyGrid implements FireflyEngine {
+    
+    // Offsets to the eight neighbours, starting at North and going clockwise
+    private static final int [] DX = { 0, 1, 1, 1, 0, -1, -1, -1 };
+    private static final int [] DY = { -1, -1, 0, 1, 1, 1, 0, -1 };
+    
+    // Size, neighbourhood and boundary of our grid
+    private final FireflyTopology topology;
+    private final int width;
+    private final int height;
+    
+    // Declare our 2D Array of Firefly Objects
+    private Firefly [][] fireflies;
+    
+    // How many timesteps have elapsed
+    private int timesteps = 0;
+    
+    // How many neighbours each firefly disagrees with, and the total of them
+    // all, which is kept up to date as fireflies are reset
+    private int [][] disagreements;
+    private long totalDisagreements = 0;
+    
+    // Fireflies which were reset in the current step, and a stamp of the last
+    // step each firefly was recounted in so we only recount each one once
+    private int [] resetX;
+    private int [] resetY;
+    private int [][] recounted;
+    
+    /**
+     * Constructor Method which initializes our array of fireflies with a
+     * random starting step and sets up all of their neighbours, using the
+     * grid size, neighbourhood and boundary from FireflyInteraction
+     * 
+     * @param cellWidth How wide is each firefly when painted
+     * @param cellHeight How high is each firefly when painted
+     */
+    public FireflyGrid(int cellWidth, int cellHeight) {
+        this(new FireflyTopology(FireflyInteraction.FIREFLY_ROWS, FireflyInteraction.FIREFLY_COLUMNS,
+                                 FireflyInteraction.FIREFLY_NEIGHBOURHOOD, FireflyInteraction.FIREFLY_BOUNDARY),
+             cellWidth, cellHeight);
+    }
+    
+    /**
+     * Constructor Method which initializes our array of fireflies with a
+     * random starting step and sets up all of their neighbours
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param cellWidth How wide is each firefly when painted
+     * @param cellHeight How high is each firefly when painted
+     */
+    public FireflyGrid(FireflyTopology topology, int cellWidth, int cellHeight) {
+        this(topology, cellWidth, cellHeight, FireflyRandom.newSeed());
+    }
+    
+    /**
+     * Constructor Method which initializes our array of fireflies with a
+     * starting step picked from a seed, so the same seed always gives the same
+     * grid, and sets up all of their neighbours
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param cellWidth How wide is each firefly when painted
+     * @param cellHeight How high is each firefly when painted
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyGrid(FireflyTopology topology, int cellWidth, int cellHeight, long seed) {
+        this.topology = topology;
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        
+        // Instantiate the actual array
+        this.fireflies = new Firefly[width][height];
+        byte [] steps = FireflyRandom.steps(width * height, seed, Firefly.FIREFLY_FINAL_STEP);
+        
+        // Create and store all the Firefly Objects into our Array
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                this.fireflies[x][y] = new Firefly(x, y, cellWidth, cellHeight);
+                
+                // Set the state randomly to start
+                this.fireflies[x][y].setCurrentStep(steps[y * width + x]);
+            }
+        }
+        
+        // Pass on to another method to set the neighbours
+        this.setNeighbours();
+        
+        // Now everyone has neighbours we can count who disagrees
+        int cells = width * height;
+        this.disagreements = new int[width][height];
+        this.recounted = new int[width][height];
+        this.resetX = new int[cells];
+        this.resetY = new int[cells];
+        
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                this.recount(x, y);
+            }
+        }
+    }
+    
+    /**
+     * Set neighbors method which loops through our array and sets the relevant
+     * neighbors for each firefly. Our topology works out where each neighbour
+     * is, or that there isn't one, and which neighbourhood each firefly has
+     */
+    private void setNeighbours() {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                // Declare an array to hold 8 neighbours, starting at North
+                // and going round clockwise
+                Firefly [] neighbours = new Firefly[8];
+                for (int d = 0; d < 8; d++) {
+                    int n = topology.neighbour(x, y, DX[d], DY[d]);
+                    neighbours[d] = n < 0 ? null : fireflies[n % width][n / width];
+                }
+                
+                // Now set the neighbours based on the neighbourhood
+                if (topology.isMoore(y * width + x)) {
+                    fireflies[x][y].setNeighboursMoore(neighbours);
+                } else {
+                    fireflies[x][y].setNeighboursNeumann(neighbours);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Step method which prepares all of our Fireflies for the next state and
+     * then performs it, so every firefly sees the same previous generation
+     */
+    @Override
+    public void step() {
+        int resets = 0;
+        
+        // Loop through each of our Fireflies and prepare the next state,
+        // remembering which ones were reset
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                // Perform timestep...
+                if (fireflies[x][y].prepareStep()) {
+                    resetX[resets] = x;
+                    resetY[resets] = y;
+                    resets++;
+                }
+            }
+        }
+        
+        // Loop through each of our Fireflies and perform the action
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                // Perform timestep...
+                fireflies[x][y].performStep();
+            }
+        }
+        
+        // Increment our timestep counter
+        this.timesteps++;
+        
+        // Every firefly that wasn't reset moved on by one, so two of them
+        // agree now exactly when they agreed before. Only the reset fireflies
+        // and those around them can have changed their disagreements
+        for (int i = 0; i < resets; i++) {
+            this.recountAround(resetX[i], resetY[i]);
+        }
+    }
+    
+    /**
+     * Method which recounts the disagreements of a firefly and everyone around
+     * it, as long as they haven't already been recounted this timestep
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     */
+    private void recountAround(int x, int y) {
+        // Our timestep counter has already moved on, so a fresh grid which
+        // has stamps of 0 will always recount
+        int stamp = timesteps;
+        
+        int i = y * width + x;
+        int [] neighbours = topology.getNeighbours();
+        int base = i * topology.getStride();
+        
+        // Ourselves and then everyone who might be listening to us
+        for (int k = -1; k < topology.getSizes()[i]; k++) {
+            int n = k < 0 ? i : neighbours[base + k];
+            int nx = n % width;
+            int ny = n / width;
+            
+            if (recounted[nx][ny] == stamp) continue;
+            recounted[nx][ny] = stamp;
+            
+            this.recount(nx, ny);
+        }
+    }
+    
+    /**
+     * Method which recounts the disagreements of a single firefly and updates
+     * our running total
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     */
+    private void recount(int x, int y) {
+        int count = fireflies[x][y].countDisagreements();
+        totalDisagreements += count - disagreements[x][y];
+        disagreements[x][y] = count;
+    }
+    
+    /**
+     * Method which checks if every firefly is in sync with all of it's
+     * neighbours. Rather than asking each firefly, we keep a running count of
+     * disagreeing neighbours up to date as we step, so this is just one check
+     * 
+     * @return True if every firefly is in sync with it's neighbours
+     */
+    @Override
+    public boolean isSynchronised() {
+        return totalDisagreements == 0;
+    }
+    
+    /**
+     * Setter method to set the current step of an individual firefly, which
+     * keeps our running count of disagreements up to date. Steps should be
+     * changed through here rather than on the Firefly itself
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @param step New step of the Firefly
+     */
+    public void setCurrentStep(int x, int y, int step) {
+        if (step < Firefly.FIREFLY_START_STEP || step > Firefly.FIREFLY_FINAL_STEP) {
+            throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+        }
+        
+        fireflies[x][y].setCurrentStep(step);
+        
+        // Recount ourselves and everyone around us
+        int i = y * width + x;
+        int [] neighbours = topology.getNeighbours();
+        int base = i * topology.getStride();
+        
+        this.recount(x, y);
+        for (int k = 0; k < topology.getSizes()[i]; k++) {
+            int n = neighbours[base + k];
+            this.recount(n % width, n / width);
+        }
+    }
+    
+    /**
+     * Getter method to return how many timesteps have elapsed
+     * 
+     * @return Number of timesteps elapsed
+     */
+    @Override
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    /**
+     * Getter method to return how many fireflies wide our grid is
+     * 
+     * @return Number of fireflies along X
+     */
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Getter method to return how many fireflies high our grid is
+     * 
+     * @return Number of fireflies along Y
+     */
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Getter method to return the current step of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Current Step of that Firefly
+     */
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return this.fireflies[x][y].getCurrentStep();
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                steps[y * width + x] = (byte)fireflies[x][y].getCurrentStep();
+            }
+        }
+    }
+    
+    @Override
+    public long stateHash() {
+        long hash = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                hash = FireflyCycleDetector.mix(hash, fireflies[x][y].getCurrentStep());
+            }
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Getter method to return the size, neighbourhood and boundary of our grid
+     * 
+     * @return Topology of our grid
+     */
+    public FireflyTopology getTopology() {
+        return this.topology;
+    }
+    
+    /**
+     * Getter method to return an individual firefly in our grid. Use
+     * setCurrentStep on the grid to change its step
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Firefly at that position
+     */
+    public Firefly getFirefly(int x, int y) {
+        return this.fireflies[x][y];
+    }
+    
+    /**
+     * Repaint Method which loops through each of our Fireflies and paints them
+     * onto our Graphics Context
+     * 
+     * @param g Graphics Context
+     */
+    public void repaint(Graphics2D g) {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                fireflies[x][y].repaint(g);
+            }
+        }
+    }
+}
@@ -0,0 +1,782 @@
+package firefly;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Firefly Hash Life Class which steps our grid the way Gosper's HashLife
+ * steps the Game of Life. The grid is held as a quadtree where every distinct
+ * block of fireflies is only ever stored once, so a grid full of the same
+ * patterns takes very little memory, and each block remembers what it turns
+ * into 2^j timesteps later. Once a grid settles down into synced or repeating
+ * regions almost every block has been seen before, and we can jump ahead by
+ * huge numbers of timesteps in one go
+ * 
+ * A firefly only sees its neighbours one step away, so the middle half of a
+ * block of side 2^k only depends on the block for the next 2^(k-2) timesteps.
+ * Each block works out that middle half from the blocks inside it, and keeps
+ * the answer. An open grid sits in the middle of a big block padded with
+ * cells that never flash and never change, and a toroidal grid is tiled four
+ * times so the middle half is the whole torus, just shifted round by half
+ * its size. Only square toroidal grids whose side is a power of two can be
+ * tiled like this
+ * 
+ * We only keep a set number of blocks in our table. Once it is full a clock
+ * hand sweeps round, giving blocks that have been used since it last passed a
+ * second chance and throwing away the rest along with what they remember.
+ * Blocks still in use by the grid are never lost, they just stop being shared
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyHashLife implements FireflyEngine {
+    
+    // Most blocks we keep in our table before throwing some away, and the
+    // least a small grid gets by default
+    public static final int DEFAULT_CAPACITY = 1 << 21;
+    private static final int MIN_DEFAULT_CAPACITY = 1 << 14;
+    
+    // Most torus states we remember while looking for a loop
+    private static final int MAX_SEEN = 1 << 10;
+    
+    // A cell holds its step in the low bits, a bit saying it listens to its
+    // diagonals too, or is the cell outside an open grid which never changes
+    private static final int STEP_MASK = 0x0F;
+    private static final int MOORE = 0x10;
+    private static final int ABSENT = 0x20;
+    
+    // Common step of a block with no fireflies in, or more than one step
+    private static final int EMPTY = -1;
+    private static final int MIXED = -2;
+    
+    // Size of our grid and whether it wraps around
+    private final int width;
+    private final int height;
+    private final boolean toroidal;
+    
+    // Our table of every block, chained in buckets, and the clock hand
+    private final Node [] table;
+    private final int capacity;
+    private int size = 0;
+    private int hand = 0;
+    private long evictions = 0;
+    
+    // The one leaf for each cell, and the empty block of each size
+    private final Node [] leaves = new Node[ABSENT + 1];
+    private Node [] empties = new Node[0];
+    
+    // Our grid, its level, and where the grid starts inside it along both X
+    // and Y, which is always 0 for a torus
+    private Node root;
+    private final int level;
+    private final int origin;
+    
+    // How many timesteps have elapsed
+    private long generations = 0;
+    
+    // Torus states we've seen at the end of a whole jump, and when
+    private final Map<Node, Long> seen = new IdentityHashMap<Node, Long>();
+    
+    /**
+     * Constructor Method which creates a grid with every firefly at the
+     * starting step, or a random step in the same way as our FireflyGrid does
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param random Whether to randomise the starting steps
+     */
+    public FireflyHashLife(FireflyTopology topology, boolean random) {
+        this(topology, random ? FireflyRandom.steps(topology.getCells(), FireflyRandom.newSeed(),
+                                                    Firefly.FIREFLY_FINAL_STEP)
+                              : new byte[topology.getCells()], defaultCapacity(topology));
+    }
+    
+    /**
+     * Constructor Method which creates a grid with the starting step of each
+     * firefly picked from a seed, so the same seed always gives the same grid
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param seed Seed to pick the starting steps from
+     */
+    public FireflyHashLife(FireflyTopology topology, long seed) {
+        this(topology, FireflyRandom.steps(topology.getCells(), seed, Firefly.FIREFLY_FINAL_STEP), defaultCapacity(topology));
+    }
+    
+    /**
+     * Method which checks whether we can step a grid of a given shape. Any
+     * open grid is fine, but a toroidal grid has to tile into a block of its
+     * own, so it must be square with a side that is a power of two of at
+     * least 4
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param boundary What happens at the edges of the grid
+     * @return True if a grid of this shape can be stepped
+     */
+    public static boolean canStep(int width, int height, FireflyTopology.Boundary boundary) {
+        if (boundary != FireflyTopology.Boundary.TOROIDAL) return true;
+        return width == height && width >= 4 && Integer.bitCount(width) == 1;
+    }
+    
+    /**
+     * Method which works out how many blocks to keep for a grid, so a small
+     * grid isn't handed a table far bigger than it could ever fill
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @return Most blocks to keep in our table
+     */
+    private static int defaultCapacity(FireflyTopology topology) {
+        long wanted = (long)topology.getCells() * 64;
+        return (int)Math.max(MIN_DEFAULT_CAPACITY, Math.min(wanted, DEFAULT_CAPACITY));
+    }
+    
+    /**
+     * Constructor Method which builds our quadtree from the step of every
+     * firefly
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param steps Starting step of every firefly, indexed by y * width + x
+     * @param capacity Most blocks to keep in our table
+     */
+    public FireflyHashLife(FireflyTopology topology, byte [] steps, int capacity) {
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.toroidal = topology.getBoundary() == FireflyTopology.Boundary.TOROIDAL;
+        
+        if (capacity < 1024) {
+            throw new IllegalArgumentException("Need room for at least 1024 blocks, got " + capacity);
+        }
+        if (!canStep(width, height, topology.getBoundary())) {
+            throw new IllegalArgumentException("A toroidal grid must be square with a side that is a power of two"
+                                               + " of at least 4, got " + width + "x" + height);
+        }
+        
+        this.capacity = capacity;
+        this.table = new Node[Integer.highestOneBit(capacity - 1) << 1];
+        
+        for (int state = 0; state <= ABSENT; state++) {
+            leaves[state] = new Node(state);
+        }
+        
+        // A torus is exactly one block, an open grid sits in the middle half
+        // of a block with room for it
+        int side = Math.max(width, height);
+        int log = 32 - Integer.numberOfLeadingZeros(side - 1);
+        this.level = toroidal ? log : Math.max(log + 1, 2);
+        this.origin = toroidal ? 0 : 1 << (level - 2);
+        
+        int [] cells = new int[width * height];
+        for (int i = 0; i < cells.length; i++) {
+            if (steps[i] < Firefly.FIREFLY_START_STEP || steps[i] > Firefly.FIREFLY_FINAL_STEP) {
+                throw new IllegalArgumentException("Step is outside of the firefly cycle: " + steps[i]);
+            }
+            cells[i] = steps[i] | (topology.isMoore(i) ? MOORE : 0);
+        }
+        this.root = this.build(cells, level, 0, 0);
+    }
+    
+    /**
+     * Node Class which is one block of our quadtree. Leaves are single cells
+     * and every other block is made of four blocks half its size. Blocks are
+     * only ever made through join, so two blocks with the same children are
+     * always the same object
+     */
+    private static final class Node {
+        final Node nw;
+        final Node ne;
+        final Node sw;
+        final Node se;
+        final int level;
+        final int state;
+        final long hash;
+        
+        // Common step of every firefly in the block, EMPTY or MIXED
+        final int uniform;
+        
+        // Next block in our bucket, and whether we've been used since the
+        // clock hand last passed
+        Node next;
+        boolean used = true;
+        
+        // Middle half of the block 2^(level - 2) timesteps on, and the
+        // middle half after the last smaller jump we were asked for
+        Node result;
+        Node partial;
+        int partialStep = -1;
+        
+        Node(int state) {
+            this.nw = this.ne = this.sw = this.se = null;
+            this.level = 0;
+            this.state = state;
+            this.hash = mix(state + 1);
+            this.uniform = state == ABSENT ? EMPTY : state & STEP_MASK;
+        }
+        
+        Node(Node nw, Node ne, Node sw, Node se, long hash) {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            this.level = nw.level + 1;
+            this.state = 0;
+            this.hash = hash;
+            this.uniform = combine(combine(nw.uniform, ne.uniform), combine(sw.uniform, se.uniform));
+        }
+    }
+    
+    /**
+     * Method which scrambles a number so every bit depends on every other
+     * 
+     * @param z Number to scramble
+     * @return Scrambled number
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Method which works out the common step of two regions side by side
+     * 
+     * @param a Common step of the first region
+     * @param b Common step of the second region
+     * @return Common step of both, EMPTY or MIXED
+     */
+    private static int combine(int a, int b) {
+        if (a == EMPTY) return b;
+        if (b == EMPTY) return a;
+        return a == b ? a : MIXED;
+    }
+    
+    /**
+     * Method which returns the one block made of four smaller ones, making it
+     * if we haven't seen it before
+     * 
+     * @param nw North west quarter
+     * @param ne North east quarter
+     * @param sw South west quarter
+     * @param se South east quarter
+     * @return The block made of all four
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        long hash = mix(nw.hash * 0x9E3779B97F4A7C15L + ne.hash * 0xC2B2AE3D27D4EB4FL
+                        + sw.hash * 0x165667B19E3779F9L + se.hash + nw.level);
+        int bucket = (int)hash & (table.length - 1);
+        
+        for (Node node = table[bucket]; node != null; node = node.next) {
+            if (node.nw == nw && node.ne == ne && node.sw == sw && node.se == se) {
+                node.used = true;
+                return node;
+            }
+        }
+        
+        Node node = new Node(nw, ne, sw, se, hash);
+        node.next = table[bucket];
+        table[bucket] = node;
+        
+        if (++size > capacity) this.evict();
+        return node;
+    }
+    
+    /**
+     * Method which sweeps our clock hand round the table until a quarter of
+     * it is free again. Blocks used since the hand last passed get their used
+     * bit cleared and are kept, the rest are dropped along with what they
+     * remember. Anything still holding on to a dropped block can keep using
+     * it, a new copy is just made next time it is asked for
+     */
+    private void evict() {
+        int target = capacity - capacity / 4;
+        
+        while (size > target) {
+            Node previous = null;
+            Node node = table[hand];
+            
+            while (node != null) {
+                Node next = node.next;
+                if (node.used) {
+                    node.used = false;
+                    previous = node;
+                } else {
+                    if (previous == null) table[hand] = next;
+                    else previous.next = next;
+                    
+                    node.next = null;
+                    node.result = null;
+                    node.partial = null;
+                    size--;
+                    evictions++;
+                }
+                node = next;
+            }
+            
+            hand = (hand + 1) & (table.length - 1);
+        }
+    }
+    
+    /**
+     * Method which returns the block of a given level with nothing in it
+     * 
+     * @param level Level of the block
+     * @return Empty block
+     */
+    private Node empty(int level) {
+        if (level >= empties.length) {
+            Node [] grown = new Node[level + 1];
+            System.arraycopy(empties, 0, grown, 0, empties.length);
+            this.empties = grown;
+        }
+        
+        if (empties[level] == null) {
+            Node half = level == 0 ? null : this.empty(level - 1);
+            empties[level] = level == 0 ? leaves[ABSENT] : this.join(half, half, half, half);
+        }
+        return empties[level];
+    }
+    
+    /**
+     * Method which builds the block covering part of our grid
+     * 
+     * @param cells Every cell of the grid, indexed by y * width + x
+     * @param level Level of the block to build
+     * @param x X position of the block inside the root
+     * @param y Y position of the block inside the root
+     * @return Block covering that part
+     */
+    private Node build(int [] cells, int level, int x, int y) {
+        int gx = x - origin;
+        int gy = y - origin;
+        int side = 1 << level;
+        
+        // Nothing of the grid in here at all
+        if (gx >= width || gy >= height || gx + side <= 0 || gy + side <= 0) {
+            return this.empty(level);
+        }
+        
+        if (level == 0) {
+            return leaves[cells[gy * width + gx]];
+        }
+        
+        int half = side / 2;
+        return this.join(this.build(cells, level - 1, x, y), this.build(cells, level - 1, x + half, y),
+                         this.build(cells, level - 1, x, y + half), this.build(cells, level - 1, x + half, y + half));
+    }
+    
+    /**
+     * Method which returns the block one level up with the given block in
+     * its middle and nothing around it
+     * 
+     * @param node Block to put in the middle
+     * @return Bigger block
+     */
+    private Node expand(Node node) {
+        Node e = this.empty(node.level - 1);
+        return this.join(this.join(e, e, e, node.nw), this.join(e, e, node.ne, e),
+                         this.join(e, node.sw, e, e), this.join(node.se, e, e, e));
+    }
+    
+    /**
+     * Method which returns the middle half of a block, as it is now
+     * 
+     * @param node Block to take the middle of
+     * @return Middle half
+     */
+    private Node centre(Node node) {
+        return this.join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+    }
+    
+    /**
+     * Method which returns the block straddling two blocks side by side
+     * 
+     * @param w West block
+     * @param e East block
+     * @return Block made of the east half of w and the west half of e
+     */
+    private Node centreHorizontal(Node w, Node e) {
+        return this.join(w.ne, e.nw, w.se, e.sw);
+    }
+    
+    /**
+     * Method which returns the block straddling two blocks one above another
+     * 
+     * @param n North block
+     * @param s South block
+     * @return Block made of the south half of n and the north half of s
+     */
+    private Node centreVertical(Node n, Node s) {
+        return this.join(n.sw, n.se, s.nw, s.ne);
+    }
+    
+    /**
+     * Method which works out the middle half of a block 2^j timesteps on,
+     * where j can be at most two less than the level of the block. We split
+     * the block into nine overlapping blocks half its size, take each of them
+     * on, or just their middles for a small j, then take the four blocks made
+     * of those on again
+     * 
+     * @param node Block of level 2 or more
+     * @param j Log of the number of timesteps to go on
+     * @return Middle half of the block, 2^j timesteps on
+     */
+    private Node successor(Node node, int j) {
+        j = Math.min(j, node.level - 2);
+        boolean full = j == node.level - 2;
+        if (full && node.result != null) {
+            node.used = true;
+            return node.result;
+        }
+        if (!full && node.partial != null && node.partialStep == j) {
+            node.used = true;
+            return node.partial;
+        }
+        
+        Node result;
+        if (node.uniform == EMPTY) {
+            // Nothing out here ever changes
+            result = this.empty(node.level - 1);
+        } else if (node.level == 2) {
+            result = this.base(node);
+        } else {
+            Node n00 = node.nw;
+            Node n01 = this.centreHorizontal(node.nw, node.ne);
+            Node n02 = node.ne;
+            Node n10 = this.centreVertical(node.nw, node.sw);
+            Node n11 = this.centre(node);
+            Node n12 = this.centreVertical(node.ne, node.se);
+            Node n20 = node.sw;
+            Node n21 = this.centreHorizontal(node.sw, node.se);
+            Node n22 = node.se;
+            
+            // Going the whole 2^(level - 2) takes two hops, anything less
+            // only needs the second
+            if (full) {
+                n00 = this.successor(n00, j);
+                n01 = this.successor(n01, j);
+                n02 = this.successor(n02, j);
+                n10 = this.successor(n10, j);
+                n11 = this.successor(n11, j);
+                n12 = this.successor(n12, j);
+                n20 = this.successor(n20, j);
+                n21 = this.successor(n21, j);
+                n22 = this.successor(n22, j);
+            } else {
+                n00 = this.centre(n00);
+                n01 = this.centre(n01);
+                n02 = this.centre(n02);
+                n10 = this.centre(n10);
+                n11 = this.centre(n11);
+                n12 = this.centre(n12);
+                n20 = this.centre(n20);
+                n21 = this.centre(n21);
+                n22 = this.centre(n22);
+            }
+            
+            result = this.join(this.successor(this.join(n00, n01, n10, n11), j),
+                               this.successor(this.join(n01, n02, n11, n12), j),
+                               this.successor(this.join(n10, n11, n20, n21), j),
+                               this.successor(this.join(n11, n12, n21, n22), j));
+        }
+        
+        if (full) {
+            node.result = result;
+        } else {
+            node.partial = result;
+            node.partialStep = j;
+        }
+        return result;
+    }
+    
+    /**
+     * Method which steps the middle four cells of a 4x4 block on by a single
+     * timestep, using the same rule as Firefly
+     * 
+     * @param node Block of level 2
+     * @return Middle 2x2 block one timestep on
+     */
+    private Node base(Node node) {
+        int [] c = new int[16];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                Node quarter = y < 2 ? (x < 2 ? node.nw : node.ne) : (x < 2 ? node.sw : node.se);
+                Node cell = (y & 1) == 0 ? ((x & 1) == 0 ? quarter.nw : quarter.ne)
+                                         : ((x & 1) == 0 ? quarter.sw : quarter.se);
+                c[y * 4 + x] = cell.state;
+            }
+        }
+        
+        return this.join(leaves[rule(c, 1, 1)], leaves[rule(c, 2, 1)], leaves[rule(c, 1, 2)], leaves[rule(c, 2, 2)]);
+    }
+    
+    /**
+     * Method which works out the next state of one cell of a 4x4 block. Cells
+     * outside the grid have a step of 0, so they never look like a flash
+     * 
+     * @param c Cells of the block, indexed by y * 4 + x
+     * @param x X position of the cell, 1 or 2
+     * @param y Y position of the cell, 1 or 2
+     * @return Next state of the cell
+     */
+    private static int rule(int [] c, int x, int y) {
+        int cell = c[y * 4 + x];
+        if (cell == ABSENT) return ABSENT;
+        
+        int step = cell & STEP_MASK;
+        int moore = cell & MOORE;
+        
+        if (step >= Firefly.FIREFLY_CHARGING_START && step <= Firefly.FIREFLY_CHARGING_FINAL) {
+            int i = y * 4 + x;
+            boolean heard = flashing(c[i - 4]) || flashing(c[i + 4]) || flashing(c[i - 1]) || flashing(c[i + 1]);
+            if (!heard && moore != 0) {
+                heard = flashing(c[i - 5]) || flashing(c[i - 3]) || flashing(c[i + 3]) || flashing(c[i + 5]);
+            }
+            
+            // If any are true, reset back to the charging state
+            if (heard) return moore | Firefly.FIREFLY_CHARGING_START;
+        }
+        
+        return moore | (step == Firefly.FIREFLY_FINAL_STEP ? Firefly.FIREFLY_START_STEP : step + 1);
+    }
+    
+    /**
+     * Method which tells us if a cell is flashing
+     * 
+     * @param cell State of the cell
+     * @return True if the cell is on its flash step
+     */
+    private static boolean flashing(int cell) {
+        return (cell & STEP_MASK) == Firefly.FIREFLY_FLASH_STEP;
+    }
+    
+    /**
+     * Method which moves our grid on by any number of timesteps, taking the
+     * biggest power of two jumps we can
+     * 
+     * @param timesteps Number of timesteps to go on
+     */
+    public void advance(long timesteps) {
+        if (timesteps < 0) {
+            throw new IllegalArgumentException("Can't go back in time: " + timesteps);
+        }
+        
+        int length = Firefly.FIREFLY_FINAL_STEP + 1;
+        
+        while (timesteps > 0) {
+            // A synced grid just goes round the cycle together, so skip
+            // straight past every whole lap
+            if (root.uniform >= 0 && timesteps >= length) {
+                long laps = timesteps - timesteps % length;
+                timesteps -= laps;
+                generations += laps;
+                continue;
+            }
+            
+            int j = 63 - Long.numberOfLeadingZeros(timesteps);
+            
+            if (toroidal) {
+                // Four copies of the torus side by side make a block whose
+                // middle half is the torus shifted round by half its size,
+                // so swap its quarters back round afterwards
+                j = Math.min(j, level - 1);
+                Node after = this.successor(this.join(root, root, root, root), j);
+                root = this.join(after.se, after.sw, after.ne, after.nw);
+                
+                // A torus can only jump half its size at once, so look out for
+                // it looping and skip every whole loop left
+                if (j == level - 1) {
+                    Long before = seen.get(root);
+                    long now = generations + (1L << j);
+                    if (before != null) {
+                        long period = now - before;
+                        long loops = (timesteps - (1L << j)) / period * period;
+                        timesteps -= loops;
+                        generations += loops;
+                        seen.clear();
+                    } else {
+                        if (seen.size() >= MAX_SEEN) seen.clear();
+                        seen.put(root, now);
+                    }
+                }
+            } else {
+                // Pad the grid out until the block is big enough for the jump
+                Node block = root;
+                while (block.level - 2 < j) block = this.expand(block);
+                
+                block = this.expand(this.successor(block, j));
+                while (block.level > level) block = this.centre(block);
+                root = block;
+            }
+            
+            timesteps -= 1L << j;
+            generations += 1L << j;
+        }
+    }
+    
+    @Override
+    public void step() {
+        this.advance(1);
+    }
+    
+    @Override
+    public boolean isSynchronised() {
+        return root.uniform >= 0;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return (int)Math.min(generations, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Getter method to return how many timesteps have elapsed, which can go
+     * well past what fits in an int
+     * 
+     * @return Number of timesteps elapsed
+     */
+    public long getGenerations() {
+        return this.generations;
+    }
+    
+    @Override
+    public int getWidth() {
+        return this.width;
+    }
+    
+    @Override
+    public int getHeight() {
+        return this.height;
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IndexOutOfBoundsException("No firefly at " + x + ", " + y);
+        }
+        
+        Node node = root;
+        int rx = x + origin;
+        int ry = y + origin;
+        
+        while (node.level > 0) {
+            int half = 1 << (node.level - 1);
+            boolean east = (rx & half) != 0;
+            boolean south = (ry & half) != 0;
+            node = south ? (east ? node.se : node.sw) : (east ? node.ne : node.nw);
+        }
+        return node.state & STEP_MASK;
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        this.copy(root, 0, 0, steps);
+    }
+    
+    /**
+     * Method which copies the part of our grid inside a block out, filling
+     * whole regions at once where every firefly is on the same step
+     * 
+     * @param node Block to copy
+     * @param x X position of the block inside the root
+     * @param y Y position of the block inside the root
+     * @param steps Array to copy into, indexed by y * width + x
+     */
+    private void copy(Node node, int x, int y, byte [] steps) {
+        if (node.uniform == EMPTY) return;
+        
+        int side = 1 << node.level;
+        int x1 = Math.max(x - origin, 0);
+        int y1 = Math.max(y - origin, 0);
+        int x2 = Math.min(x - origin + side, width);
+        int y2 = Math.min(y - origin + side, height);
+        if (x1 >= x2 || y1 >= y2) return;
+        
+        if (node.uniform >= 0) {
+            for (int gy = y1; gy < y2; gy++) {
+                Arrays.fill(steps, gy * width + x1, gy * width + x2, (byte)node.uniform);
+            }
+            return;
+        }
+        
+        int half = side / 2;
+        this.copy(node.nw, x, y, steps);
+        this.copy(node.ne, x + half, y, steps);
+        this.copy(node.sw, x, y + half, steps);
+        this.copy(node.se, x + half, y + half, steps);
+    }
+    
+    @Override
+    public long stateHash() {
+        return root.hash;
+    }
+    
+    /**
+     * Getter method to return how many blocks are in our table
+     * 
+     * @return Number of blocks
+     */
+    public int getNodes() {
+        return this.size;
+    }
+    
+    /**
+     * Getter method to return how many blocks the clock hand has thrown away
+     * 
+     * @return Number of evicted blocks
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+    
+    /**
+     * Main Class which runs a grid for a very long time, checking it against
+     * a FireflyArrayGrid as it goes if the run is short enough
+     * 
+     * @param args Grid width, grid height, neighbourhood, boundary, number of
+     *             timesteps, seed and the most blocks to keep
+     */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 2 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[2]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 3 ?
+            FireflyTopology.Boundary.valueOf(args[3]) : FireflyTopology.Boundary.TOROIDAL;
+        long timesteps = args.length > 4 ? Long.parseLong(args[4]) : 1L << 20;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : FireflyRandom.newSeed();
+        int capacity = args.length > 6 ? Integer.parseInt(args[6]) : DEFAULT_CAPACITY;
+        
+        FireflyTopology topology = new FireflyTopology(width, height, neighbourhood, boundary, seed);
+        byte [] steps = FireflyRandom.steps(topology.getCells(), seed, Firefly.FIREFLY_FINAL_STEP);
+        FireflyHashLife life = new FireflyHashLife(topology, steps, capacity);
+        
+        long start = System.nanoTime();
+        life.advance(timesteps);
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.println("Seed: " + seed);
+        System.out.println((life.isSynchronised() ? "Synchronised" : "Not synchronised") + " after "
+                           + life.getGenerations() + " timesteps");
+        System.out.println("Blocks: " + life.getNodes() + ", evicted " + life.getEvictions());
+        System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+        
+        // Check against stepping every firefly if that won't take forever
+        if (timesteps * width * height <= 1L << 32) {
+            FireflyArrayGrid grid = new FireflyArrayGrid(topology, false);
+            for (int i = 0; i < steps.length; i++) grid.setCurrentStep(i % width, i / width, steps[i]);
+            for (long t = 0; t < timesteps; t++) grid.step();
+            
+            byte [] expected = new byte[steps.length];
+            byte [] actual = new byte[steps.length];
+            grid.copySteps(expected);
+            life.copySteps(actual);
+            System.out.println(Arrays.equals(expected, actual) ? "Matches FireflyArrayGrid"
+                                                                         : "DIFFERENT to FireflyArrayGrid");
+        }
+    }
+}
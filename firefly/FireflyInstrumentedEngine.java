@@ -0,0 +1,200 @@
+package firefly;
+
+/**
+ * Firefly Instrumented Engine Class which wraps any other engine and times
+ * everything it does for our FireflyMetrics. A timestep is counted once its
+ * sync check is done, or when the next step starts if nobody checked, so the
+ * step and the check after it end up in the same Flight Recorder event
+ * 
+ * Every so often a timestep is sampled by copying out the grid either side of
+ * it, which tells us who flashed, who was reset and how many fireflies agree.
+ * That costs about as much as the timestep itself, so it is only done every
+ * sample interval timesteps
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyInstrumentedEngine implements FireflyEngine {
+    
+    // The engine we are timing and where the times go
+    private final FireflyEngine engine;
+    private final FireflyMetrics metrics;
+    private final String name;
+    private final int cells;
+    
+    // Clock of the engine, so a sample knows who flashed and who was reset
+    private final FireflyCycle cycle;
+    
+    // The timestep we've stepped but not yet counted
+    private boolean pending = false;
+    private long stepNanos = 0;
+    private long syncNanos = 0;
+    private FireflyMetrics.TickEvent event;
+    
+    // The grid either side of a sampled timestep, made when first needed
+    private byte [] before;
+    private byte [] after;
+    
+    /**
+     * Constructor Method which wraps an engine
+     * 
+     * @param engine Engine to time
+     * @param metrics Where the times go
+     */
+    public FireflyInstrumentedEngine(FireflyEngine engine, FireflyMetrics metrics) {
+        this.engine = engine;
+        this.metrics = metrics;
+        this.name = engine.getClass().getSimpleName();
+        this.cells = engine.getWidth() * engine.getHeight();
+        this.cycle = engine instanceof FireflyArrayGrid ? ((FireflyArrayGrid)engine).getCycle() : FireflyCycle.DEFAULT;
+    }
+    
+    @Override
+    public void step() {
+        if (pending) this.count();
+        
+        // Only sample if we're asked to and are on the right timestep
+        int interval = metrics.getSampleInterval();
+        boolean sample = interval > 0 && engine.getTimesteps() % interval == 0;
+        if (sample) {
+            if (before == null) {
+                before = new byte[cells];
+                after = new byte[cells];
+            }
+            engine.copySteps(before);
+        }
+        
+        FireflyMetrics.TickEvent tick = new FireflyMetrics.TickEvent();
+        tick.begin();
+        
+        long start = System.nanoTime();
+        engine.step();
+        this.stepNanos = System.nanoTime() - start;
+        this.syncNanos = 0;
+        this.pending = true;
+        this.event = tick;
+        
+        if (sample) {
+            engine.copySteps(after);
+            this.sample();
+        }
+    }
+    
+    /**
+     * Method which works out who flashed and who was reset on a sampled
+     * timestep, and how many fireflies are on the most common step after it
+     */
+    private void sample() {
+        int flashStep = cycle.getFlashStep();
+        int finalStep = cycle.getFinalStep();
+        int [] counts = new int[cycle.getLength()];
+        int flashes = 0;
+        int resets = 0;
+        
+        for (int i = 0; i < cells; i++) {
+            int was = before[i];
+            int now = after[i];
+            
+            if (was == flashStep) flashes++;
+            
+            // Anyone who didn't simply move on a step was reset by a flash
+            if (now != (was == finalStep ? 0 : was + 1)) resets++;
+            counts[now]++;
+        }
+        
+        int most = 0;
+        for (int count : counts) most = Math.max(most, count);
+        double fraction = cells == 0 ? 0 : (double)most / cells;
+        metrics.recordSample(flashes, resets, fraction);
+        
+        FireflyMetrics.SampleEvent sampled = new FireflyMetrics.SampleEvent();
+        if (sampled.isEnabled()) {
+            sampled.engine = name;
+            sampled.timestep = engine.getTimesteps();
+            sampled.flashes = flashes;
+            sampled.resets = resets;
+            sampled.syncFraction = fraction;
+            sampled.commit();
+        }
+    }
+    
+    /**
+     * Method which counts the timestep we've stepped, along with its sync
+     * check if there was one
+     */
+    private void count() {
+        metrics.recordTick(stepNanos, syncNanos, cells);
+        
+        if (event.shouldCommit()) {
+            event.engine = name;
+            event.timestep = engine.getTimesteps();
+            event.cells = cells;
+            event.stepTime = stepNanos;
+            event.syncTime = syncNanos;
+            event.commit();
+        }
+        
+        this.event = null;
+        this.pending = false;
+    }
+    
+    @Override
+    public boolean isSynchronised() {
+        long start = System.nanoTime();
+        boolean synced = engine.isSynchronised();
+        this.syncNanos += System.nanoTime() - start;
+        
+        if (pending) this.count();
+        return synced;
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return engine.getTimesteps();
+    }
+    
+    @Override
+    public int getWidth() {
+        return engine.getWidth();
+    }
+    
+    @Override
+    public int getHeight() {
+        return engine.getHeight();
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return engine.getCurrentStep(x, y);
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        engine.copySteps(steps);
+    }
+    
+    @Override
+    public long stateHash() {
+        return engine.stateHash();
+    }
+    
+    @Override
+    public long checkHash() {
+        return engine.checkHash();
+    }
+    
+    /**
+     * Getter method to return the engine we are timing
+     * 
+     * @return Wrapped engine
+     */
+    public FireflyEngine getEngine() {
+        return this.engine;
+    }
+}
@@ -0,0 +1,543 @@
+package firefly;
+
+/**
+ * Firefly Lane Grid Class which runs sixty four independent trials at once on
+ * grids of the same size and boundary. Where FireflyBitGrid packs sixty four
+ * fireflies of one grid into a long word, here bit t of every word belongs to
+ * trial t, so word i of plane k holds bit k of firefly i's step in every
+ * trial. Each firefly is then stepped for all sixty four trials with the same
+ * shifts, ANDs and ORs and four bit ripple carry adder as FireflyBitGrid
+ * 
+ * Every trial starts at timestep 0, so they all share the one timestep
+ * counter and the one Brent's schedule for spotting loops. Trials which sync
+ * or fall into a loop are retired from the active mask and the batch stops
+ * once every lane has retired or the limit is hit
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyLaneGrid {
+    
+    // Number of trials packed into each word
+    public static final int LANES = 64;
+    
+    // Number of bit planes needed to hold steps 0 to 9
+    private static final int PLANES = 4;
+    
+    // Slots in our neighbour table for each firefly, the four orthogonal
+    // neighbours followed by the four diagonals
+    private static final int STRIDE = 8;
+    
+    // Size of our grid in fireflies
+    private final int width;
+    private final int height;
+    private final int cells;
+    
+    // Index of the first trial, how many lanes hold a trial and a mask of them
+    private final int first;
+    private final int count;
+    private final long laneMask;
+    
+    // Neighbours of firefly i are at i * STRIDE onwards, -1 if there isn't one
+    private final int [] neighbours;
+    
+    // Set bits are trials where that firefly listens to its diagonals too
+    private final long [] moore;
+    
+    // Starting, current and next step bit planes, one word per firefly
+    private final long [][] start;
+    private long [][] planes;
+    private long [][] nextPlanes;
+    
+    // Flash mask of the current generation, worked out at the start of a step
+    private final long [] flash;
+    
+    // How many timesteps have elapsed
+    private int timesteps = 0;
+    
+    /**
+     * Constructor Method which sets up a run of trials from a batch seed in
+     * exactly the same way as FireflyTrialRunner does, so lane t holds the
+     * same grid the trial first + t would get from any other engine
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     * @param seed Seed of the whole batch
+     * @param first Index of the first trial within the batch
+     * @param count Number of trials, at most LANES
+     */
+    public FireflyLaneGrid(int width, int height, FireflyInteraction.Neighbourhood neighbourhood,
+                           FireflyTopology.Boundary boundary, long seed, int first, int count) {
+        this(first, topologies(width, height, neighbourhood, boundary, seed, first, count),
+             steps(width * height, seed, first, count));
+    }
+    
+    /**
+     * Constructor Method which packs the given trials into our lanes
+     * 
+     * @param first Index of the first trial within the batch
+     * @param topologies Topology of each trial, all the same size and boundary
+     * @param steps Starting step of every firefly of each trial, indexed by
+     *              y * width + x
+     */
+    public FireflyLaneGrid(int first, FireflyTopology [] topologies, byte [][] steps) {
+        if (topologies.length < 1 || topologies.length > LANES || steps.length != topologies.length) {
+            throw new IllegalArgumentException("Need between 1 and " + LANES + " trials, got " + topologies.length);
+        }
+        
+        FireflyTopology topology = topologies[0];
+        this.width = topology.getWidth();
+        this.height = topology.getHeight();
+        this.cells = width * height;
+        this.first = first;
+        this.count = topologies.length;
+        this.laneMask = count == LANES ? -1L : (1L << count) - 1;
+        
+        // Every trial has the same neighbours, only who listens to their
+        // diagonals can change from trial to trial
+        this.neighbours = new int[cells * STRIDE];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int slot = (y * width + x) * STRIDE;
+                neighbours[slot]     = topology.neighbour(x, y, 0, -1);
+                neighbours[slot + 1] = topology.neighbour(x, y, 0, 1);
+                neighbours[slot + 2] = topology.neighbour(x, y, -1, 0);
+                neighbours[slot + 3] = topology.neighbour(x, y, 1, 0);
+                neighbours[slot + 4] = topology.neighbour(x, y, -1, -1);
+                neighbours[slot + 5] = topology.neighbour(x, y, 1, -1);
+                neighbours[slot + 6] = topology.neighbour(x, y, -1, 1);
+                neighbours[slot + 7] = topology.neighbour(x, y, 1, 1);
+            }
+        }
+        
+        this.moore = new long[cells];
+        this.start = new long[PLANES][cells];
+        for (int lane = 0; lane < count; lane++) {
+            FireflyTopology other = topologies[lane];
+            if (other.getWidth() != width || other.getHeight() != height
+                || other.getBoundary() != topology.getBoundary()) {
+                throw new IllegalArgumentException("Every trial needs the same size and boundary, lane " + lane
+                                                   + " is " + other);
+            }
+            if (steps[lane].length != cells) {
+                throw new IllegalArgumentException("Lane " + lane + " has " + steps[lane].length
+                                                   + " steps for " + cells + " fireflies");
+            }
+            
+            long bit = 1L << lane;
+            for (int i = 0; i < cells; i++) {
+                int step = steps[lane][i];
+                if (step < Firefly.FIREFLY_START_STEP || step > Firefly.FIREFLY_FINAL_STEP) {
+                    throw new IllegalArgumentException("Step is outside of the firefly cycle: " + step);
+                }
+                
+                if (other.isMoore(i)) moore[i] |= bit;
+                for (int k = 0; k < PLANES; k++) {
+                    if ((step & (1 << k)) != 0) start[k][i] |= bit;
+                }
+            }
+        }
+        
+        // Allocate both generations up front so stepping never allocates
+        this.planes = copy(start);
+        this.nextPlanes = new long[PLANES][cells];
+        this.flash = new long[cells];
+    }
+    
+    /**
+     * Method which builds the topology of each trial in a run from the batch
+     * seed, in the same way as FireflyTrialRunner does
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     * @param seed Seed of the whole batch
+     * @param first Index of the first trial within the batch
+     * @param count Number of trials
+     * @return Topology of each trial
+     */
+    private static FireflyTopology [] topologies(int width, int height, FireflyInteraction.Neighbourhood neighbourhood,
+                                                 FireflyTopology.Boundary boundary, long seed, int first, int count) {
+        FireflyTopology [] topologies = new FireflyTopology[count];
+        for (int lane = 0; lane < count; lane++) {
+            topologies[lane] = new FireflyTopology(width, height, neighbourhood, boundary,
+                                                   FireflyRandom.derive(seed, first + lane));
+        }
+        return topologies;
+    }
+    
+    /**
+     * Method which picks the starting steps of each trial in a run from the
+     * batch seed, in the same way as FireflyTrialRunner does
+     * 
+     * @param cells Number of fireflies in each grid
+     * @param seed Seed of the whole batch
+     * @param first Index of the first trial within the batch
+     * @param count Number of trials
+     * @return Starting steps of each trial
+     */
+    private static byte [][] steps(int cells, long seed, int first, int count) {
+        byte [][] steps = new byte[count][];
+        for (int lane = 0; lane < count; lane++) {
+            steps[lane] = FireflyRandom.steps(cells, FireflyRandom.derive(seed, first + lane), Firefly.FIREFLY_FINAL_STEP);
+        }
+        return steps;
+    }
+    
+    /**
+     * Method which makes a deep copy of a set of bit planes
+     * 
+     * @param p Bit planes to copy
+     * @return Copy of the planes
+     */
+    private static long [][] copy(long [][] p) {
+        long [][] copy = new long[PLANES][];
+        for (int k = 0; k < PLANES; k++) {
+            copy[k] = p[k].clone();
+        }
+        return copy;
+    }
+    
+    /**
+     * Step method which moves every trial on by one timestep, following
+     * Firefly.prepareStep exactly in every lane
+     */
+    public void step() {
+        this.step(planes, nextPlanes, -1L);
+        
+        // Swap our generations over
+        long [][] swap = planes;
+        planes = nextPlanes;
+        nextPlanes = swap;
+        
+        // Increment our timestep counter
+        this.timesteps++;
+    }
+    
+    /**
+     * Method which works out the next generation of the lanes in a mask and
+     * copies the rest across unchanged. A charging firefly goes back to the
+     * start if any of its neighbours flashed and otherwise every firefly
+     * moves on
+     * 
+     * @param p Bit planes of the current generation
+     * @param next Bit planes to write the next generation to
+     * @param move Mask of the lanes to step
+     */
+    private void step(long [][] p, long [][] next, long move) {
+        long [] p0 = p[0], p1 = p[1], p2 = p[2], p3 = p[3];
+        
+        // Work out who is flashing first, step 9 is 1001 in binary
+        for (int i = 0; i < cells; i++) {
+            flash[i] = p0[i] & ~p1[i] & ~p2[i] & p3[i];
+        }
+        
+        for (int i = 0; i < cells; i++) {
+            int slot = i * STRIDE;
+            
+            // North, South, East and West are in both neighbourhoods
+            long flashed = 0;
+            for (int n = slot; n < slot + 4; n++) {
+                if (neighbours[n] >= 0) flashed |= flash[neighbours[n]];
+            }
+            
+            // The diagonals are only heard by lanes with a Moore neighbourhood
+            if (moore[i] != 0) {
+                long diagonal = 0;
+                for (int n = slot + 4; n < slot + STRIDE; n++) {
+                    if (neighbours[n] >= 0) diagonal |= flash[neighbours[n]];
+                }
+                flashed |= diagonal & moore[i];
+            }
+            
+            // Steps 0 to 5 are charging, which is everything apart from
+            // 6 (0110), 7 (0111) and anything with the top bit set
+            long charging = ~p3[i] & ~(p2[i] & p1[i]);
+            
+            // Add one to every step with a ripple carry
+            long c0 = p0[i];
+            long c1 = p1[i] & c0;
+            long c2 = p2[i] & c1;
+            
+            // Anything that flashed wraps around to the start and anything
+            // charging with a flashing neighbour goes back to the start, both
+            // of which are step 0. Lanes we aren't stepping stay where they are
+            long keep = ~(flash[i] | (charging & flashed));
+            next[0][i] = (~p0[i] & keep & move) | (p0[i] & ~move);
+            next[1][i] = ((p1[i] ^ c0) & keep & move) | (p1[i] & ~move);
+            next[2][i] = ((p2[i] ^ c1) & keep & move) | (p2[i] & ~move);
+            next[3][i] = ((p3[i] ^ c2) & keep & move) | (p3[i] & ~move);
+        }
+    }
+    
+    /**
+     * Method which works out which trials are synchronised. Every firefly
+     * hears its orthogonal neighbours, so a grid only has no disagreeing
+     * neighbours when every firefly is on the same step, and we just compare
+     * each firefly against the first
+     * 
+     * @return Mask of the lanes whose grid is synchronised
+     */
+    public long getSynchronised() {
+        long differ = 0;
+        for (int k = 0; k < PLANES; k++) {
+            long [] plane = planes[k];
+            long base = plane[0];
+            for (int i = 1; i < cells; i++) {
+                differ |= plane[i] ^ base;
+            }
+        }
+        return ~differ & laneMask;
+    }
+    
+    /**
+     * Method which works out which lanes of two generations are equal
+     * 
+     * @param a Bit planes of the first generation
+     * @param b Bit planes of the second generation
+     * @return Mask of the lanes which are the same in both
+     */
+    private long equal(long [][] a, long [][] b) {
+        long differ = 0;
+        for (int k = 0; k < PLANES; k++) {
+            long [] x = a[k], y = b[k];
+            for (int i = 0; i < cells; i++) {
+                differ |= x[i] ^ y[i];
+            }
+        }
+        return ~differ & laneMask;
+    }
+    
+    /**
+     * Run every trial until it syncs, falls into a loop or we hit the
+     * timestep limit, giving the same results as FireflyTrialRunner.runTrial
+     * would for each trial on its own. Loops are spotted with Brent's
+     * algorithm just like FireflyCycleDetector, but every lane is compared
+     * against the tortoise in full at once so no hashing is needed
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @param cycleDetection Whether to stop trials early once they fall into
+     *                       a loop
+     * @return Result of every trial, in lane order
+     */
+    public FireflyTrialResult [] run(int timestepLimit, boolean cycleDetection) {
+        return run(timestepLimit, cycleDetection, null);
+    }
+    
+    /**
+     * Run every trial like run does, but every so often drop any lane whose
+     * trial has been abandoned, leaving its result null
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @param cycleDetection Whether to stop trials early once they fall into
+     *                       a loop
+     * @param prefix Where trials are abandoned from, or null
+     * @return Result of every trial, in lane order
+     */
+    FireflyTrialResult [] run(int timestepLimit, boolean cycleDetection, FireflyTrialPrefix prefix) {
+        FireflyTrialResult [] results = new FireflyTrialResult[count];
+        int [] periods = new int[count];
+        int [] spotted = new int[count];
+        long active = laneMask;
+        long looped = 0;
+        
+        // Brent's tortoise, its power of two and how far we are ahead of it
+        long [][] tortoise = cycleDetection ? copy(planes) : null;
+        int power = 1;
+        int lambda = 1;
+        
+        while (active != 0) {
+            this.step();
+            
+            // Retire everything that has synchronised
+            long synced = this.getSynchronised() & active;
+            for (long m = synced; m != 0; m &= m - 1) {
+                int lane = Long.numberOfTrailingZeros(m);
+                results[lane] = new FireflyTrialResult(first + lane, true, timesteps);
+            }
+            active &= ~synced;
+            
+            // Retire everything that has come back round to the tortoise
+            if (tortoise != null && active != 0) {
+                long loop = this.equal(planes, tortoise) & active;
+                for (long m = loop; m != 0; m &= m - 1) {
+                    int lane = Long.numberOfTrailingZeros(m);
+                    periods[lane] = lambda;
+                    spotted[lane] = timesteps;
+                }
+                looped |= loop;
+                active &= ~loop;
+                
+                // Time to move the tortoise on and double the distance
+                if (power == lambda) {
+                    for (int k = 0; k < PLANES; k++) {
+                        System.arraycopy(planes[k], 0, tortoise[k], 0, cells);
+                    }
+                    power *= 2;
+                    lambda = 0;
+                }
+                lambda++;
+            }
+            
+            // Retire everything left once we hit the timesteps limit
+            if (timestepLimit > 0 && timesteps >= timestepLimit) {
+                for (long m = active; m != 0; m &= m - 1) {
+                    int lane = Long.numberOfTrailingZeros(m);
+                    results[lane] = new FireflyTrialResult(first + lane, false, timesteps);
+                }
+                active = 0;
+            }
+            
+            // Drop every lane whose trial is no longer needed
+            if (prefix != null && timesteps % FireflyTrialPrefix.CHECK_INTERVAL == 0) {
+                int keep = prefix.getCutoff() - first;
+                if (keep < LANES) {
+                    long needed = keep > 0 ? (1L << keep) - 1 : 0;
+                    active &= needed;
+                    looped &= needed;
+                }
+            }
+        }
+        
+        // Work out when every loop was entered now we know each period
+        if (looped != 0) {
+            int [] entered = this.findEntries(looped, periods);
+            for (long m = looped; m != 0; m &= m - 1) {
+                int lane = Long.numberOfTrailingZeros(m);
+                results[lane] = new FireflyTrialResult(first + lane, FireflyTrialResult.Outcome.CYCLE, spotted[lane],
+                                                       periods[lane], entered[lane]);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Method which works out when each loop was entered, which is the first
+     * generation that matches the one a whole period after it. Rather than
+     * keep every generation we start two copies of the trials from the
+     * beginning, move the second on by each lane's period and then step both
+     * together until each lane matches
+     * 
+     * @param looped Mask of the lanes which fell into a loop
+     * @param periods Length of the loop in each lane
+     * @return Timestep each loop was entered, indexed by lane
+     */
+    private int [] findEntries(long looped, int [] periods) {
+        int [] entered = new int[count];
+        long [][] a = copy(start);
+        long [][] b = copy(start);
+        long [][] scratch = new long[PLANES][cells];
+        
+        // Move the second copy on by the period of each lane
+        for (int s = 0; ; s++) {
+            long move = 0;
+            for (long m = looped; m != 0; m &= m - 1) {
+                int lane = Long.numberOfTrailingZeros(m);
+                if (periods[lane] > s) move |= 1L << lane;
+            }
+            if (move == 0) break;
+            
+            this.step(b, scratch, move);
+            long [][] swap = b;
+            b = scratch;
+            scratch = swap;
+        }
+        
+        // Now step both until every lane has matched
+        long pending = looped;
+        for (int t = 0; ; t++) {
+            long matched = this.equal(a, b) & pending;
+            for (long m = matched; m != 0; m &= m - 1) {
+                entered[Long.numberOfTrailingZeros(m)] = t;
+            }
+            pending &= ~matched;
+            if (pending == 0) return entered;
+            
+            this.step(a, scratch, pending);
+            long [][] swap = a;
+            a = scratch;
+            scratch = swap;
+            
+            this.step(b, scratch, pending);
+            swap = b;
+            b = scratch;
+            scratch = swap;
+        }
+    }
+    
+    /**
+     * Getter method to return the current step of a firefly in one trial
+     * 
+     * @param lane Lane of the trial
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Current Step of that Firefly
+     */
+    public int getCurrentStep(int lane, int x, int y) {
+        int i = y * width + x;
+        int step = 0;
+        for (int k = 0; k < PLANES; k++) {
+            step |= (int)((planes[k][i] >>> lane) & 1L) << k;
+        }
+        return step;
+    }
+    
+    /**
+     * Method which copies the current step of every firefly in one trial into
+     * an array, indexed by y * width + x
+     * 
+     * @param lane Lane of the trial
+     * @param steps Array of at least width * height to copy into
+     */
+    public void copySteps(int lane, byte [] steps) {
+        for (int i = 0; i < cells; i++) {
+            int step = 0;
+            for (int k = 0; k < PLANES; k++) {
+                step |= (int)((planes[k][i] >>> lane) & 1L) << k;
+            }
+            steps[i] = (byte)step;
+        }
+    }
+    
+    /**
+     * Getter method to return how many timesteps have elapsed
+     * 
+     * @return Number of timesteps elapsed
+     */
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    /**
+     * Getter method to return the index of the trial in our first lane
+     * 
+     * @return Index of the first trial within the batch
+     */
+    public int getFirst() {
+        return this.first;
+    }
+    
+    /**
+     * Getter method to return how many lanes hold a trial
+     * 
+     * @return Number of trials
+     */
+    public int getCount() {
+        return this.count;
+    }
+    
+    @Override
+    public String toString() {
+        return "FireflyLaneGrid[" + width + "x" + height + ", trials " + first + " to " + (first + count - 1) + "]";
+    }
+}
@@ -0,0 +1,498 @@
+package firefly;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Firefly Metrics Class which keeps count of where the time goes in a run.
+ * Every engine stepped while metrics are on adds its step and sync check
+ * times to our counters and histograms, and every so often is sampled to see
+ * how many fireflies flashed, how many were reset and how many are in sync.
+ * The same numbers are sent to Flight Recorder as events, shown over JMX and
+ * served over HTTP in the Prometheus text format
+ * 
+ * Metrics are switched on for the whole JVM with -Dfirefly.metrics=true, or
+ * by giving -Dfirefly.metrics.port for the HTTP endpoint. When they are off
+ * engines are never wrapped, so a run costs exactly what it did before
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyMetrics implements FireflyMetricsMBean {
+    
+    // Port of the HTTP endpoint, 0 means don't serve one
+    public static final int PORT = Integer.getInteger("firefly.metrics.port", 0);
+    
+    // Are metrics on at all
+    public static final boolean ENABLED = Boolean.getBoolean("firefly.metrics") || PORT > 0;
+    
+    // How long we count over to work out our rates
+    private static final long WINDOW_NANOS = 1000000000L;
+    
+    // The one set of metrics for the whole JVM, made when first asked for
+    private static final AtomicReference<FireflyMetrics> GLOBAL = new AtomicReference<FireflyMetrics>();
+    
+    // Running totals
+    private final LongAdder timesteps = new LongAdder();
+    private final LongAdder cellUpdates = new LongAdder();
+    private final Histogram stepTimes = new Histogram();
+    private final Histogram syncTimes = new Histogram();
+    private final Histogram renderTimes = new Histogram();
+    
+    // Rates over the last whole window, and where the current one started
+    private volatile long windowStart = System.nanoTime();
+    private long windowTimesteps = 0;
+    private long windowCells = 0;
+    private volatile double stepsPerSecond = 0;
+    private volatile double cellsPerSecond = 0;
+    
+    // What we saw on the last sampled timestep
+    private volatile int flashes = 0;
+    private volatile int resets = 0;
+    private volatile double syncFraction = 0;
+    private volatile int sampleInterval = Integer.getInteger("firefly.metrics.sample", 100);
+    
+    /**
+     * Method which returns the metrics for the whole JVM, registering them
+     * with JMX and starting the HTTP endpoint the first time it is called
+     * 
+     * @return Metrics for the whole JVM
+     */
+    public static FireflyMetrics global() {
+        FireflyMetrics metrics = GLOBAL.get();
+        if (metrics != null) return metrics;
+        
+        synchronized (GLOBAL) {
+            if (GLOBAL.get() == null) {
+                metrics = new FireflyMetrics();
+                metrics.register();
+                if (PORT > 0) metrics.serve(PORT);
+                GLOBAL.set(metrics);
+            }
+        }
+        return GLOBAL.get();
+    }
+    
+    /**
+     * Method which wraps an engine so its timesteps are counted, if metrics
+     * are on. If they are off the engine is handed straight back
+     * 
+     * @param engine Engine to count
+     * @return Engine to step in its place
+     */
+    public static FireflyEngine instrument(FireflyEngine engine) {
+        if (!ENABLED || engine instanceof FireflyInstrumentedEngine) return engine;
+        return new FireflyInstrumentedEngine(engine, global());
+    }
+    
+    /**
+     * Method which registers us with the platform MBean server, carrying on
+     * without JMX if we can't
+     */
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("firefly:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Couldn't register metrics with JMX: " + e);
+        }
+    }
+    
+    /**
+     * Method which starts serving our metrics at /metrics on the loopback
+     * address. The server's threads take after the thread that starts it, so
+     * we start it from a daemon thread to make sure it never keeps a finished
+     * run alive
+     * 
+     * @param port Port to listen on
+     */
+    private void serve(final int port) {
+        Thread starter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                    server.createContext("/metrics", new HttpHandler() {
+                        @Override
+                        public void handle(HttpExchange exchange) throws IOException {
+                            byte [] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+                            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                            exchange.sendResponseHeaders(200, body.length);
+                            try (OutputStream out = exchange.getResponseBody()) {
+                                out.write(body);
+                            }
+                        }
+                    });
+                    server.start();
+                } catch (IOException e) {
+                    System.err.println("Couldn't serve metrics on port " + port + ": " + e);
+                }
+            }
+        }, "firefly-metrics");
+        starter.setDaemon(true);
+        starter.start();
+        
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Method which counts one timestep of an engine
+     * 
+     * @param stepNanos How long the step took
+     * @param syncNanos How long checking for sync took, 0 if we didn't
+     * @param cells Number of fireflies stepped
+     */
+    public void recordTick(long stepNanos, long syncNanos, int cells) {
+        timesteps.increment();
+        cellUpdates.add(cells);
+        stepTimes.record(stepNanos);
+        if (syncNanos > 0) syncTimes.record(syncNanos);
+        
+        this.roll(System.nanoTime());
+    }
+    
+    /**
+     * Method which stores what we saw on a sampled timestep
+     * 
+     * @param flashes Number of fireflies which flashed
+     * @param resets Number of fireflies reset by a flash
+     * @param syncFraction Fraction of fireflies on the most common step
+     */
+    public void recordSample(int flashes, int resets, double syncFraction) {
+        this.flashes = flashes;
+        this.resets = resets;
+        this.syncFraction = syncFraction;
+    }
+    
+    /**
+     * Method which counts one frame being drawn, which started at the given
+     * time and has just finished
+     * 
+     * @param start When drawing started, from System.nanoTime
+     * @param timestep Timestep of the frame
+     */
+    public void recordRender(long start, int timestep) {
+        long elapsed = System.nanoTime() - start;
+        renderTimes.record(elapsed);
+        
+        RenderEvent event = new RenderEvent();
+        if (event.isEnabled()) {
+            event.timestep = timestep;
+            event.renderTime = elapsed;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Method which works out our rates again once a window has passed. Only
+     * the thread which notices the window is over takes the lock
+     * 
+     * @param now Current time in nanoseconds
+     */
+    private void roll(long now) {
+        if (now - windowStart < WINDOW_NANOS) return;
+        
+        synchronized (this) {
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW_NANOS) return;
+            
+            long steps = timesteps.sum();
+            long cells = cellUpdates.sum();
+            
+            double seconds = elapsed / 1e9;
+            this.stepsPerSecond = (steps - windowTimesteps) / seconds;
+            this.cellsPerSecond = (cells - windowCells) / seconds;
+            
+            this.windowTimesteps = steps;
+            this.windowCells = cells;
+            this.windowStart = now;
+        }
+    }
+    
+    @Override
+    public long getTimesteps() {
+        return timesteps.sum();
+    }
+    
+    @Override
+    public long getCellUpdates() {
+        return cellUpdates.sum();
+    }
+    
+    @Override
+    public double getStepsPerSecond() {
+        this.roll(System.nanoTime());
+        return this.stepsPerSecond;
+    }
+    
+    @Override
+    public double getCellsPerSecond() {
+        this.roll(System.nanoTime());
+        return this.cellsPerSecond;
+    }
+    
+    @Override
+    public double getMeanStepMillis() {
+        return stepTimes.getMean() / 1e6;
+    }
+    
+    @Override
+    public double getMeanSyncCheckMillis() {
+        return syncTimes.getMean() / 1e6;
+    }
+    
+    @Override
+    public double getMeanRenderMillis() {
+        return renderTimes.getMean() / 1e6;
+    }
+    
+    @Override
+    public int getFlashes() {
+        return this.flashes;
+    }
+    
+    @Override
+    public int getResets() {
+        return this.resets;
+    }
+    
+    @Override
+    public double getSyncFraction() {
+        return this.syncFraction;
+    }
+    
+    @Override
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+    
+    @Override
+    public void setSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Sample interval can't be negative: " + interval);
+        }
+        this.sampleInterval = interval;
+    }
+    
+    /**
+     * Method which writes out every metric in the Prometheus text format
+     * 
+     * @return Metrics as text
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        
+        metric(out, "firefly_timesteps_total", "counter", "Timesteps stepped across every engine", getTimesteps());
+        metric(out, "firefly_cell_updates_total", "counter", "Fireflies stepped across every engine", getCellUpdates());
+        metric(out, "firefly_steps_per_second", "gauge", "Timesteps stepped over the last second", getStepsPerSecond());
+        metric(out, "firefly_cells_per_second", "gauge", "Fireflies stepped over the last second", getCellsPerSecond());
+        metric(out, "firefly_flashes", "gauge", "Fireflies which flashed on the last sampled timestep", flashes);
+        metric(out, "firefly_resets", "gauge", "Fireflies reset by a flash on the last sampled timestep", resets);
+        metric(out, "firefly_sync_fraction", "gauge", "Fraction of fireflies on the most common step when last sampled",
+               syncFraction);
+        
+        stepTimes.write(out, "firefly_step_seconds", "Time taken to step an engine");
+        syncTimes.write(out, "firefly_sync_check_seconds", "Time taken to check an engine for sync");
+        renderTimes.write(out, "firefly_render_seconds", "Time taken to draw a frame");
+        
+        // Time lost to garbage collection, so a slow patch can be put down to it
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(gc.getCollectionTime(), 0);
+        }
+        metric(out, "firefly_gc_seconds_total", "counter", "Time the JVM has spent collecting garbage", gcMillis / 1e3);
+        
+        return out.toString();
+    }
+    
+    /**
+     * Method which writes out a single metric with its help and type
+     * 
+     * @param out Where to write
+     * @param name Name of the metric
+     * @param type Prometheus type of the metric
+     * @param help What the metric means
+     * @param value Value of the metric
+     */
+    private static void metric(StringBuilder out, String name, String type, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(format(value)).append('\n');
+    }
+    
+    /**
+     * Method which formats a number the way Prometheus expects
+     * 
+     * @param value Number to format
+     * @return Number as text
+     */
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long)value);
+        return Double.toString(value);
+    }
+    
+    /**
+     * Histogram Class which counts times into buckets that double in size
+     * from a microsecond up, so both tiny and huge grids land in sensible
+     * buckets without us having to know their size
+     */
+    private static class Histogram {
+        
+        // Buckets up to 2^(BUCKETS - 2) microseconds, then everything else
+        private static final int BUCKETS = 26;
+        
+        private final LongAdder [] counts = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        
+        Histogram() {
+            for (int b = 0; b < BUCKETS; b++) counts[b] = new LongAdder();
+        }
+        
+        /**
+         * Method which counts a time into its bucket
+         * 
+         * @param nanos Time in nanoseconds
+         */
+        void record(long nanos) {
+            int bucket = nanos <= 1000 ? 0 : 64 - Long.numberOfLeadingZeros((nanos - 1) / 1000);
+            counts[Math.min(bucket, BUCKETS - 1)].increment();
+            count.increment();
+            sum.add(nanos);
+        }
+        
+        /**
+         * Getter method to return the mean of every time counted
+         * 
+         * @return Mean time in nanoseconds, 0 if there are none
+         */
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double)sum.sum() / n;
+        }
+        
+        /**
+         * Method which writes out the histogram in the Prometheus text
+         * format, where each bucket counts everything up to its bound
+         * 
+         * @param out Where to write
+         * @param name Name of the metric
+         * @param help What the metric means
+         */
+        void write(StringBuilder out, String name, String help) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            
+            long total = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                total += counts[b].sum();
+                String bound = b == BUCKETS - 1 ? "+Inf" : format((1L << b) / 1e6);
+                out.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(total).append('\n');
+            }
+            out.append(name).append("_sum ").append(format(sum.sum() / 1e9)).append('\n');
+            out.append(name).append("_count ").append(total).append('\n');
+        }
+    }
+    
+    /**
+     * Tick Event Class which Flight Recorder keeps for every timestep of an
+     * instrumented engine. It lasts from the start of the step to the end of
+     * the sync check after it
+     */
+    @Name("firefly.Tick")
+    @Label("Firefly Tick")
+    @Category("Firefly")
+    @Description("One timestep of a firefly engine")
+    @StackTrace(false)
+    public static class TickEvent extends Event {
+        @Label("Engine")
+        String engine;
+        
+        @Label("Timestep")
+        int timestep;
+        
+        @Label("Fireflies")
+        int cells;
+        
+        @Label("Step Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long stepTime;
+        
+        @Label("Sync Check Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long syncTime;
+    }
+    
+    /**
+     * Sample Event Class which Flight Recorder keeps for every sampled
+     * timestep, with what the grid looked like
+     */
+    @Name("firefly.Sample")
+    @Label("Firefly Sample")
+    @Category("Firefly")
+    @Description("What a firefly grid looked like on a sampled timestep")
+    @StackTrace(false)
+    public static class SampleEvent extends Event {
+        @Label("Engine")
+        String engine;
+        
+        @Label("Timestep")
+        int timestep;
+        
+        @Label("Flashes")
+        int flashes;
+        
+        @Label("Resets")
+        int resets;
+        
+        @Label("Sync Fraction")
+        @Percentage
+        double syncFraction;
+    }
+    
+    /**
+     * Render Event Class which Flight Recorder keeps for every frame drawn
+     */
+    @Name("firefly.Render")
+    @Label("Firefly Render")
+    @Category("Firefly")
+    @Description("One frame of a firefly grid being drawn")
+    @StackTrace(false)
+    public static class RenderEvent extends Event {
+        @Label("Timestep")
+        int timestep;
+        
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderTime;
+    }
+}
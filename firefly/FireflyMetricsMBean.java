@@ -0,0 +1,109 @@
+package firefly;
+
+/**
+ * Firefly Metrics MBean Interface which is what JMX tools such as JConsole
+ * see of our FireflyMetrics, under the name firefly:type=Metrics
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public interface FireflyMetricsMBean {
+    
+    /**
+     * Getter method to return how many timesteps have been stepped across
+     * every engine
+     * 
+     * @return Number of timesteps
+     */
+    public long getTimesteps();
+    
+    /**
+     * Getter method to return how many fireflies have been stepped across
+     * every engine
+     * 
+     * @return Number of firefly updates
+     */
+    public long getCellUpdates();
+    
+    /**
+     * Getter method to return how many timesteps were stepped over the last
+     * second
+     * 
+     * @return Timesteps per second
+     */
+    public double getStepsPerSecond();
+    
+    /**
+     * Getter method to return how many fireflies were stepped over the last
+     * second
+     * 
+     * @return Fireflies per second
+     */
+    public double getCellsPerSecond();
+    
+    /**
+     * Getter method to return the mean time taken to step an engine
+     * 
+     * @return Mean step time in milliseconds
+     */
+    public double getMeanStepMillis();
+    
+    /**
+     * Getter method to return the mean time taken to check an engine for sync
+     * 
+     * @return Mean sync check time in milliseconds
+     */
+    public double getMeanSyncCheckMillis();
+    
+    /**
+     * Getter method to return the mean time taken to draw a frame
+     * 
+     * @return Mean render time in milliseconds
+     */
+    public double getMeanRenderMillis();
+    
+    /**
+     * Getter method to return how many fireflies flashed on the last sampled
+     * timestep
+     * 
+     * @return Number of fireflies which flashed
+     */
+    public int getFlashes();
+    
+    /**
+     * Getter method to return how many fireflies were reset by a flash on the
+     * last sampled timestep
+     * 
+     * @return Number of fireflies reset
+     */
+    public int getResets();
+    
+    /**
+     * Getter method to return the fraction of fireflies on the most common
+     * step on the last sampled timestep
+     * 
+     * @return Fraction of fireflies in sync, from 0 to 1
+     */
+    public double getSyncFraction();
+    
+    /**
+     * Getter method to return how often engines are sampled
+     * 
+     * @return Timesteps between samples, 0 means never
+     */
+    public int getSampleInterval();
+    
+    /**
+     * Setter method to change how often engines are sampled. Sampling copies
+     * out the whole grid twice, so it costs about as much as a timestep
+     * 
+     * @param interval Timesteps between samples, 0 means never
+     */
+    public void setSampleInterval(int interval);
+}
@@ -0,0 +1,268 @@
+package firefly;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * Firefly Parallel Grid Class which steps a FireflyArrayGrid on a fixed set of
+ * worker threads. The grid is split into bands of rows and each worker steps
+ * its own band, reading the rows either side of it from the current generation
+ * and writing only its own rows of the next one. As the current generation is
+ * never written during a step there is no locking at all, just one barrier per
+ * tick where the generations are swapped and the sync counts are added up
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyParallelGrid implements FireflyEngine, AutoCloseable {
+    
+    // The grid we are stepping
+    private final FireflyArrayGrid grid;
+    
+    // Where each band of rows starts, with an extra entry for the end, and the
+    // change in disagreements each band worked out in the current tick
+    private final int [] bands;
+    private final long [] deltas;
+    
+    // Barrier which every thread meets at once per tick, and our helpers
+    // which step every band apart from the first one
+    private final Phaser barrier;
+    private final Thread [] helpers;
+    
+    // How many ticks are left in this run and whether to stop on sync
+    private int ticksRemaining;
+    private boolean stopOnSync;
+    
+    // Are we in the middle of a run, have we got past the start barrier of
+    // it, have we been closed and did anyone fail
+    private volatile boolean running = false;
+    private volatile boolean ticking = false;
+    private volatile boolean closed = false;
+    private volatile Throwable failure;
+    
+    /**
+     * Constructor Method which splits the grid into a band for each thread
+     * and starts up our helper threads
+     * 
+     * @param grid Grid to step
+     * @param threads Number of threads to step on, including the caller
+     */
+    public FireflyParallelGrid(FireflyArrayGrid grid, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        
+        // No point having more bands than we have rows
+        threads = Math.min(threads, grid.getHeight());
+        
+        this.grid = grid;
+        this.bands = new int[threads + 1];
+        this.deltas = new long[threads];
+        for (int i = 0; i <= threads; i++) {
+            bands[i] = (int)((long)grid.getHeight() * i / threads);
+        }
+        
+        // The last thread to arrive finishes off the tick for everyone, apart
+        // from at the start of a run where there is nothing to finish
+        this.barrier = new Phaser(threads) {
+            @Override
+            protected boolean onAdvance(int phase, int parties) {
+                if (ticking) finishTick();
+                else ticking = running;
+                return false;
+            }
+        };
+        
+        // Start up our helpers, the caller steps the first band itself
+        this.helpers = new Thread[threads - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            final int band = i + 1;
+            helpers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        // Wait for someone to start a run
+                        barrier.arriveAndAwaitAdvance();
+                        if (closed) return;
+                        
+                        stepBand(band);
+                    }
+                }
+            }, "firefly-band-" + band);
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+    }
+    
+    /**
+     * Method which steps a band of rows once per tick until the run is over
+     * 
+     * @param band Index of the band
+     */
+    private void stepBand(int band) {
+        do {
+            try {
+                deltas[band] = grid.stepRows(bands[band], bands[band + 1]);
+            } catch (Throwable t) {
+                // Keep arriving so nobody else is left waiting for us
+                failure = t;
+            }
+            
+            barrier.arriveAndAwaitAdvance();
+        } while (running);
+    }
+    
+    /**
+     * Method which is called by the last thread to arrive at the barrier. It
+     * swaps the generations over and decides if the run is over
+     */
+    private void finishTick() {
+        long delta = 0;
+        for (long d : deltas) delta += d;
+        grid.finishStep(delta);
+        
+        ticksRemaining--;
+        if (ticksRemaining <= 0 || failure != null || (stopOnSync && grid.isSynchronised())) {
+            running = false;
+            ticking = false;
+        }
+    }
+    
+    /**
+     * Method which runs a number of ticks across all our threads, with the
+     * caller stepping the first band
+     * 
+     * @param ticks Number of ticks to run
+     * @param stopOnSync Whether to stop early once the grid is synchronised
+     */
+    private void run(int ticks, boolean stopOnSync) {
+        if (closed) {
+            throw new IllegalStateException("Parallel grid has been closed");
+        }
+        if (ticks <= 0) return;
+        
+        this.ticksRemaining = ticks;
+        this.stopOnSync = stopOnSync;
+        this.running = true;
+        
+        // Wake up our helpers and step our own band
+        barrier.arriveAndAwaitAdvance();
+        this.stepBand(0);
+        
+        if (failure != null) {
+            Throwable t = failure;
+            failure = null;
+            throw new IllegalStateException("Stepping a band failed", t);
+        }
+    }
+    
+    @Override
+    public void step() {
+        this.run(1, false);
+    }
+    
+    /**
+     * Method which keeps stepping until the grid synchronises or we hit the
+     * timestep limit, with only one barrier per tick
+     * 
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return True if the grid synchronised
+     */
+    public boolean stepUntilSynchronised(int timestepLimit) {
+        int ticks = timestepLimit > 0 ? timestepLimit - grid.getTimesteps() : Integer.MAX_VALUE;
+        this.run(ticks, true);
+        return grid.isSynchronised();
+    }
+    
+    /**
+     * Method which stops all our helper threads
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        
+        // Let our helpers through the start barrier so they see we're closed
+        barrier.arriveAndAwaitAdvance();
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public boolean isSynchronised() {
+        return grid.isSynchronised();
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return grid.getTimesteps();
+    }
+    
+    @Override
+    public int getWidth() {
+        return grid.getWidth();
+    }
+    
+    @Override
+    public int getHeight() {
+        return grid.getHeight();
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return grid.getCurrentStep(x, y);
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        grid.copySteps(steps);
+    }
+    
+    @Override
+    public long stateHash() {
+        return grid.stateHash();
+    }
+    
+    @Override
+    public long checkHash() {
+        return grid.checkHash();
+    }
+    
+    /**
+     * Main Class which times stepping a big grid on every thread count up to
+     * our cores
+     * 
+     * @param args Grid width, grid height and timesteps to time
+     */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int timesteps = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int cores = Runtime.getRuntime().availableProcessors();
+        
+        FireflyArrayGrid big = new FireflyArrayGrid(width, height, FireflyInteraction.FIREFLY_NEIGHBOURHOOD, true);
+        for (int threads = 1; threads <= cores; threads++) {
+            FireflyParallelGrid parallel = new FireflyParallelGrid(big, threads);
+            
+            // Warm up first and then time it
+            parallel.stepUntilSynchronised(big.getTimesteps() + 20);
+            long start = System.nanoTime();
+            parallel.stepUntilSynchronised(big.getTimesteps() + timesteps);
+            long elapsed = System.nanoTime() - start;
+            
+            System.out.println(threads + " threads: " + (elapsed / timesteps / 1000) + " us per step");
+            parallel.close();
+        }
+    }
+}
@@ -0,0 +1,645 @@
+package firefly;
+
+/**
+ * Firefly Pulse Engine Class which runs the continuous version of our
+ * fireflies, the pulse coupled oscillators of Mirollo and Strogatz. Instead of
+ * a clock of ten steps every firefly has a real valued phase which climbs
+ * from 0 to 1 at its own natural frequency. When it reaches 1 it flashes and
+ * goes back to 0, and every firefly that can see it has its phase pushed on
+ * by a phase response curve. Anyone pushed up to 1 is absorbed and flashes
+ * at the same instant
+ * 
+ * Between flashes nothing happens apart from phases climbing, so we never
+ * step through time at all. Each firefly keeps the phase it had at the last
+ * time anything happened to it, which tells us exactly when it will next
+ * flash, and those times are kept in an indexed binary heap. We just keep
+ * taking the next flash off the heap, push on the fireflies that can see it
+ * and move them in the heap, so the cost of a run is proportional to the
+ * number of flashes rather than how much time passes
+ * 
+ * Flashes at the same instant can either be taken one at a time, each
+ * firefly going back to 0 as soon as it flashes, or as a single avalanche,
+ * where everyone absorbed by it flashes together and they all go back to 0
+ * at the end. Either way a firefly that has flashed doesn't hear the rest of
+ * the flashes at that instant, so it can't be absorbed again and flashes at
+ * most once an instant
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyPulseEngine {
+    
+    /**
+     * Phase Response Interface which works out where a firefly's phase goes
+     * when it sees a flash. A new phase of 1 or more means it is absorbed
+     * and flashes straight away
+     */
+    public static interface PhaseResponse {
+        public double respond(double phase);
+    }
+    
+    // Size, neighbourhood and boundary of our grid, and its neighbour table
+    private final FireflyTopology topology;
+    private final int [] neighbours;
+    private final int stride;
+    private final byte [] orthogonals;
+    private final byte [] neighbourCounts;
+    private final int cells;
+    
+    // How fireflies respond to a flash, and whether flashes at the same
+    // instant are taken as one avalanche
+    private final PhaseResponse response;
+    private final boolean avalanche;
+    
+    // Natural frequency of every firefly, and its phase at the last time
+    // anything happened to it
+    private final double [] frequencies;
+    private final double [] phases;
+    private final double [] times;
+    
+    // Next flash time of every firefly, and the indexed heap ordering them
+    private final double [] next;
+    private final int [] heap;
+    private final int [] positions;
+    
+    // Fireflies in the avalanche being worked out, and a stamp saying who
+    private final int [] batch;
+    private final int [] stamps;
+    private int stamp = 0;
+    
+    // Stamp of the instant each firefly last flashed at, and of the instant
+    // of the last flash
+    private final int [] flashed;
+    private int instant = 0;
+    
+    // Current time, when the last flash was and how many flashed at that
+    // instant, and how many flashes there have been altogether
+    private double now = 0;
+    private double lastFlash = Double.NaN;
+    private int lastCount = 0;
+    private long flashes = 0;
+    
+    /**
+     * Constructor Method which creates a grid with every firefly starting at
+     * a random phase and natural frequency picked from a seed
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param response How fireflies respond to a flash
+     * @param spread Most a natural frequency can be away from 1
+     * @param avalanche Whether to take flashes at the same instant as one
+     *                  avalanche
+     * @param seed Seed to pick the starting phases and frequencies from
+     */
+    public FireflyPulseEngine(FireflyTopology topology, PhaseResponse response, double spread, boolean avalanche,
+                              long seed) {
+        this(topology, response, phases(topology.getCells(), seed), frequencies(topology.getCells(), seed, spread),
+             avalanche);
+    }
+    
+    /**
+     * Constructor Method which creates a grid from the starting phase and
+     * natural frequency of every firefly
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param response How fireflies respond to a flash
+     * @param phases Starting phase of every firefly, from 0 up to 1
+     * @param frequencies Natural frequency of every firefly, above 0
+     * @param avalanche Whether to take flashes at the same instant as one
+     *                  avalanche
+     */
+    public FireflyPulseEngine(FireflyTopology topology, PhaseResponse response, double [] phases,
+                              double [] frequencies, boolean avalanche) {
+        this.topology = topology;
+        this.neighbours = topology.getNeighbours();
+        this.stride = topology.getStride();
+        this.orthogonals = topology.getOrthogonals();
+        this.neighbourCounts = topology.getSizes();
+        this.cells = topology.getCells();
+        this.response = response;
+        this.avalanche = avalanche;
+        
+        if (phases.length != cells || frequencies.length != cells) {
+            throw new IllegalArgumentException("Need a phase and frequency for each of the " + cells + " fireflies");
+        }
+        
+        this.phases = phases.clone();
+        this.frequencies = frequencies.clone();
+        this.times = new double[cells];
+        this.next = new double[cells];
+        this.heap = new int[cells];
+        this.positions = new int[cells];
+        this.batch = new int[cells];
+        this.stamps = new int[cells];
+        this.flashed = new int[cells];
+        
+        for (int i = 0; i < cells; i++) {
+            if (!(phases[i] >= 0 && phases[i] < 1)) {
+                throw new IllegalArgumentException("Phase must be at least 0 and below 1, got " + phases[i]);
+            }
+            if (!(frequencies[i] > 0)) {
+                throw new IllegalArgumentException("Frequency must be above 0, got " + frequencies[i]);
+            }
+            
+            next[i] = (1 - phases[i]) / frequencies[i];
+            heap[i] = i;
+            positions[i] = i;
+        }
+        
+        // Heapify from the last parent down
+        for (int h = cells / 2 - 1; h >= 0; h--) this.siftDown(h);
+    }
+    
+    /**
+     * Method which picks random starting phases from a seed
+     * 
+     * @param cells Number of fireflies
+     * @param seed Seed of the grid
+     * @return Starting phase of every firefly
+     */
+    private static double [] phases(int cells, long seed) {
+        double [] phases = new double[cells];
+        FireflyRandom.fillPhases(phases, seed);
+        return phases;
+    }
+    
+    /**
+     * Method which picks random natural frequencies from a seed
+     * 
+     * @param cells Number of fireflies
+     * @param seed Seed of the grid
+     * @param spread Most a natural frequency can be away from 1
+     * @return Natural frequency of every firefly
+     */
+    private static double [] frequencies(int cells, long seed, double spread) {
+        double [] frequencies = new double[cells];
+        FireflyRandom.fillFrequencies(frequencies, seed, spread);
+        return frequencies;
+    }
+    
+    /**
+     * Method which returns the phase response of Mirollo and Strogatz. Each
+     * firefly has a state which rises from 0 to 1 as a concave function of its
+     * phase, f(phase) = ln(1 + (e^b - 1) phase) / b, and a flash pushes the
+     * state up by a fixed pulse
+     * 
+     * @param dissipation How concave the state is, b, above 0
+     * @param pulse How far a flash pushes the state up, above 0
+     * @return Phase response curve
+     */
+    public static PhaseResponse mirolloStrogatz(final double dissipation, final double pulse) {
+        if (!(dissipation > 0) || !(pulse > 0)) {
+            throw new IllegalArgumentException("Need a dissipation and pulse above 0, got " + dissipation + ", " + pulse);
+        }
+        
+        final double scale = Math.expm1(dissipation);
+        return new PhaseResponse() {
+            @Override
+            public double respond(double phase) {
+                double state = Math.log1p(scale * phase) / dissipation + pulse;
+                if (state >= 1) return 1;
+                return Math.expm1(dissipation * state) / scale;
+            }
+            
+            @Override
+            public String toString() {
+                return "mirollo-strogatz b=" + dissipation + " pulse=" + pulse;
+            }
+        };
+    }
+    
+    /**
+     * Method which returns a phase response where a flash pushes every phase
+     * on by the same amount
+     * 
+     * @param pulse How far a flash pushes the phase on, above 0
+     * @return Phase response curve
+     */
+    public static PhaseResponse constant(final double pulse) {
+        if (!(pulse > 0)) {
+            throw new IllegalArgumentException("Need a pulse above 0, got " + pulse);
+        }
+        
+        return new PhaseResponse() {
+            @Override
+            public double respond(double phase) {
+                return phase + pulse;
+            }
+            
+            @Override
+            public String toString() {
+                return "constant pulse=" + pulse;
+            }
+        };
+    }
+    
+    /**
+     * Method which returns a phase response where a flash pushes a phase on
+     * in proportion to how far along it already is, so fireflies that have
+     * only just flashed hardly move
+     * 
+     * @param pulse Fraction of the phase a flash adds on, above 0
+     * @return Phase response curve
+     */
+    public static PhaseResponse linear(final double pulse) {
+        if (!(pulse > 0)) {
+            throw new IllegalArgumentException("Need a pulse above 0, got " + pulse);
+        }
+        
+        return new PhaseResponse() {
+            @Override
+            public double respond(double phase) {
+                return phase * (1 + pulse);
+            }
+            
+            @Override
+            public String toString() {
+                return "linear pulse=" + pulse;
+            }
+        };
+    }
+    
+    /**
+     * Method which returns a phase response that ignores flashes for the
+     * first part of the cycle, like the charging steps of our Firefly turned
+     * around, and otherwise responds as another curve does
+     * 
+     * @param refractory Phase below which flashes are ignored
+     * @param response How to respond after that
+     * @return Phase response curve
+     */
+    public static PhaseResponse refractory(final double refractory, final PhaseResponse response) {
+        return new PhaseResponse() {
+            @Override
+            public double respond(double phase) {
+                return phase < refractory ? phase : response.respond(phase);
+            }
+            
+            @Override
+            public String toString() {
+                return response + " refractory=" + refractory;
+            }
+        };
+    }
+    
+    /**
+     * Method which takes the next flash off the heap and works out what it
+     * does. With avalanches on, everyone flashing at the same instant is
+     * taken together
+     */
+    public void flash() {
+        int f = heap[0];
+        double t = next[f];
+        this.now = t;
+        
+        if (avalanche) {
+            this.flashAvalanche(f, t);
+        } else {
+            this.flashAlone(f, t);
+        }
+    }
+    
+    /**
+     * Method which flashes one firefly and pushes on everyone who can see it.
+     * Anyone absorbed is put at the front of the heap to flash at the same
+     * instant, and will hear any flashes taken before it. Anyone who has
+     * already flashed at this instant is left alone, or they would be pushed
+     * back up to 1 and flash again for ever
+     * 
+     * @param f Index of the flashing firefly
+     * @param t Time of the flash
+     */
+    private void flashAlone(int f, double t) {
+        this.reset(f, t);
+        this.recordFlash(f, t);
+        
+        int base = f * stride;
+        for (int k = 0; k < neighbourCounts[f]; k++) {
+            int n = neighbours[base + k];
+            if (flashed[n] == instant || !this.hears(f, k, n)) continue;
+            
+            double phase = response.respond(this.phaseAt(n, t));
+            this.setPhase(n, Math.min(phase, 1), t);
+        }
+    }
+    
+    /**
+     * Method which flashes a whole avalanche at once. Everyone due to flash
+     * at this instant starts it, each flash pushes on everyone who can see it
+     * and anyone absorbed joins in. Nobody in the avalanche hears it, and
+     * once it has run its course they all go back to 0 together
+     * 
+     * @param f Index of the first flashing firefly
+     * @param t Time of the flash
+     */
+    private void flashAvalanche(int f, double t) {
+        stamp++;
+        int count = 0;
+        
+        // Everyone already due at this instant starts the avalanche
+        while (next[heap[0]] <= t && stamps[heap[0]] != stamp) {
+            int g = heap[0];
+            stamps[g] = stamp;
+            batch[count++] = g;
+            this.reschedule(g, Double.POSITIVE_INFINITY);
+        }
+        
+        for (int b = 0; b < count; b++) {
+            int g = batch[b];
+            int base = g * stride;
+            for (int k = 0; k < neighbourCounts[g]; k++) {
+                int n = neighbours[base + k];
+                if (stamps[n] == stamp || !this.hears(g, k, n)) continue;
+                
+                double phase = response.respond(this.phaseAt(n, t));
+                if (phase >= 1) {
+                    // Absorbed, so n flashes with us
+                    stamps[n] = stamp;
+                    batch[count++] = n;
+                    this.reschedule(n, Double.POSITIVE_INFINITY);
+                } else {
+                    this.setPhase(n, phase, t);
+                }
+            }
+        }
+        
+        for (int b = 0; b < count; b++) {
+            this.reset(batch[b], t);
+            this.recordFlash(batch[b], t);
+        }
+    }
+    
+    /**
+     * Method which tells us if a firefly hears the flash of one of its
+     * neighbours, which it always does for its orthogonal neighbours and
+     * only does for the diagonals with a Moore neighbourhood
+     * 
+     * @param f Index of the flashing firefly
+     * @param k Slot of the neighbour in the flashing firefly's part of the table
+     * @param n Index of the neighbour
+     * @return True if the neighbour hears the flash
+     */
+    private boolean hears(int f, int k, int n) {
+        return n != f && (k < orthogonals[f] || topology.isMoore(n));
+    }
+    
+    /**
+     * Method which keeps count of how many different fireflies have flashed
+     * at the same instant, stamping each one so it is only counted once
+     * 
+     * @param i Index of the flashing firefly
+     * @param t Time of the flash
+     */
+    private void recordFlash(int i, double t) {
+        if (t != lastFlash) {
+            instant++;
+            lastFlash = t;
+            lastCount = 0;
+        }
+        if (flashed[i] != instant) {
+            flashed[i] = instant;
+            lastCount++;
+        }
+        flashes++;
+    }
+    
+    /**
+     * Method which returns the phase of a firefly at a time
+     * 
+     * @param i Index of the firefly
+     * @param t Time, no earlier than the last time anything happened to it
+     * @return Phase of the firefly, at most 1
+     */
+    private double phaseAt(int i, double t) {
+        return Math.min(phases[i] + frequencies[i] * (t - times[i]), 1);
+    }
+    
+    /**
+     * Method which sends a firefly back to the start of its cycle
+     * 
+     * @param i Index of the firefly
+     * @param t Time it flashed
+     */
+    private void reset(int i, double t) {
+        this.setPhase(i, 0, t);
+    }
+    
+    /**
+     * Method which sets the phase of a firefly at a time and moves it in the
+     * heap to match
+     * 
+     * @param i Index of the firefly
+     * @param phase New phase of the firefly, at most 1
+     * @param t Time of the change
+     */
+    private void setPhase(int i, double phase, double t) {
+        phases[i] = phase;
+        times[i] = t;
+        this.reschedule(i, phase >= 1 ? t : t + (1 - phase) / frequencies[i]);
+    }
+    
+    /**
+     * Method which changes when a firefly next flashes and moves it up or
+     * down the heap
+     * 
+     * @param i Index of the firefly
+     * @param time New time of its next flash
+     */
+    private void reschedule(int i, double time) {
+        double old = next[i];
+        next[i] = time;
+        if (time < old) this.siftUp(positions[i]);
+        else this.siftDown(positions[i]);
+    }
+    
+    /**
+     * Method which moves an entry of the heap up until its parent is earlier
+     * 
+     * @param h Position in the heap
+     */
+    private void siftUp(int h) {
+        int i = heap[h];
+        while (h > 0) {
+            int parent = (h - 1) >>> 1;
+            int p = heap[parent];
+            if (next[p] <= next[i]) break;
+            
+            heap[h] = p;
+            positions[p] = h;
+            h = parent;
+        }
+        heap[h] = i;
+        positions[i] = h;
+    }
+    
+    /**
+     * Method which moves an entry of the heap down until both its children
+     * are later
+     * 
+     * @param h Position in the heap
+     */
+    private void siftDown(int h) {
+        int i = heap[h];
+        while (true) {
+            int child = 2 * h + 1;
+            if (child >= cells) break;
+            if (child + 1 < cells && next[heap[child + 1]] < next[heap[child]]) child++;
+            
+            int c = heap[child];
+            if (next[i] <= next[c]) break;
+            
+            heap[h] = c;
+            positions[c] = h;
+            h = child;
+        }
+        heap[h] = i;
+        positions[i] = h;
+    }
+    
+    /**
+     * Method which takes every flash up to a time and then moves the clock on
+     * to it
+     * 
+     * @param time Time to move on to
+     */
+    public void advanceTo(double time) {
+        while (next[heap[0]] <= time) this.flash();
+        this.now = Math.max(now, time);
+    }
+    
+    /**
+     * Method which keeps taking flashes until every firefly flashes at the
+     * same instant or we pass a time limit
+     * 
+     * @param timeLimit Time to give up at, 0 means run until sync
+     * @return True if the grid synchronised
+     */
+    public boolean runUntilSynchronised(double timeLimit) {
+        double limit = timeLimit > 0 ? timeLimit : Double.POSITIVE_INFINITY;
+        
+        while (next[heap[0]] <= limit) {
+            this.flash();
+            if (this.isSynchronised()) return true;
+        }
+        
+        this.now = Math.max(now, timeLimit);
+        return false;
+    }
+    
+    /**
+     * Method which checks if every firefly flashed at the last instant anyone
+     * flashed, counting each firefly once. With no flashes in between they
+     * keep flashing together until their natural frequencies pull them apart
+     * 
+     * @return True if the grid is synchronised
+     */
+    public boolean isSynchronised() {
+        return lastCount == cells;
+    }
+    
+    /**
+     * Getter method to return the phase of an individual firefly right now
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Phase of that Firefly, from 0 up to 1
+     */
+    public double getPhase(int x, int y) {
+        return this.phaseAt(y * topology.getWidth() + x, now);
+    }
+    
+    /**
+     * Getter method to return the natural frequency of an individual firefly
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Natural frequency of that Firefly
+     */
+    public double getFrequency(int x, int y) {
+        return this.frequencies[y * topology.getWidth() + x];
+    }
+    
+    /**
+     * Getter method to return the current time
+     * 
+     * @return Time elapsed
+     */
+    public double getTime() {
+        return this.now;
+    }
+    
+    /**
+     * Getter method to return how many different fireflies flashed at the
+     * last instant anyone flashed
+     * 
+     * @return Size of the last avalanche
+     */
+    public int getLastAvalanche() {
+        return this.lastCount;
+    }
+    
+    /**
+     * Getter method to return how many flashes there have been
+     * 
+     * @return Number of flashes
+     */
+    public long getFlashes() {
+        return this.flashes;
+    }
+    
+    /**
+     * Getter method to return the size, neighbourhood and boundary of our grid
+     * 
+     * @return Topology of our grid
+     */
+    public FireflyTopology getTopology() {
+        return this.topology;
+    }
+    
+    /**
+     * Main Class which runs a grid of continuous fireflies until they sync
+     * or we pass the time limit
+     * 
+     * @param args Grid width, grid height, neighbourhood, boundary, phase
+     *             response (ms, constant or linear), pulse, frequency spread,
+     *             whether to take avalanches together, time limit and seed
+     */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 2 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[2]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 3 ?
+            FireflyTopology.Boundary.valueOf(args[3]) : FireflyInteraction.FIREFLY_BOUNDARY;
+        String curve = args.length > 4 ? args[4] : "ms";
+        double pulse = args.length > 5 ? Double.parseDouble(args[5]) : 0.1;
+        double spread = args.length > 6 ? Double.parseDouble(args[6]) : 0;
+        boolean avalanche = args.length > 7 ? Boolean.parseBoolean(args[7]) : true;
+        double timeLimit = args.length > 8 ? Double.parseDouble(args[8]) : 10000;
+        long seed = args.length > 9 ? Long.parseLong(args[9]) : FireflyRandom.newSeed();
+        
+        PhaseResponse response;
+        if (curve.equals("ms")) response = mirolloStrogatz(3, pulse);
+        else if (curve.equals("constant")) response = constant(pulse);
+        else if (curve.equals("linear")) response = linear(pulse);
+        else throw new IllegalArgumentException("Unknown phase response: " + curve);
+        
+        FireflyTopology topology = new FireflyTopology(width, height, neighbourhood, boundary, seed);
+        FireflyPulseEngine engine = new FireflyPulseEngine(topology, response, spread, avalanche, seed);
+        
+        long start = System.nanoTime();
+        boolean synced = engine.runUntilSynchronised(timeLimit);
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.println("Seed: " + seed);
+        System.out.println("Response: " + response + (avalanche ? ", avalanches" : ", one flash at a time"));
+        System.out.println((synced ? "Synchronised" : "Not synchronised") + " at time " + engine.getTime());
+        System.out.println("Flashes: " + engine.getFlashes() + ", last avalanche " + engine.getLastAvalanche());
+        System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+    }
+}
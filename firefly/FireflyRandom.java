@@ -0,0 +1,201 @@
+package firefly;
+
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Firefly Random Class which hands out the random numbers our grids start
+ * from. Everything starts from one seed, and each trial, each kind of choice
+ * and each block of fireflies gets a stream of its own worked out from it, so
+ * nothing is ever shared between threads and a run can be repeated exactly
+ * just by knowing its seed
+ * 
+ * Grids are filled in blocks of fireflies on every core at once. Each block
+ * always gets the same stream however many threads there are and whichever
+ * thread fills it, so the grid comes out the same on any machine
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyRandom {
+    
+    // Number of fireflies each stream fills
+    public static final int BLOCK = 1 << 14;
+    
+    // Streams for the different things we pick, so they never overlap
+    private static final long STEPS = 1;
+    private static final long COINS = 2;
+    private static final long PHASES = 3;
+    private static final long FREQUENCIES = 4;
+    
+    // Odd constant spreading the indices of our streams apart
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+    
+    /**
+     * Ensure we can't construct a new object of Firefly Random
+     */
+    private FireflyRandom() { }
+    
+    /**
+     * Method which picks a fresh seed for a run that wasn't given one
+     * 
+     * @return New seed
+     */
+    public static long newSeed() {
+        return new SplittableRandom().nextLong();
+    }
+    
+    /**
+     * Method which works out the seed of one of the streams under a seed,
+     * such as the seed of a trial within a batch. Different indices give
+     * seeds that have nothing to do with each other
+     * 
+     * @param seed Seed to derive from
+     * @param index Index of the stream
+     * @return Seed of that stream
+     */
+    public static long derive(long seed, long index) {
+        long z = seed + (index + 1) * GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Method which fills an array with random starting steps, picking them
+     * the same way as our FireflyGrid always has, so the first and final
+     * steps are half as likely as the rest
+     * 
+     * @param steps Array to fill, one byte per firefly
+     * @param seed Seed of the grid
+     * @param finalStep Final step of the firefly cycle
+     */
+    public static void fillSteps(final byte [] steps, long seed, final int finalStep) {
+        final long root = derive(seed, STEPS);
+        
+        forEachBlock(steps.length, new Block() {
+            @Override
+            public void fill(int block, int from, int to) {
+                SplittableRandom random = new SplittableRandom(derive(root, block));
+                for (int i = from; i < to; i++) {
+                    steps[i] = (byte)Math.round(random.nextDouble() * finalStep);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Method which flips a coin for every firefly, 1 meaning heads
+     * 
+     * @param coins Array to fill, one byte per firefly
+     * @param seed Seed of the grid
+     */
+    public static void fillCoins(final byte [] coins, long seed) {
+        final long root = derive(seed, COINS);
+        
+        forEachBlock(coins.length, new Block() {
+            @Override
+            public void fill(int block, int from, int to) {
+                SplittableRandom random = new SplittableRandom(derive(root, block));
+                for (int i = from; i < to; i++) {
+                    coins[i] = (byte)(random.nextBoolean() ? 1 : 0);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Method which fills an array with random starting phases for our
+     * continuous fireflies, spread evenly between 0 and 1
+     * 
+     * @param phases Array to fill, one double per firefly
+     * @param seed Seed of the grid
+     */
+    public static void fillPhases(double [] phases, long seed) {
+        fillUniform(phases, derive(seed, PHASES), 0, 1);
+    }
+    
+    /**
+     * Method which fills an array with the natural frequency of each of our
+     * continuous fireflies, spread evenly around 1
+     * 
+     * @param frequencies Array to fill, one double per firefly
+     * @param seed Seed of the grid
+     * @param spread Most a frequency can be away from 1, less than 1
+     */
+    public static void fillFrequencies(double [] frequencies, long seed, double spread) {
+        if (spread < 0 || spread >= 1) {
+            throw new IllegalArgumentException("Frequency spread must be at least 0 and below 1, got " + spread);
+        }
+        fillUniform(frequencies, derive(seed, FREQUENCIES), 1 - spread, 1 + spread);
+    }
+    
+    /**
+     * Method which fills an array with doubles spread evenly over a range
+     * 
+     * @param values Array to fill
+     * @param root Seed of the stream to fill from
+     * @param from Lowest value
+     * @param to Highest value, which is never picked unless it is the lowest
+     */
+    private static void fillUniform(final double [] values, final long root, final double from, final double to) {
+        forEachBlock(values.length, new Block() {
+            @Override
+            public void fill(int block, int start, int end) {
+                SplittableRandom random = new SplittableRandom(derive(root, block));
+                for (int i = start; i < end; i++) {
+                    values[i] = from + random.nextDouble() * (to - from);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Method which returns random starting steps for a grid
+     * 
+     * @param cells Number of fireflies
+     * @param seed Seed of the grid
+     * @param finalStep Final step of the firefly cycle
+     * @return Starting step of every firefly
+     */
+    public static byte [] steps(int cells, long seed, int finalStep) {
+        byte [] steps = new byte[cells];
+        fillSteps(steps, seed, finalStep);
+        return steps;
+    }
+    
+    /**
+     * Block Interface which fills one block of an array
+     */
+    private static interface Block {
+        public void fill(int block, int from, int to);
+    }
+    
+    /**
+     * Method which fills every block of an array, across all our cores if
+     * there is more than one block
+     * 
+     * @param length Length of the array
+     * @param block What to fill each block with
+     */
+    private static void forEachBlock(final int length, final Block block) {
+        int blocks = (length + BLOCK - 1) / BLOCK;
+        
+        IntStream range = IntStream.range(0, blocks);
+        if (blocks > 1) range = range.parallel();
+        
+        range.forEach(new IntConsumer() {
+            @Override
+            public void accept(int b) {
+                block.fill(b, b * BLOCK, Math.min(length, (b + 1) * BLOCK));
+            }
+        });
+    }
+}
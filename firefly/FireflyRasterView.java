@@ -0,0 +1,261 @@
+package firefly;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * Firefly Raster View Class which draws a running simulation fast enough to
+ * watch very large grids live. Each firefly is one pixel of an image, and the
+ * colour of each step is looked up in a palette and written straight into the
+ * image's pixels rather than drawn as a rectangle. Only the part of the image
+ * that changed is repainted, and the image is scaled up to the panel using
+ * nearest neighbour so each firefly stays a sharp block
+ * 
+ * The simulation runs on its own thread at full speed and this panel just
+ * takes the newest frame on each tick of its timer, so painting never holds
+ * the simulation up and stepping never holds painting up
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyRasterView extends JPanel implements ActionListener {
+    
+    // Version of our serialised form, which we never actually use
+    private static final long serialVersionUID = 1L;
+    
+    // View of a byte array as longs, so we can skip eight unchanged fireflies
+    // at once when looking for what changed
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long [].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // Colour of each step, worked out the same way as Firefly.repaint
+    private static final int [] PALETTE = palette();
+    
+    // The simulation we are watching
+    private final FireflySimulation simulation;
+    
+    // One pixel per firefly, and the pixels themselves
+    private final BufferedImage image;
+    private final int [] pixels;
+    
+    // The steps currently drawn in our image
+    private final byte [] shown;
+    private final int width;
+    private final int height;
+    
+    /**
+     * Constructor Method which sets up the image for a simulation and draws
+     * the first frame
+     * 
+     * @param simulation Simulation to watch
+     */
+    public FireflyRasterView(FireflySimulation simulation) {
+        this.simulation = simulation;
+        this.width = simulation.getEngine().getWidth();
+        this.height = simulation.getEngine().getHeight();
+        
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        this.shown = new byte[width * height];
+        
+        // Draw every firefly to start with
+        byte [] frame = simulation.takeFrame();
+        for (int i = 0; i < shown.length; i++) {
+            shown[i] = frame[i];
+            pixels[i] = PALETTE[frame[i]];
+        }
+    }
+    
+    /**
+     * Method which builds our palette from the Firefly colours
+     * 
+     * @return Colour of each step
+     */
+    private static int [] palette() {
+        int [] palette = new int[Firefly.FIREFLY_FINAL_STEP + 1];
+        for (int step = 0; step < palette.length; step++) {
+            Color colour = Color.RED;      // This is a warning colour!
+            if (step == Firefly.FIREFLY_FLASH_STEP) {
+                colour = Firefly.FIREFLY_FLASH_COLOR;
+            } else if (step >= Firefly.FIREFLY_NONSENS_START && step <= Firefly.FIREFLY_NONSENS_FINAL) {
+                colour = Firefly.FIREFLY_NONSENS_COLOR;
+            } else if (step >= Firefly.FIREFLY_CHARGING_START && step <= Firefly.FIREFLY_CHARGING_FINAL) {
+                colour = Firefly.FIREFLY_CHARGING_COLOR;
+            }
+            palette[step] = colour.getRGB();
+        }
+        return palette;
+    }
+    
+    /**
+     * Action Performed method which is called every time our timer ticks. It
+     * takes the newest frame, writes the fireflies that changed into our image
+     * and repaints just the part of the panel that covers them
+     * 
+     * @param ae Action Event
+     */
+    @Override
+    public void actionPerformed(ActionEvent ae) {
+        long start = FireflyMetrics.ENABLED ? System.nanoTime() : 0;
+        byte [] frame = simulation.takeFrame();
+        
+        // Bounding box of everything that changed
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+        
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            int x = 0;
+            
+            while (x < width) {
+                // Skip eight fireflies at a time while nothing has changed
+                if (x + 8 <= width && (long)LONGS.get(frame, row + x) == (long)LONGS.get(shown, row + x)) {
+                    x += 8;
+                    continue;
+                }
+                
+                int i = row + x;
+                if (frame[i] != shown[i]) {
+                    shown[i] = frame[i];
+                    pixels[i] = PALETTE[frame[i]];
+                    
+                    if (x < minX) minX = x;
+                    if (x > maxX) maxX = x;
+                    if (y < minY) minY = y;
+                    maxY = y;
+                }
+                x++;
+            }
+        }
+        
+        // Repaint just the scaled up box of changes, if there were any
+        if (maxX >= 0) {
+            Rectangle box = this.toPanel(minX, minY, maxX + 1, maxY + 1);
+            this.repaint(box);
+        }
+        
+        if (FireflyMetrics.ENABLED) {
+            FireflyMetrics.global().recordRender(start, simulation.getFrameTimesteps());
+        }
+    }
+    
+    /**
+     * Method which scales a box of fireflies up to the panel, rounding outwards
+     * so the box always covers every pixel of those fireflies
+     * 
+     * @param x1 First firefly along X
+     * @param y1 First firefly along Y
+     * @param x2 Firefly after the last one along X
+     * @param y2 Firefly after the last one along Y
+     * @return Box on the panel
+     */
+    private Rectangle toPanel(int x1, int y1, int x2, int y2) {
+        int px1 = (int)((long)x1 * getWidth() / width);
+        int py1 = (int)((long)y1 * getHeight() / height);
+        int px2 = (int)(((long)x2 * getWidth() + width - 1) / width);
+        int py2 = (int)(((long)y2 * getHeight() + height - 1) / height);
+        return new Rectangle(px1, py1, px2 - px1, py2 - py1);
+    }
+    
+    /**
+     * Paint Component method which scales our image up to fill the panel,
+     * using nearest neighbour so each firefly stays a sharp block
+     * 
+     * @param g Graphics Context
+     */
+    @Override
+    public void paintComponent(Graphics g) {
+        // Cast our Graphics Object to a Graphics 2D Object
+        Graphics2D g2D = (Graphics2D)g;
+        g2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        
+        g2D.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+    }
+    
+    /**
+     * Main Class which starts a simulation on its own thread and watches it
+     * 
+     * @param args Grid width, grid height and engine (array, bit or event), or
+     *             replay followed by a timeline file and timesteps per second
+     * @throws IOException If a timeline can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        final FireflySimulation simulation;
+        
+        if (args.length > 0 && args[0].equals("replay")) {
+            // Play back a recording at a watchable speed, stopping at its end
+            FireflyReplay replay = new FireflyReplay(Paths.get(args[1]));
+            int rate = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+            
+            simulation = new FireflySimulation(replay, Math.max(replay.getFinalTimestep(), 1));
+            simulation.setTimestepsPerSecond(rate);
+        } else {
+            int gridWidth = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+            int gridHeight = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+            String engineName = args.length > 2 ? args[2] : "bit";
+            
+            // Pick our engine, the bit grid is the quickest on big grids
+            FireflyEngine engine;
+            if (engineName.equals("array")) {
+                engine = new FireflyArrayGrid(gridWidth, gridHeight, FireflyInteraction.FIREFLY_NEIGHBOURHOOD, true);
+            } else if (engineName.equals("event")) {
+                engine = new FireflyEventGrid(gridWidth, gridHeight, FireflyInteraction.FIREFLY_NEIGHBOURHOOD, true);
+            } else {
+                engine = new FireflyBitGrid(gridWidth, gridHeight, FireflyInteraction.FIREFLY_NEIGHBOURHOOD, true);
+            }
+            
+            simulation = new FireflySimulation(engine, 0);
+        }
+        
+        final FireflyRasterView panel = new FireflyRasterView(simulation);
+        
+        // Create a new Instance of JFrame and add our Firefly Panel on
+        final JFrame frame = new JFrame("Firefly Cellular Automata");
+        frame.setSize(800, 800);
+        frame.setContentPane(panel);
+        
+        // Ensure our app exits when the frame is closed
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        
+        // Show how fast we're going in the title once a second
+        Timer title = new Timer(1000, new ActionListener() {
+            private int last = 0;
+            
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                int now = simulation.getTimesteps();
+                frame.setTitle("Firefly Cellular Automata - timestep " + now + " (" + (now - last) + " steps/sec)"
+                               + (simulation.isSynced() ? " - synchronised" : ""));
+                last = now;
+            }
+        });
+        title.start();
+        
+        // Start stepping, and take a frame roughly sixty times a second
+        simulation.start();
+        Timer t = new Timer(16, panel);
+        t.start();
+        
+        // Set our Frame to be visible
+        frame.setVisible(true);
+    }
+}
@@ -0,0 +1,135 @@
+package firefly;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Firefly Replay Class which plays back a recorded run as if it were an
+ * engine, so anything that can watch an engine such as our FireflyRasterView
+ * can watch a recording. Stepping moves on to the next recorded frame and
+ * seeking jumps straight to any timestep
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyReplay implements FireflyEngine {
+    
+    // The recording we are playing back
+    private final FireflyTimelineReader reader;
+    
+    // The frame we are showing and its steps
+    private int frame = 0;
+    private final byte [] steps;
+    
+    /**
+     * Constructor Method which opens a recording and shows its first frame
+     * 
+     * @param path Timeline file to play back
+     * @throws IOException If the file can't be read or has no frames
+     */
+    public FireflyReplay(Path path) throws IOException {
+        this.reader = new FireflyTimelineReader(path);
+        if (reader.getFrames() == 0) {
+            reader.close();
+            throw new IOException("Timeline has no frames: " + path);
+        }
+        
+        this.steps = new byte[reader.getWidth() * reader.getHeight()];
+        reader.readFrame(0, steps);
+    }
+    
+    /**
+     * Step method which moves on to the next recorded frame, or stays on the
+     * last one if there are no more
+     */
+    @Override
+    public void step() {
+        if (frame + 1 < reader.getFrames()) {
+            frame++;
+            reader.readFrame(frame, steps);
+        }
+    }
+    
+    /**
+     * Method which jumps to the frame showing a timestep, which is the last
+     * one recorded at or before it
+     * 
+     * @param timestep Timestep to jump to
+     */
+    public void seek(int timestep) {
+        frame = Math.max(reader.findFrame(timestep), 0);
+        reader.readFrame(frame, steps);
+    }
+    
+    /**
+     * Method which tells us if we are showing the last recorded frame
+     * 
+     * @return True if there are no more frames to step to
+     */
+    public boolean isFinished() {
+        return frame == reader.getFrames() - 1;
+    }
+    
+    /**
+     * Getter method to return the timestep of the last recorded frame
+     * 
+     * @return Timestep the recording ends on
+     */
+    public int getFinalTimestep() {
+        return reader.getTimestep(reader.getFrames() - 1);
+    }
+    
+    @Override
+    public boolean isSynchronised() {
+        return reader.isSynchronised(frame);
+    }
+    
+    @Override
+    public int getTimesteps() {
+        return reader.getTimestep(frame);
+    }
+    
+    @Override
+    public int getWidth() {
+        return reader.getWidth();
+    }
+    
+    @Override
+    public int getHeight() {
+        return reader.getHeight();
+    }
+    
+    @Override
+    public int getCurrentStep(int x, int y) {
+        return steps[y * reader.getWidth() + x];
+    }
+    
+    @Override
+    public void copySteps(byte [] steps) {
+        System.arraycopy(this.steps, 0, steps, 0, this.steps.length);
+    }
+    
+    @Override
+    public long stateHash() {
+        long hash = 0;
+        for (byte step : steps) {
+            hash = FireflyCycleDetector.mix(hash, step);
+        }
+        return FireflyCycleDetector.finish(hash);
+    }
+    
+    /**
+     * Method which closes the recording
+     * 
+     * @throws IOException If closing fails
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+}
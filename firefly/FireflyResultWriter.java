@@ -0,0 +1,340 @@
+package firefly;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Firefly Result Writer Class which streams one record per trial out to a
+ * file as trials finish. Worker threads only ever put a record on a bounded
+ * queue, and a thread of our own takes them off in batches and writes them,
+ * so no worker waits on the disk. If the disk can't keep up the queue fills
+ * and workers wait for room rather than us holding millions of records
+ * 
+ * Records come out as CSV with a header line, or as binary which starts with
+ * MAGIC, VERSION, the number of parameters and each parameter's name and
+ * value as modified UTF-8, followed by one record per trial. Every binary
+ * record starts with its length so readers can skip fields added later, then
+ * holds the trial, seed, outcome, timesteps, loop period, loop entry and
+ * wall time, all big endian
+ * 
+ * While writing we keep a running mean and variance of the sync timesteps
+ * and wall times, so a batch of any size can be summed up without keeping
+ * its results
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyResultWriter implements Closeable {
+    
+    // The formats we can write
+    public static enum Format { CSV, BINARY };
+    
+    // Marks the start of a binary results file, and which version it is
+    public static final int MAGIC = 0x46465253;
+    public static final int VERSION = 1;
+    
+    // How many records can wait to be written before workers wait for room
+    public static final int DEFAULT_CAPACITY = 8192;
+    
+    // Most records we write before looking at the queue again
+    private static final int BATCH = 1024;
+    
+    // How long we wait for more records after a small batch, so a steady
+    // trickle wakes us up every so often rather than once per record
+    private static final long LINGER_NANOS = 1000000;
+    
+    // Bytes in a binary record after its length
+    private static final int RECORD_BYTES = 4 + 8 + 1 + 4 + 4 + 4 + 8;
+    
+    // Put on the queue by close to tell our thread there's nothing more
+    private static final Record END = new Record(-1, null, 0);
+    
+    private final BlockingQueue<Record> queue;
+    private final DataOutputStream out;
+    private final Format format;
+    private final Thread thread;
+    
+    // Parameters of the batch, already written out as the start of a CSV
+    // line, and the seed each trial's seed comes from
+    private final byte [] prefix;
+    private final long seed;
+    
+    // Where our thread builds each CSV line
+    private final StringBuilder line = new StringBuilder();
+    private byte [] bytes = new byte[128];
+    
+    // Set by our thread if writing ever fails
+    private volatile IOException failure;
+    private boolean closed = false;
+    
+    // Only touched by our thread until it finishes
+    private final FireflyRunningStats syncTimesteps = new FireflyRunningStats();
+    private final FireflyRunningStats wallTimes = new FireflyRunningStats();
+    private long written = 0;
+    
+    /**
+     * Constructor Method which writes out the header and starts our thread
+     * 
+     * @param stream Where the records go, which we close when we are closed
+     * @param format Format to write in
+     * @param params Parameters of the batch, written with every record
+     * @param seed Seed of the batch, which each trial's seed comes from
+     * @param capacity Number of records that can wait to be written
+     * @throws IOException If the header can't be written
+     */
+    public FireflyResultWriter(OutputStream stream, Format format, Map<String, String> params, long seed, int capacity)
+        throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        this.format = format;
+        this.seed = seed;
+        this.queue = new ArrayBlockingQueue<Record>(capacity);
+        
+        StringBuilder prefix = new StringBuilder();
+        if (format == Format.CSV) {
+            StringBuilder header = new StringBuilder();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                header.append(csv(param.getKey())).append(',');
+                prefix.append(csv(param.getValue())).append(',');
+            }
+            header.append("trial,seed,outcome,timesteps,period,entered,wall_nanos\n");
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(params.size());
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                out.writeUTF(param.getKey());
+                out.writeUTF(param.getValue());
+            }
+        }
+        this.prefix = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "firefly-results");
+        this.thread.start();
+    }
+    
+    /**
+     * Method which opens a results file, writing binary if its name ends in
+     * .bin and CSV otherwise
+     * 
+     * @param path File to write, replacing anything already there
+     * @param params Parameters of the batch, written with every record
+     * @param seed Seed of the batch, which each trial's seed comes from
+     * @return Writer for the file
+     * @throws IOException If the file can't be opened
+     */
+    public static FireflyResultWriter open(Path path, Map<String, String> params, long seed) throws IOException {
+        Format format = path.toString().endsWith(".bin") ? Format.BINARY : Format.CSV;
+        return new FireflyResultWriter(Files.newOutputStream(path), format, params, seed, DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Method which hands a finished trial over to be written, only waiting if
+     * the queue is full
+     * 
+     * @param result Result of the trial
+     * @param wallNanos How long the trial took
+     * @throws IOException If writing has already failed
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public void write(FireflyTrialResult result, long wallNanos) throws IOException, InterruptedException {
+        if (failure != null) throw new IOException("Writing results failed", failure);
+        queue.put(new Record(FireflyRandom.derive(seed, result.getTrial()), result, wallNanos));
+    }
+    
+    /**
+     * Method which our thread runs, taking everything off the queue in
+     * batches and writing it. If writing fails we carry on taking records
+     * off so no worker is left waiting for room
+     */
+    private void drain() {
+        List<Record> batch = new ArrayList<Record>(BATCH);
+        
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH - 1);
+                
+                for (Record record : batch) {
+                    if (record == END) {
+                        this.flush();
+                        return;
+                    }
+                    
+                    if (failure == null) {
+                        try {
+                            this.writeRecord(record);
+                        } catch (IOException e) {
+                            this.failure = e;
+                        }
+                    }
+                }
+                boolean small = batch.size() < BATCH;
+                batch.clear();
+                
+                // Only flush once we've caught up, so a busy queue goes out
+                // in big writes
+                if (queue.isEmpty()) this.flush();
+                if (small) LockSupport.parkNanos(LINGER_NANOS);
+            }
+        } catch (InterruptedException e) {
+            // Only close stops us, so there's nothing left to do
+        }
+    }
+    
+    /**
+     * Method which flushes everything we've written out to the file, unless
+     * writing has already failed
+     */
+    private void flush() {
+        if (failure != null) return;
+        
+        try {
+            out.flush();
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+    
+    /**
+     * Method which writes out one record and adds it to our stats
+     * 
+     * @param record Record to write
+     * @throws IOException If the record can't be written
+     */
+    private void writeRecord(Record record) throws IOException {
+        FireflyTrialResult result = record.result;
+        
+        if (format == Format.CSV) {
+            line.setLength(0);
+            line.append(result.getTrial()).append(',').append(record.seed).append(',').append(result.getOutcome())
+                .append(',').append(result.getTimesteps()).append(',').append(result.getPeriod()).append(',')
+                .append(result.getEntered()).append(',').append(record.wallNanos).append('\n');
+            
+            // Everything after the parameters is plain ASCII, so we can copy
+            // it across a byte at a time without an encoder
+            int length = line.length();
+            if (bytes.length < length) bytes = new byte[length * 2];
+            for (int i = 0; i < length; i++) bytes[i] = (byte)line.charAt(i);
+            
+            out.write(prefix);
+            out.write(bytes, 0, length);
+        } else {
+            out.writeInt(RECORD_BYTES);
+            out.writeInt(result.getTrial());
+            out.writeLong(record.seed);
+            out.writeByte(result.getOutcome().ordinal());
+            out.writeInt(result.getTimesteps());
+            out.writeInt(result.getPeriod());
+            out.writeInt(result.getEntered());
+            out.writeLong(record.wallNanos);
+        }
+        
+        if (result.isSynced()) syncTimesteps.add(result.getTimesteps());
+        wallTimes.add(record.wallNanos);
+        written++;
+    }
+    
+    /**
+     * Method which quotes a CSV field if it needs it
+     * 
+     * @param field Field to quote
+     * @return Field as it should appear in the file
+     */
+    private static String csv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0) return field;
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+    
+    /**
+     * Method which writes out everything still on the queue and closes the
+     * file. The stats can be read once this returns
+     * 
+     * @throws IOException If anything couldn't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        this.closed = true;
+        
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing results", e);
+        } finally {
+            out.close();
+        }
+        
+        if (failure != null) throw new IOException("Writing results failed", failure);
+    }
+    
+    /**
+     * Getter method to return the running stats of the sync timestep of every
+     * trial which synchronised. Only safe once we are closed
+     * 
+     * @return Stats of the sync timesteps
+     */
+    public FireflyRunningStats getSyncTimesteps() {
+        return this.syncTimesteps;
+    }
+    
+    /**
+     * Getter method to return the running stats of how long each trial took
+     * in nanoseconds. Only safe once we are closed
+     * 
+     * @return Stats of the wall times
+     */
+    public FireflyRunningStats getWallTimes() {
+        return this.wallTimes;
+    }
+    
+    /**
+     * Getter method to return how many records have been written. Only safe
+     * once we are closed
+     * 
+     * @return Number of records written
+     */
+    public long getWritten() {
+        return this.written;
+    }
+    
+    /**
+     * Record Class which holds one finished trial on its way to the file
+     */
+    private static class Record {
+        private final long seed;
+        private final FireflyTrialResult result;
+        private final long wallNanos;
+        
+        Record(long seed, FireflyTrialResult result, long wallNanos) {
+            this.seed = seed;
+            this.result = result;
+            this.wallNanos = wallNanos;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package firefly;
+
+/**
+ * Firefly Running Stats Class which keeps the mean and variance of a stream
+ * of numbers without keeping the numbers, using Welford's method so it stays
+ * accurate over millions of values. Two sets of stats kept apart, say on
+ * different threads, can be merged into one afterwards
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyRunningStats {
+    
+    // How many values we've seen, their mean and the sum of squared
+    // differences from the mean
+    private long count = 0;
+    private double mean = 0;
+    private double squares = 0;
+    
+    // Smallest and largest values we've seen
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    
+    /**
+     * Method which adds a value to our stats
+     * 
+     * @param value Value to add
+     */
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+    
+    /**
+     * Method which merges another set of stats into ours, as if we had seen
+     * all of its values as well
+     * 
+     * @param other Stats to merge in
+     */
+    public void merge(FireflyRunningStats other) {
+        if (other.count == 0) return;
+        
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        squares += other.squares + delta * delta * ((double)count * other.count / total);
+        mean += delta * other.count / total;
+        count = total;
+        
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+    
+    /**
+     * Getter method to return how many values we've seen
+     * 
+     * @return Number of values
+     */
+    public long getCount() {
+        return this.count;
+    }
+    
+    /**
+     * Getter method to return the mean of our values
+     * 
+     * @return Mean, 0 if we haven't seen any
+     */
+    public double getMean() {
+        return this.mean;
+    }
+    
+    /**
+     * Getter method to return the sample variance of our values
+     * 
+     * @return Variance, 0 if we've seen fewer than two
+     */
+    public double getVariance() {
+        return count > 1 ? squares / (count - 1) : 0;
+    }
+    
+    /**
+     * Getter method to return the sample standard deviation of our values
+     * 
+     * @return Standard deviation, 0 if we've seen fewer than two
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(this.getVariance());
+    }
+    
+    /**
+     * Getter method to return the smallest value we've seen
+     * 
+     * @return Smallest value, NaN if we haven't seen any
+     */
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+    
+    /**
+     * Getter method to return the largest value we've seen
+     * 
+     * @return Largest value, NaN if we haven't seen any
+     */
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2f sd=%.2f min=%.0f max=%.0f", count, getMean(), getStandardDeviation(),
+                             getMin(), getMax());
+    }
+}
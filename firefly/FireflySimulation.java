@@ -0,0 +1,235 @@
+package firefly;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Firefly Simulation Class which steps an engine as fast as it can on its own
+ * thread, so nothing that watches it can slow it down. Whenever a watcher asks
+ * for a frame the simulation copies the current generation out between two
+ * steps and hands it over with triple buffering, so the simulation never waits
+ * for the watcher and the watcher always gets the newest whole generation
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySimulation implements Runnable {
+    
+    // The engine we are stepping and the thread we are stepping it on
+    private final FireflyEngine engine;
+    private Thread thread;
+    
+    // Do we want to stop once we've synced or hit x number of steps?
+    // 0 means run forever, even if synced
+    private final int timestepLimit;
+    
+    // Are we running, and has anyone asked for a frame
+    private volatile boolean running = false;
+    private volatile boolean frameRequested = true;
+    
+    // Our three frame buffers, the one we copy into, the one waiting to be
+    // taken and the one the watcher has, along with their timesteps
+    private final Object lock = new Object();
+    private byte [] back;
+    private byte [] pending;
+    private byte [] front;
+    private int backTimesteps;
+    private int pendingTimesteps;
+    private int frontTimesteps;
+    private boolean pendingReady = false;
+    
+    // How long each timestep should take at least, 0 means as fast as we can
+    private volatile long stepNanos = 0;
+    
+    // Have we synced, and how many timesteps have elapsed for watchers
+    private volatile boolean synced = false;
+    private volatile int timesteps = 0;
+    
+    /**
+     * Constructor Method which sets up the frame buffers for an engine
+     * 
+     * @param engine Engine to step
+     * @param timestepLimit Limit of time steps to run, 0 means run forever
+     */
+    public FireflySimulation(FireflyEngine engine, int timestepLimit) {
+        this.engine = FireflyMetrics.instrument(engine);
+        this.timestepLimit = timestepLimit;
+        
+        int cells = engine.getWidth() * engine.getHeight();
+        this.back = new byte[cells];
+        this.pending = new byte[cells];
+        this.front = new byte[cells];
+        
+        // Give the watcher the starting generation straight away
+        engine.copySteps(front);
+        this.frontTimesteps = engine.getTimesteps();
+    }
+    
+    /**
+     * Method which starts stepping on a new thread
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        
+        running = true;
+        thread = new Thread(this, "firefly-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Method which stops stepping and waits for the thread to finish
+     * 
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        
+        Thread t;
+        synchronized (this) { t = thread; }
+        if (t != null) t.join();
+    }
+    
+    /**
+     * Run method which steps our engine until we are stopped or hit the limit
+     */
+    @Override
+    public void run() {
+        long deadline = System.nanoTime();
+        
+        while (running) {
+            engine.step();
+            timesteps = engine.getTimesteps();
+            
+            // Wait for our next timestep if we are running at a set rate,
+            // without trying to catch up if we have fallen behind
+            long pace = stepNanos;
+            if (pace > 0) {
+                deadline = Math.max(deadline + pace, System.nanoTime());
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+            
+            // Check if we are Syncronised
+            if (!synced && engine.isSynchronised()) {
+                synced = true;
+            }
+            
+            // Copy out a frame if someone wants one
+            if (frameRequested) {
+                frameRequested = false;
+                this.publish();
+            }
+            
+            // Have we hit the timesteps limit?
+            if (timestepLimit > 0 && timesteps >= timestepLimit) {
+                running = false;
+            }
+        }
+        
+        // Always leave the last generation for the watcher
+        this.publish();
+    }
+    
+    /**
+     * Method which copies the current generation into our back buffer and
+     * swaps it with the pending one
+     */
+    private void publish() {
+        engine.copySteps(back);
+        backTimesteps = engine.getTimesteps();
+        
+        synchronized (lock) {
+            byte [] swap = pending;
+            pending = back;
+            back = swap;
+            
+            pendingTimesteps = backTimesteps;
+            pendingReady = true;
+        }
+    }
+    
+    /**
+     * Method which swaps in the newest frame if there is one and asks the
+     * simulation for another. The returned array belongs to the watcher until
+     * the next call
+     * 
+     * @return Newest generation, indexed by y * width + x
+     */
+    public byte [] takeFrame() {
+        synchronized (lock) {
+            if (pendingReady) {
+                byte [] swap = front;
+                front = pending;
+                pending = swap;
+                
+                frontTimesteps = pendingTimesteps;
+                pendingReady = false;
+            }
+        }
+        
+        frameRequested = true;
+        return front;
+    }
+    
+    /**
+     * Setter method to limit how many timesteps we do each second, which is
+     * handy for replaying a recording at a watchable speed
+     * 
+     * @param rate Timesteps per second, 0 means as fast as we can
+     */
+    public void setTimestepsPerSecond(int rate) {
+        this.stepNanos = rate > 0 ? 1000000000L / rate : 0;
+    }
+    
+    /**
+     * Getter method to return the timestep of the frame last taken
+     * 
+     * @return Timestep of the newest frame
+     */
+    public int getFrameTimesteps() {
+        return this.frontTimesteps;
+    }
+    
+    /**
+     * Getter method to return how many timesteps the simulation has done
+     * 
+     * @return Number of timesteps elapsed
+     */
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    /**
+     * Getter method to return whether the simulation has synchronised
+     * 
+     * @return True if synchronisation was achieved
+     */
+    public boolean isSynced() {
+        return this.synced;
+    }
+    
+    /**
+     * Getter method to return whether the simulation is still stepping
+     * 
+     * @return True if still running
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+    
+    /**
+     * Getter method to return the engine being stepped. It must not be
+     * touched from another thread while the simulation is running
+     * 
+     * @return Engine being stepped
+     */
+    public FireflyEngine getEngine() {
+        return this.engine;
+    }
+}
@@ -0,0 +1,119 @@
+package firefly;
+
+/**
+ * Firefly Stopping Rule Class which decides when a batch of trials has run
+ * enough to stop. Rather than always running a fixed number of repetitions we
+ * keep going until the 95% interval on the chance of synchronising, and on the
+ * mean sync time, are both as narrow as we asked for, so tight parameter
+ * points stop after a handful of trials and noisy ones get as many as they
+ * need. The number of trials asked for becomes a budget which is never passed,
+ * so a point that never synchronises still stops
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyStoppingRule {
+    
+    // Fewest trials we trust an interval from, as the normal interval on the
+    // mean is poor with only a few values
+    public static final int DEFAULT_MIN_TRIALS = 30;
+    
+    // Widest interval on the chance of synchronising, 0 to not check it
+    private final double successWidth;
+    
+    // Widest interval on the mean sync time as a fraction of the mean, 0 to
+    // not check it
+    private final double meanWidth;
+    
+    // Fewest trials before we stop
+    private final int minTrials;
+    
+    /**
+     * Constructor Method which uses the default fewest trials
+     * 
+     * @param successWidth Widest interval on the chance of synchronising, or
+     *                     0 to not check it
+     * @param meanWidth Widest interval on the mean sync time as a fraction of
+     *                  the mean, or 0 to not check it
+     */
+    public FireflyStoppingRule(double successWidth, double meanWidth) {
+        this(successWidth, meanWidth, DEFAULT_MIN_TRIALS);
+    }
+    
+    /**
+     * Constructor Method which stores our targets
+     * 
+     * @param successWidth Widest interval on the chance of synchronising, or
+     *                     0 to not check it
+     * @param meanWidth Widest interval on the mean sync time as a fraction of
+     *                  the mean, or 0 to not check it
+     * @param minTrials Fewest trials before we stop
+     */
+    public FireflyStoppingRule(double successWidth, double meanWidth, int minTrials) {
+        if (successWidth < 0 || meanWidth < 0) {
+            throw new IllegalArgumentException("Interval widths can't be negative");
+        }
+        if (successWidth == 0 && meanWidth == 0) {
+            throw new IllegalArgumentException("Need an interval width to stop at");
+        }
+        if (minTrials < 1) {
+            throw new IllegalArgumentException("Need at least one trial");
+        }
+        
+        this.successWidth = successWidth;
+        this.meanWidth = meanWidth;
+        this.minTrials = minTrials;
+    }
+    
+    /**
+     * Method which checks whether an estimate is narrow enough to stop
+     * 
+     * @param estimate Estimate of the trials so far
+     * @return Whether we can stop running trials
+     */
+    public boolean isSatisfied(FireflyTrialEstimate estimate) {
+        if (estimate.getTrials() < minTrials) return false;
+        if (successWidth > 0 && estimate.getSuccessWidth() > successWidth) return false;
+        if (meanWidth > 0 && estimate.getMeanRelativeWidth() > meanWidth) return false;
+        return true;
+    }
+    
+    /**
+     * Getter method to return the widest interval on the chance of
+     * synchronising
+     * 
+     * @return Width, 0 if it isn't checked
+     */
+    public double getSuccessWidth() {
+        return this.successWidth;
+    }
+    
+    /**
+     * Getter method to return the widest interval on the mean sync time
+     * 
+     * @return Width as a fraction of the mean, 0 if it isn't checked
+     */
+    public double getMeanWidth() {
+        return this.meanWidth;
+    }
+    
+    /**
+     * Getter method to return the fewest trials before we stop
+     * 
+     * @return Fewest trials
+     */
+    public int getMinTrials() {
+        return this.minTrials;
+    }
+    
+    @Override
+    public String toString() {
+        return "success width " + successWidth + ", mean width " + meanWidth + ", at least " + minTrials + " trials";
+    }
+}
@@ -0,0 +1,497 @@
+package firefly;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Firefly Sweep Class which runs trials over a whole grid of parameters, such
+ * as grid sizes, neighbourhoods and firefly cycles, without editing any code.
+ * Every (parameters, seed) pair is one trial, and trials are handed to a work
+ * stealing pool with the ones we expect to take longest first, so a few big
+ * slow trials don't get left until the end with every other thread idle
+ * 
+ * Every result goes into a FireflySweepCache keyed by its parameters, seed
+ * and the version of the engine that ran it, so running a sweep again only
+ * runs trials we haven't seen, and adding more seeds or points to a sweep
+ * only runs the new ones. Trials are run on a FireflyArrayGrid with its
+ * starting steps, and the coins of a RANDOM neighbourhood, picked from the
+ * seed by FireflyRandom, so the same seed always gives the same trial
+ * 
+ * With a stopping rule the number of seeds becomes a budget, and each point
+ * stops as soon as its first seeds give narrow enough estimates, abandoning
+ * any of its trials still waiting or running
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySweep {
+    
+    // Version of the engine results are cached for, which must change
+    // whenever a change to the engine could change the result of a trial
+    public static final String ENGINE_VERSION = "array-2";
+    
+    /**
+     * Point Class which holds one set of parameters in a sweep
+     */
+    public static class Point {
+        
+        // Size, neighbourhood and boundary of the grid, and the firefly clock
+        private final int width;
+        private final int height;
+        private final FireflyInteraction.Neighbourhood neighbourhood;
+        private final FireflyTopology.Boundary boundary;
+        private final FireflyCycle cycle;
+        
+        /**
+         * Constructor Method which stores our parameters
+         * 
+         * @param width Number of Fireflies in width
+         * @param height Number of Fireflies in height
+         * @param neighbourhood Neighbourhood each firefly listens to
+         * @param boundary What happens at the edges of the grid
+         * @param cycle Clock every firefly runs
+         */
+        public Point(int width, int height, FireflyInteraction.Neighbourhood neighbourhood,
+                     FireflyTopology.Boundary boundary, FireflyCycle cycle) {
+            this.width = width;
+            this.height = height;
+            this.neighbourhood = neighbourhood;
+            this.boundary = boundary;
+            this.cycle = cycle;
+        }
+        
+        /**
+         * Method which returns the key results for this point are cached
+         * under, which includes everything that can change a result
+         * 
+         * @param timestepLimit Limit of time steps each trial runs for
+         * @return Cache key
+         */
+        public String getKey(int timestepLimit) {
+            return ENGINE_VERSION + " " + this + " limit=" + timestepLimit;
+        }
+        
+        /**
+         * Getter method to return how many fireflies there are
+         * 
+         * @return Number of fireflies
+         */
+        public int getCells() {
+            return width * height;
+        }
+        
+        /**
+         * Getter method to return how many fireflies wide the grid is
+         * 
+         * @return Number of fireflies along X
+         */
+        public int getWidth() {
+            return this.width;
+        }
+        
+        /**
+         * Getter method to return how many fireflies high the grid is
+         * 
+         * @return Number of fireflies along Y
+         */
+        public int getHeight() {
+            return this.height;
+        }
+        
+        /**
+         * Getter method to return the neighbourhood each firefly listens to
+         * 
+         * @return Neighbourhood of the grid
+         */
+        public FireflyInteraction.Neighbourhood getNeighbourhood() {
+            return this.neighbourhood;
+        }
+        
+        /**
+         * Getter method to return what happens at the edges of the grid
+         * 
+         * @return Boundary of the grid
+         */
+        public FireflyTopology.Boundary getBoundary() {
+            return this.boundary;
+        }
+        
+        /**
+         * Getter method to return the clock every firefly runs
+         * 
+         * @return Cycle of the fireflies
+         */
+        public FireflyCycle getCycle() {
+            return this.cycle;
+        }
+        
+        @Override
+        public String toString() {
+            return width + "x" + height + " " + neighbourhood + " " + boundary + " " + cycle;
+        }
+    }
+    
+    // How many threads do we want to run trials on
+    private final int threads;
+    
+    // Where results are kept between sweeps
+    private final FireflySweepCache cache;
+    
+    // When to stop running seeds for a point, if before the last one
+    private FireflyStoppingRule stoppingRule;
+    
+    // How many trials the last sweep actually had to run
+    private int computed = 0;
+    
+    /**
+     * Constructor Method which uses a given number of threads and cache
+     * 
+     * @param threads Number of worker threads to run trials on
+     * @param cache Where results are kept between sweeps
+     */
+    public FireflySweep(int threads, FireflySweepCache cache) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        
+        this.threads = threads;
+        this.cache = cache;
+    }
+    
+    /**
+     * Method which builds every combination of the given parameters, leaving
+     * out cycles that don't make sense
+     * 
+     * @param sizes Width and height of each grid size
+     * @param neighbourhoods Neighbourhoods to try
+     * @param boundaries Boundaries to try
+     * @param cycles Firefly clocks to try
+     * @return Every point in the grid
+     */
+    public static List<Point> grid(List<int []> sizes, List<FireflyInteraction.Neighbourhood> neighbourhoods,
+                                   List<FireflyTopology.Boundary> boundaries, List<FireflyCycle> cycles) {
+        List<Point> points = new ArrayList<Point>();
+        for (int [] size : sizes) {
+            for (FireflyInteraction.Neighbourhood neighbourhood : neighbourhoods) {
+                for (FireflyTopology.Boundary boundary : boundaries) {
+                    for (FireflyCycle cycle : cycles) {
+                        points.add(new Point(size[0], size[1], neighbourhood, boundary, cycle));
+                    }
+                }
+            }
+        }
+        return points;
+    }
+    
+    /**
+     * Method which runs one trial from its seed on the calling thread
+     * 
+     * @param point Parameters of the trial
+     * @param seed Seed to pick the starting steps and coins from
+     * @param trial Index of the trial within its point
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return Result of the trial
+     */
+    public static FireflyTrialResult runTrial(Point point, long seed, int trial, int timestepLimit) {
+        return runTrial(point, seed, trial, timestepLimit, null);
+    }
+    
+    /**
+     * Method which runs one trial from its seed on the calling thread, giving
+     * up if it is abandoned
+     * 
+     * @param point Parameters of the trial
+     * @param seed Seed to pick the starting steps and coins from
+     * @param trial Index of the trial within its point
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @param prefix Where the point's trials are abandoned from, or null
+     * @return Result of the trial, or null if it was abandoned
+     */
+    static FireflyTrialResult runTrial(Point point, long seed, int trial, int timestepLimit,
+                                       FireflyTrialPrefix prefix) {
+        FireflyTopology topology = new FireflyTopology(point.width, point.height, point.neighbourhood, point.boundary,
+                                                       seed);
+        FireflyArrayGrid grid = new FireflyArrayGrid(topology, point.cycle, seed);
+        
+        return FireflyTrialRunner.runTrial(grid, trial, timestepLimit, true, prefix);
+    }
+    
+    /**
+     * Setter method to stop running seeds for a point as soon as its
+     * estimates are narrow enough
+     * 
+     * @param stoppingRule When to stop, or null to always run every seed
+     */
+    public void setStoppingRule(FireflyStoppingRule stoppingRule) {
+        this.stoppingRule = stoppingRule;
+    }
+    
+    /**
+     * Run every point with seeds 0 up to seeds - 1, taking whatever we can
+     * from the cache and running the rest longest first
+     * 
+     * @param points Parameters to run
+     * @param seeds Number of seeds to run for each point, or most to run
+     *              with a stopping rule
+     * @param timestepLimit Limit of time steps to run for each trial
+     * @return Summary of the trials at each point, in the order given
+     * @throws InterruptedException If we are interrupted while waiting
+     * @throws IOException If the cache can't be written
+     */
+    public Map<Point, FireflyTrialSummary> run(List<Point> points, int seeds, final int timestepLimit)
+            throws InterruptedException, IOException {
+        final FireflyTrialPrefix [] prefixes = new FireflyTrialPrefix[points.size()];
+        final AtomicInteger run = new AtomicInteger(0);
+        List<Task> tasks = new ArrayList<Task>();
+        
+        for (int p = 0; p < points.size(); p++) {
+            Point point = points.get(p);
+            String key = point.getKey(timestepLimit);
+            prefixes[p] = new FireflyTrialPrefix(seeds, stoppingRule, null);
+            
+            // Take what we can from the cache, and use how long those trials
+            // took as our guess for how long the rest will take
+            long known = 0, total = 0;
+            boolean [] found = new boolean[seeds];
+            for (int s = 0; s < seeds; s++) {
+                FireflyTrialResult cached = cache.get(key, s);
+                if (cached == null) continue;
+                
+                found[s] = true;
+                prefixes[p].complete(s, new FireflyTrialResult(s, cached.getOutcome(), cached.getTimesteps(),
+                                                               cached.getPeriod(), cached.getEntered()), 0);
+                known++;
+                total += cached.getTimesteps();
+            }
+            
+            long expected = known > 0 ? total / known : timestepLimit > 0 ? timestepLimit : FireflyTrialRunner.DEFAULT_TIMESTEP_LIMIT;
+            
+            // The cache alone may have been enough to stop
+            for (int s = 0; s < seeds && !prefixes[p].isAbandoned(s); s++) {
+                if (!found[s]) tasks.add(new Task(p, s, key, (long)point.getCells() * Math.max(expected, 1)));
+            }
+        }
+        
+        // Longest expected first, so the stragglers start early, and as the
+        // sort is stable each point still runs its seeds in order
+        tasks.sort(new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                return Long.compare(b.cost, a.cost);
+            }
+        });
+        
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Task task : tasks) {
+                final Point point = points.get(task.point);
+                final FireflyTrialPrefix prefix = prefixes[task.point];
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws InterruptedException {
+                        if (prefix.isAbandoned(task.seed)) return null;
+                        FireflyTrialResult result = runTrial(point, task.seed, task.seed, timestepLimit, prefix);
+                        if (result == null) return null;
+                        run.incrementAndGet();
+                        
+                        try {
+                            cache.put(task.key, task.seed, result);
+                            prefix.complete(task.seed, result, 0);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Couldn't write to the cache", e);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            
+            // Wait for every trial to finish
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Trial failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            cache.flush();
+        }
+        
+        this.computed = run.get();
+        
+        Map<Point, FireflyTrialSummary> summaries = new LinkedHashMap<Point, FireflyTrialSummary>();
+        for (int p = 0; p < points.size(); p++) {
+            summaries.put(points.get(p), new FireflyTrialSummary(prefixes[p].getResults()));
+        }
+        return summaries;
+    }
+    
+    /**
+     * Getter method to return how many trials the last sweep had to run
+     * rather than take from the cache
+     * 
+     * @return Number of trials run
+     */
+    public int getComputed() {
+        return this.computed;
+    }
+    
+    /**
+     * Task Class which is one trial still to run
+     */
+    private static class Task {
+        
+        // Which point and seed, the point's cache key and how long we expect
+        private final int point;
+        private final int seed;
+        private final String key;
+        private final long cost;
+        
+        /**
+         * Constructor Method which stores the trial
+         * 
+         * @param point Index of the point
+         * @param seed Seed of the trial
+         * @param key Cache key of the point
+         * @param cost How long we expect the trial to take
+         */
+        private Task(int point, int seed, String key, long cost) {
+            this.point = point;
+            this.seed = seed;
+            this.key = key;
+            this.cost = cost;
+        }
+    }
+    
+    /**
+     * Method which splits a comma separated list of values
+     * 
+     * @param values Comma separated values
+     * @return Each value
+     */
+    private static String [] split(String values) {
+        return values.split(",");
+    }
+    
+    /**
+     * Main Class which runs a sweep described on the command line and prints
+     * a line for each point
+     * 
+     * @param args Parameters as name=value,value,... where the names are
+     *             size (10 or 20x10), neighbourhood, boundary, charging,
+     *             flash and final (steps of the firefly cycle), seeds, limit,
+     *             threads, cache (file, or none) and success and mean, the
+     *             widest 95% intervals on the chance of synchronising and on
+     *             the mean sync time as a fraction of the mean to stop each
+     *             point at, 0 to not check one
+     * @throws InterruptedException If we are interrupted while waiting
+     * @throws IOException If the cache can't be read or written
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        options.put("size", FireflyInteraction.FIREFLY_ROWS + "x" + FireflyInteraction.FIREFLY_COLUMNS);
+        options.put("neighbourhood", FireflyInteraction.FIREFLY_NEIGHBOURHOOD.toString());
+        options.put("boundary", FireflyInteraction.FIREFLY_BOUNDARY.toString());
+        options.put("charging", Integer.toString(Firefly.FIREFLY_CHARGING_FINAL));
+        options.put("flash", Integer.toString(Firefly.FIREFLY_FLASH_STEP));
+        options.put("final", Integer.toString(Firefly.FIREFLY_FINAL_STEP));
+        options.put("seeds", "100");
+        options.put("limit", Integer.toString(FireflyTrialRunner.DEFAULT_TIMESTEP_LIMIT));
+        options.put("threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+        options.put("cache", "sweep.cache");
+        options.put("success", "0");
+        options.put("mean", "0");
+        
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0 || !options.containsKey(arg.substring(0, equals))) {
+                throw new IllegalArgumentException("Expected one of " + options.keySet() + " as name=value but got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        
+        List<int []> sizes = new ArrayList<int []>();
+        for (String size : split(options.get("size"))) {
+            String [] sides = size.split("x");
+            int width = Integer.parseInt(sides[0]);
+            sizes.add(new int [] { width, sides.length > 1 ? Integer.parseInt(sides[1]) : width });
+        }
+        
+        List<FireflyInteraction.Neighbourhood> neighbourhoods = new ArrayList<FireflyInteraction.Neighbourhood>();
+        for (String neighbourhood : split(options.get("neighbourhood"))) {
+            neighbourhoods.add(FireflyInteraction.Neighbourhood.valueOf(neighbourhood));
+        }
+        
+        List<FireflyTopology.Boundary> boundaries = new ArrayList<FireflyTopology.Boundary>();
+        for (String boundary : split(options.get("boundary"))) {
+            boundaries.add(FireflyTopology.Boundary.valueOf(boundary));
+        }
+        
+        // Every combination of cycle steps that makes a sensible cycle
+        List<FireflyCycle> cycles = new ArrayList<FireflyCycle>();
+        for (String charging : split(options.get("charging"))) {
+            for (String flash : split(options.get("flash"))) {
+                for (String last : split(options.get("final"))) {
+                    int c = Integer.parseInt(charging), f = Integer.parseInt(flash), l = Integer.parseInt(last);
+                    if (c >= 0 && c < f && f <= l && l <= Byte.MAX_VALUE) cycles.add(new FireflyCycle(c, f, l));
+                }
+            }
+        }
+        
+        int seeds = Integer.parseInt(options.get("seeds"));
+        int timestepLimit = Integer.parseInt(options.get("limit"));
+        int threads = Integer.parseInt(options.get("threads"));
+        Path path = options.get("cache").equals("none") ? null : Paths.get(options.get("cache"));
+        double successWidth = Double.parseDouble(options.get("success"));
+        double meanWidth = Double.parseDouble(options.get("mean"));
+        
+        List<Point> points = grid(sizes, neighbourhoods, boundaries, cycles);
+        
+        // Run them all and time how long it took
+        long start = System.nanoTime();
+        try (FireflySweepCache cache = new FireflySweepCache(path)) {
+            FireflySweep sweep = new FireflySweep(threads, cache);
+            if (successWidth > 0 || meanWidth > 0) {
+                sweep.setStoppingRule(new FireflyStoppingRule(successWidth, meanWidth));
+            }
+            Map<Point, FireflyTrialSummary> summaries = sweep.run(points, seeds, timestepLimit);
+            long elapsed = System.nanoTime() - start;
+            
+            // A stopping rule may have needed fewer than every seed
+            long taken = 0;
+            for (Map.Entry<Point, FireflyTrialSummary> entry : summaries.entrySet()) {
+                FireflyTrialSummary summary = entry.getValue();
+                taken += summary.getTrials();
+                System.out.println(entry.getKey() + ": " + summary.getSuccesses() + "/" + summary.getTrials()
+                                   + " synchronised, " + summary.getCycles() + " looped, mean " + summary.getMean()
+                                   + ", median " + summary.getPercentile(50));
+            }
+            
+            System.out.println("");
+            System.out.println("Trials Run: " + sweep.getComputed() + " of " + taken
+                               + ", the rest from the cache");
+            System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package firefly;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Firefly Sweep Cache Class which keeps the result of every trial a sweep has
+ * ever run in a file on disk, so running a sweep again or adding more points
+ * or seeds to it only runs the trials we haven't seen before
+ * 
+ * The file is plain text with one trial per line, holding the key of its
+ * parameters, its seed and its result, split by tabs, and last of all a CRC
+ * of everything before it on the line. New results are only ever added to the
+ * end, so a sweep that is killed part way through loses at most the last few
+ * trials. A half written last line fails its CRC however it was cut, even if
+ * the cut leaves a line that would still parse, and is just skipped
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySweepCache implements Closeable {
+    
+    // How many new results we hold on to before writing them out
+    private static final int FLUSH_INTERVAL = 64;
+    
+    // Every result we know about, by key and seed
+    private final Map<String, FireflyTrialResult> results = new HashMap<String, FireflyTrialResult>();
+    
+    // Where new results go, null if we aren't keeping them
+    private final BufferedWriter writer;
+    private int unflushed = 0;
+    
+    /**
+     * Constructor Method which reads every result already in a cache file
+     * and opens it to add new ones, creating it if it isn't there
+     * 
+     * @param path Cache file, or null to only keep results in memory
+     * @throws IOException If the file can't be read or written
+     */
+    public FireflySweepCache(Path path) throws IOException {
+        if (path == null) {
+            this.writer = null;
+            return;
+        }
+        
+        boolean ended = true;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                this.parse(line);
+            }
+            
+            // See whether the last line was cut off before its newline
+            ended = Files.size(path) == 0 || endsWithNewline(path);
+        } catch (NoSuchFileException e) {
+            // Nothing cached yet
+        }
+        
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        
+        // Start our results on a line of their own rather than on the end of
+        // a half written one, which would spoil the first of them too
+        if (!ended) writer.newLine();
+    }
+    
+    /**
+     * Method which checks whether a file ends with a newline
+     * 
+     * @param path File to check
+     * @return True if the last byte is a newline
+     * @throws IOException If the file can't be read
+     */
+    private static boolean endsWithNewline(Path path) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+    
+    /**
+     * Method which works out the CRC we write at the end of a line
+     * 
+     * @param fields Everything on the line before the CRC
+     * @return CRC as eight hex digits
+     */
+    private static String checksum(String fields) {
+        CRC32 crc = new CRC32();
+        crc.update(fields.getBytes(StandardCharsets.UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+    
+    /**
+     * Method which reads one line of the cache file, skipping it if it is
+     * broken in any way
+     * 
+     * @param line Line of the file
+     */
+    private void parse(String line) {
+        String [] parts = line.split("\t");
+        if (parts.length != 7) return;
+        
+        // Anything cut short or mangled won't match its CRC
+        int end = line.lastIndexOf('\t');
+        if (!checksum(line.substring(0, end)).equals(parts[6])) return;
+        
+        try {
+            long seed = Long.parseLong(parts[1]);
+            FireflyTrialResult.Outcome outcome = FireflyTrialResult.Outcome.valueOf(parts[2]);
+            int timesteps = Integer.parseInt(parts[3]);
+            int period = Integer.parseInt(parts[4]);
+            int entered = Integer.parseInt(parts[5]);
+            
+            results.put(parts[0] + "\t" + seed, new FireflyTrialResult(0, outcome, timesteps, period, entered));
+        } catch (IllegalArgumentException e) {
+            // A half written line from a sweep that was killed
+        }
+    }
+    
+    /**
+     * Method which looks up the result of a trial
+     * 
+     * @param key Key of the trial's parameters
+     * @param seed Seed of the trial
+     * @return Result of the trial, or null if we haven't run it
+     */
+    public synchronized FireflyTrialResult get(String key, long seed) {
+        return results.get(key + "\t" + seed);
+    }
+    
+    /**
+     * Method which stores the result of a trial and adds it to the file
+     * 
+     * @param key Key of the trial's parameters
+     * @param seed Seed of the trial
+     * @param result Result of the trial
+     * @throws IOException If the file can't be written
+     */
+    public synchronized void put(String key, long seed, FireflyTrialResult result) throws IOException {
+        results.put(key + "\t" + seed, result);
+        if (writer == null) return;
+        
+        String fields = key + "\t" + seed + "\t" + result.getOutcome() + "\t" + result.getTimesteps()
+                      + "\t" + result.getPeriod() + "\t" + result.getEntered();
+        writer.write(fields + "\t" + checksum(fields));
+        writer.newLine();
+        
+        if (++unflushed >= FLUSH_INTERVAL) this.flush();
+    }
+    
+    /**
+     * Method which writes out any results we are holding on to
+     * 
+     * @throws IOException If the file can't be written
+     */
+    public synchronized void flush() throws IOException {
+        if (writer != null) writer.flush();
+        this.unflushed = 0;
+    }
+    
+    /**
+     * Getter method to return how many results we know about
+     * 
+     * @return Number of cached results
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) writer.close();
+    }
+}
@@ -0,0 +1,634 @@
+package firefly;
+
+import java.util.Arrays;
+
+/**
+ * Firefly Sync Clusters Class which keeps track of the clusters of fireflies
+ * in sync with each other, meaning the connected groups of neighbours on the
+ * same step, as the grid runs. Two fireflies are neighbours here if either of
+ * them listens to the other
+ * 
+ * Every firefly that isn't reset moves on by one, so two of them agree after a
+ * timestep exactly when they agreed before, and only the fireflies that were
+ * reset can change which cluster anyone is in. A reset firefly leaves its old
+ * cluster and joins whoever is on its new step. Joining clusters is a union in
+ * a union-find over cluster ids. Leaving can split the old cluster, and the
+ * only places it can come apart are next to the reset fireflies, so we start
+ * a search from each of their old cluster neighbours and run them all a cell
+ * at a time. Searches that meet are joined up, and a search that runs out of
+ * cells has found a piece that split off and gets an id of its own. Once one
+ * search is left it must be the rest of the old cluster, which keeps its id
+ * without being looked at, so the work is proportional to the pieces that
+ * split off rather than to the size of the cluster
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySyncClusters {
+    
+    // Size, neighbourhood and boundary of our grid, and its neighbour table
+    private final FireflyTopology topology;
+    private final int [] neighbours;
+    private final int stride;
+    private final byte [] orthogonals;
+    private final byte [] neighbourCounts;
+    private final int cells;
+    
+    // Phase of every firefly, owned by our engine. Two fireflies are on the
+    // same step exactly when they have the same phase
+    private final byte [] phases;
+    
+    // Cluster id of every firefly, and the union-find over ids. Only the
+    // size of an id at the root of its tree means anything
+    private final int [] labels;
+    private final int [] parents;
+    private final int [] sizes;
+    private int ids = 0;
+    
+    // Number of clusters, how many clusters there are of each size, and the
+    // size of the largest
+    private int clusters = 0;
+    private final int [] histogram;
+    private int largest = 0;
+    
+    // Whether a step was set from outside so everything needs rebuilding
+    private boolean rebuild = true;
+    
+    // Stamps so we only look at each cluster and firefly once per update
+    private int epoch = 0;
+    private final int [] idStamps;
+    private final int [] idSlots;
+    private final int [] cellStamps;
+    
+    // Clusters touched by an update, and the seeds of the searches in each,
+    // chained through seedNext
+    private int [] affected = new int[16];
+    private int [] seedHeads = new int[16];
+    private int [] seeds = new int[64];
+    private int [] seedNext = new int[64];
+    
+    // Searches run while splitting a cluster. Each search chains the
+    // fireflies it has found through cellNext, from its first to its last,
+    // and expands the one at its cursor next. Searches still going are kept
+    // in order, and going is how many groups of them are left
+    private int search = 0;
+    private final int [] searchStamps;
+    private final int [] owners;
+    private final int [] cellNext;
+    private int [] firsts = new int[16];
+    private int [] lasts = new int[16];
+    private int [] cursors = new int[16];
+    private int [] order = new int[16];
+    
+    // Searches that have met are joined in a union-find of their own, with
+    // how many of each group's searches are still going and how many
+    // fireflies the group has found, and the id of each piece split off
+    private int [] groups = new int[16];
+    private int [] live = new int[16];
+    private int [] found = new int[16];
+    private int [] pieces = new int[16];
+    private int going = 0;
+    
+    /**
+     * Constructor Method which starts tracking the clusters of a grid
+     * 
+     * @param topology Size, neighbourhood and boundary of our grid
+     * @param phases Phase of every firefly, kept up to date by our engine
+     */
+    FireflySyncClusters(FireflyTopology topology, byte [] phases) {
+        this.topology = topology;
+        this.neighbours = topology.getNeighbours();
+        this.stride = topology.getStride();
+        this.orthogonals = topology.getOrthogonals();
+        this.neighbourCounts = topology.getSizes();
+        this.cells = topology.getCells();
+        this.phases = phases;
+        
+        // A reset can make at most one new id for the firefly and one for
+        // each piece split off next to it, and once we run out we rebuild
+        this.labels = new int[cells];
+        this.parents = new int[cells * 4 + 64];
+        this.sizes = new int[parents.length];
+        this.idStamps = new int[parents.length];
+        this.idSlots = new int[parents.length];
+        this.histogram = new int[cells + 1];
+        
+        this.cellStamps = new int[cells];
+        this.searchStamps = new int[cells];
+        this.owners = new int[cells];
+        this.cellNext = new int[cells];
+    }
+    
+    /**
+     * Method which tells us if two fireflies are neighbours, which they are
+     * if either listens to the other
+     * 
+     * @param i Index of the firefly
+     * @param k Slot of the neighbour in the firefly's part of the table
+     * @param n Index of the neighbour
+     * @return True if the two are neighbours
+     */
+    private boolean linked(int i, int k, int n) {
+        return n != i && (k < orthogonals[i] || topology.isMoore(i) || topology.isMoore(n));
+    }
+    
+    /**
+     * Method which finds the id at the root of a cluster id's tree, halving
+     * the path as it goes
+     * 
+     * @param id Cluster id
+     * @return Root id of the cluster
+     */
+    private int find(int id) {
+        while (parents[id] != id) {
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+    
+    /**
+     * Method which finds the root id of the cluster a firefly is in, pointing
+     * the firefly straight at it for next time
+     * 
+     * @param i Index of the firefly
+     * @return Root id of its cluster
+     */
+    private int clusterOf(int i) {
+        int root = this.find(labels[i]);
+        labels[i] = root;
+        return root;
+    }
+    
+    /**
+     * Method which hands out a new cluster id of a given size
+     * 
+     * @param size Number of fireflies in the cluster
+     * @return New cluster id
+     */
+    private int newCluster(int size) {
+        int id = ids++;
+        parents[id] = id;
+        sizes[id] = 0;
+        this.resize(id, size);
+        return id;
+    }
+    
+    /**
+     * Method which changes the size of a cluster, keeping our count of
+     * clusters and the histogram of their sizes up to date. A cluster with no
+     * fireflies left is gone
+     * 
+     * @param root Root id of the cluster
+     * @param size New number of fireflies in the cluster
+     */
+    private void resize(int root, int size) {
+        int old = sizes[root];
+        if (old > 0) {
+            histogram[old]--;
+            clusters--;
+        }
+        if (size > 0) {
+            histogram[size]++;
+            clusters++;
+        }
+        sizes[root] = size;
+        
+        if (size > largest) largest = size;
+        while (largest > 0 && histogram[largest] == 0) largest--;
+    }
+    
+    /**
+     * Method which joins two clusters together, putting the smaller one's
+     * tree under the bigger one
+     * 
+     * @param a Root id of the first cluster
+     * @param b Root id of the second cluster
+     */
+    private void union(int a, int b) {
+        if (a == b) return;
+        if (sizes[a] < sizes[b]) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        
+        int total = sizes[a] + sizes[b];
+        this.resize(b, 0);
+        parents[b] = a;
+        this.resize(a, total);
+    }
+    
+    /**
+     * Method which works out every cluster from scratch by flood filling the
+     * fireflies on the same step as their neighbours
+     */
+    private void build() {
+        ids = 0;
+        clusters = 0;
+        largest = 0;
+        Arrays.fill(histogram, 0);
+        Arrays.fill(labels, -1);
+        
+        // We use the chain of our search arrays as the queue
+        int [] queue = cellNext;
+        for (int i = 0; i < cells; i++) {
+            if (labels[i] >= 0) continue;
+            
+            int id = ids++;
+            parents[id] = id;
+            sizes[id] = 0;
+            labels[i] = id;
+            
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = i;
+            while (head < tail) {
+                int f = queue[head++];
+                int base = f * stride;
+                for (int k = 0; k < neighbourCounts[f]; k++) {
+                    int n = neighbours[base + k];
+                    if (labels[n] < 0 && phases[n] == phases[f] && this.linked(f, k, n)) {
+                        labels[n] = id;
+                        queue[tail++] = n;
+                    }
+                }
+            }
+            this.resize(id, tail);
+        }
+        
+        rebuild = false;
+    }
+    
+    /**
+     * Method which tells us our engine has set a step from outside, so
+     * everything will be worked out again the next time we're asked
+     */
+    void invalidate() {
+        rebuild = true;
+    }
+    
+    /**
+     * Method which is called by our engine once the fireflies reset in a
+     * timestep have been moved to their new phase, and nobody else has
+     * changed phase
+     * 
+     * @param resets Fireflies that were reset
+     * @param count Number of fireflies that were reset
+     */
+    void update(int [] resets, int count) {
+        if (rebuild || count == 0) return;
+        
+        // Rebuild next time we're asked rather than run out of ids
+        if ((long)ids + 9L * count > parents.length) {
+            rebuild = true;
+            return;
+        }
+        
+        epoch++;
+        int touched = 0;
+        
+        // Take each reset firefly out of its old cluster into one of its own
+        for (int p = 0; p < count; p++) {
+            int r = resets[p];
+            int c = this.clusterOf(r);
+            
+            if (idStamps[c] != epoch) {
+                idStamps[c] = epoch;
+                if (touched == affected.length) {
+                    affected = Arrays.copyOf(affected, touched * 2);
+                    seedHeads = Arrays.copyOf(seedHeads, touched * 2);
+                }
+                idSlots[c] = touched;
+                seedHeads[touched] = -1;
+                affected[touched++] = c;
+            }
+            
+            this.resize(c, sizes[c] - 1);
+            labels[r] = this.newCluster(1);
+            cellStamps[r] = epoch;
+        }
+        
+        // Any piece an old cluster splits into is next to a reset firefly,
+        // so its neighbours still in the old cluster are where we search from
+        int seedCount = 0;
+        for (int p = 0; p < count; p++) {
+            int r = resets[p];
+            int base = r * stride;
+            for (int k = 0; k < neighbourCounts[r]; k++) {
+                int n = neighbours[base + k];
+                if (cellStamps[n] == epoch || !this.linked(r, k, n)) continue;
+                
+                int c = this.clusterOf(n);
+                if (idStamps[c] != epoch) continue;
+                cellStamps[n] = epoch;
+                
+                if (seedCount == seeds.length) {
+                    seeds = Arrays.copyOf(seeds, seedCount * 2);
+                    seedNext = Arrays.copyOf(seedNext, seedCount * 2);
+                }
+                int slot = idSlots[c];
+                seeds[seedCount] = n;
+                seedNext[seedCount] = seedHeads[slot];
+                seedHeads[slot] = seedCount++;
+            }
+        }
+        
+        for (int a = 0; a < touched; a++) {
+            this.split(affected[a], seedHeads[a]);
+        }
+        
+        // Reset fireflies join whoever is on their new step, which is never
+        // anyone left in their old cluster
+        for (int p = 0; p < count; p++) {
+            int r = resets[p];
+            int base = r * stride;
+            for (int k = 0; k < neighbourCounts[r]; k++) {
+                int n = neighbours[base + k];
+                if (phases[n] == phases[r] && this.linked(r, k, n)) {
+                    this.union(this.clusterOf(r), this.clusterOf(n));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which finds the root of a group of searches
+     * 
+     * @param s Index of a search
+     * @return Index of the search at the root of its group
+     */
+    private int group(int s) {
+        while (groups[s] != s) {
+            groups[s] = groups[groups[s]];
+            s = groups[s];
+        }
+        return s;
+    }
+    
+    /**
+     * Method which splits an old cluster into the pieces left after some of
+     * its fireflies were taken out, searching from every seed at once until
+     * only one search is left going
+     * 
+     * @param c Root id of the old cluster
+     * @param head First seed in the chain of seeds for this cluster
+     */
+    private void split(int c, int head) {
+        // With nobody left, or only one place to start, nothing can split
+        if (sizes[c] == 0 || head < 0 || seedNext[head] < 0) return;
+        
+        search++;
+        int k = 0;
+        for (int s = head; s >= 0; s = seedNext[s]) {
+            if (k == firsts.length) {
+                firsts = Arrays.copyOf(firsts, k * 2);
+                lasts = Arrays.copyOf(lasts, k * 2);
+                cursors = Arrays.copyOf(cursors, k * 2);
+                order = Arrays.copyOf(order, k * 2);
+                groups = Arrays.copyOf(groups, k * 2);
+                live = Arrays.copyOf(live, k * 2);
+                found = Arrays.copyOf(found, k * 2);
+                pieces = Arrays.copyOf(pieces, k * 2);
+            }
+            
+            int seed = seeds[s];
+            searchStamps[seed] = search;
+            owners[seed] = k;
+            cellNext[seed] = -1;
+            firsts[k] = lasts[k] = cursors[k] = seed;
+            groups[k] = k;
+            live[k] = 1;
+            found[k] = 1;
+            k++;
+        }
+        
+        // Run every search a firefly at a time until only one group is
+        // going, dropping searches from our order as they run out
+        going = k;
+        int alive = k;
+        for (int s = 0; s < k; s++) order[s] = s;
+        while (going > 1) {
+            int kept = 0;
+            for (int o = 0; o < alive; o++) {
+                int s = order[o];
+                if (going > 1) this.expand(c, s);
+                if (cursors[s] >= 0) order[kept++] = s;
+                else if (--live[this.group(s)] == 0) going--;
+            }
+            alive = kept;
+        }
+        
+        // The group still going keeps the old id, or the biggest piece if
+        // every search ran out
+        int keep = -1;
+        for (int g = 0; g < k; g++) {
+            if (this.group(g) != g) continue;
+            if (keep < 0 || live[g] > 0 || (live[keep] == 0 && found[g] > found[keep])) keep = g;
+        }
+        
+        // Every other piece gets an id of its own
+        for (int g = 0; g < k; g++) {
+            if (this.group(g) != g || g == keep) continue;
+            pieces[g] = this.newCluster(found[g]);
+            this.resize(c, sizes[c] - found[g]);
+        }
+        for (int s = 0; s < k; s++) {
+            int g = this.group(s);
+            if (g == keep) continue;
+            for (int f = firsts[s]; f >= 0; f = cellNext[f]) labels[f] = pieces[g];
+        }
+    }
+    
+    /**
+     * Method which moves a search on by one firefly, looking at each of its
+     * neighbours still in the old cluster. Any we haven't seen are added to
+     * the end of the search, and any another search has seen join our groups
+     * 
+     * @param c Root id of the old cluster
+     * @param s Index of the search
+     */
+    private void expand(int c, int s) {
+        int f = cursors[s];
+        cursors[s] = cellNext[f];
+        
+        int base = f * stride;
+        for (int j = 0; j < neighbourCounts[f]; j++) {
+            int n = neighbours[base + j];
+            if (!this.linked(f, j, n)) continue;
+            
+            // Only fireflies in the old cluster are ever found by a search
+            if (searchStamps[n] == search) {
+                int g = this.group(s);
+                int o = this.group(owners[n]);
+                if (g != o) {
+                    groups[o] = g;
+                    live[g] += live[o];
+                    found[g] += found[o];
+                    going--;
+                }
+            } else if (this.clusterOf(n) == c) {
+                searchStamps[n] = search;
+                owners[n] = s;
+                cellNext[n] = -1;
+                cellNext[lasts[s]] = n;
+                lasts[s] = n;
+                if (cursors[s] < 0) cursors[s] = n;
+                found[this.group(s)]++;
+            }
+        }
+    }
+    
+    /**
+     * Getter method to return how many clusters of fireflies in sync there
+     * are, counting a firefly on its own as a cluster
+     * 
+     * @return Number of clusters
+     */
+    public int getClusters() {
+        if (rebuild) this.build();
+        return this.clusters;
+    }
+    
+    /**
+     * Getter method to return how many fireflies are in the largest cluster
+     * 
+     * @return Size of the largest cluster
+     */
+    public int getLargest() {
+        if (rebuild) this.build();
+        return this.largest;
+    }
+    
+    /**
+     * Getter method to return the fraction of the grid in the largest
+     * cluster, which only reaches 1 once the grid is synchronised
+     * 
+     * @return Fraction of fireflies in the largest cluster
+     */
+    public double getLargestFraction() {
+        return (double)this.getLargest() / cells;
+    }
+    
+    /**
+     * Getter method to return how many clusters there are of a given size
+     * 
+     * @param size Number of fireflies in a cluster
+     * @return Number of clusters of that size
+     */
+    public int getClustersOfSize(int size) {
+        if (rebuild) this.build();
+        return size > 0 && size <= cells ? histogram[size] : 0;
+    }
+    
+    /**
+     * Getter method to return the size of the cluster a firefly is in
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @return Number of fireflies in its cluster
+     */
+    public int getClusterSize(int x, int y) {
+        if (rebuild) this.build();
+        return sizes[this.clusterOf(y * topology.getWidth() + x)];
+    }
+    
+    /**
+     * Method which tells us if two fireflies are in the same cluster
+     * 
+     * @param a Index of the first firefly, y * width + x
+     * @param b Index of the second firefly, y * width + x
+     * @return True if they are in the same cluster
+     */
+    public boolean isSameCluster(int a, int b) {
+        if (rebuild) this.build();
+        return this.clusterOf(a) == this.clusterOf(b);
+    }
+    
+    /**
+     * Main Class which runs a grid and prints how its clusters grow and merge,
+     * checking them against a flood fill of the whole grid every timestep if
+     * asked to
+     * 
+     * @param args Grid width, grid height, neighbourhood, boundary, number of
+     *             timesteps, seed and whether to check every timestep
+     */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 2 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[2]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 3 ?
+            FireflyTopology.Boundary.valueOf(args[3]) : FireflyInteraction.FIREFLY_BOUNDARY;
+        int timesteps = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : FireflyRandom.newSeed();
+        boolean check = args.length > 6 && Boolean.parseBoolean(args[6]);
+        
+        FireflyTopology topology = new FireflyTopology(width, height, neighbourhood, boundary, seed);
+        FireflyEventGrid grid = new FireflyEventGrid(topology, seed);
+        FireflySyncClusters clusters = grid.trackClusters();
+        byte [] steps = new byte[topology.getCells()];
+        int mismatches = 0;
+        
+        System.out.println("Seed: " + seed);
+        long start = System.nanoTime();
+        while (grid.getTimesteps() < timesteps) {
+            grid.step();
+            
+            // Steps are the same exactly when phases are, so clusters built
+            // straight from the steps should always match ours
+            if (check) {
+                grid.copySteps(steps);
+                FireflySyncClusters fresh = new FireflySyncClusters(topology, steps);
+                if (!clusters.matches(fresh)) {
+                    System.out.println("DIFFERENT to a flood fill at timestep " + grid.getTimesteps());
+                    mismatches++;
+                }
+            }
+            
+            if (grid.getTimesteps() % 100 == 0 || grid.isSynchronised()) {
+                System.out.println("Timestep " + grid.getTimesteps() + ": " + clusters.getClusters() + " clusters, largest "
+                                   + clusters.getLargest() + " (" + Math.round(clusters.getLargestFraction() * 100)
+                                   + "%)");
+            }
+            if (grid.isSynchronised()) break;
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        if (check) System.out.println(mismatches == 0 ? "Matches a flood fill" : mismatches + " timesteps DIFFERENT");
+        System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+    }
+    
+    /**
+     * Method which checks we have exactly the same clusters as another
+     * tracker of the same grid
+     * 
+     * @param other Clusters to compare against
+     * @return True if both split the grid up in the same way
+     */
+    private boolean matches(FireflySyncClusters other) {
+        if (this.getClusters() != other.getClusters() || this.getLargest() != other.getLargest()) return false;
+        
+        // Each of our clusters must line up with exactly one of theirs
+        int [] mapping = new int[parents.length];
+        int [] reverse = new int[other.parents.length];
+        Arrays.fill(mapping, -1);
+        Arrays.fill(reverse, -1);
+        for (int i = 0; i < cells; i++) {
+            int a = this.clusterOf(i);
+            int b = other.clusterOf(i);
+            if (mapping[a] < 0 && reverse[b] < 0) {
+                mapping[a] = b;
+                reverse[b] = a;
+            }
+            if (mapping[a] != b || reverse[b] != a || sizes[a] != other.sizes[b]) return false;
+        }
+        return true;
+    }
+}
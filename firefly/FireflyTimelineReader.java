@@ -0,0 +1,346 @@
+package firefly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Firefly Timeline Reader Class which replays a run recorded by our
+ * FireflyTimelineWriter. The file is memory mapped rather than read in, so
+ * only the frames we actually look at are ever paged in and runs many
+ * gigabytes long can be replayed without loading them onto the heap
+ * 
+ * Any timestep can be jumped to by finding its frame in the index, going back
+ * to the keyframe before it and decoding forward. Reading frames in order
+ * carries on from the last one, so playing a run through only decodes each
+ * frame once
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTimelineReader implements Closeable {
+    
+    // Most of the file a single mapping covers, as a buffer can't be bigger
+    // than 2GB. Each mapping runs on past this by the size of the biggest
+    // frame so every frame sits inside the mapping it starts in
+    private static final long CHUNK = 1L << 30;
+    
+    // Size of our grid in fireflies and in packed bytes
+    private final int width;
+    private final int height;
+    private final int packedLength;
+    private final int keyframeInterval;
+    
+    // File we are reading and our mappings of it
+    private final FileChannel channel;
+    private final MappedByteBuffer [] chunks;
+    
+    // Timestep and offset of every frame
+    private final int frames;
+    private final int [] timesteps;
+    private final long [] offsets;
+    
+    // The last frame we decoded and its packed steps
+    private final byte [] packed;
+    private final boolean odd;
+    private int current = -1;
+    
+    /**
+     * Constructor Method which maps a timeline file and reads its index. If
+     * the writer never got to write the index we find the frames by walking
+     * through them instead
+     * 
+     * @param path File to read
+     * @throws IOException If the file can't be read or isn't a timeline
+     */
+    public FireflyTimelineReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        
+        try {
+            long size = channel.size();
+            ByteBuffer header = this.read(0, FireflyTimelineWriter.HEADER_SIZE);
+            if (header.getInt() != FireflyTimelineWriter.MAGIC) {
+                throw new IOException("Not a firefly timeline: " + path);
+            }
+            if (header.getInt() != FireflyTimelineWriter.VERSION) {
+                throw new IOException("Unsupported timeline version: " + path);
+            }
+            
+            this.width = header.getInt();
+            this.height = header.getInt();
+            this.keyframeInterval = header.getInt();
+            this.packedLength = (int)(((long)width * height + 1) / 2);
+            this.packed = new byte[packedLength];
+            this.odd = (((long)width * height) & 1) != 0;
+            
+            // Map the whole file in overlapping chunks
+            long overlap = FireflyTimelineWriter.FRAME_HEADER_SIZE + FireflyTimelineWriter.maxEncodedLength(packedLength);
+            this.chunks = new MappedByteBuffer[(int)((size + CHUNK - 1) / CHUNK)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = c * CHUNK;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK + overlap));
+                chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            
+            // Use the index if it is there, otherwise walk the frames
+            ByteBuffer trailer = size >= FireflyTimelineWriter.HEADER_SIZE + FireflyTimelineWriter.TRAILER_SIZE ?
+                this.read(size - FireflyTimelineWriter.TRAILER_SIZE, FireflyTimelineWriter.TRAILER_SIZE) : null;
+            if (trailer != null && trailer.getInt(12) == FireflyTimelineWriter.INDEX_MAGIC &&
+                trailer.getLong(0) + trailer.getInt(8) * 12L + FireflyTimelineWriter.TRAILER_SIZE == size) {
+                long indexStart = trailer.getLong(0);
+                this.frames = trailer.getInt(8);
+                this.timesteps = new int[frames];
+                this.offsets = new long[frames];
+                
+                this.read(indexStart, frames * 4).asIntBuffer().get(timesteps);
+                this.read(indexStart + frames * 4L, frames * 8).asLongBuffer().get(offsets);
+            } else {
+                int [] foundTimesteps = new int[1024];
+                long [] foundOffsets = new long[1024];
+                int found = 0;
+                
+                // Stop at the first frame that runs off the end of the file
+                long offset = FireflyTimelineWriter.HEADER_SIZE;
+                while (offset + FireflyTimelineWriter.FRAME_HEADER_SIZE <= size) {
+                    ByteBuffer frame = this.frame(offset);
+                    long next = offset + FireflyTimelineWriter.FRAME_HEADER_SIZE + frame.getInt(frame.position() + 5);
+                    if (next > size) break;
+                    
+                    if (found == foundOffsets.length) {
+                        foundOffsets = Arrays.copyOf(foundOffsets, found * 2);
+                        foundTimesteps = Arrays.copyOf(foundTimesteps, found * 2);
+                    }
+                    foundOffsets[found] = offset;
+                    foundTimesteps[found] = frame.getInt(frame.position() + 1);
+                    found++;
+                    offset = next;
+                }
+                
+                this.frames = found;
+                this.timesteps = Arrays.copyOf(foundTimesteps, found);
+                this.offsets = Arrays.copyOf(foundOffsets, found);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Method which reads a few bytes straight from the file, for the header
+     * and index which we only read once
+     * 
+     * @param offset Offset into the file
+     * @param length Number of bytes to read
+     * @return Buffer holding those bytes
+     * @throws IOException If the file is too short
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Timeline is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    /**
+     * Method which returns a view of our mapping starting at a frame
+     * 
+     * @param offset Offset of the frame in the file
+     * @return Buffer positioned at the start of the frame
+     */
+    private ByteBuffer frame(long offset) {
+        ByteBuffer buffer = chunks[(int)(offset / CHUNK)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position((int)(offset % CHUNK));
+        return buffer;
+    }
+    
+    /**
+     * Method which decodes the steps of a frame. Going forward from the frame
+     * we last decoded carries on from it, anything else starts again from the
+     * keyframe before
+     * 
+     * @param frame Frame to decode
+     * @param steps Array to put the steps in, indexed by y * width + x
+     */
+    public void readFrame(int frame, byte [] steps) {
+        if (frame < 0 || frame >= frames) {
+            throw new IndexOutOfBoundsException("No frame " + frame + " in a timeline of " + frames);
+        }
+        
+        int keyframe = frame - frame % keyframeInterval;
+        int from = current >= keyframe && current <= frame ? current + 1 : keyframe;
+        
+        for (int f = from; f <= frame; f++) {
+            this.decode(f);
+        }
+        current = frame;
+        
+        unpack(packed, steps, width * height);
+    }
+    
+    /**
+     * Method which unpacks two steps from each byte, the first firefly in the
+     * low bits
+     * 
+     * @param packed Packed steps
+     * @param steps Array to put the steps in
+     * @param cells Number of fireflies
+     */
+    static void unpack(byte [] packed, byte [] steps, int cells) {
+        for (int j = 0; j < cells / 2; j++) {
+            steps[2 * j] = (byte)(packed[j] & 0x0F);
+            steps[2 * j + 1] = (byte)((packed[j] >>> 4) & 0x0F);
+        }
+        if ((cells & 1) != 0) steps[cells - 1] = (byte)(packed[cells / 2] & 0x0F);
+    }
+    
+    /**
+     * Method which decodes a frame on top of our packed steps, which must
+     * hold the frame before unless it is a keyframe. Anything other than a
+     * keyframe is stored against the frame before moved on to its timestep
+     * 
+     * @param f Frame to decode
+     */
+    private void decode(int f) {
+        ByteBuffer buffer = this.frame(offsets[f]);
+        int flags = buffer.get();
+        boolean keyframe = (flags & FireflyTimelineWriter.FLAG_KEYFRAME) != 0;
+        if (keyframe != (f % keyframeInterval == 0)) {
+            throw new IllegalStateException("Timeline is corrupt at frame " + f);
+        }
+        buffer.position(buffer.position() + 8);
+        
+        // A keyframe replaces our steps and anything else is XORed onto them
+        // once they have been moved on
+        if (!keyframe) {
+            FireflyTimelineWriter.advance(packed, packed, packedLength, timesteps[f] - timesteps[f - 1], odd);
+        }
+        apply(buffer, packed, packedLength, keyframe);
+    }
+    
+    /**
+     * Method which decodes the run length encoded bytes of a frame onto some
+     * packed steps, replacing them for a keyframe and XORing onto them for
+     * anything else
+     * 
+     * @param buffer Buffer holding the encoded bytes
+     * @param packed Packed steps to decode onto
+     * @param packedLength Number of packed bytes
+     * @param keyframe Whether the frame is a keyframe
+     */
+    static void apply(ByteBuffer buffer, byte [] packed, int packedLength, boolean keyframe) {
+        int j = 0;
+        while (j < packedLength) {
+            long header = getVarint(buffer);
+            int length = (int)(header >>> 1);
+            
+            if ((header & 1) != 0) {
+                byte value = buffer.get();
+                if (keyframe) Arrays.fill(packed, j, j + length, value);
+                else if (value != 0) for (int k = j; k < j + length; k++) packed[k] ^= value;
+            } else if (keyframe) {
+                buffer.get(packed, j, length);
+            } else {
+                for (int k = j; k < j + length; k++) packed[k] ^= buffer.get();
+            }
+            j += length;
+        }
+    }
+    
+    /**
+     * Method which reads a number written seven bits at a time
+     * 
+     * @param buffer Buffer to read from
+     * @return Number read
+     */
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+    
+    /**
+     * Method which finds the frame showing a timestep, which is the last one
+     * recorded at or before it
+     * 
+     * @param timestep Timestep to find
+     * @return Index of the frame, or -1 if it is before the first frame
+     */
+    public int findFrame(int timestep) {
+        int found = Arrays.binarySearch(timesteps, 0, frames, timestep);
+        if (found >= 0) return found;
+        return -found - 2;
+    }
+    
+    /**
+     * Getter method to return the timestep a frame was recorded at
+     * 
+     * @param frame Index of the frame
+     * @return Timestep of the frame
+     */
+    public int getTimestep(int frame) {
+        return this.timesteps[frame];
+    }
+    
+    /**
+     * Method which tells us if the grid was synchronised when a frame was
+     * recorded
+     * 
+     * @param frame Index of the frame
+     * @return True if the grid was synchronised
+     */
+    public boolean isSynchronised(int frame) {
+        return (this.frame(offsets[frame]).get() & FireflyTimelineWriter.FLAG_SYNCHRONISED) != 0;
+    }
+    
+    /**
+     * Getter method to return how many frames are in our timeline
+     * 
+     * @return Number of frames
+     */
+    public int getFrames() {
+        return this.frames;
+    }
+    
+    /**
+     * Getter method to return how many fireflies wide the grid is
+     * 
+     * @return Number of fireflies along X
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Getter method to return how many fireflies high the grid is
+     * 
+     * @return Number of fireflies along Y
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,570 @@
+package firefly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Firefly Timeline Writer Class which records every generation of a run to a
+ * file so we can go back afterwards and look at how sync spreads. Steps only
+ * go up to 9, so each one is packed into 4 bits, two fireflies to a byte
+ * 
+ * Most fireflies just move on by one between generations, so rather than the
+ * whole generation we store how it differs from the one before moved on by
+ * however many timesteps have passed. This is an XOR of the packed bytes which
+ * is zero everywhere apart from the fireflies that were reset, and run length
+ * encoding it squashes the runs of zeros down to almost nothing. Every so
+ * often a whole generation is stored as a keyframe, so a reader can jump to
+ * any timestep by decoding forward from the keyframe before it. All of the
+ * packing, encoding and writing is done on a background thread, so recording
+ * a generation only costs copying its steps out
+ * 
+ * The file is a header, then each frame as a flags byte, its timestep, its
+ * length and its encoded bytes, then an index of the timestep and offset of
+ * every frame so a reader can find frames without reading the ones before
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTimelineWriter implements Closeable {
+    
+    // Magic numbers at the start and end of the file, "FFTL" and "FFIX"
+    static final int MAGIC = 0x4646544C;
+    static final int INDEX_MAGIC = 0x46464958;
+    static final int VERSION = 1;
+    
+    // Size of our header, each frame's header and the end of the index
+    static final int HEADER_SIZE = 32;
+    static final int FRAME_HEADER_SIZE = 9;
+    static final int TRAILER_SIZE = 16;
+    
+    // Flags stored with each frame
+    static final int FLAG_KEYFRAME = 1;
+    static final int FLAG_SYNCHRONISED = 2;
+    
+    // How many frames between keyframes unless we are told otherwise
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 256;
+    
+    // How many generations can be waiting for the background thread
+    private static final int BUFFERS = 4;
+    
+    // View of a byte array as longs, so we can XOR eight bytes at once
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long [].class, ByteOrder.LITTLE_ENDIAN);
+    
+    // What each packed byte becomes when both of its fireflies move on by
+    // each number of timesteps without being reset
+    static final byte [][] ADVANCE = advanceTables();
+    
+    // Size of our grid in fireflies and in packed bytes
+    private final int width;
+    private final int height;
+    private final int packedLength;
+    private final int keyframeInterval;
+    
+    // File we are writing to and the thread that writes it
+    private final FileChannel channel;
+    private final Thread thread;
+    
+    // Generations waiting to be written and empty ones ready to be filled
+    private final ArrayBlockingQueue<Generation> full = new ArrayBlockingQueue<Generation>(BUFFERS + 1);
+    private final ArrayBlockingQueue<Generation> free = new ArrayBlockingQueue<Generation>(BUFFERS);
+    
+    // Put on the free queue by the background thread when it fails, as it
+    // won't be handing back any more generations to wait for
+    private static final Generation FAILED = new Generation(null);
+    
+    // Packed previous and current generations, the previous one moved on to
+    // now and their XOR, only touched by the background thread
+    private byte [] previous;
+    private byte [] packed;
+    private final byte [] predicted;
+    private final byte [] delta;
+    private int previousTimestep;
+    private final ByteBuffer out;
+    
+    // Timestep and offset of every frame written so far
+    private int [] timesteps = new int[1024];
+    private long [] offsets = new long[1024];
+    private volatile int frames = 0;
+    private long position;
+    
+    // Anything that went wrong on the background thread, and are we closed
+    private volatile IOException failure;
+    private boolean closed = false;
+    
+    /**
+     * Generation Class which holds one generation on its way to be written
+     */
+    private static class Generation {
+        private final byte [] steps;
+        private int timestep;
+        private boolean synced;
+        
+        private Generation(byte [] steps) {
+            this.steps = steps;
+        }
+    }
+    
+    /**
+     * Constructor Method which creates the file, writes our header and starts
+     * the background thread, with a keyframe every 256 frames
+     * 
+     * @param path File to write to, replacing anything already there
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @throws IOException If the file can't be created
+     */
+    public FireflyTimelineWriter(Path path, int width, int height) throws IOException {
+        this(path, width, height, DEFAULT_KEYFRAME_INTERVAL);
+    }
+    
+    /**
+     * Constructor Method which creates the file, writes our header and starts
+     * the background thread
+     * 
+     * @param path File to write to, replacing anything already there
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param keyframeInterval Number of frames between keyframes
+     * @throws IOException If the file can't be created
+     */
+    public FireflyTimelineWriter(Path path, int width, int height, int keyframeInterval) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Grid must have at least one firefly");
+        }
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Need at least one frame between keyframes");
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.keyframeInterval = keyframeInterval;
+        
+        int cells = width * height;
+        this.packedLength = (cells + 1) / 2;
+        this.previous = new byte[packedLength];
+        this.packed = new byte[packedLength];
+        this.predicted = new byte[packedLength];
+        this.delta = new byte[packedLength];
+        this.out = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + maxEncodedLength(packedLength)).order(ByteOrder.LITTLE_ENDIAN);
+        
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(new Generation(new byte[cells]));
+        }
+        
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+        
+        // Write our header
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(keyframeInterval);
+        header.position(HEADER_SIZE).flip();
+        this.writeFully(header);
+        
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "firefly-timeline-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Method which works out what every packed byte becomes when both of its
+     * fireflies move on by 0 to 9 timesteps
+     * 
+     * @return Tables of packed bytes for each number of timesteps
+     */
+    private static byte [][] advanceTables() {
+        int cycle = Firefly.FIREFLY_FINAL_STEP + 1;
+        byte [][] tables = new byte[cycle][256];
+        
+        for (int k = 0; k < cycle; k++) {
+            for (int b = 0; b < 256; b++) {
+                int low = b & 0x0F;
+                int high = b >>> 4;
+                
+                // Anything that isn't a step is left alone
+                if (low < cycle) low = (low + k) % cycle;
+                if (high < cycle) high = (high + k) % cycle;
+                tables[k][b] = (byte)(low | high << 4);
+            }
+        }
+        
+        return tables;
+    }
+    
+    /**
+     * Method which moves every firefly in a packed generation on by a number
+     * of timesteps, as if none of them were reset
+     * 
+     * @param source Packed generation to move on
+     * @param target Array to put the moved on generation in
+     * @param length Number of packed bytes
+     * @param timesteps Number of timesteps to move on by
+     * @param odd Is there an odd number of fireflies, so the top of the last
+     *            byte isn't a firefly and has to stay empty
+     */
+    static void advance(byte [] source, byte [] target, int length, int timesteps, boolean odd) {
+        byte [] table = ADVANCE[Math.floorMod(timesteps, ADVANCE.length)];
+        for (int j = 0; j < length; j++) {
+            target[j] = table[source[j] & 0xFF];
+        }
+        if (odd) target[length - 1] &= 0x0F;
+    }
+    
+    /**
+     * Method which packs a generation two steps to a byte, the first firefly
+     * in the low bits
+     * 
+     * @param steps Steps of every firefly
+     * @param packed Array to put the packed steps in
+     */
+    static void pack(byte [] steps, byte [] packed) {
+        int cells = steps.length;
+        for (int j = 0; j < cells / 2; j++) {
+            packed[j] = (byte)(steps[2 * j] | steps[2 * j + 1] << 4);
+        }
+        if ((cells & 1) != 0) packed[cells / 2] = steps[cells - 1];
+    }
+    
+    /**
+     * Method which XORs a packed generation against the one we predicted,
+     * eight bytes at a time, leaving zeros everywhere the prediction was right
+     * 
+     * @param packed Packed generation
+     * @param predicted Packed generation we predicted
+     * @param delta Array to put the XOR in
+     * @param length Number of packed bytes
+     */
+    static void difference(byte [] packed, byte [] predicted, byte [] delta, int length) {
+        int j = 0;
+        for (; j + 8 <= length; j += 8) {
+            LONGS.set(delta, j, (long)LONGS.get(packed, j) ^ (long)LONGS.get(predicted, j));
+        }
+        for (; j < length; j++) {
+            delta[j] = (byte)(packed[j] ^ predicted[j]);
+        }
+    }
+    
+    /**
+     * Method which returns the most bytes a frame can take once it has been
+     * run length encoded, which is a little more than not encoding it
+     * 
+     * @param packedLength Number of packed bytes in a generation
+     * @return Most bytes an encoded frame can take
+     */
+    static int maxEncodedLength(int packedLength) {
+        return packedLength + packedLength / 64 + 16;
+    }
+    
+    /**
+     * Method which records the current generation of an engine. This copies
+     * its steps out and hands them to the background thread, and only waits
+     * if the background thread has fallen a few generations behind
+     * 
+     * @param engine Engine to record
+     * @throws IOException If an earlier write failed
+     */
+    public void record(FireflyEngine engine) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Timeline has been closed");
+        }
+        if (engine.getWidth() != width || engine.getHeight() != height) {
+            throw new IllegalArgumentException("Engine is " + engine.getWidth() + "x" + engine.getHeight() +
+                                               " but the timeline is " + width + "x" + height);
+        }
+        this.checkFailure();
+        
+        try {
+            Generation generation = free.take();
+            if (generation == FAILED) {
+                // Leave it there for anyone else who records after us
+                free.offer(FAILED);
+                this.checkFailure();
+            }
+            engine.copySteps(generation.steps);
+            generation.timestep = engine.getTimesteps();
+            generation.synced = engine.isSynchronised();
+            full.put(generation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while recording", e);
+        }
+    }
+    
+    /**
+     * Method which runs on the background thread, writing each generation as
+     * it arrives until we are closed
+     */
+    private void drain() {
+        try {
+            while (true) {
+                Generation generation = full.take();
+                if (generation.steps == null) return;
+                
+                if (failure == null) this.write(generation);
+                free.put(generation);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Interrupted while writing", e);
+        }
+        
+        // We only get here if we failed, so wake up anyone waiting in record.
+        // If the free queue is already full nobody can be waiting, and the
+        // next record sees the failure before it takes anything
+        free.offer(FAILED);
+    }
+    
+    /**
+     * Method which packs a generation, encodes it as a keyframe or against
+     * the one before and writes it to the end of our file
+     * 
+     * @param generation Generation to write
+     * @throws IOException If the write fails
+     */
+    private void write(Generation generation) throws IOException {
+        int cells = generation.steps.length;
+        pack(generation.steps, packed);
+        
+        // A keyframe is stored as it is, anything else as the XOR against
+        // the previous generation moved on to this timestep
+        boolean keyframe = frames % keyframeInterval == 0;
+        byte [] source = packed;
+        if (!keyframe) {
+            advance(previous, predicted, packedLength, generation.timestep - previousTimestep, (cells & 1) != 0);
+            difference(packed, predicted, delta, packedLength);
+            source = delta;
+        }
+        
+        int flags = (keyframe ? FLAG_KEYFRAME : 0) | (generation.synced ? FLAG_SYNCHRONISED : 0);
+        out.clear();
+        out.put((byte)flags).putInt(generation.timestep).putInt(0);
+        encode(source, packedLength, out);
+        out.putInt(5, out.position() - FRAME_HEADER_SIZE);
+        out.flip();
+        
+        // Remember where this frame went for our index
+        if (frames == offsets.length) {
+            offsets = Arrays.copyOf(offsets, frames * 2);
+            timesteps = Arrays.copyOf(timesteps, frames * 2);
+        }
+        offsets[frames] = position;
+        timesteps[frames] = generation.timestep;
+        frames++;
+        
+        this.writeFully(out);
+        
+        // This generation is the one the next is compared against
+        byte [] swap = previous;
+        previous = packed;
+        packed = swap;
+        previousTimestep = generation.timestep;
+    }
+    
+    /**
+     * Method which run length encodes some bytes. Each run is a varint of its
+     * length times two, plus one for a run of the same byte which is then
+     * followed by that byte, or plus nothing for bytes that are stored as they
+     * are which then follow it
+     * 
+     * @param source Bytes to encode
+     * @param length Number of bytes to encode
+     * @param out Buffer to encode into
+     */
+    static void encode(byte [] source, int length, ByteBuffer out) {
+        int i = 0;
+        while (i < length) {
+            // Runs of three or more are worth encoding
+            int run = runLength(source, i, length);
+            if (run >= 3) {
+                putVarint(out, ((long)run << 1) | 1);
+                out.put(source[i]);
+                i += run;
+                continue;
+            }
+            
+            // Otherwise keep going until the next run of three starts
+            int start = i;
+            i += run;
+            while (i < length) {
+                run = runLength(source, i, length);
+                if (run >= 3) break;
+                i += run;
+            }
+            
+            putVarint(out, (long)(i - start) << 1);
+            out.put(source, start, i - start);
+        }
+    }
+    
+    /**
+     * Method which counts how many bytes in a row are the same
+     * 
+     * @param source Bytes to look at
+     * @param i Index to start at
+     * @param length Number of bytes we have
+     * @return Number of bytes the same as the one at i, including it
+     */
+    private static int runLength(byte [] source, int i, int length) {
+        int j = i + 1;
+        
+        // Skip along eight at a time while every byte matches
+        if (j + 8 <= length) {
+            long repeated = (source[i] & 0xFFL) * 0x0101010101010101L;
+            while (j + 8 <= length && (long)LONGS.get(source, j) == repeated) j += 8;
+        }
+        while (j < length && source[j] == source[i]) j++;
+        
+        return j - i;
+    }
+    
+    /**
+     * Method which writes a number seven bits at a time, lowest first, with
+     * the top bit of each byte set if there are more to come
+     * 
+     * @param out Buffer to write into
+     * @param value Number to write
+     */
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+    
+    /**
+     * Method which writes the whole of a buffer to the end of our file
+     * 
+     * @param buffer Buffer to write
+     * @throws IOException If the write fails
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+    
+    /**
+     * Method which throws anything that went wrong on the background thread
+     * 
+     * @throws IOException If a write failed
+     */
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) throw new IOException("Writing the timeline failed", e);
+    }
+    
+    /**
+     * Getter method to return how many frames have been written so far, which
+     * can lag behind how many have been recorded
+     * 
+     * @return Number of frames written
+     */
+    public int getFrames() {
+        return this.frames;
+    }
+    
+    /**
+     * Method which waits for every recorded generation to be written, then
+     * writes our index and closes the file
+     * 
+     * @throws IOException If a write failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        
+        try {
+            full.put(new Generation(null));
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.close();
+            throw new IOException("Interrupted while closing", e);
+        }
+        
+        try {
+            this.checkFailure();
+            
+            // Write our index of timesteps then offsets, and where it starts
+            long indexStart = position;
+            ByteBuffer index = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            for (int f = 0; f < frames; f++) {
+                if (index.remaining() < 4) { index.flip(); this.writeFully(index); index.clear(); }
+                index.putInt(timesteps[f]);
+            }
+            for (int f = 0; f < frames; f++) {
+                if (index.remaining() < 8) { index.flip(); this.writeFully(index); index.clear(); }
+                index.putLong(offsets[f]);
+            }
+            if (index.remaining() < TRAILER_SIZE) { index.flip(); this.writeFully(index); index.clear(); }
+            index.putLong(indexStart).putInt(frames).putInt(INDEX_MAGIC);
+            index.flip();
+            this.writeFully(index);
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * Main Class which records a headless run to a file
+     * 
+     * @param args File, grid width, grid height, engine (grid, array, bit or
+     *             event) and number of timesteps
+     * @throws IOException If the file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: FireflyTimelineWriter file [width] [height] [engine] [timesteps]");
+            return;
+        }
+        
+        Path path = Paths.get(args[0]);
+        int gridWidth = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        int gridHeight = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        String engineName = args.length > 3 ? args[3] : "bit";
+        int timestepLimit = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        
+        FireflyEngine engine = FireflyTrialRunner.factory(engineName, gridWidth, gridHeight,
+                                                          FireflyInteraction.FIREFLY_NEIGHBOURHOOD,
+                                                          FireflyInteraction.FIREFLY_BOUNDARY).create(0);
+        
+        // Record the starting generation and every one after it
+        long start = System.nanoTime();
+        try (FireflyTimelineWriter writer = new FireflyTimelineWriter(path, gridWidth, gridHeight)) {
+            writer.record(engine);
+            while (engine.getTimesteps() < timestepLimit) {
+                engine.step();
+                writer.record(engine);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        long size = path.toFile().length();
+        System.out.println("Recorded " + (timestepLimit + 1) + " generations of " + gridWidth + "x" + gridHeight +
+                           " in " + (elapsed / 1000000) + " ms");
+        System.out.println("File Size: " + size + " bytes (" + (size / (timestepLimit + 1)) + " bytes per generation)");
+    }
+}
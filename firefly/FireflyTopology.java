@@ -0,0 +1,310 @@
+package firefly;
+
+/**
+ * Firefly Topology Class which describes the shape of a grid at runtime, that
+ * is how many fireflies wide and high it is, which neighbourhood each firefly
+ * listens to and what happens at the edges. Either the grid just stops at its
+ * edges, or it wraps around onto itself like a torus so everyone has a full
+ * set of neighbours
+ * 
+ * The neighbours of every firefly are worked out once up front into a flat
+ * table of indices, with the orthogonal ones first and the diagonal ones
+ * after them. Missing neighbours are left out, so a firefly's neighbours are
+ * always the first few entries of its slot. The table is filled in with plain
+ * index arithmetic, wrapping and edge checks are done with shifts and masks
+ * rather than branches or exceptions, so a grid of millions of fireflies is
+ * set up in a few milliseconds. A topology never changes once it is made, so
+ * several engines can share one
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTopology {
+    
+    // What happens at the edges of the grid
+    public static enum Boundary { OPEN, TOROIDAL };
+    
+    // Size of our grid in fireflies
+    private final int width;
+    private final int height;
+    
+    // What type of Neighbourhood and Boundary do we have
+    private final FireflyInteraction.Neighbourhood neighbourhood;
+    private final Boundary boundary;
+    
+    // How many entries of the table each firefly has, 8 unless nobody can
+    // have diagonal neighbours
+    private final int stride;
+    
+    // Neighbours of every firefly, firefly i's are at i * stride onwards
+    private final int [] neighbours;
+    
+    // How many of each firefly's neighbours are orthogonal, how many it has
+    // altogether and how many of them it listens to
+    private final byte [] orthogonals;
+    private final byte [] sizes;
+    private final byte [] degrees;
+    
+    // For a RANDOM neighbourhood, 1 if the firefly has a Moore neighbourhood
+    private final byte [] moore;
+    
+    /**
+     * Constructor Method which works out the neighbours of every firefly. A
+     * RANDOM neighbourhood flips a coin for each firefly to pick between Moore
+     * and Von Neumann, in the same way as our FireflyGrid always has
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     */
+    public FireflyTopology(int width, int height, FireflyInteraction.Neighbourhood neighbourhood, Boundary boundary) {
+        this(width, height, neighbourhood, boundary, FireflyRandom.newSeed());
+    }
+    
+    /**
+     * Constructor Method which works out the neighbours of every firefly,
+     * flipping the coins of a RANDOM neighbourhood from a seed so the same
+     * seed always gives the same grid
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     * @param seed Seed to flip the coins from
+     */
+    public FireflyTopology(int width, int height, FireflyInteraction.Neighbourhood neighbourhood, Boundary boundary,
+                           long seed) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Grid must have at least one firefly");
+        }
+        if ((long)width * height * 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Grid is too big: " + width + "x" + height);
+        }
+        
+        this.width = width;
+        this.height = height;
+        this.neighbourhood = neighbourhood;
+        this.boundary = boundary;
+        
+        int cells = width * height;
+        this.stride = neighbourhood == FireflyInteraction.Neighbourhood.VON_NEUMANN ? 4 : 8;
+        this.neighbours = new int[cells * stride];
+        this.orthogonals = new byte[cells];
+        this.sizes = new byte[cells];
+        this.degrees = new byte[cells];
+        
+        // If we have a random neighbourhood flip a coin for each firefly,
+        // heads means Moore and tails means Neumann
+        this.moore = neighbourhood == FireflyInteraction.Neighbourhood.RANDOM ? new byte[cells] : null;
+        if (moore != null) {
+            FireflyRandom.fillCoins(moore, seed);
+        }
+        
+        this.build();
+    }
+    
+    /**
+     * Method which fills in our neighbour table. Each neighbour is written to
+     * the next free entry whether it exists or not, and the count of entries
+     * only moves on if it does, so missing neighbours are overwritten by the
+     * next one without ever branching on them
+     */
+    private void build() {
+        // 1 if the grid wraps around, which makes every neighbour exist
+        int wrap = boundary == Boundary.TOROIDAL ? 1 : 0;
+        int mooreAll = neighbourhood == FireflyInteraction.Neighbourhood.MOORE ? 1 : 0;
+        
+        for (int y = 0; y < height; y++) {
+            // A row of -1 or height doesn't exist, which the sign bit tells us,
+            // and adding or taking away the height wraps it around
+            int north = y - 1;
+            int south = y + 1;
+            int hasNorth = (~north >>> 31) | wrap;
+            int hasSouth = (~(height - 1 - south) >>> 31) | wrap;
+            north += height & (north >> 31);
+            south -= height & ((height - 1 - south) >> 31);
+            
+            int northRow = north * width;
+            int row = y * width;
+            int southRow = south * width;
+            
+            for (int x = 0; x < width; x++) {
+                // Same again for the columns either side of us
+                int west = x - 1;
+                int east = x + 1;
+                int hasWest = (~west >>> 31) | wrap;
+                int hasEast = (~(width - 1 - east) >>> 31) | wrap;
+                west += width & (west >> 31);
+                east -= width & ((width - 1 - east) >> 31);
+                
+                int i = row + x;
+                int base = i * stride;
+                int n = 0;
+                
+                // North, East, South and West first
+                neighbours[base + n] = northRow + x;    n += hasNorth;
+                neighbours[base + n] = row + east;      n += hasEast;
+                neighbours[base + n] = southRow + x;    n += hasSouth;
+                neighbours[base + n] = row + west;      n += hasWest;
+                int orthogonal = n;
+                
+                // Then North East, South East, South West and North West
+                if (stride == 8) {
+                    neighbours[base + n] = northRow + east; n += hasNorth & hasEast;
+                    neighbours[base + n] = southRow + east; n += hasSouth & hasEast;
+                    neighbours[base + n] = southRow + west; n += hasSouth & hasWest;
+                    neighbours[base + n] = northRow + west; n += hasNorth & hasWest;
+                }
+                
+                // We listen to our diagonals only with a Moore neighbourhood
+                int listens = moore != null ? moore[i] : mooreAll;
+                orthogonals[i] = (byte)orthogonal;
+                sizes[i] = (byte)n;
+                degrees[i] = (byte)(orthogonal + (n - orthogonal) * listens);
+            }
+        }
+    }
+    
+    /**
+     * Method which returns the index of the firefly a given offset away from
+     * another, wrapping around if our grid does
+     * 
+     * @param x X Coordinate Position in our Grid
+     * @param y Y Coordinate Position in our Grid
+     * @param dx Offset along X, between -1 and 1
+     * @param dy Offset along Y, between -1 and 1
+     * @return Index of the neighbour, or -1 if there isn't one
+     */
+    public int neighbour(int x, int y, int dx, int dy) {
+        int nx = x + dx;
+        int ny = y + dy;
+        
+        if (boundary == Boundary.TOROIDAL) {
+            nx = (nx + width) % width;
+            ny = (ny + height) % height;
+        } else if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+            return -1;
+        }
+        
+        return ny * width + nx;
+    }
+    
+    /**
+     * Method which tells us if an individual firefly has a Moore neighbourhood
+     * 
+     * @param i Index of the firefly
+     * @return True if it has a Moore neighbourhood
+     */
+    public boolean isMoore(int i) {
+        if (moore != null) return moore[i] != 0;
+        return neighbourhood == FireflyInteraction.Neighbourhood.MOORE;
+    }
+    
+    /**
+     * Getter method to return the neighbour table, firefly i's neighbours are
+     * at i * getStride() onwards. Engines read this directly when stepping so
+     * it must never be changed
+     * 
+     * @return Table of neighbour indices
+     */
+    int [] getNeighbours() {
+        return this.neighbours;
+    }
+    
+    /**
+     * Getter method to return how many of each firefly's neighbours are
+     * orthogonal, which are the first ones in its slot
+     * 
+     * @return Number of orthogonal neighbours of each firefly
+     */
+    byte [] getOrthogonals() {
+        return this.orthogonals;
+    }
+    
+    /**
+     * Getter method to return how many neighbours each firefly has, whether it
+     * listens to them or not. A firefly's neighbours are exactly those who
+     * might listen to it
+     * 
+     * @return Number of neighbours of each firefly
+     */
+    byte [] getSizes() {
+        return this.sizes;
+    }
+    
+    /**
+     * Getter method to return how many neighbours each firefly listens to,
+     * which are the first ones in its slot
+     * 
+     * @return Number of neighbours each firefly listens to
+     */
+    byte [] getDegrees() {
+        return this.degrees;
+    }
+    
+    /**
+     * Getter method to return how many entries of the table each firefly has
+     * 
+     * @return Stride of our neighbour table
+     */
+    public int getStride() {
+        return this.stride;
+    }
+    
+    /**
+     * Getter method to return how many fireflies wide our grid is
+     * 
+     * @return Number of fireflies along X
+     */
+    public int getWidth() {
+        return this.width;
+    }
+    
+    /**
+     * Getter method to return how many fireflies high our grid is
+     * 
+     * @return Number of fireflies along Y
+     */
+    public int getHeight() {
+        return this.height;
+    }
+    
+    /**
+     * Getter method to return how many fireflies are in our grid
+     * 
+     * @return Number of fireflies
+     */
+    public int getCells() {
+        return this.width * this.height;
+    }
+    
+    /**
+     * Getter method to return the neighbourhood of our grid
+     * 
+     * @return Neighbourhood each firefly listens to
+     */
+    public FireflyInteraction.Neighbourhood getNeighbourhood() {
+        return this.neighbourhood;
+    }
+    
+    /**
+     * Getter method to return what happens at the edges of our grid
+     * 
+     * @return Boundary of our grid
+     */
+    public Boundary getBoundary() {
+        return this.boundary;
+    }
+    
+    @Override
+    public String toString() {
+        return width + "x" + height + " " + neighbourhood + " " + boundary;
+    }
+}
@@ -0,0 +1,193 @@
+package firefly;
+
+/**
+ * Firefly Trial Estimate Class which keeps a running estimate of how likely a
+ * trial is to synchronise and how long it takes when it does, one trial at a
+ * time, so we can tell how sure we are of our numbers while trials are still
+ * coming in. The chance of synchronising gets a Wilson score interval, which
+ * stays sensible when nearly every trial or nearly none synchronise, and the
+ * mean sync time gets a normal interval from Welford's running variance
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTrialEstimate {
+    
+    // Normal quantile for a 95% interval
+    public static final double Z_95 = 1.959964;
+    
+    // Normal quantile our intervals are worked out with
+    private final double z;
+    
+    // How many trials we've seen and how many synchronised
+    private long trials = 0;
+    private long successes = 0;
+    
+    // Sync timesteps of the trials that synchronised
+    private final FireflyRunningStats syncTimesteps = new FireflyRunningStats();
+    
+    /**
+     * Constructor Method which gives 95% intervals
+     */
+    public FireflyTrialEstimate() {
+        this(Z_95);
+    }
+    
+    /**
+     * Constructor Method which gives intervals of any confidence
+     * 
+     * @param z Normal quantile of the interval, 1.96 for 95%
+     */
+    public FireflyTrialEstimate(double z) {
+        if (z <= 0) {
+            throw new IllegalArgumentException("Quantile must be positive");
+        }
+        
+        this.z = z;
+    }
+    
+    /**
+     * Method which adds a finished trial to our estimate
+     * 
+     * @param result Result of the trial
+     */
+    public void add(FireflyTrialResult result) {
+        trials++;
+        if (result.isSynced()) {
+            successes++;
+            syncTimesteps.add(result.getTimesteps());
+        }
+    }
+    
+    /**
+     * Getter method to return how many trials we've seen
+     * 
+     * @return Number of trials
+     */
+    public long getTrials() {
+        return this.trials;
+    }
+    
+    /**
+     * Getter method to return how many trials synchronised
+     * 
+     * @return Number of successful trials
+     */
+    public long getSuccesses() {
+        return this.successes;
+    }
+    
+    /**
+     * Getter method to return the running stats of the sync timesteps
+     * 
+     * @return Stats of the successful trials
+     */
+    public FireflyRunningStats getSyncTimesteps() {
+        return this.syncTimesteps;
+    }
+    
+    /**
+     * Method which returns the fraction of trials that synchronised
+     * 
+     * @return Success rate, NaN if we haven't seen any trials
+     */
+    public double getSuccessRate() {
+        return trials > 0 ? (double)successes / trials : Double.NaN;
+    }
+    
+    /**
+     * Method which returns the lower end of the Wilson interval on the
+     * chance of synchronising
+     * 
+     * @return Lower bound, 0 if we haven't seen any trials
+     */
+    public double getSuccessLower() {
+        return trials > 0 ? Math.max(0, wilsonCentre() - wilsonHalfWidth()) : 0;
+    }
+    
+    /**
+     * Method which returns the upper end of the Wilson interval on the
+     * chance of synchronising
+     * 
+     * @return Upper bound, 1 if we haven't seen any trials
+     */
+    public double getSuccessUpper() {
+        return trials > 0 ? Math.min(1, wilsonCentre() + wilsonHalfWidth()) : 1;
+    }
+    
+    /**
+     * Method which returns how wide the Wilson interval is
+     * 
+     * @return Width of the interval on the chance of synchronising
+     */
+    public double getSuccessWidth() {
+        return this.getSuccessUpper() - this.getSuccessLower();
+    }
+    
+    /**
+     * Method which returns the mean sync timestep of the successful trials
+     * 
+     * @return Mean sync timestep, NaN if nothing synchronised
+     */
+    public double getMean() {
+        return successes > 0 ? syncTimesteps.getMean() : Double.NaN;
+    }
+    
+    /**
+     * Method which returns half the width of the interval on the mean sync
+     * timestep
+     * 
+     * @return Half width, infinite until two trials have synchronised
+     */
+    public double getMeanHalfWidth() {
+        if (successes < 2) return Double.POSITIVE_INFINITY;
+        return z * syncTimesteps.getStandardDeviation() / Math.sqrt(successes);
+    }
+    
+    /**
+     * Method which returns the width of the interval on the mean sync
+     * timestep as a fraction of the mean, so one number suits grids that
+     * take tens of steps and grids that take thousands
+     * 
+     * @return Relative width, infinite until two trials have synchronised
+     */
+    public double getMeanRelativeWidth() {
+        double mean = this.getMean();
+        if (successes < 2 || mean <= 0) return Double.POSITIVE_INFINITY;
+        return 2 * this.getMeanHalfWidth() / mean;
+    }
+    
+    /**
+     * Method which returns the middle of the Wilson interval, which is pulled
+     * in from the success rate towards a half
+     * 
+     * @return Centre of the interval
+     */
+    private double wilsonCentre() {
+        double n = trials, z2 = z * z;
+        return (successes + z2 / 2) / (n + z2);
+    }
+    
+    /**
+     * Method which returns half the width of the Wilson interval
+     * 
+     * @return Half width of the interval
+     */
+    private double wilsonHalfWidth() {
+        double n = trials, p = successes / n, z2 = z * z;
+        return z / (1 + z2 / n) * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n));
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("synchronised %d/%d (%.3f, interval %.3f to %.3f), mean %.2f +/- %.2f",
+                             successes, trials, getSuccessRate(), getSuccessLower(), getSuccessUpper(),
+                             getMean(), getMeanHalfWidth());
+    }
+}
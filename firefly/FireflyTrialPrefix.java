@@ -0,0 +1,164 @@
+package firefly;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Firefly Trial Prefix Class which gathers up trials finishing in any order on
+ * many threads and takes them in trial order, so our running estimate only
+ * ever counts trials 0 up to some n with nothing missing. Counting trials as
+ * they finish instead would count the quick ones first and pull the mean sync
+ * time down, and would stop at a different place depending on the threads
+ * 
+ * Once a stopping rule is happy with the first n trials, every trial from n
+ * onwards is abandoned. Workers check before claiming a trial and every so
+ * often while running one, so trials already running on other threads give up
+ * promptly and the same batch seed always stops after the same trials
+ * 
+ * Trials are only handed to the writer once we have let go of our lock, as
+ * the writer makes us wait when its queue is full and every other thread
+ * finishing a trial would wait behind us. A lock of their own keeps them
+ * going to the writer in trial order
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+class FireflyTrialPrefix {
+    
+    // How many timesteps a running trial goes between checking if it has
+    // been abandoned
+    static final int CHECK_INTERVAL = 64;
+    
+    // Finished trials and how long each took, in trial order
+    private final FireflyTrialResult [] results;
+    private final long [] wallNanos;
+    
+    // When to stop, if we stop early at all, and where trials are written to
+    private final FireflyStoppingRule rule;
+    private final FireflyResultWriter writer;
+    
+    // Estimate over every trial we've taken so far
+    private final FireflyTrialEstimate estimate = new FireflyTrialEstimate();
+    
+    // How many trials we've taken, and the first trial we don't need
+    private int taken = 0;
+    private volatile int cutoff;
+    
+    // Held while handing trials to the writer, and how many it has been given
+    private final Object writing = new Object();
+    private int written = 0;
+    
+    /**
+     * Constructor Method which waits on a budget of trials
+     * 
+     * @param budget Most trials we will run
+     * @param rule When to stop early, or null to run every trial
+     * @param writer Where to write trials as we take them, or null
+     */
+    FireflyTrialPrefix(int budget, FireflyStoppingRule rule, FireflyResultWriter writer) {
+        this.results = new FireflyTrialResult[budget];
+        this.wallNanos = new long[budget];
+        this.rule = rule;
+        this.writer = writer;
+        this.cutoff = budget;
+    }
+    
+    /**
+     * Method which checks whether a trial is no longer needed, which any
+     * thread can call without waiting
+     * 
+     * @param trial Index of the trial
+     * @return Whether we have stopped before reaching the trial
+     */
+    boolean isAbandoned(int trial) {
+        return trial >= cutoff;
+    }
+    
+    /**
+     * Getter method to return the first trial we don't need
+     * 
+     * @return Index of the first abandoned trial, or the budget
+     */
+    int getCutoff() {
+        return this.cutoff;
+    }
+    
+    /**
+     * Method which hands over a finished trial, taking it and any trials
+     * after it that were waiting on it, stopping once the rule is happy, and
+     * then writing out everything taken
+     * 
+     * @param trial Index of the trial
+     * @param result Result of the trial
+     * @param elapsed How long the trial took
+     * @throws IOException If the writer has failed
+     * @throws InterruptedException If we are interrupted waiting on the writer
+     */
+    void complete(int trial, FireflyTrialResult result, long elapsed) throws IOException, InterruptedException {
+        int upTo;
+        synchronized (this) {
+            if (trial >= cutoff) return;
+            results[trial] = result;
+            wallNanos[trial] = elapsed;
+            
+            int from = taken;
+            while (taken < cutoff && results[taken] != null) {
+                estimate.add(results[taken]);
+                taken++;
+                
+                // Abandon everything past here once we are sure enough
+                if (rule != null && rule.isSatisfied(estimate)) cutoff = taken;
+            }
+            if (writer == null || taken == from) return;
+            upTo = taken;
+        }
+        
+        this.write(upTo);
+    }
+    
+    /**
+     * Method which hands every taken trial the writer doesn't have yet over
+     * to it in trial order. Whoever gets here first writes everything taken
+     * so far, so a thread which took later trials never writes them before
+     * the ones before them
+     * 
+     * @param upTo How many trials had been taken when we let go of our lock
+     * @throws IOException If the writer has failed
+     * @throws InterruptedException If we are interrupted waiting on the writer
+     */
+    private void write(int upTo) throws IOException, InterruptedException {
+        synchronized (writing) {
+            // Nothing before upTo changes once it is taken, and we saw upTo
+            // under our lock, so these are safe to read without it
+            while (written < upTo) {
+                writer.write(results[written], wallNanos[written]);
+                written++;
+            }
+        }
+    }
+    
+    /**
+     * Method which returns every trial we have taken, which once every worker
+     * has finished is every trial before the cutoff
+     * 
+     * @return Results in trial order
+     */
+    synchronized FireflyTrialResult [] getResults() {
+        return Arrays.copyOf(results, taken);
+    }
+    
+    /**
+     * Getter method to return the estimate over every trial we have taken
+     * 
+     * @return Running estimate
+     */
+    synchronized FireflyTrialEstimate getEstimate() {
+        return this.estimate;
+    }
+}
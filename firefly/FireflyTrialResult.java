@@ -0,0 +1,127 @@
+package firefly;
+
+/**
+ * Firefly Trial Result Class which holds the outcome of a single headless
+ * experiment, namely whether it synchronised, fell into a loop or ran out of
+ * timesteps, and after how many timesteps
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTrialResult {
+    
+    // How a trial can end
+    public static enum Outcome { SYNCHRONISED, CYCLE, LIMIT };
+    
+    // Which trial this was and how it went
+    private final int trial;
+    private final Outcome outcome;
+    private final int timesteps;
+    
+    // If we fell into a loop, how long it was and when we entered it
+    private final int period;
+    private final int entered;
+    
+    /**
+     * Constructor Method which stores the outcome of our trial
+     * 
+     * @param trial Index of the trial within the batch
+     * @param synced Did the trial synchronise before the limit
+     * @param timesteps Number of timesteps that elapsed
+     */
+    public FireflyTrialResult(int trial, boolean synced, int timesteps) {
+        this(trial, synced ? Outcome.SYNCHRONISED : Outcome.LIMIT, timesteps, 0, -1);
+    }
+    
+    /**
+     * Constructor Method which stores the outcome of our trial, including the
+     * loop it fell into if there was one
+     * 
+     * @param trial Index of the trial within the batch
+     * @param outcome How the trial ended
+     * @param timesteps Number of timesteps that elapsed
+     * @param period Length of the loop, or 0 if there wasn't one
+     * @param entered Timestep the loop was entered, or -1 if there wasn't one
+     */
+    public FireflyTrialResult(int trial, Outcome outcome, int timesteps, int period, int entered) {
+        this.trial = trial;
+        this.outcome = outcome;
+        this.timesteps = timesteps;
+        this.period = period;
+        this.entered = entered;
+    }
+    
+    /**
+     * Getter method to return the index of this trial
+     * 
+     * @return Index of the trial within the batch
+     */
+    public int getTrial() {
+        return this.trial;
+    }
+    
+    /**
+     * Getter method to return whether this trial synchronised
+     * 
+     * @return True if synchronisation was achieved
+     */
+    public boolean isSynced() {
+        return this.outcome == Outcome.SYNCHRONISED;
+    }
+    
+    /**
+     * Getter method to return how this trial ended
+     * 
+     * @return Outcome of the trial
+     */
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+    
+    /**
+     * Getter method to return the length of the loop this trial fell into
+     * 
+     * @return Period of the loop, or 0 if there wasn't one
+     */
+    public int getPeriod() {
+        return this.period;
+    }
+    
+    /**
+     * Getter method to return the timestep this trial entered its loop
+     * 
+     * @return Timestep the loop was entered, or -1 if there wasn't one
+     */
+    public int getEntered() {
+        return this.entered;
+    }
+    
+    /**
+     * Getter method to return the number of timesteps elapsed, which is the
+     * sync timestep for a successful trial, the timestep the loop was spotted
+     * for a trial that fell into one or the limit otherwise
+     * 
+     * @return Number of timesteps elapsed
+     */
+    public int getTimesteps() {
+        return this.timesteps;
+    }
+    
+    @Override
+    public String toString() {
+        if (outcome == Outcome.SYNCHRONISED) {
+            return "Synchronisation achieved in " + timesteps + " timesteps";
+        }
+        if (outcome == Outcome.CYCLE) {
+            return "CYCLE(period=" + period + ", entered=" + entered + ") after " + timesteps + " timesteps";
+        }
+        
+        return "No synchronisation after " + timesteps + " timesteps";
+    }
+}
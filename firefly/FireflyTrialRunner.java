@@ -0,0 +1,510 @@
+package firefly;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Firefly Trial Runner Class which runs lots of headless experiments inside
+ * the one JVM as quickly as the CPU allows. There is no window and no timer,
+ * each trial just steps its grid until it syncs or hits the timestep limit and
+ * the trials are spread across all our cores
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTrialRunner {
+    
+    // Default number of timesteps before we give up on a trial
+    public static final int DEFAULT_TIMESTEP_LIMIT = 2500;
+    
+    /**
+     * Engine Factory Interface which creates a fresh engine for each trial
+     */
+    public static interface EngineFactory {
+        public FireflyEngine create(int trial);
+    }
+    
+    /**
+     * Lane Factory Class which runs trials sixty four at a time on a
+     * FireflyLaneGrid. On its own a trial gets a FireflyArrayGrid, which
+     * steps the very same grid
+     */
+    public static class LaneFactory implements EngineFactory {
+        
+        // Size, neighbourhood and boundary of every grid, and the batch seed
+        private final int width;
+        private final int height;
+        private final FireflyInteraction.Neighbourhood neighbourhood;
+        private final FireflyTopology.Boundary boundary;
+        private final long seed;
+        
+        /**
+         * Constructor Method which stores the shape of every grid
+         * 
+         * @param width Number of Fireflies in width
+         * @param height Number of Fireflies in height
+         * @param neighbourhood Neighbourhood each firefly listens to
+         * @param boundary What happens at the edges of the grid
+         * @param seed Seed of the whole batch
+         */
+        public LaneFactory(int width, int height, FireflyInteraction.Neighbourhood neighbourhood,
+                           FireflyTopology.Boundary boundary, long seed) {
+            this.width = width;
+            this.height = height;
+            this.neighbourhood = neighbourhood;
+            this.boundary = boundary;
+            this.seed = seed;
+        }
+        
+        @Override
+        public FireflyEngine create(int trial) {
+            long trialSeed = FireflyRandom.derive(seed, trial);
+            return new FireflyArrayGrid(new FireflyTopology(width, height, neighbourhood, boundary, trialSeed), trialSeed);
+        }
+        
+        /**
+         * Method which creates a lane grid holding a run of trials
+         * 
+         * @param first Index of the first trial within the batch
+         * @param count Number of trials, at most FireflyLaneGrid.LANES
+         * @return Lane grid holding those trials
+         */
+        public FireflyLaneGrid createLanes(int first, int count) {
+            return new FireflyLaneGrid(width, height, neighbourhood, boundary, seed, first, count);
+        }
+    }
+    
+    // Engine Factories for each of our engines on the default grid
+    public static final EngineFactory OBJECT_GRID = factory("grid");
+    public static final EngineFactory ARRAY_GRID = factory("array");
+    public static final EngineFactory BIT_GRID = factory("bit");
+    public static final EngineFactory EVENT_GRID = factory("event");
+    
+    // How many threads do we want to run trials on
+    private final int threads;
+    
+    // What creates the engine for each trial
+    private final EngineFactory factory;
+    
+    // Do we stop trials early once they fall into a loop
+    private boolean cycleDetection = true;
+    
+    // Where each trial is streamed to as it finishes, if anywhere
+    private FireflyResultWriter writer;
+    
+    // When to stop a batch before running every trial, if ever
+    private FireflyStoppingRule stoppingRule;
+    
+    // Running estimate over the trials of the last batch
+    private FireflyTrialEstimate estimate;
+    
+    /**
+     * Constructor Method which uses one thread for every available core
+     */
+    public FireflyTrialRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Constructor Method which uses a given number of threads
+     * 
+     * @param threads Number of worker threads to run trials on
+     */
+    public FireflyTrialRunner(int threads) {
+        this(threads, OBJECT_GRID);
+    }
+    
+    /**
+     * Constructor Method which uses a given number of threads and engine
+     * 
+     * @param threads Number of worker threads to run trials on
+     * @param factory Factory which creates the engine for each trial
+     */
+    public FireflyTrialRunner(int threads, EngineFactory factory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        
+        this.threads = threads;
+        this.factory = factory;
+    }
+    
+    /**
+     * Method which returns an Engine Factory for one of our engines on a grid
+     * with the size, neighbourhood and boundary from FireflyInteraction
+     * 
+     * @param engine Name of the engine (grid, array, bit, event, hashlife or lanes)
+     * @return Factory which creates that engine
+     */
+    public static EngineFactory factory(String engine) {
+        return factory(engine, FireflyInteraction.FIREFLY_ROWS, FireflyInteraction.FIREFLY_COLUMNS,
+                       FireflyInteraction.FIREFLY_NEIGHBOURHOOD, FireflyInteraction.FIREFLY_BOUNDARY);
+    }
+    
+    /**
+     * Method which returns an Engine Factory for one of our engines on a grid
+     * of any size and shape, starting from a fresh seed
+     * 
+     * @param engine Name of the engine (grid, array, bit, event, hashlife or lanes)
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     * @return Factory which creates that engine
+     */
+    public static EngineFactory factory(String engine, int width, int height,
+                                        FireflyInteraction.Neighbourhood neighbourhood,
+                                        FireflyTopology.Boundary boundary) {
+        return factory(engine, width, height, neighbourhood, boundary, FireflyRandom.newSeed());
+    }
+    
+    /**
+     * Method which returns an Engine Factory for one of our engines on a grid
+     * of any size and shape. Each trial gets a topology of its own, so a
+     * RANDOM neighbourhood flips its coins again for every trial, and each
+     * trial has a seed of its own worked out from the batch seed, so a batch
+     * gives the same trials however many threads run it and in whatever order
+     * 
+     * @param engine Name of the engine (grid, array, bit, event, hashlife or lanes)
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @param neighbourhood Neighbourhood each firefly listens to
+     * @param boundary What happens at the edges of the grid
+     * @param seed Seed of the whole batch
+     * @return Factory which creates that engine
+     */
+    public static EngineFactory factory(final String engine, final int width, final int height,
+                                        final FireflyInteraction.Neighbourhood neighbourhood,
+                                        final FireflyTopology.Boundary boundary, final long seed) {
+        if (!engine.equals("grid") && !engine.equals("array") && !engine.equals("bit") && !engine.equals("event")
+            && !engine.equals("hashlife") && !engine.equals("lanes")) {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        
+        // Check the shape now rather than failing on every trial
+        if (engine.equals("hashlife") && !FireflyHashLife.canStep(width, height, boundary)) {
+            throw new IllegalArgumentException("The hashlife engine can only step a toroidal grid that is square with"
+                                               + " a side that is a power of two of at least 4, got "
+                                               + width + "x" + height);
+        }
+        
+        if (engine.equals("lanes")) return new LaneFactory(width, height, neighbourhood, boundary, seed);
+        
+        return new EngineFactory() {
+            @Override
+            public FireflyEngine create(int trial) {
+                long trialSeed = FireflyRandom.derive(seed, trial);
+                FireflyTopology topology = new FireflyTopology(width, height, neighbourhood, boundary, trialSeed);
+                
+                // We never paint the object grid so the cell size doesn't matter
+                if (engine.equals("array")) return new FireflyArrayGrid(topology, trialSeed);
+                if (engine.equals("bit")) return new FireflyBitGrid(topology, trialSeed);
+                if (engine.equals("event")) return new FireflyEventGrid(topology, trialSeed);
+                if (engine.equals("hashlife")) return new FireflyHashLife(topology, trialSeed);
+                return new FireflyGrid(topology, 1, 1, trialSeed);
+            }
+        };
+    }
+    
+    /**
+     * Run a single trial on the calling thread by stepping a fresh grid until
+     * it syncs or we hit the timestep limit
+     * 
+     * @param trial Index of the trial within the batch
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return Result of the trial
+     */
+    public FireflyTrialResult runTrial(int trial, int timestepLimit) {
+        return runTrial(factory.create(trial), trial, timestepLimit, cycleDetection);
+    }
+    
+    /**
+     * Run a single trial on the calling thread by stepping the given engine
+     * until it syncs or we hit the timestep limit
+     * 
+     * @param grid Engine to step
+     * @param trial Index of the trial within the batch
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @return Result of the trial
+     */
+    public static FireflyTrialResult runTrial(FireflyEngine grid, int trial, int timestepLimit) {
+        return runTrial(grid, trial, timestepLimit, false);
+    }
+    
+    /**
+     * Run a single trial on the calling thread by stepping the given engine
+     * until it syncs, falls into a loop or we hit the timestep limit. A grid
+     * in a loop has already been checked for sync in every state of the loop,
+     * so it can never synchronise and there's no point carrying on
+     * 
+     * @param grid Engine to step
+     * @param trial Index of the trial within the batch
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @param cycleDetection Whether to stop early once we fall into a loop
+     * @return Result of the trial
+     */
+    public static FireflyTrialResult runTrial(FireflyEngine grid, int trial, int timestepLimit, boolean cycleDetection) {
+        return runTrial(grid, trial, timestepLimit, cycleDetection, null);
+    }
+    
+    /**
+     * Run a single trial like runTrial does, but every so often check whether
+     * the trial has been abandoned and give up on it if so
+     * 
+     * @param grid Engine to step
+     * @param trial Index of the trial within the batch
+     * @param timestepLimit Limit of time steps to run, 0 means run until sync
+     * @param cycleDetection Whether to stop early once we fall into a loop
+     * @param prefix Where trials are abandoned from, or null
+     * @return Result of the trial, or null if it was abandoned
+     */
+    static FireflyTrialResult runTrial(FireflyEngine grid, int trial, int timestepLimit, boolean cycleDetection,
+                                       FireflyTrialPrefix prefix) {
+        // Time every step if metrics are on
+        grid = FireflyMetrics.instrument(grid);
+        FireflyCycleDetector detector = cycleDetection ? new FireflyCycleDetector(grid) : null;
+        
+        while (true) {
+            grid.step();
+            
+            // Check if we are Syncronised
+            if (grid.isSynchronised()) {
+                return new FireflyTrialResult(trial, true, grid.getTimesteps());
+            }
+            
+            // Have we fallen into a loop?
+            if (detector != null && detector.observe()) {
+                return new FireflyTrialResult(trial, FireflyTrialResult.Outcome.CYCLE, grid.getTimesteps(),
+                                              detector.getPeriod(), detector.getEntered());
+            }
+            
+            // Have we hit the timesteps limit?
+            if (timestepLimit > 0 && grid.getTimesteps() >= timestepLimit) {
+                return new FireflyTrialResult(trial, false, grid.getTimesteps());
+            }
+            
+            // Has someone else decided we aren't needed?
+            if (prefix != null && grid.getTimesteps() % FireflyTrialPrefix.CHECK_INTERVAL == 0
+                && prefix.isAbandoned(trial)) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * Setter method to choose whether trials stop early once they fall into a
+     * loop, which is on by default
+     * 
+     * @param cycleDetection Whether to detect loops
+     */
+    public void setCycleDetection(boolean cycleDetection) {
+        this.cycleDetection = cycleDetection;
+    }
+    
+    /**
+     * Setter method to stream every trial to a writer as it finishes, along
+     * with how long it took
+     * 
+     * @param writer Writer to stream to, or null to stop streaming
+     */
+    public void setResultWriter(FireflyResultWriter writer) {
+        this.writer = writer;
+    }
+    
+    /**
+     * Setter method to stop a batch as soon as its estimates are narrow
+     * enough, so the number of trials given to run becomes a budget
+     * 
+     * @param stoppingRule When to stop, or null to always run every trial
+     */
+    public void setStoppingRule(FireflyStoppingRule stoppingRule) {
+        this.stoppingRule = stoppingRule;
+    }
+    
+    /**
+     * Getter method to return the running estimate over the trials of the
+     * last batch
+     * 
+     * @return Estimate, or null if we haven't run a batch
+     */
+    public FireflyTrialEstimate getEstimate() {
+        return this.estimate;
+    }
+    
+    /**
+     * Run a batch of trials across our worker threads. Each worker claims the
+     * next trial index until there are none left, so no thread sits idle
+     * while another has a long queue of work. Trials are taken, and written,
+     * in trial order, and with a stopping rule the batch ends at the first
+     * trial where the estimate is narrow enough, abandoning the rest
+     * 
+     * @param trials Number of trials to run, or most to run with a stopping
+     *               rule
+     * @param timestepLimit Limit of time steps to run for each trial
+     * @return Summary of all the trials
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public FireflyTrialSummary run(int trials, final int timestepLimit) throws InterruptedException {
+        final FireflyTrialPrefix prefix = new FireflyTrialPrefix(trials, stoppingRule, writer);
+        final AtomicInteger next = new AtomicInteger(0);
+        final int budget = trials;
+        
+        // No point starting more workers than we have trials, or words of
+        // trials for a lane grid
+        int claims = factory instanceof LaneFactory ? (trials + FireflyLaneGrid.LANES - 1) / FireflyLaneGrid.LANES : trials;
+        int workers = Math.max(1, Math.min(threads, claims));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, InterruptedException {
+                        // Lane grids claim a whole word of trials at a time
+                        if (factory instanceof LaneFactory) {
+                            int first;
+                            while ((first = next.getAndAdd(FireflyLaneGrid.LANES)) < budget
+                                   && !prefix.isAbandoned(first)) {
+                                int count = Math.min(FireflyLaneGrid.LANES, budget - first);
+                                long start = System.nanoTime();
+                                FireflyLaneGrid lanes = ((LaneFactory)factory).createLanes(first, count);
+                                FireflyTrialResult [] batch = lanes.run(timestepLimit, cycleDetection, prefix);
+                                
+                                // Every trial in the word shares the time it took
+                                long elapsed = (System.nanoTime() - start) / count;
+                                for (int lane = 0; lane < count; lane++) {
+                                    if (batch[lane] != null) prefix.complete(first + lane, batch[lane], elapsed);
+                                }
+                            }
+                            return null;
+                        }
+                        
+                        int trial;
+                        while ((trial = next.getAndIncrement()) < budget && !prefix.isAbandoned(trial)) {
+                            long start = System.nanoTime();
+                            FireflyTrialResult result = runTrial(factory.create(trial), trial, timestepLimit,
+                                                                 cycleDetection, prefix);
+                            
+                            if (result != null) prefix.complete(trial, result, System.nanoTime() - start);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            
+            // Wait for all our workers to run dry
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Trial failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        
+        this.estimate = prefix.getEstimate();
+        return new FireflyTrialSummary(prefix.getResults());
+    }
+    
+    /**
+     * Main Class which runs a batch of trials and prints out the summary
+     * 
+     * @param args Number of trials, timestep limit, number of threads, engine
+     *             (grid, array, bit, event, hashlife or lanes), grid width, grid height,
+     *             neighbourhood (VON_NEUMANN, MOORE or RANDOM), boundary
+     *             (OPEN or TOROIDAL), seed, so an earlier batch can be run
+     *             again exactly, a file to stream every trial to, as
+     *             binary if it ends in .bin, none for no file or CSV
+     *             otherwise, and the widest 95% intervals on the chance of
+     *             synchronising and on the mean sync time as a fraction of
+     *             the mean to stop at, 0 to not check one, which turns the
+     *             number of trials into a budget
+     * @throws IOException If the results file can't be written
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int timestepLimit = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TIMESTEP_LIMIT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String engine = args.length > 3 ? args[3] : "grid";
+        int width = args.length > 4 ? Integer.parseInt(args[4]) : FireflyInteraction.FIREFLY_ROWS;
+        int height = args.length > 5 ? Integer.parseInt(args[5]) : FireflyInteraction.FIREFLY_COLUMNS;
+        FireflyInteraction.Neighbourhood neighbourhood = args.length > 6 ?
+            FireflyInteraction.Neighbourhood.valueOf(args[6]) : FireflyInteraction.FIREFLY_NEIGHBOURHOOD;
+        FireflyTopology.Boundary boundary = args.length > 7 ?
+            FireflyTopology.Boundary.valueOf(args[7]) : FireflyInteraction.FIREFLY_BOUNDARY;
+        long seed = args.length > 8 ? Long.parseLong(args[8]) : FireflyRandom.newSeed();
+        EngineFactory factory = factory(engine, width, height, neighbourhood, boundary, seed);
+        
+        FireflyTrialRunner runner = new FireflyTrialRunner(threads, factory);
+        
+        // Stream every trial out if we were given somewhere to put them
+        FireflyResultWriter writer = null;
+        String results = args.length > 9 && !args[9].equals("none") ? args[9] : null;
+        if (results != null) {
+            Map<String, String> params = new LinkedHashMap<String, String>();
+            params.put("engine", engine);
+            params.put("width", Integer.toString(width));
+            params.put("height", Integer.toString(height));
+            params.put("neighbourhood", neighbourhood.name());
+            params.put("boundary", boundary.name());
+            params.put("limit", Integer.toString(timestepLimit));
+            params.put("batch_seed", Long.toString(seed));
+            
+            writer = FireflyResultWriter.open(Paths.get(results), params, seed);
+            runner.setResultWriter(writer);
+        }
+        
+        // Stop as soon as we are sure enough, if we were given how sure
+        if (args.length > 10) {
+            double successWidth = Double.parseDouble(args[10]);
+            double meanWidth = args.length > 11 ? Double.parseDouble(args[11]) : 0;
+            runner.setStoppingRule(new FireflyStoppingRule(successWidth, meanWidth));
+        }
+        
+        // Run them all and time how long it took
+        long start = System.nanoTime();
+        FireflyTrialSummary summary;
+        try {
+            summary = runner.run(trials, timestepLimit);
+        } finally {
+            if (writer != null) writer.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.print(summary);
+        System.out.println("");
+        System.out.println("Estimate: " + runner.getEstimate());
+        if (runner.stoppingRule != null) {
+            System.out.println("Stopped After: " + summary.getTrials() + " of " + trials + " trials");
+        }
+        System.out.println("Seed: " + seed);
+        System.out.println("Wall Time: " + (elapsed / 1000000) + " ms");
+        
+        if (writer != null) {
+            System.out.println("Results: " + writer.getWritten() + " trials written to " + results);
+            System.out.println("Sync Timesteps: " + writer.getSyncTimesteps());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package firefly;
+
+import java.util.Arrays;
+
+/**
+ * Firefly Trial Summary Class which gathers up a batch of trial results and
+ * works out some useful numbers on the successful ones such as averages,
+ * which can then be used in the report
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTrialSummary {
+    
+    // All our results in trial order
+    private final FireflyTrialResult [] results;
+    
+    // Sorted sync timesteps of just the successful trials
+    private final int [] syncTimesteps;
+    
+    /**
+     * Constructor Method which takes all our results and pulls out the sync
+     * timesteps of the successful ones
+     * 
+     * @param results Results of every trial in the batch
+     */
+    public FireflyTrialSummary(FireflyTrialResult [] results) {
+        this.results = results;
+        
+        // Count how many were successful first so we can size our array
+        int successes = 0;
+        for (FireflyTrialResult result : results) {
+            if (result.isSynced()) successes++;
+        }
+        
+        // Now copy the sync timesteps across and sort them for percentiles
+        this.syncTimesteps = new int[successes];
+        int i = 0;
+        for (FireflyTrialResult result : results) {
+            if (result.isSynced()) syncTimesteps[i++] = result.getTimesteps();
+        }
+        Arrays.sort(syncTimesteps);
+    }
+    
+    /**
+     * Getter method to return the results of every trial in trial order
+     * 
+     * @return Array of trial results
+     */
+    public FireflyTrialResult [] getResults() {
+        return this.results;
+    }
+    
+    /**
+     * Getter method to return the sorted sync timesteps of successful trials
+     * 
+     * @return Sorted array of sync timesteps
+     */
+    public int [] getSyncTimesteps() {
+        return this.syncTimesteps;
+    }
+    
+    /**
+     * Getter method to return how many trials were run
+     * 
+     * @return Number of trials
+     */
+    public int getTrials() {
+        return this.results.length;
+    }
+    
+    /**
+     * Getter method to return how many trials achieved synchronisation
+     * 
+     * @return Number of successful trials
+     */
+    public int getSuccesses() {
+        return this.syncTimesteps.length;
+    }
+    
+    /**
+     * Method which counts how many trials stopped early in a loop
+     * 
+     * @return Number of trials that fell into a loop
+     */
+    public int getCycles() {
+        int cycles = 0;
+        for (FireflyTrialResult result : results) {
+            if (result.getOutcome() == FireflyTrialResult.Outcome.CYCLE) cycles++;
+        }
+        return cycles;
+    }
+    
+    /**
+     * Method which returns the total timesteps over all successful trials
+     * 
+     * @return Total sync timesteps
+     */
+    public long getTotalTimesteps() {
+        long total = 0;
+        for (int timesteps : syncTimesteps) total += timesteps;
+        return total;
+    }
+    
+    /**
+     * Method which returns the average sync timestep of successful trials
+     * 
+     * @return Mean sync timestep, or NaN if nothing synchronised
+     */
+    public double getMean() {
+        if (syncTimesteps.length == 0) return Double.NaN;
+        return (double)getTotalTimesteps() / syncTimesteps.length;
+    }
+    
+    /**
+     * Method which returns the quickest sync timestep
+     * 
+     * @return Minimum sync timestep, or -1 if nothing synchronised
+     */
+    public int getMin() {
+        if (syncTimesteps.length == 0) return -1;
+        return syncTimesteps[0];
+    }
+    
+    /**
+     * Method which returns the slowest sync timestep
+     * 
+     * @return Maximum sync timestep, or -1 if nothing synchronised
+     */
+    public int getMax() {
+        if (syncTimesteps.length == 0) return -1;
+        return syncTimesteps[syncTimesteps.length - 1];
+    }
+    
+    /**
+     * Method which returns a percentile of the sync timesteps using the
+     * nearest rank method
+     * 
+     * @param percentile Percentile between 0 and 100
+     * @return Sync timestep at that percentile, or -1 if nothing synchronised
+     */
+    public int getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (syncTimesteps.length == 0) return -1;
+        
+        // Nearest rank, clamped so the 0th percentile is the minimum
+        int rank = (int)Math.ceil(percentile / 100.0 * syncTimesteps.length);
+        return syncTimesteps[Math.max(rank, 1) - 1];
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Successful Syncronisations: ").append(getSuccesses())
+          .append(" out of ").append(getTrials()).append(" repetitions\n");
+        sb.append("Stopped Early in a Loop: ").append(getCycles()).append("\n");
+        sb.append("Total Time Steps: ").append(getTotalTimesteps()).append("\n");
+        
+        // More information if we have any?
+        if (getSuccesses() > 0) {
+            sb.append("\n");
+            sb.append("Average Time Steps: ").append(getMean()).append("\n");
+            sb.append("Minimum: ").append(getMin()).append("\n");
+            sb.append("Maximum: ").append(getMax()).append("\n");
+            sb.append("Median: ").append(getPercentile(50)).append("\n");
+            sb.append("90th Percentile: ").append(getPercentile(90)).append("\n");
+            sb.append("99th Percentile: ").append(getPercentile(99)).append("\n");
+        }
+        
+        return sb.toString();
+    }
+}
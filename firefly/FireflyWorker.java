@@ -0,0 +1,450 @@
+package firefly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Firefly Worker Class which runs in a process of its own and owns one strip
+ * of rows of a grid that is too big for a single JVM. A FireflyCluster hands
+ * out the strips, and after that the workers step in lockstep, each one only
+ * ever talking to the workers owning the strips directly above and below it
+ * 
+ * We keep our strip with a halo row above and below it, which are copies of
+ * our neighbours' edge rows. After every timestep we swap our top and bottom
+ * rows for fresh halos over non blocking socket channels, which is everything
+ * we need both to see flashes across the edge of the strip next timestep and
+ * to count our disagreements this timestep. Only the counts go back to the
+ * cluster, so the global sync check is a single sum
+ * 
+ * A worker is started with the host and port of the cluster to join, for
+ * example java firefly.FireflyWorker localhost 5150
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyWorker {
+    
+    // Length of the firefly cycle
+    private static final int CYCLE = Firefly.FIREFLY_FINAL_STEP + 1;
+    
+    // Commands the cluster can send us
+    static final int RUN = 1;
+    static final int REWIND = 2;
+    static final int GATHER = 3;
+    static final int STOP = 4;
+    
+    // Size of our strip, not counting the halo rows
+    private final int width;
+    private final int rows;
+    
+    // Whether the grid has a row above and below our strip, and whether it
+    // wraps around from one side to the other
+    private final boolean hasUp;
+    private final boolean hasDown;
+    private final boolean wrap;
+    
+    // Whether each of our fireflies has a Moore neighbourhood, null if they
+    // all have the same one
+    private final byte [] moore;
+    private final boolean allMoore;
+    
+    // Our strip with a halo row either side, and the next generation of it
+    private byte [] steps;
+    private byte [] next;
+    
+    // Left and right neighbours of each column, or -1 if there isn't one
+    private final int [] left;
+    private final int [] right;
+    
+    // Channels to the workers above and below us, null if there isn't one
+    // or it is ourselves when a single worker wraps around
+    private final SocketChannel up;
+    private final SocketChannel down;
+    private final Selector selector;
+    private final SelectionKey upKey;
+    private final SelectionKey downKey;
+    
+    // Rows still being sent and halos still being read, and whether either
+    // has anything left
+    private ByteBuffer sendUp;
+    private ByteBuffer readUp;
+    private ByteBuffer sendDown;
+    private ByteBuffer readDown;
+    private boolean exchanging = false;
+    
+    /**
+     * Constructor Method which reads our strip from the cluster and connects
+     * to the workers either side of us
+     * 
+     * @param in Stream of commands from the cluster
+     * @param peers Channel the worker above us will connect to
+     * @throws IOException If the cluster or a peer goes away
+     */
+    private FireflyWorker(DataInputStream in, ServerSocketChannel peers) throws IOException {
+        this.width = in.readInt();
+        this.rows = in.readInt();
+        FireflyInteraction.Neighbourhood neighbourhood = FireflyInteraction.Neighbourhood.values()[in.readByte()];
+        this.wrap = FireflyTopology.Boundary.values()[in.readByte()] == FireflyTopology.Boundary.TOROIDAL;
+        this.hasUp = in.readBoolean();
+        this.hasDown = in.readBoolean();
+        boolean acceptUp = in.readBoolean();
+        String downHost = in.readUTF();
+        int downPort = in.readInt();
+        
+        this.steps = new byte[(rows + 2) * width];
+        this.next = new byte[(rows + 2) * width];
+        in.readFully(steps, width, rows * width);
+        
+        this.allMoore = neighbourhood == FireflyInteraction.Neighbourhood.MOORE;
+        if (neighbourhood == FireflyInteraction.Neighbourhood.RANDOM) {
+            this.moore = new byte[rows * width];
+            in.readFully(moore);
+        } else {
+            this.moore = null;
+        }
+        
+        // Work out each column's neighbours once
+        this.left = new int[width];
+        this.right = new int[width];
+        for (int x = 0; x < width; x++) {
+            left[x] = x > 0 ? x - 1 : wrap ? width - 1 : -1;
+            right[x] = x < width - 1 ? x + 1 : wrap ? 0 : -1;
+        }
+        
+        // Connect down first, which never waits on the worker below, and then
+        // take the connection from the worker above
+        this.down = downPort >= 0 ? SocketChannel.open(new InetSocketAddress(downHost, downPort)) : null;
+        this.up = acceptUp ? peers.accept() : null;
+        
+        this.selector = Selector.open();
+        for (SocketChannel channel : new SocketChannel[] { up, down }) {
+            if (channel == null) continue;
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+        }
+        this.upKey = up != null ? up.register(selector, 0) : null;
+        this.downKey = down != null ? down.register(selector, 0) : null;
+    }
+    
+    /**
+     * Method which steps our strip on one timestep, swaps halos with our
+     * neighbours and counts how many neighbours our fireflies disagree with.
+     * Our top and bottom rows are done first so they can be on their way to
+     * our neighbours while we do the rest of the strip, and each row is
+     * counted as soon as the rows either side of it are done
+     * 
+     * @return Number of disagreeing neighbours in our strip
+     * @throws IOException If a peer goes away
+     */
+    private long step() throws IOException {
+        this.stepRow(1);
+        if (rows > 1) this.stepRow(rows);
+        this.beginExchange(next);
+        
+        long total = 0;
+        for (int ly = 2; ly < rows; ly++) {
+            this.stepRow(ly);
+            if (ly > 2) total += this.countRow(next, ly - 1);
+            
+            // Keep the halos moving if they didn't all fit in one go
+            if (exchanging) this.transfer(selector.selectNow() > 0);
+        }
+        if (rows > 2) total += this.countRow(next, rows - 1);
+        
+        // Our edge rows need the new halos before they can be counted
+        this.finishExchange();
+        total += this.countRow(next, 1);
+        if (rows > 1) total += this.countRow(next, rows);
+        
+        byte [] swap = steps;
+        this.steps = next;
+        this.next = swap;
+        return total;
+    }
+    
+    /**
+     * Method which works out the next step of every firefly in one row
+     * 
+     * @param ly Row in our strip, 1 being our top row
+     */
+    private void stepRow(int ly) {
+        for (int x = 0; x < width; x++) {
+            int i = ly * width + x;
+            int step = steps[i];
+            
+            // Charging fireflies reset if they see a flash, everyone else
+            // just moves on
+            if (step >= Firefly.FIREFLY_CHARGING_START && step <= Firefly.FIREFLY_CHARGING_FINAL
+                && this.count(steps, ly, x, Firefly.FIREFLY_FLASH_STEP, true) > 0) {
+                next[i] = Firefly.FIREFLY_CHARGING_START;
+            } else {
+                next[i] = (byte)((step + 1) % CYCLE);
+            }
+        }
+    }
+    
+    /**
+     * Method which counts how many of the neighbours a firefly listens to are
+     * on a given step, or are not on it
+     * 
+     * @param grid Generation to look at
+     * @param ly Row of the firefly in our strip, 1 being our top row
+     * @param x Column of the firefly
+     * @param value Step to compare against
+     * @param equal Whether to count neighbours on the step or off it
+     * @return Number of neighbours counted
+     */
+    private int count(byte [] grid, int ly, int x, int value, boolean equal) {
+        int above = ly > 1 || hasUp ? (ly - 1) * width : -1;
+        int below = ly < rows || hasDown ? (ly + 1) * width : -1;
+        int middle = ly * width;
+        int l = left[x], r = right[x];
+        int count = 0;
+        
+        // North, East, South and West are always listened to
+        if (above >= 0 && (grid[above + x] == value) == equal) count++;
+        if (r >= 0 && (grid[middle + r] == value) == equal) count++;
+        if (below >= 0 && (grid[below + x] == value) == equal) count++;
+        if (l >= 0 && (grid[middle + l] == value) == equal) count++;
+        
+        // And the diagonals with a Moore neighbourhood
+        if (moore != null ? moore[(ly - 1) * width + x] != 0 : allMoore) {
+            if (above >= 0 && r >= 0 && (grid[above + r] == value) == equal) count++;
+            if (below >= 0 && r >= 0 && (grid[below + r] == value) == equal) count++;
+            if (below >= 0 && l >= 0 && (grid[below + l] == value) == equal) count++;
+            if (above >= 0 && l >= 0 && (grid[above + l] == value) == equal) count++;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Method which counts the disagreeing neighbours of one row
+     * 
+     * @param grid Generation to look at
+     * @param ly Row in our strip, 1 being our top row
+     * @return Number of disagreeing neighbours
+     */
+    private long countRow(byte [] grid, int ly) {
+        long total = 0;
+        for (int x = 0; x < width; x++) {
+            total += this.count(grid, ly, x, grid[ly * width + x], false);
+        }
+        return total;
+    }
+    
+    /**
+     * Method which starts sending our top and bottom rows to the workers
+     * above and below us and reading their edge rows into our halos, sending
+     * as much as the channels will take straight away
+     * 
+     * @param grid Generation to swap halos for
+     * @throws IOException If a peer goes away
+     */
+    private void beginExchange(byte [] grid) throws IOException {
+        int top = width, bottom = rows * width, last = (rows + 1) * width;
+        
+        // A single worker wrapping around is its own neighbour
+        if (hasUp && up == null) System.arraycopy(grid, bottom, grid, 0, width);
+        if (hasDown && down == null) System.arraycopy(grid, top, grid, last, width);
+        
+        if (up != null) {
+            this.sendUp = ByteBuffer.wrap(grid, top, width);
+            this.readUp = ByteBuffer.wrap(grid, 0, width);
+        }
+        if (down != null) {
+            this.sendDown = ByteBuffer.wrap(grid, bottom, width);
+            this.readDown = ByteBuffer.wrap(grid, last, width);
+        }
+        
+        this.exchanging = up != null || down != null;
+        if (exchanging) this.transfer(true);
+    }
+    
+    /**
+     * Method which waits for the halos to finish moving. Everything is
+     * written and read at once through a selector, so two workers sending
+     * each other rows bigger than their socket buffers never get stuck
+     * 
+     * @throws IOException If a peer goes away
+     */
+    private void finishExchange() throws IOException {
+        while (exchanging) {
+            selector.select();
+            this.transfer(true);
+        }
+    }
+    
+    /**
+     * Method which moves as much of the halos as the channels will take
+     * without waiting, and works out what we are still waiting for
+     * 
+     * @param ready Whether the selector has anything for us
+     * @throws IOException If a peer goes away
+     */
+    private void transfer(boolean ready) throws IOException {
+        if (ready) {
+            selector.selectedKeys().clear();
+            this.transfer(up, sendUp, readUp);
+            this.transfer(down, sendDown, readDown);
+        }
+        
+        this.exchanging = this.pending(upKey, sendUp, readUp) | this.pending(downKey, sendDown, readDown);
+    }
+    
+    /**
+     * Method which works out what we are still waiting for on a channel and
+     * sets its interest to match
+     * 
+     * @param key Key of the channel, null if there isn't one
+     * @param send Row still being sent
+     * @param read Halo still being read
+     * @return True if the channel has anything left to do
+     */
+    private boolean pending(SelectionKey key, ByteBuffer send, ByteBuffer read) {
+        if (key == null) return false;
+        
+        int ops = (send.hasRemaining() ? SelectionKey.OP_WRITE : 0) | (read.hasRemaining() ? SelectionKey.OP_READ : 0);
+        key.interestOps(ops);
+        return ops != 0;
+    }
+    
+    /**
+     * Method which moves as much as a channel will take without waiting
+     * 
+     * @param channel Channel to a peer, null if there isn't one
+     * @param send Row still being sent
+     * @param read Halo still being read
+     * @throws IOException If the peer goes away
+     */
+    private void transfer(SocketChannel channel, ByteBuffer send, ByteBuffer read) throws IOException {
+        if (channel == null) return;
+        
+        if (send.hasRemaining()) channel.write(send);
+        if (read.hasRemaining() && channel.read(read) < 0) {
+            throw new EOFException("Peer closed its connection");
+        }
+    }
+    
+    /**
+     * Method which takes every firefly back a number of timesteps. This is
+     * only right when the grid has been in sync for all of them, as then
+     * nobody was reset and everyone just moved on by one each timestep
+     * 
+     * @param timesteps Number of timesteps to go back
+     */
+    private void rewind(int timesteps) {
+        int back = CYCLE - timesteps % CYCLE;
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = (byte)((steps[i] + back) % CYCLE);
+        }
+    }
+    
+    /**
+     * Method which answers commands from the cluster until it tells us to stop
+     * 
+     * @param in Stream of commands from the cluster
+     * @param out Stream of replies to the cluster
+     * @throws IOException If the cluster or a peer goes away
+     */
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        // Fill our halos and tell the cluster how we started
+        this.beginExchange(steps);
+        this.finishExchange();
+        
+        long total = 0;
+        for (int ly = 1; ly <= rows; ly++) total += this.countRow(steps, ly);
+        out.writeLong(total);
+        out.flush();
+        
+        while (true) {
+            int command = in.readByte();
+            if (command == RUN) {
+                int timesteps = in.readInt();
+                for (int t = 0; t < timesteps; t++) {
+                    out.writeLong(this.step());
+                }
+            } else if (command == REWIND) {
+                this.rewind(in.readInt());
+            } else if (command == GATHER) {
+                out.write(steps, width, rows * width);
+            } else if (command == STOP) {
+                return;
+            } else {
+                throw new IOException("Unknown command: " + command);
+            }
+            out.flush();
+        }
+    }
+    
+    /**
+     * Method which closes our peer channels
+     * 
+     * @throws IOException If a channel can't be closed
+     */
+    private void close() throws IOException {
+        selector.close();
+        if (up != null) up.close();
+        if (down != null) down.close();
+    }
+    
+    /**
+     * Method which joins a cluster and works on the strip it gives us until
+     * the cluster tells us to stop
+     * 
+     * @param host Host the cluster is listening on
+     * @param port Port the cluster is listening on
+     * @throws IOException If the cluster or a peer goes away
+     */
+    public static void join(String host, int port) throws IOException {
+        try (SocketChannel control = SocketChannel.open(new InetSocketAddress(host, port));
+             ServerSocketChannel peers = ServerSocketChannel.open()) {
+            control.socket().setTcpNoDelay(true);
+            peers.bind(new InetSocketAddress(0));
+            
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(control), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(control), 1 << 16));
+            
+            // Tell the cluster where our neighbour above can find us
+            out.writeInt(peers.socket().getLocalPort());
+            out.flush();
+            
+            FireflyWorker worker = new FireflyWorker(in, peers);
+            try {
+                worker.serve(in, out);
+            } finally {
+                worker.close();
+            }
+        }
+    }
+    
+    /**
+     * Main Class which joins a cluster
+     * 
+     * @param args Host and port of the cluster
+     * @throws IOException If the cluster or a peer goes away
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : FireflyCluster.DEFAULT_PORT;
+        
+        join(host, port);
+    }
+}
@@ -0,0 +1,140 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Bit Grid Test Class which checks 64 fireflies packed into each word
+ * step exactly as a FireflyArrayGrid does, with widths either side of a word
+ * so the edges of the grid and the torus wrap fall at every place in a word
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyBitGridTest {
+    
+    // Grid sizes, from a single firefly to grids a few words wide
+    private static final int [][] SIZES = { { 1, 1 }, { 2, 3 }, { 63, 5 }, { 64, 4 }, { 65, 3 }, { 127, 2 },
+                                            { 128, 3 }, { 130, 7 }, { 3, 64 } };
+    
+    // Seeds for each grid and the most timesteps we run it for
+    private static final long [] SEEDS = { 1, 2, 3 };
+    private static final int TIMESTEPS = 300;
+    
+    /**
+     * Test which steps every neighbourhood, boundary, size and seed and checks
+     * every firefly and the sync check after every timestep
+     */
+    @Test
+    public void stepsMatchArrayGrid() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (long seed : SEEDS) {
+                        String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1] + " seed " + seed;
+                        FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary, seed);
+                        FireflyEngine expected = new FireflyArrayGrid(topology, seed);
+                        FireflyEngine actual = new FireflyBitGrid(topology, seed);
+                        assertMatches(expected, actual, name + " at the start");
+                        
+                        for (int t = 1; t <= TIMESTEPS && !expected.isSynchronised(); t++) {
+                            expected.step();
+                            actual.step();
+                            assertMatches(expected, actual, name + " at timestep " + t);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which runs whole trials through the trial runner and checks each
+     * ends the same way as it does on an array grid
+     */
+    @Test
+    public void trialsMatchArrayGrid() {
+        for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+            for (int width : new int [] { 63, 64, 65 }) {
+                FireflyTrialRunner.EngineFactory grids = FireflyTrialRunner.factory("array", width, 9,
+                    FireflyInteraction.Neighbourhood.MOORE, boundary, 5);
+                FireflyTrialRunner.EngineFactory bits = FireflyTrialRunner.factory("bit", width, 9,
+                    FireflyInteraction.Neighbourhood.MOORE, boundary, 5);
+                
+                for (int trial = 0; trial < 20; trial++) {
+                    String name = boundary + " " + width + "x9 trial " + trial;
+                    FireflyTrialResult expected = FireflyTrialRunner.runTrial(grids.create(trial), trial, 2500, true);
+                    FireflyTrialResult actual = FireflyTrialRunner.runTrial(bits.create(trial), trial, 2500, true);
+                    
+                    assertEquals(expected.getOutcome(), actual.getOutcome(), "Outcome differs for " + name);
+                    assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+                    assertEquals(expected.getPeriod(), actual.getPeriod(), "Period differs for " + name);
+                    assertEquals(expected.getEntered(), actual.getEntered(), "Entry differs for " + name);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which sets every firefly to the same step, checks the grid is
+     * synchronised, and then checks moving any one firefly at either end of
+     * a word, or at the edges of the grid, is noticed
+     */
+    @Test
+    public void syncNoticesEveryFirefly() {
+        for (int width : new int [] { 63, 64, 65, 128 }) {
+            int height = 3;
+            FireflyTopology topology = new FireflyTopology(width, height, FireflyInteraction.Neighbourhood.MOORE,
+                                                           FireflyTopology.Boundary.TOROIDAL);
+            FireflyBitGrid grid = new FireflyBitGrid(topology, false);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) grid.setCurrentStep(x, y, 4);
+            }
+            assertTrue(grid.isSynchronised(), width + " wide");
+            
+            for (int x : new int [] { 0, 1, 62, 63, 64, width - 1 }) {
+                if (x >= width) continue;
+                
+                for (int y = 0; y < height; y++) {
+                    String name = width + " wide with " + x + "," + y + " moved";
+                    grid.setCurrentStep(x, y, 5);
+                    assertEquals(5, grid.getCurrentStep(x, y), name);
+                    assertFalse(grid.isSynchronised(), name);
+                    
+                    grid.setCurrentStep(x, y, 4);
+                    assertTrue(grid.isSynchronised(), name + " back");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which checks two grids hold the same fireflies and agree on
+     * whether they are synchronised
+     * 
+     * @param expected Array grid stepped one firefly at a time
+     * @param actual Bit grid to check
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyEngine expected, FireflyEngine actual, String name) {
+        int cells = expected.getWidth() * expected.getHeight();
+        byte [] want = new byte[cells];
+        byte [] got = new byte[cells];
+        expected.copySteps(want);
+        actual.copySteps(got);
+        
+        assertArrayEquals(want, got, "Steps differ for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.isSynchronised(), actual.isSynchronised(), "Sync differs for " + name);
+    }
+}
@@ -0,0 +1,171 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Cluster Test Class which runs workers on threads of our own over
+ * loopback, splits grids between them in uneven strips, and checks they step
+ * and synchronise exactly as a single FireflyArrayGrid does
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyClusterTest {
+    
+    // Grid sizes, with heights none of our worker counts divide evenly
+    private static final int [][] SIZES = { { 9, 7 }, { 6, 13 } };
+    
+    // Worker counts to split every grid between
+    private static final int [] WORKERS = { 2, 3, 4, 5 };
+    
+    // Timesteps we check one at a time, and the most a trial runs for
+    private static final int TIMESTEPS = 40;
+    private static final int LIMIT = 2500;
+    
+    /**
+     * Test which steps a grid one timestep at a time across the workers and
+     * then runs it on until sync, for every neighbourhood, boundary, size and
+     * number of workers, and checks every firefly, the timestep and the sync
+     * check against an array grid
+     * 
+     * @throws Exception If a worker fails
+     */
+    @Test
+    public void matchesArrayGrid() throws Exception {
+        int synced = 0;
+        
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (int workers : WORKERS) {
+                        long seed = 31 * workers + size[1];
+                        final String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1] + " on "
+                                            + workers + " workers";
+                        final FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary,
+                                                                             seed);
+                        final FireflyArrayGrid grid = new FireflyArrayGrid(topology, seed);
+                        final int count = workers;
+                        
+                        boolean result = assertTimeoutPreemptively(Duration.ofMinutes(1),
+                                                                   () -> check(topology, grid, count, name), name);
+                        if (result) synced++;
+                    }
+                }
+            }
+        }
+        
+        assertTrue(synced > 0, "No grid synchronised");
+    }
+    
+    /**
+     * Method which starts workers, hands them a grid and checks them against
+     * an array grid stepped from the same start
+     * 
+     * @param topology Size, neighbourhood and boundary of the grid
+     * @param grid Array grid at the start
+     * @param workers Number of workers to split the grid between
+     * @param name What we are checking, for the failure message
+     * @return True if the grid synchronised before the limit
+     * @throws Exception If a worker fails
+     */
+    private static boolean check(FireflyTopology topology, FireflyArrayGrid grid, int workers, String name)
+            throws Exception {
+        byte [] steps = new byte[topology.getCells()];
+        grid.copySteps(steps);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            final int port = server.socket().getLocalPort();
+            
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        FireflyWorker.join("localhost", port);
+                        return null;
+                    }
+                }));
+            }
+            
+            boolean synced;
+            try (FireflyCluster cluster = new FireflyCluster(server, workers, topology, steps)) {
+                assertMatches(grid, cluster, name + " at the start");
+                
+                // One timestep at a time first
+                for (int t = 1; t <= TIMESTEPS && !grid.isSynchronised(); t++) {
+                    grid.step();
+                    cluster.step();
+                    assertMatches(grid, cluster, name + " at timestep " + t);
+                }
+                
+                // And then in batches until sync, which has to wind back to
+                // the timestep a trial stops on
+                synced = grid.isSynchronised();
+                if (!synced) {
+                    FireflyTrialResult expected = FireflyTrialRunner.runTrial(grid, 0, LIMIT, false);
+                    synced = cluster.stepUntilSynchronised(LIMIT);
+                    assertEquals(expected.isSynced(), synced, "Sync differs for " + name);
+                    assertMatches(grid, cluster, name + " after running until sync");
+                }
+            }
+            
+            // Every worker stops cleanly once the cluster is closed
+            for (int w = 0; w < workers; w++) {
+                try {
+                    futures.get(w).get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    throw new AssertionError("Worker " + w + " failed for " + name, e.getCause());
+                }
+            }
+            return synced;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Method which checks the workers hold the same fireflies as an array grid
+     * and agree with it on the timestep and whether it is synchronised
+     * 
+     * @param expected Array grid stepped in this process
+     * @param actual Cluster to check
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyEngine expected, FireflyCluster actual, String name) {
+        int cells = expected.getWidth() * expected.getHeight();
+        byte [] want = new byte[cells];
+        byte [] got = new byte[cells];
+        expected.copySteps(want);
+        actual.copySteps(got);
+        
+        assertArrayEquals(want, got, "Steps differ for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.isSynchronised(), actual.isSynchronised(), "Sync differs for " + name);
+    }
+}
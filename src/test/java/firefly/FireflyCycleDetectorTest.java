@@ -0,0 +1,172 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Cycle Detector Test Class which checks the loops we find against
+ * ones found the slow way, by keeping every generation whole and looking for
+ * the first one we have seen before
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyCycleDetectorTest {
+    
+    // Most timesteps we run a grid for looking for a loop
+    private static final int LIMIT = 3000;
+    
+    /**
+     * Test which finds loops on small grids with both the array grid and the
+     * event grid and checks the period and entry against every generation
+     */
+    @Test
+    public void matchesEveryGeneration() {
+        int loops = 0;
+        
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (long seed = 1; seed <= 40; seed++) {
+                    FireflyTopology topology = new FireflyTopology(9, 7, neighbourhood, boundary, seed);
+                    int [] expected = slowLoop(new FireflyArrayGrid(topology, seed));
+                    String name = neighbourhood + " " + boundary + " seed " + seed;
+                    
+                    assertLoop(expected, new FireflyArrayGrid(topology, seed), name + " on the array grid");
+                    assertLoop(expected, new FireflyEventGrid(topology, seed), name + " on the event grid");
+                    if (expected != null) loops++;
+                }
+            }
+        }
+        
+        assertTrue(loops > 0, "No grid fell into a loop");
+    }
+    
+    /**
+     * Test which gives every generation the same state hash, so only the
+     * second hash and the full comparisons can tell them apart, and checks
+     * the entry is still exact rather than as early as the hashes reach
+     */
+    @Test
+    public void survivesCollidingStateHashes() {
+        int loops = 0;
+        
+        for (long seed = 1; seed <= 40; seed++) {
+            FireflyTopology topology = new FireflyTopology(9, 7, FireflyInteraction.Neighbourhood.VON_NEUMANN,
+                                                           FireflyTopology.Boundary.TOROIDAL, seed);
+            int [] expected = slowLoop(new FireflyArrayGrid(topology, seed));
+            
+            final FireflyArrayGrid grid = new FireflyArrayGrid(topology, seed);
+            FireflyEngine colliding = new FireflyEngine() {
+                @Override
+                public void step() {
+                    grid.step();
+                }
+                
+                @Override
+                public boolean isSynchronised() {
+                    return grid.isSynchronised();
+                }
+                
+                @Override
+                public int getTimesteps() {
+                    return grid.getTimesteps();
+                }
+                
+                @Override
+                public int getWidth() {
+                    return grid.getWidth();
+                }
+                
+                @Override
+                public int getHeight() {
+                    return grid.getHeight();
+                }
+                
+                @Override
+                public int getCurrentStep(int x, int y) {
+                    return grid.getCurrentStep(x, y);
+                }
+                
+                @Override
+                public void copySteps(byte [] steps) {
+                    grid.copySteps(steps);
+                }
+                
+                @Override
+                public long stateHash() {
+                    return 0;
+                }
+            };
+            
+            assertLoop(expected, colliding, "seed " + seed);
+            if (expected != null) loops++;
+        }
+        
+        assertTrue(loops > 0, "No grid fell into a loop");
+    }
+    
+    /**
+     * Method which steps an engine with a detector in the same way our trial
+     * runner does and checks it finds the loop we expect
+     * 
+     * @param expected Period and entry of the loop, or null if there is none
+     * @param engine Engine to step from the same start
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertLoop(int [] expected, FireflyEngine engine, String name) {
+        FireflyCycleDetector detector = new FireflyCycleDetector(engine);
+        boolean found = false;
+        
+        while (!found && !engine.isSynchronised() && engine.getTimesteps() < LIMIT) {
+            engine.step();
+            if (!engine.isSynchronised()) found = detector.observe();
+        }
+        
+        if (expected == null) {
+            assertFalse(found, "Found a loop that isn't there for " + name);
+        } else {
+            assertTrue(found, "Missed the loop for " + name);
+            assertEquals(expected[0], detector.getPeriod(), "Period differs for " + name);
+            assertEquals(expected[1], detector.getEntered(), "Entry differs for " + name);
+        }
+    }
+    
+    /**
+     * Method which finds the loop a grid falls into by keeping every
+     * generation and stopping at the first one we have seen before
+     * 
+     * @param engine Engine to step
+     * @return Period and entry of the loop, or null if it synchronised or
+     *         didn't loop within our limit
+     */
+    private static int [] slowLoop(FireflyEngine engine) {
+        Map<ByteBuffer, Integer> seen = new HashMap<ByteBuffer, Integer>();
+        int cells = engine.getWidth() * engine.getHeight();
+        
+        while (engine.getTimesteps() < LIMIT) {
+            byte [] steps = new byte[cells];
+            engine.copySteps(steps);
+            
+            Integer before = seen.put(ByteBuffer.wrap(steps), engine.getTimesteps());
+            if (before != null) return new int [] { engine.getTimesteps() - before, before };
+            
+            engine.step();
+            if (engine.isSynchronised()) return null;
+        }
+        
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Frame Server Test Class which hosts a simulation, has viewers of
+ * different speeds join it at different times, and checks every frame each of
+ * them decodes matches the grid stepped again from the same seed
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyFrameServerTest {
+    
+    // Odd sized grid, so the last packed byte is only half used
+    private static final int WIDTH = 201;
+    private static final int HEIGHT = 99;
+    private static final long SEED = 11;
+    
+    // How long the simulation runs and how fast, so it lasts a few seconds
+    private static final int LIMIT = 1500;
+    private static final int TIMESTEPS_PER_SECOND = 400;
+    
+    // How long each viewer waits after every frame, in milliseconds, so the
+    // slow ones drop frames
+    private static final long [] DAWDLES = { 0, 0, 50, 200 };
+    
+    // How long after the last viewer each one joins, in milliseconds
+    private static final long JOIN_GAP = 500;
+    
+    /**
+     * Test which streams a simulation to fast and slow viewers joining at
+     * different times and checks every frame they see
+     * 
+     * @throws Exception If the server can't be reached or a viewer fails
+     */
+    @Test
+    public void viewersSeeEveryFrameCorrectly() throws Exception {
+        final FireflyTrialRunner.EngineFactory factory = FireflyTrialRunner.factory("array", WIDTH, HEIGHT,
+            FireflyInteraction.Neighbourhood.VON_NEUMANN, FireflyTopology.Boundary.TOROIDAL, SEED);
+        ExecutorService executor = Executors.newFixedThreadPool(DAWDLES.length);
+        
+        try (final FireflyFrameServer server = new FireflyFrameServer(0, 60)) {
+            FireflySimulation simulation = new FireflySimulation(factory.create(0), LIMIT);
+            simulation.setTimestepsPerSecond(TIMESTEPS_PER_SECOND);
+            server.host("one", simulation);
+            
+            List<Future<FireflyFrameClient>> futures = new ArrayList<Future<FireflyFrameClient>>();
+            for (int v = 0; v < DAWDLES.length; v++) {
+                final long dawdle = DAWDLES[v];
+                final long delay = v * JOIN_GAP;
+                futures.add(executor.submit(new Callable<FireflyFrameClient>() {
+                    @Override
+                    public FireflyFrameClient call() throws IOException, InterruptedException {
+                        Thread.sleep(delay);
+                        return watch(factory.create(0), server.getPort(), dawdle);
+                    }
+                }));
+            }
+            
+            for (int v = 0; v < futures.size(); v++) {
+                FireflyFrameClient viewer;
+                try {
+                    viewer = futures.get(v).get(1, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    throw new AssertionError("Viewer " + v + " failed", e.getCause());
+                }
+                
+                // Everyone sees the end, and starts from a keyframe
+                assertTrue(viewer.isFinished(), "Viewer " + v + " never saw the end");
+                assertEquals(LIMIT, viewer.getTimestep(), "Viewer " + v + " ended early");
+                assertTrue(viewer.getKeyframes() >= 1, "Viewer " + v + " never got a keyframe");
+                if (DAWDLES[v] == 0) {
+                    assertTrue(viewer.getFrames() > viewer.getKeyframes(), "Viewer " + v + " got no deltas");
+                } else {
+                    assertTrue(viewer.getKeyframes() > 1, "Slow viewer " + v + " never skipped ahead");
+                }
+            }
+            
+            // Asking about things still works, and asking about nothing fails
+            try (FireflyFrameClient control = new FireflyFrameClient("localhost", server.getPort())) {
+                List<String> lines = control.list();
+                assertEquals(1, lines.size(), lines.toString());
+                assertTrue(lines.get(0).startsWith("one " + WIDTH + " " + HEIGHT + " " + LIMIT + " "), lines.get(0));
+                assertThrows(IOException.class, () -> control.info("nope"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Method which watches a simulation until it finishes, checking every
+     * frame against a grid stepped along with it
+     * 
+     * @param expected Grid at the start of the simulation
+     * @param port Port the server is on
+     * @param dawdle How long to wait after every frame, in milliseconds
+     * @return Viewer, once it has finished watching
+     * @throws IOException If the server goes away or a frame is corrupt
+     * @throws InterruptedException If we are interrupted while dawdling
+     */
+    private static FireflyFrameClient watch(FireflyEngine expected, int port, long dawdle)
+            throws IOException, InterruptedException {
+        byte [] want = new byte[WIDTH * HEIGHT];
+        byte [] got = new byte[WIDTH * HEIGHT];
+        
+        try (FireflyFrameClient viewer = new FireflyFrameClient("localhost", port)) {
+            viewer.watch("one");
+            while (viewer.readFrame()) {
+                assertTrue(viewer.getTimestep() >= expected.getTimesteps(), "Went back to " + viewer.getTimestep());
+                while (expected.getTimesteps() < viewer.getTimestep()) expected.step();
+                
+                expected.copySteps(want);
+                viewer.copySteps(got);
+                assertArrayEquals(want, got, "Frame at timestep " + viewer.getTimestep() + " differs");
+                
+                if (viewer.isFinished()) break;
+                if (dawdle > 0) Thread.sleep(dawdle);
+            }
+            return viewer;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Graph Engine Test Class which checks graphs are built the right way
+ * round, that a graph engine stepping the graph of a grid matches a
+ * FireflyArrayGrid every timestep, and that sync on graphs split into several
+ * parts agrees with checking every edge by hand
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyGraphEngineTest {
+    
+    // Grid sizes, including tori so small a firefly sees the same neighbour
+    // from two sides
+    private static final int [][] SIZES = { { 1, 1 }, { 2, 2 }, { 3, 1 }, { 7, 5 }, { 16, 16 } };
+    
+    // Seeds for each grid and the most timesteps we run it for
+    private static final long [] SEEDS = { 1, 2, 3 };
+    private static final int LIMIT = 2500;
+    
+    /**
+     * Test which builds graphs from edge lists with repeats, self loops and
+     * edges both ways, and checks every row comes out sorted without them and
+     * that transposing turns every edge round
+     */
+    @Test
+    public void buildsAndTransposes() {
+        int [] from = { 0, 1, 1, 2, 3, 3, 4, 0 };
+        int [] to = { 1, 0, 2, 2, 4, 4, 0, 1 };
+        FireflyGraph directed = FireflyGraph.fromEdges(5, from, to, from.length, true);
+        FireflyGraph undirected = FireflyGraph.fromEdges(5, from, to, from.length, false);
+        
+        // A directed edge from a to b means b listens to a
+        assertRows(new int [][] { { 1, 4 }, { 0 }, { 1 }, { }, { 3 } }, directed);
+        assertRows(new int [][] { { 1, 4 }, { 0, 2 }, { 1 }, { 4 }, { 0, 3 } }, undirected);
+        assertRows(new int [][] { { 1 }, { 0, 2 }, { }, { 4 }, { 0 } }, directed.transpose());
+        assertRows(new int [][] { { 1, 4 }, { 0, 2 }, { 1 }, { 4 }, { 0, 3 } }, undirected.transpose());
+        
+        // Transposing a random graph twice gets it back, and every edge is
+        // turned round on the way
+        SplittableRandom random = new SplittableRandom(9);
+        int edges = 500;
+        int [] a = new int[edges];
+        int [] b = new int[edges];
+        for (int e = 0; e < edges; e++) {
+            a[e] = random.nextInt(100);
+            b[e] = random.nextInt(100);
+        }
+        FireflyGraph graph = FireflyGraph.fromEdges(100, a, b, edges, true);
+        FireflyGraph transposed = graph.transpose();
+        assertEquals(graph.getEdges(), transposed.getEdges());
+        assertArrayEquals(graph.getOffsets(), transposed.transpose().getOffsets());
+        assertArrayEquals(graph.getTargets(), transposed.transpose().getTargets());
+        for (int i = 0; i < 100; i++) {
+            for (int e = graph.getOffsets()[i]; e < graph.getOffsets()[i + 1]; e++) {
+                assertTrue(hasEdge(transposed, graph.getTargets()[e], i), "Lost the edge into " + i);
+            }
+        }
+    }
+    
+    /**
+     * Test which checks the graph of a grid has each firefly listening to
+     * exactly the neighbours it hears on that grid
+     */
+    @Test
+    public void topologyGraphMatchesNeighbours() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1];
+                    FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary, 4);
+                    FireflyGraph graph = FireflyGraph.fromTopology(topology);
+                    int [] neighbours = topology.getNeighbours();
+                    
+                    for (int i = 0; i < topology.getCells(); i++) {
+                        boolean [] hears = new boolean[topology.getCells()];
+                        for (int k = 0; k < topology.getDegrees()[i]; k++) {
+                            hears[neighbours[i * topology.getStride() + k]] = true;
+                        }
+                        hears[i] = false;
+                        
+                        int count = 0;
+                        for (boolean h : hears) if (h) count++;
+                        assertEquals(count, graph.getDegree(i), "Degree of " + i + " differs for " + name);
+                        for (int t = 0; t < hears.length; t++) {
+                            assertEquals(hears[t], hasEdge(graph, i, t), "Edge " + t + " to " + i + " for " + name);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which steps the graph of every neighbourhood, boundary, size and
+     * seed next to an array grid and checks every firefly and the sync check
+     * after every timestep
+     */
+    @Test
+    public void stepsMatchArrayGrid() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (long seed : SEEDS) {
+                        String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1] + " seed " + seed;
+                        FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary, seed);
+                        FireflyEngine expected = new FireflyArrayGrid(topology, seed);
+                        FireflyEngine actual = new FireflyGraphEngine(FireflyGraph.fromTopology(topology), seed);
+                        assertMatches(expected, actual, name + " at the start");
+                        
+                        for (int t = 1; t <= 300 && !expected.isSynchronised(); t++) {
+                            expected.step();
+                            actual.step();
+                            assertMatches(expected, actual, name + " at timestep " + t);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which checks jumping over timesteps with nobody flashing stops on
+     * exactly the timestep a trial on an array grid does, and leaves every
+     * firefly where the array grid has them
+     */
+    @Test
+    public void skipAheadMatchesTrials() {
+        int synced = 0;
+        
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (long seed = 1; seed <= 20; seed++) {
+                    String name = neighbourhood + " " + boundary + " seed " + seed;
+                    FireflyTopology topology = new FireflyTopology(10, 10, neighbourhood, boundary, seed);
+                    FireflyTrialResult expected = FireflyTrialRunner.runTrial(new FireflyArrayGrid(topology, seed), 0,
+                                                                              LIMIT, false);
+                    FireflyGraphEngine actual = new FireflyGraphEngine(FireflyGraph.fromTopology(topology), seed);
+                    
+                    assertEquals(expected.isSynced(), actual.stepUntilSynchronised(LIMIT), "Sync differs for " + name);
+                    assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+                    if (expected.isSynced()) synced++;
+                    
+                    FireflyArrayGrid grid = new FireflyArrayGrid(topology, seed);
+                    while (grid.getTimesteps() < actual.getTimesteps()) grid.step();
+                    assertMatches(grid, actual, name + " after skipping ahead");
+                }
+            }
+        }
+        
+        assertTrue(synced > 0, "No trial synchronised");
+    }
+    
+    /**
+     * Test which runs sparse random graphs split into many parts, including
+     * fireflies nobody can see, and checks sync every timestep against every
+     * edge joining two fireflies on the same step, stepping one at a time and
+     * skipping ahead
+     */
+    @Test
+    public void syncAcrossSeveralParts() {
+        int synced = 0;
+        
+        for (long seed = 1; seed <= 30; seed++) {
+            SplittableRandom random = new SplittableRandom(seed);
+            int nodes = 60;
+            int edges = 45;
+            int [] from = new int[edges];
+            int [] to = new int[edges];
+            for (int e = 0; e < edges; e++) {
+                from[e] = random.nextInt(nodes);
+                to[e] = random.nextInt(nodes);
+            }
+            FireflyGraph graph = FireflyGraph.fromEdges(nodes, from, to, edges, seed % 2 == 0);
+            
+            FireflyGraphEngine stepped = new FireflyGraphEngine(graph, seed);
+            boolean expected = allEdgesAgree(graph, stepped);
+            assertEquals(expected, stepped.isSynchronised(), "Seed " + seed + " at the start");
+            int timesteps = 0;
+            while (timesteps < LIMIT) {
+                stepped.step();
+                timesteps++;
+                expected = allEdgesAgree(graph, stepped);
+                assertEquals(expected, stepped.isSynchronised(), "Seed " + seed + " at timestep " + timesteps);
+                if (expected) break;
+            }
+            
+            FireflyGraphEngine skipped = new FireflyGraphEngine(graph, seed);
+            assertEquals(expected, skipped.stepUntilSynchronised(LIMIT), "Seed " + seed + " skipping ahead");
+            assertEquals(timesteps, skipped.getTimesteps(), "Seed " + seed + " skipping ahead");
+            if (expected) synced++;
+        }
+        
+        assertTrue(synced > 0, "No graph synchronised");
+        
+        // Two parts each in step with themselves but not with each other are
+        // in sync, and moving one firefly in either breaks it
+        int [] from = { 0, 1, 3, 4 };
+        int [] to = { 1, 2, 4, 5 };
+        FireflyGraphEngine engine = new FireflyGraphEngine(FireflyGraph.fromEdges(7, from, to, 4, false), false);
+        for (int i = 0; i < 3; i++) engine.setStep(i, 2);
+        for (int i = 3; i < 6; i++) engine.setStep(i, 7);
+        engine.setStep(6, 9);
+        assertTrue(engine.isSynchronised());
+        engine.setStep(4, 6);
+        assertFalse(engine.isSynchronised());
+        engine.setStep(4, 7);
+        assertTrue(engine.isSynchronised());
+        engine.setStep(0, 3);
+        assertFalse(engine.isSynchronised());
+    }
+    
+    /**
+     * Method which checks every firefly is on the same step as everyone it
+     * listens to, by looking at every edge
+     * 
+     * @param graph Graph of who listens to who
+     * @param engine Engine stepping the graph
+     * @return True if every edge joins two fireflies on the same step
+     */
+    private static boolean allEdgesAgree(FireflyGraph graph, FireflyGraphEngine engine) {
+        for (int i = 0; i < graph.getNodes(); i++) {
+            for (int e = graph.getOffsets()[i]; e < graph.getOffsets()[i + 1]; e++) {
+                if (engine.getStep(i) != engine.getStep(graph.getTargets()[e])) return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Method which checks whether a firefly listens to another
+     * 
+     * @param graph Graph of who listens to who
+     * @param i Index of the listening firefly
+     * @param t Index of the firefly it might listen to
+     * @return True if i listens to t
+     */
+    private static boolean hasEdge(FireflyGraph graph, int i, int t) {
+        for (int e = graph.getOffsets()[i]; e < graph.getOffsets()[i + 1]; e++) {
+            if (graph.getTargets()[e] == t) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Method which checks every row of a graph holds exactly what we expect
+     * 
+     * @param rows Fireflies each firefly should listen to, in order
+     * @param graph Graph to check
+     */
+    private static void assertRows(int [][] rows, FireflyGraph graph) {
+        assertEquals(rows.length, graph.getNodes());
+        for (int i = 0; i < rows.length; i++) {
+            int start = graph.getOffsets()[i];
+            int [] row = new int[graph.getDegree(i)];
+            System.arraycopy(graph.getTargets(), start, row, 0, row.length);
+            assertArrayEquals(rows[i], row, "Row " + i);
+        }
+    }
+    
+    /**
+     * Method which checks two engines hold the same fireflies and agree on
+     * whether they are synchronised
+     * 
+     * @param expected Array grid stepped one firefly at a time
+     * @param actual Graph engine to check
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyEngine expected, FireflyEngine actual, String name) {
+        int cells = expected.getWidth() * expected.getHeight();
+        byte [] want = new byte[cells];
+        byte [] got = new byte[cells];
+        expected.copySteps(want);
+        actual.copySteps(got);
+        
+        assertArrayEquals(want, got, "Steps differ for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.isSynchronised(), actual.isSynchronised(), "Sync differs for " + name);
+    }
+}
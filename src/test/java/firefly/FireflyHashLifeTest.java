@@ -0,0 +1,141 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Hash Life Test Class which checks jumping ahead through our quadtree
+ * lands on exactly the same grid as stepping every firefly of a
+ * FireflyArrayGrid, on both boundaries and with tables small enough that
+ * blocks keep being thrown away
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyHashLifeTest {
+    
+    // Open grids of any shape, and the toroidal grids we can tile
+    private static final int [][] OPEN_SIZES = { { 1, 1 }, { 5, 3 }, { 13, 9 }, { 32, 32 } };
+    private static final int [][] TOROIDAL_SIZES = { { 4, 4 }, { 8, 8 }, { 16, 16 }, { 32, 32 } };
+    
+    // Smallest table we allow, which evicts all the time, and the default
+    private static final int [] CAPACITIES = { 1024, FireflyHashLife.DEFAULT_CAPACITY };
+    
+    // How far to jump, in jumps taken one after the other
+    private static final long [] JUMPS = { 1, 2, 7, 64, 300, 1000 };
+    
+    /**
+     * Test which jumps every neighbourhood, boundary, size, seed and table
+     * size ahead and checks the grid after each jump
+     */
+    @Test
+    public void jumpsMatchArrayGrid() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                int [][] sizes = boundary == FireflyTopology.Boundary.TOROIDAL ? TOROIDAL_SIZES : OPEN_SIZES;
+                
+                for (int [] size : sizes) {
+                    for (long seed = 1; seed <= 3; seed++) {
+                        for (int capacity : CAPACITIES) {
+                            String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1]
+                                        + " seed " + seed + " with " + capacity + " blocks";
+                            FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood,
+                                                                           boundary, seed);
+                            byte [] steps = FireflyRandom.steps(topology.getCells(), seed, Firefly.FIREFLY_FINAL_STEP);
+                            
+                            FireflyHashLife life = new FireflyHashLife(topology, steps, capacity);
+                            FireflyArrayGrid grid = new FireflyArrayGrid(topology, false);
+                            for (int i = 0; i < steps.length; i++) {
+                                grid.setCurrentStep(i % size[0], i / size[0], steps[i]);
+                            }
+                            
+                            for (long jump : JUMPS) {
+                                life.advance(jump);
+                                for (long t = 0; t < jump; t++) grid.step();
+                                assertMatches(grid, life, name + " at timestep " + grid.getTimesteps());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which steps one timestep at a time through the engine interface,
+     * as the trial runner does, checking every timestep
+     */
+    @Test
+    public void stepsMatchArrayGrid() {
+        for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+            FireflyTrialRunner.EngineFactory lives = FireflyTrialRunner.factory("hashlife", 16, 16,
+                FireflyInteraction.Neighbourhood.MOORE, boundary, 99);
+            FireflyTrialRunner.EngineFactory grids = FireflyTrialRunner.factory("array", 16, 16,
+                FireflyInteraction.Neighbourhood.MOORE, boundary, 99);
+            
+            for (int trial = 0; trial < 5; trial++) {
+                FireflyEngine life = lives.create(trial);
+                FireflyEngine grid = grids.create(trial);
+                assertMatches(grid, life, boundary + " trial " + trial + " at the start");
+                
+                for (int t = 1; t <= 200; t++) {
+                    life.step();
+                    grid.step();
+                    assertMatches(grid, life, boundary + " trial " + trial + " at timestep " + t);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which checks a toroidal grid we can't tile is turned down as soon
+     * as the factory is asked for, with a message saying why
+     */
+    @Test
+    public void factoryChecksShape() {
+        int [][] bad = { { 10, 10 }, { 16, 8 }, { 2, 2 }, { 12, 12 } };
+        for (int [] size : bad) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () ->
+                FireflyTrialRunner.factory("hashlife", size[0], size[1], FireflyInteraction.Neighbourhood.MOORE,
+                                           FireflyTopology.Boundary.TOROIDAL, 1));
+            assertTrue(e.getMessage().contains(size[0] + "x" + size[1]), e.getMessage());
+        }
+        
+        // Open grids of any shape are fine
+        assertNotNull(FireflyTrialRunner.factory("hashlife", 10, 7, FireflyInteraction.Neighbourhood.MOORE,
+                                                 FireflyTopology.Boundary.OPEN, 1).create(0));
+        assertNotNull(FireflyTrialRunner.factory("hashlife", 64, 64, FireflyInteraction.Neighbourhood.MOORE,
+                                                 FireflyTopology.Boundary.TOROIDAL, 1).create(0));
+    }
+    
+    /**
+     * Method which checks our quadtree holds exactly the same grid as an
+     * array grid and agrees on whether it is synchronised
+     * 
+     * @param expected Array grid stepped one firefly at a time
+     * @param actual Engine to check
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyEngine expected, FireflyEngine actual, String name) {
+        int cells = expected.getWidth() * expected.getHeight();
+        byte [] want = new byte[cells];
+        byte [] got = new byte[cells];
+        expected.copySteps(want);
+        actual.copySteps(got);
+        
+        assertArrayEquals(want, got, "Steps differ for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.isSynchronised(), actual.isSynchronised(), "Sync differs for " + name);
+    }
+}
@@ -0,0 +1,120 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Lane Grid Test Class which checks 64 trials packed into the lanes of
+ * our words come out exactly as each trial would on its own array grid, one
+ * firefly at a time and trial result by trial result
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyLaneGridTest {
+    
+    // Grid sizes, including a single firefly and grids narrower than a word
+    private static final int [][] SIZES = { { 1, 1 }, { 7, 3 }, { 10, 10 }, { 16, 9 } };
+    
+    // Batch seeds and the limit every trial runs to
+    private static final long [] SEEDS = { 3, 2024 };
+    private static final int LIMIT = 2500;
+    
+    /**
+     * Test which runs full and part filled lane grids over every neighbourhood,
+     * boundary, size and seed, with and without cycle detection, and checks
+     * each result against running the same trial on an array grid
+     */
+    @Test
+    public void resultsMatchArrayGrid() {
+        int cycles = 0;
+        
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (long seed : SEEDS) {
+                        FireflyTrialRunner.LaneFactory factory = new FireflyTrialRunner.LaneFactory(size[0], size[1],
+                            neighbourhood, boundary, seed);
+                        
+                        for (boolean cycleDetection : new boolean [] { true, false }) {
+                            int [][] runs = { { 0, FireflyLaneGrid.LANES }, { 100, 37 } };
+                            
+                            for (int [] run : runs) {
+                                String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1]
+                                            + " seed " + seed + (cycleDetection ? " with" : " without")
+                                            + " cycle detection";
+                                FireflyTrialResult [] results = factory.createLanes(run[0], run[1])
+                                                                       .run(LIMIT, cycleDetection);
+                                assertEquals(run[1], results.length, name);
+                                
+                                for (int lane = 0; lane < run[1]; lane++) {
+                                    int trial = run[0] + lane;
+                                    FireflyTrialResult expected = FireflyTrialRunner.runTrial(factory.create(trial),
+                                        trial, LIMIT, cycleDetection);
+                                    assertSameResult(expected, results[lane], name + " trial " + trial);
+                                    if (expected.getOutcome() == FireflyTrialResult.Outcome.CYCLE) cycles++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        
+        assertTrue(cycles > 0, "No trial fell into a loop");
+    }
+    
+    /**
+     * Test which steps a lane grid one timestep at a time and checks every
+     * lane holds the same fireflies as its trial's array grid
+     */
+    @Test
+    public void stepsMatchArrayGrid() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                FireflyTrialRunner.LaneFactory factory = new FireflyTrialRunner.LaneFactory(13, 11, neighbourhood,
+                                                                                            boundary, 77);
+                FireflyLaneGrid lanes = factory.createLanes(5, FireflyLaneGrid.LANES);
+                FireflyEngine [] grids = new FireflyEngine[FireflyLaneGrid.LANES];
+                for (int lane = 0; lane < grids.length; lane++) grids[lane] = factory.create(5 + lane);
+                
+                byte [] expected = new byte[13 * 11];
+                byte [] actual = new byte[13 * 11];
+                for (int t = 0; t <= 100; t++) {
+                    for (int lane = 0; lane < grids.length; lane++) {
+                        grids[lane].copySteps(expected);
+                        lanes.copySteps(lane, actual);
+                        assertArrayEquals(expected, actual, neighbourhood + " " + boundary + " lane " + lane
+                                                            + " at timestep " + t);
+                        grids[lane].step();
+                    }
+                    lanes.step();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which checks two trial results are the same in every way
+     * 
+     * @param expected Result from an array grid
+     * @param actual Result from a lane
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertSameResult(FireflyTrialResult expected, FireflyTrialResult actual, String name) {
+        assertEquals(expected.getTrial(), actual.getTrial(), "Trial differs for " + name);
+        assertEquals(expected.getOutcome(), actual.getOutcome(), "Outcome differs for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.getPeriod(), actual.getPeriod(), "Period differs for " + name);
+        assertEquals(expected.getEntered(), actual.getEntered(), "Entry differs for " + name);
+    }
+}
@@ -0,0 +1,239 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Metrics Test Class which records known times and runs known grids
+ * through a FireflyInstrumentedEngine, and checks every time lands in the
+ * right bucket and every counter and sample adds up to what the grid did
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyMetricsTest {
+    
+    // Size of the grid we run, and its seed
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 15;
+    private static final long SEED = 3;
+    
+    /**
+     * Test which records single times on and either side of every bucket
+     * bound, and checks each lands in the first bucket whose bound is at
+     * least that time, with everything too big for them in the last one
+     */
+    @Test
+    public void timesLandInTheRightBucket() {
+        List<Long> times = new ArrayList<Long>();
+        times.add(0L);
+        times.add(1L);
+        for (int b = 0; b < 30; b++) {
+            long bound = (1L << b) * 1000;
+            times.add(bound - 1);
+            times.add(bound);
+            times.add(bound + 1);
+        }
+        times.add(Long.MAX_VALUE / 2);
+        
+        for (long nanos : times) {
+            FireflyMetrics metrics = new FireflyMetrics();
+            metrics.recordTick(nanos, 0, 1);
+            List<String> bounds = new ArrayList<String>();
+            List<Long> counts = new ArrayList<Long>();
+            buckets(metrics.toPrometheus(), "firefly_step_seconds", bounds, counts);
+            
+            // Buckets count everything up to their bound, so the time is in
+            // the first one to count it
+            int bucket = counts.indexOf(1L);
+            String name = nanos + " nanoseconds";
+            assertTrue(bucket >= 0, "Never counted " + name);
+            assertEquals(1L, (long)counts.get(counts.size() - 1), name);
+            assertEquals("+Inf", bounds.get(bounds.size() - 1), name);
+            
+            double seconds = nanos / 1e9;
+            if (bucket < bounds.size() - 1) {
+                assertTrue(seconds <= Double.parseDouble(bounds.get(bucket)), name + " is over its bucket");
+            }
+            if (bucket > 0) {
+                assertTrue(seconds > Double.parseDouble(bounds.get(bucket - 1)), name + " belongs in a lower bucket");
+            }
+        }
+    }
+    
+    /**
+     * Test which checks the bucket bounds start at a microsecond and double
+     * every bucket, and that the sum and count cover every time recorded
+     */
+    @Test
+    public void bucketsDoubleAndAddUp() {
+        FireflyMetrics metrics = new FireflyMetrics();
+        long [] times = { 500, 1500, 1500, 3000, 70000, 123456789 };
+        long sum = 0;
+        for (long nanos : times) {
+            metrics.recordTick(nanos, 0, 1);
+            sum += nanos;
+        }
+        
+        String text = metrics.toPrometheus();
+        List<String> bounds = new ArrayList<String>();
+        List<Long> counts = new ArrayList<Long>();
+        buckets(text, "firefly_step_seconds", bounds, counts);
+        
+        assertEquals(1e-6, Double.parseDouble(bounds.get(0)));
+        for (int b = 1; b < bounds.size() - 1; b++) {
+            assertEquals(2 * Double.parseDouble(bounds.get(b - 1)), Double.parseDouble(bounds.get(b)), "Bucket " + b);
+            assertTrue(counts.get(b) >= counts.get(b - 1), "Bucket " + b + " counts less than the one before");
+        }
+        assertEquals(1L, (long)counts.get(0));
+        assertEquals(3L, (long)counts.get(1));
+        assertEquals(4L, (long)counts.get(2));
+        assertEquals(times.length, (long)counts.get(counts.size() - 1));
+        
+        assertEquals(Long.toString(times.length), value(text, "firefly_step_seconds_count"));
+        assertEquals(sum / 1e9, Double.parseDouble(value(text, "firefly_step_seconds_sum")), 1e-12);
+        assertEquals(sum / 1e6 / times.length, metrics.getMeanStepMillis(), 1e-9);
+        
+        // No sync check was timed, so that histogram is empty
+        assertEquals("0", value(text, "firefly_sync_check_seconds_count"));
+        assertEquals(0, metrics.getMeanSyncCheckMillis());
+    }
+    
+    /**
+     * Test which steps a grid through an instrumented engine, sampling every
+     * timestep, and checks the counters and every sample against the grid
+     * stepped alongside it
+     */
+    @Test
+    public void countersAddUpOverARun() {
+        FireflyTopology topology = new FireflyTopology(WIDTH, HEIGHT, FireflyInteraction.Neighbourhood.MOORE,
+                                                       FireflyTopology.Boundary.TOROIDAL, SEED);
+        FireflyArrayGrid expected = new FireflyArrayGrid(topology, SEED);
+        FireflyMetrics metrics = new FireflyMetrics();
+        metrics.setSampleInterval(1);
+        FireflyInstrumentedEngine engine = new FireflyInstrumentedEngine(new FireflyArrayGrid(topology, SEED), metrics);
+        
+        int cells = WIDTH * HEIGHT;
+        byte [] before = new byte[cells];
+        byte [] after = new byte[cells];
+        int timesteps = 0;
+        
+        while (timesteps < 200 && !expected.isSynchronised()) {
+            expected.copySteps(before);
+            expected.step();
+            expected.copySteps(after);
+            engine.step();
+            timesteps++;
+            
+            // A timestep is only counted once its sync check is done
+            assertEquals(timesteps - 1, metrics.getTimesteps(), "Counted before the sync check at " + timesteps);
+            assertEquals(expected.isSynchronised(), engine.isSynchronised(), "Sync differs at " + timesteps);
+            assertEquals(timesteps, metrics.getTimesteps(), "Timesteps at " + timesteps);
+            assertEquals((long)timesteps * cells, metrics.getCellUpdates(), "Cell updates at " + timesteps);
+            
+            // Work out what the sample should have seen
+            int flashes = 0;
+            int resets = 0;
+            int [] onStep = new int[Firefly.FIREFLY_FINAL_STEP + 1];
+            for (int i = 0; i < cells; i++) {
+                if (before[i] == Firefly.FIREFLY_FLASH_STEP) flashes++;
+                if (after[i] != (before[i] + 1) % (Firefly.FIREFLY_FINAL_STEP + 1)) resets++;
+                onStep[after[i]]++;
+            }
+            int most = 0;
+            for (int count : onStep) most = Math.max(most, count);
+            
+            assertEquals(flashes, metrics.getFlashes(), "Flashes at " + timesteps);
+            assertEquals(resets, metrics.getResets(), "Resets at " + timesteps);
+            assertEquals((double)most / cells, metrics.getSyncFraction(), "Sync fraction at " + timesteps);
+        }
+        assertTrue(timesteps > 10, "Grid synchronised too soon to tell us anything");
+        
+        // Steps nobody checks are counted when the next one starts
+        engine.step();
+        engine.step();
+        assertEquals(timesteps + 1, metrics.getTimesteps());
+        engine.isSynchronised();
+        assertEquals(timesteps + 2, metrics.getTimesteps());
+        
+        // Every step was timed, and every step but the one nobody checked
+        // had its sync check timed, unless the clock didn't move during it
+        String text = metrics.toPrometheus();
+        assertEquals(Integer.toString(timesteps + 2), value(text, "firefly_timesteps_total"));
+        assertEquals(Long.toString((long)(timesteps + 2) * cells), value(text, "firefly_cell_updates_total"));
+        assertEquals(Integer.toString(timesteps + 2), value(text, "firefly_step_seconds_count"));
+        long checks = Long.parseLong(value(text, "firefly_sync_check_seconds_count"));
+        assertTrue(checks > 0 && checks <= timesteps + 1, checks + " sync checks timed");
+    }
+    
+    /**
+     * Test which checks engines are handed straight back when metrics are off
+     * and only ever wrapped once when they are on
+     */
+    @Test
+    public void instrumentOnlyWrapsWhenEnabled() {
+        FireflyTopology topology = new FireflyTopology(WIDTH, HEIGHT, FireflyInteraction.Neighbourhood.VON_NEUMANN,
+                                                       FireflyTopology.Boundary.OPEN, SEED);
+        FireflyEngine grid = new FireflyArrayGrid(topology, SEED);
+        FireflyEngine instrumented = FireflyMetrics.instrument(grid);
+        
+        if (FireflyMetrics.ENABLED) {
+            assertTrue(instrumented instanceof FireflyInstrumentedEngine, "Metrics are on but nothing was wrapped");
+            assertSame(grid, ((FireflyInstrumentedEngine)instrumented).getEngine());
+        } else {
+            assertSame(grid, instrumented);
+        }
+        assertSame(instrumented, FireflyMetrics.instrument(instrumented));
+        
+        FireflyEngine wrapped = new FireflyInstrumentedEngine(grid, new FireflyMetrics());
+        assertSame(wrapped, FireflyMetrics.instrument(wrapped));
+    }
+    
+    /**
+     * Method which pulls every bucket of a histogram out of the Prometheus
+     * text, in order
+     * 
+     * @param text Metrics as text
+     * @param name Name of the histogram
+     * @param bounds Where to put the bound of each bucket
+     * @param counts Where to put the count of each bucket
+     */
+    private static void buckets(String text, String name, List<String> bounds, List<Long> counts) {
+        String prefix = name + "_bucket{le=\"";
+        for (String line : text.split("\n")) {
+            if (!line.startsWith(prefix)) continue;
+            
+            int end = line.indexOf('"', prefix.length());
+            bounds.add(line.substring(prefix.length(), end));
+            counts.add(Long.parseLong(line.substring(line.indexOf(' ', end) + 1)));
+        }
+        assertTrue(bounds.size() > 1, "No buckets for " + name);
+    }
+    
+    /**
+     * Method which pulls the value of a single metric out of the Prometheus
+     * text
+     * 
+     * @param text Metrics as text
+     * @param name Name of the metric
+     * @return Value of the metric as it was written
+     */
+    private static String value(String text, String name) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(name + " ")) return line.substring(name.length() + 1);
+        }
+        throw new AssertionError("No metric called " + name);
+    }
+}
@@ -0,0 +1,115 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Parallel Grid Test Class which checks that stepping on several
+ * threads is deterministic. A parallel grid is stepped next to our grid of
+ * Firefly objects, which goes through prepareStep and performStep on a single
+ * thread, and the two have to agree on every firefly after every tick
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyParallelGridTest {
+    
+    // Grid sizes, including ones with fewer rows than threads
+    private static final int [][] SIZES = { { 1, 1 }, { 7, 3 }, { 10, 10 }, { 23, 17 }, { 4, 31 } };
+    
+    // Thread counts, including more threads than some grids have rows
+    private static final int [] THREADS = { 1, 2, 3, 5 };
+    
+    // Seeds for each grid and how many ticks to step them for
+    private static final long [] SEEDS = { 1, 42, 20240607 };
+    private static final int TICKS = 120;
+    
+    /**
+     * Test which steps every neighbourhood, boundary, size and seed on every
+     * thread count and checks each tick against the Firefly objects
+     */
+    @Test
+    public void matchesFireflyObjectsEveryTick() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (long seed : SEEDS) {
+                        for (int threads : THREADS) {
+                            String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1]
+                                        + " seed " + seed + " on " + threads + " threads";
+                            FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary, seed);
+                            FireflyGrid objects = new FireflyGrid(topology, 1, 1, seed);
+                            
+                            try (FireflyParallelGrid parallel = new FireflyParallelGrid(new FireflyArrayGrid(objects), threads)) {
+                                assertMatches(objects, parallel, name + " at the start");
+                                
+                                for (int t = 1; t <= TICKS; t++) {
+                                    objects.step();
+                                    parallel.step();
+                                    assertMatches(objects, parallel, name + " at timestep " + t);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which runs a large grid until it synchronises on every thread count
+     * and checks it stops on the same timestep as a single array grid
+     */
+    @Test
+    public void stopsWithSingleThread() {
+        for (long seed : SEEDS) {
+            FireflyTopology topology = new FireflyTopology(257, 131, FireflyInteraction.Neighbourhood.MOORE,
+                                                           FireflyTopology.Boundary.TOROIDAL, seed);
+            FireflyArrayGrid single = new FireflyArrayGrid(topology, seed);
+            
+            // Step the single thread grid by hand as far as it gets
+            FireflyArrayGrid start = new FireflyArrayGrid(single);
+            while (!single.isSynchronised() && single.getTimesteps() < 300) {
+                single.step();
+            }
+            
+            for (int threads : THREADS) {
+                try (FireflyParallelGrid parallel = new FireflyParallelGrid(new FireflyArrayGrid(start), threads)) {
+                    parallel.stepUntilSynchronised(300);
+                    
+                    String name = "seed " + seed + " on " + threads + " threads";
+                    assertEquals(single.getTimesteps(), parallel.getTimesteps(), name);
+                    assertMatches(single, parallel, name);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which checks two engines have exactly the same steps and agree on
+     * whether they are synchronised
+     * 
+     * @param expected Engine stepped on a single thread
+     * @param actual Engine stepped in parallel
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyEngine expected, FireflyEngine actual, String name) {
+        assertEquals(expected.isSynchronised(), actual.isSynchronised(), "Sync differs for " + name);
+        
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getCurrentStep(x, y) != actual.getCurrentStep(x, y)) {
+                    assertEquals(expected.getCurrentStep(x, y), actual.getCurrentStep(x, y),
+                                 "Step of (" + x + ", " + y + ") differs for " + name);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Pulse Engine Test Class which runs continuous fireflies one flash
+ * at a time and as avalanches, and checks time only moves forwards, phases
+ * stay in range, simultaneous flashes come to an end and each firefly is only
+ * counted once an instant
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyPulseEngineTest {
+    
+    // Pulses big enough that a firefly which has just flashed would be pushed
+    // straight back up to 1 by its neighbours flashing after it
+    private static final double [] PULSES = { 0.2, 0.5 };
+    
+    /**
+     * Test which runs strong constant pulses on a Moore torus, where every
+     * firefly hears eight others, and checks the flashes at each instant come
+     * to an end rather than going round for ever
+     */
+    @Test
+    public void simultaneousFlashesEnd() {
+        for (boolean avalanche : new boolean [] { false, true }) {
+            for (double pulse : PULSES) {
+                String name = "pulse " + pulse + (avalanche ? " with" : " without") + " avalanches";
+                FireflyPulseEngine engine = engine(FireflyInteraction.Neighbourhood.MOORE,
+                                                   FireflyPulseEngine.constant(pulse), 0, avalanche, 42);
+                
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> engine.advanceTo(5), name);
+                
+                // Every frequency is 1 and pulses this strong sync the grid
+                // inside its first cycle, after which each firefly flashes
+                // once every unit of time
+                assertTrue(engine.getFlashes() <= 400 * 6, "Too many flashes for " + name);
+                assertEquals(5, engine.getTime(), name);
+            }
+        }
+    }
+    
+    /**
+     * Test which checks taking flashes one at a time lands on exactly the
+     * same phases as taking them as avalanches, as a firefly that has flashed
+     * hears nothing more at that instant either way
+     */
+    @Test
+    public void oneAtATimeMatchesAvalanches() {
+        for (double pulse : PULSES) {
+            for (long seed = 1; seed <= 3; seed++) {
+                String name = "pulse " + pulse + " seed " + seed;
+                FireflyPulseEngine alone = engine(FireflyInteraction.Neighbourhood.MOORE,
+                                                  FireflyPulseEngine.constant(pulse), 0.01, false, seed);
+                FireflyPulseEngine together = engine(FireflyInteraction.Neighbourhood.MOORE,
+                                                     FireflyPulseEngine.constant(pulse), 0.01, true, seed);
+                alone.advanceTo(20);
+                together.advanceTo(20);
+                
+                assertEquals(together.getFlashes(), alone.getFlashes(), "Flashes differ for " + name);
+                for (int y = 0; y < 20; y++) {
+                    for (int x = 0; x < 20; x++) {
+                        assertEquals(together.getPhase(x, y), alone.getPhase(x, y),
+                                     "Phase of " + x + "," + y + " differs for " + name);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which takes a long run of flashes with a refractory curve and
+     * spread out frequencies, and checks flash times never go backwards,
+     * phases stay from 0 up to 1 and no more fireflies flash at an instant
+     * than there are fireflies
+     */
+    @Test
+    public void flashesStayInOrder() {
+        FireflyPulseEngine.PhaseResponse response = FireflyPulseEngine.refractory(0.2,
+            FireflyPulseEngine.mirolloStrogatz(2, 0.02));
+        
+        for (boolean avalanche : new boolean [] { false, true }) {
+            for (long seed = 0; seed < 3; seed++) {
+                String name = "seed " + seed + (avalanche ? " with" : " without") + " avalanches";
+                FireflyPulseEngine engine = engine(FireflyInteraction.Neighbourhood.RANDOM, response, 0.01,
+                                                   avalanche, seed);
+                double last = 0;
+                
+                // Once synchronised an avalanche is every firefly, so count
+                // flashes rather than avalanches
+                for (int i = 0; engine.getFlashes() < 100000; i++) {
+                    engine.flash();
+                    assertTrue(engine.getTime() >= last, "Time went backwards for " + name);
+                    assertTrue(engine.getLastAvalanche() <= 400, "Counted a firefly twice for " + name);
+                    last = engine.getTime();
+                    
+                    if (i % 1000 == 0) {
+                        for (int y = 0; y < 20; y++) {
+                            for (int x = 0; x < 20; x++) {
+                                double phase = engine.getPhase(x, y);
+                                assertTrue(phase >= 0 && phase <= 1, "Phase " + phase + " out of range for " + name);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which runs until sync and checks every firefly flashed at that
+     * instant, each of them counted once, in both modes
+     */
+    @Test
+    public void synchronisesWithEveryFireflyOnce() {
+        for (boolean avalanche : new boolean [] { false, true }) {
+            for (double pulse : PULSES) {
+                String name = "pulse " + pulse + (avalanche ? " with" : " without") + " avalanches";
+                FireflyPulseEngine engine = engine(FireflyInteraction.Neighbourhood.MOORE,
+                                                   FireflyPulseEngine.constant(pulse), 0, avalanche, 42);
+                
+                boolean synced = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> engine.runUntilSynchronised(1000),
+                                                           name);
+                assertTrue(synced, "Never synchronised for " + name);
+                assertEquals(400, engine.getLastAvalanche(), name);
+            }
+        }
+    }
+    
+    /**
+     * Method which creates a 20 by 20 toroidal grid of continuous fireflies
+     * 
+     * @param neighbourhood Neighbourhood of the grid
+     * @param response How fireflies respond to a flash
+     * @param spread Most a natural frequency can be away from 1
+     * @param avalanche Whether to take flashes at the same instant as one
+     *                  avalanche
+     * @param seed Seed of the grid
+     * @return New grid
+     */
+    private static FireflyPulseEngine engine(FireflyInteraction.Neighbourhood neighbourhood,
+                                             FireflyPulseEngine.PhaseResponse response, double spread,
+                                             boolean avalanche, long seed) {
+        FireflyTopology topology = new FireflyTopology(20, 20, neighbourhood, FireflyTopology.Boundary.TOROIDAL, seed);
+        return new FireflyPulseEngine(topology, response, spread, avalanche, seed);
+    }
+}
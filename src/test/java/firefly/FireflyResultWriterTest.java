@@ -0,0 +1,383 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Result Writer Test Class which writes known trials out as CSV and
+ * binary and reads every field of every record back, checks a failed write
+ * is reported rather than lost, and checks merged running stats against
+ * stats worked out directly
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyResultWriterTest {
+    
+    // Seed of the batch, which every trial's seed comes from
+    private static final long SEED = 1234567;
+    
+    // Bytes in a binary record after its length, as version 1 writes them
+    private static final int RECORD_BYTES = 33;
+    
+    /**
+     * Test which writes trials of every outcome as CSV and checks the header
+     * and every field of every line, including parameters needing quotes
+     * 
+     * @throws Exception If the writer fails
+     */
+    @Test
+    public void csvRoundTrips() throws Exception {
+        List<FireflyTrialResult> results = results();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FireflyResultWriter writer = new FireflyResultWriter(bytes, FireflyResultWriter.Format.CSV, params(), SEED, 4);
+        for (FireflyTrialResult result : results) writer.write(result, wallNanos(result.getTrial()));
+        writer.close();
+        
+        String [] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n", -1);
+        assertEquals(results.size() + 2, lines.length);
+        assertEquals("", lines[lines.length - 1], "File doesn't end with a new line");
+        assertEquals(List.of("engine", "note", "trial", "seed", "outcome", "timesteps", "period", "entered",
+                             "wall_nanos"), fields(lines[0]));
+        
+        for (int r = 0; r < results.size(); r++) {
+            FireflyTrialResult result = results.get(r);
+            List<String> fields = fields(lines[r + 1]);
+            String name = "line " + (r + 1);
+            
+            assertEquals(9, fields.size(), name);
+            assertEquals("array", fields.get(0), name);
+            assertEquals("a, \"quoted\" value", fields.get(1), name);
+            assertEquals(result.getTrial(), Integer.parseInt(fields.get(2)), name);
+            assertEquals(FireflyRandom.derive(SEED, result.getTrial()), Long.parseLong(fields.get(3)), name);
+            assertEquals(result.getOutcome(), FireflyTrialResult.Outcome.valueOf(fields.get(4)), name);
+            assertEquals(result.getTimesteps(), Integer.parseInt(fields.get(5)), name);
+            assertEquals(result.getPeriod(), Integer.parseInt(fields.get(6)), name);
+            assertEquals(result.getEntered(), Integer.parseInt(fields.get(7)), name);
+            assertEquals(wallNanos(result.getTrial()), Long.parseLong(fields.get(8)), name);
+        }
+        
+        assertStats(results, writer);
+    }
+    
+    /**
+     * Test which writes trials of every outcome as binary and reads back the
+     * header, the parameters and every field of every record
+     * 
+     * @throws Exception If the writer fails
+     */
+    @Test
+    public void binaryRoundTrips() throws Exception {
+        List<FireflyTrialResult> results = results();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FireflyResultWriter writer = new FireflyResultWriter(bytes, FireflyResultWriter.Format.BINARY, params(), SEED,
+                                                             4);
+        for (FireflyTrialResult result : results) writer.write(result, wallNanos(result.getTrial()));
+        writer.close();
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(FireflyResultWriter.MAGIC, in.readInt());
+        assertEquals(FireflyResultWriter.VERSION, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals("engine", in.readUTF());
+        assertEquals("array", in.readUTF());
+        assertEquals("note", in.readUTF());
+        assertEquals("a, \"quoted\" value", in.readUTF());
+        
+        for (FireflyTrialResult result : results) {
+            String name = "trial " + result.getTrial();
+            assertEquals(RECORD_BYTES, in.readInt(), name);
+            assertEquals(result.getTrial(), in.readInt(), name);
+            assertEquals(FireflyRandom.derive(SEED, result.getTrial()), in.readLong(), name);
+            assertEquals(result.getOutcome().ordinal(), in.readByte(), name);
+            assertEquals(result.getTimesteps(), in.readInt(), name);
+            assertEquals(result.getPeriod(), in.readInt(), name);
+            assertEquals(result.getEntered(), in.readInt(), name);
+            assertEquals(wallNanos(result.getTrial()), in.readLong(), name);
+        }
+        assertEquals(-1, in.read(), "Bytes left after the last record");
+        
+        assertStats(results, writer);
+    }
+    
+    /**
+     * Test which writes to a stream that always fails and checks the failure
+     * comes back from the next write once our thread has hit it, and from
+     * close whether or not a write noticed it first
+     */
+    @Test
+    public void failuresAreReported() {
+        final List<FireflyTrialResult> results = results();
+        
+        // Our thread only writes to the stream when it flushes, so keep
+        // writing until it has tried and failed
+        IOException thrown = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            FireflyResultWriter writer = new FireflyResultWriter(new FailingStream(), FireflyResultWriter.Format.CSV,
+                                                                 params(), SEED, 4);
+            try {
+                while (true) {
+                    for (FireflyTrialResult result : results) writer.write(result, 0);
+                    Thread.sleep(1);
+                }
+            } catch (IOException e) {
+                assertThrows(IOException.class, () -> writer.close());
+                return e;
+            }
+        });
+        assertEquals("disk full", thrown.getCause().getMessage());
+        
+        for (FireflyResultWriter.Format format : FireflyResultWriter.Format.values()) {
+            assertThrows(IOException.class, () -> {
+                FireflyResultWriter writer = new FireflyResultWriter(new FailingStream(), format, params(), SEED, 4);
+                writer.write(results.get(0), 0);
+                writer.close();
+            }, format.toString());
+        }
+    }
+    
+    /**
+     * Test which streams a batch run on many threads through a writer with
+     * hardly any room, so threads wait on it, and checks every trial comes
+     * out once and in trial order
+     * 
+     * @throws Exception If the writer fails
+     */
+    @Test
+    public void runnerWritesInTrialOrder() throws Exception {
+        FireflyTrialRunner.EngineFactory factory = FireflyTrialRunner.factory("array", 8, 8,
+            FireflyInteraction.Neighbourhood.MOORE, FireflyTopology.Boundary.TOROIDAL, SEED);
+        
+        for (FireflyStoppingRule rule : new FireflyStoppingRule [] { null, new FireflyStoppingRule(0.1, 0.1) }) {
+            String name = rule == null ? "every trial" : "stopping early";
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            FireflyResultWriter writer = new FireflyResultWriter(bytes, FireflyResultWriter.Format.CSV, params(), SEED,
+                                                                 1);
+            FireflyTrialRunner runner = new FireflyTrialRunner(8, factory);
+            runner.setResultWriter(writer);
+            runner.setStoppingRule(rule);
+            FireflyTrialSummary summary = runner.run(500, 2500);
+            writer.close();
+            
+            String [] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            assertEquals(summary.getTrials() + 1, lines.length, name);
+            assertEquals(summary.getTrials(), writer.getWritten(), name);
+            for (int trial = 0; trial < summary.getTrials(); trial++) {
+                List<String> fields = fields(lines[trial + 1]);
+                FireflyTrialResult result = summary.getResults()[trial];
+                assertEquals(trial, Integer.parseInt(fields.get(2)), "Out of order for " + name);
+                assertEquals(result.getOutcome(), FireflyTrialResult.Outcome.valueOf(fields.get(4)), name);
+                assertEquals(result.getTimesteps(), Integer.parseInt(fields.get(5)), name);
+            }
+        }
+    }
+    
+    /**
+     * Test which splits random values into uneven pieces, some of them empty,
+     * keeps stats for each piece and merges them, and checks the result
+     * against the count, mean, variance, min and max worked out directly
+     */
+    @Test
+    public void mergedStatsMatchDirect() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        
+        for (int round = 0; round < 50; round++) {
+            int n = random.nextInt(1, 2000);
+            double [] values = new double[n];
+            double offset = random.nextDouble(-1e6, 1e6);
+            for (int i = 0; i < n; i++) values[i] = offset + random.nextGaussian() * random.nextInt(1, 1000);
+            
+            // Cut the values into pieces, which can be empty
+            FireflyRunningStats merged = new FireflyRunningStats();
+            FireflyRunningStats whole = new FireflyRunningStats();
+            int start = 0;
+            while (start < n) {
+                int end = Math.min(n, start + random.nextInt(0, n / 3 + 2));
+                FireflyRunningStats piece = new FireflyRunningStats();
+                for (int i = start; i < end; i++) piece.add(values[i]);
+                merged.merge(piece);
+                start = end;
+            }
+            for (double value : values) whole.add(value);
+            
+            String name = "round " + round;
+            assertStats(values, merged, name + " merged");
+            assertStats(values, whole, name + " added one at a time");
+        }
+        
+        // Merging into or from nothing changes nothing
+        FireflyRunningStats empty = new FireflyRunningStats();
+        FireflyRunningStats one = new FireflyRunningStats();
+        one.add(5);
+        one.merge(empty);
+        empty.merge(one);
+        assertStats(new double [] { 5 }, one, "one value");
+        assertStats(new double [] { 5 }, empty, "one value merged into nothing");
+    }
+    
+    /**
+     * Method which checks a writer's stats cover exactly the trials it wrote
+     * 
+     * @param results Trials written
+     * @param writer Closed writer
+     */
+    private static void assertStats(List<FireflyTrialResult> results, FireflyResultWriter writer) {
+        List<Double> synced = new ArrayList<Double>();
+        double [] walls = new double[results.size()];
+        for (int r = 0; r < results.size(); r++) {
+            FireflyTrialResult result = results.get(r);
+            if (result.isSynced()) synced.add((double)result.getTimesteps());
+            walls[r] = wallNanos(result.getTrial());
+        }
+        double [] timesteps = new double[synced.size()];
+        for (int s = 0; s < timesteps.length; s++) timesteps[s] = synced.get(s);
+        
+        assertEquals(results.size(), writer.getWritten());
+        assertStats(timesteps, writer.getSyncTimesteps(), "sync timesteps");
+        assertStats(walls, writer.getWallTimes(), "wall times");
+    }
+    
+    /**
+     * Method which checks running stats against stats worked out directly
+     * from every value
+     * 
+     * @param values Every value the stats have seen
+     * @param stats Stats to check
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertStats(double [] values, FireflyRunningStats stats, String name) {
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        double mean = sum / values.length;
+        double squares = 0;
+        for (double value : values) squares += (value - mean) * (value - mean);
+        double variance = values.length > 1 ? squares / (values.length - 1) : 0;
+        
+        assertEquals(values.length, stats.getCount(), "Count differs for " + name);
+        assertEquals(mean, stats.getMean(), 1e-9 * Math.max(1, Math.abs(mean)), "Mean differs for " + name);
+        assertEquals(variance, stats.getVariance(), 1e-9 * Math.max(1, variance), "Variance differs for " + name);
+        assertEquals(min, stats.getMin(), "Min differs for " + name);
+        assertEquals(max, stats.getMax(), "Max differs for " + name);
+    }
+    
+    /**
+     * Method which makes trials of every outcome, with numbers big enough to
+     * need every byte of their fields
+     * 
+     * @return Trials to write
+     */
+    private static List<FireflyTrialResult> results() {
+        List<FireflyTrialResult> results = new ArrayList<FireflyTrialResult>();
+        for (int trial = 0; trial < 300; trial++) {
+            if (trial % 3 == 0) {
+                results.add(new FireflyTrialResult(trial, true, 1 + trial * 7919 % 100000));
+            } else if (trial % 3 == 1) {
+                results.add(new FireflyTrialResult(trial, FireflyTrialResult.Outcome.CYCLE, 40000 + trial, 10 + trial,
+                                                   trial * 13));
+            } else {
+                results.add(new FireflyTrialResult(trial, false, Integer.MAX_VALUE - trial));
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Method which makes up a wall time for a trial, bigger than an int holds
+     * 
+     * @param trial Index of the trial
+     * @return Wall time in nanoseconds
+     */
+    private static long wallNanos(int trial) {
+        return 5000000000L + trial * 123456789L;
+    }
+    
+    /**
+     * Method which makes the parameters of our batch, one of which has to be
+     * quoted in CSV
+     * 
+     * @return Parameters in the order they are written
+     */
+    private static Map<String, String> params() {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("engine", "array");
+        params.put("note", "a, \"quoted\" value");
+        return params;
+    }
+    
+    /**
+     * Method which splits a CSV line into its fields, taking quotes off
+     * 
+     * @param line Line without its new line
+     * @return Fields of the line
+     */
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    /**
+     * Failing Stream Class which fails every write, like a full disk
+     */
+    private static class FailingStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("disk full");
+        }
+        
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            throw new IOException("disk full");
+        }
+    }
+}
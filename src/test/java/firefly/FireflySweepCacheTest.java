@@ -0,0 +1,128 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Firefly Sweep Cache Test Class which checks results survive being written
+ * out and read back, and that a sweep killed part way through a line never
+ * brings back a wrong result
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySweepCacheTest {
+    
+    // Folder for our cache files, cleared up after every test
+    @TempDir
+    Path folder;
+    
+    /**
+     * Test which writes a result of every outcome and reads them back
+     * 
+     * @throws IOException If the cache can't be written or read
+     */
+    @Test
+    public void readsBackWhatWasPut() throws IOException {
+        Path path = folder.resolve("sweep.cache");
+        try (FireflySweepCache cache = new FireflySweepCache(path)) {
+            cache.put("a", 1, new FireflyTrialResult(0, true, 120));
+            cache.put("a", 2, new FireflyTrialResult(1, false, 2500));
+            cache.put("b", 1, new FireflyTrialResult(0, FireflyTrialResult.Outcome.CYCLE, 345, 6, 123));
+        }
+        
+        try (FireflySweepCache cache = new FireflySweepCache(path)) {
+            assertEquals(3, cache.size());
+            assertResult(FireflyTrialResult.Outcome.SYNCHRONISED, 120, cache.get("a", 1));
+            assertResult(FireflyTrialResult.Outcome.LIMIT, 2500, cache.get("a", 2));
+            
+            FireflyTrialResult cycle = cache.get("b", 1);
+            assertResult(FireflyTrialResult.Outcome.CYCLE, 345, cycle);
+            assertEquals(6, cycle.getPeriod());
+            assertEquals(123, cycle.getEntered());
+        }
+    }
+    
+    /**
+     * Test which cuts the last line off at every possible byte, as a killed
+     * sweep might, and checks the cut result is either read whole or not at
+     * all, and that results added afterwards aren't spoilt by the cut line
+     * 
+     * @throws IOException If the cache can't be written or read
+     */
+    @Test
+    public void skipsCutLines() throws IOException {
+        Path whole = folder.resolve("whole.cache");
+        try (FireflySweepCache cache = new FireflySweepCache(whole)) {
+            cache.put("a", 1, new FireflyTrialResult(0, true, 120));
+            cache.put("b", 7, new FireflyTrialResult(0, FireflyTrialResult.Outcome.CYCLE, 345, 6, 123));
+        }
+        byte [] bytes = Files.readAllBytes(whole);
+        int lastLine = lastLineStart(bytes);
+        
+        for (int cut = lastLine; cut < bytes.length; cut++) {
+            Path path = folder.resolve("cut-" + cut + ".cache");
+            Files.write(path, Arrays.copyOf(bytes, cut));
+            
+            try (FireflySweepCache cache = new FireflySweepCache(path)) {
+                assertResult(FireflyTrialResult.Outcome.SYNCHRONISED, 120, cache.get("a", 1));
+                
+                // Only losing the newline leaves the whole line to read
+                FireflyTrialResult cycle = cache.get("b", 7);
+                if (cut == bytes.length - 1) {
+                    assertResult(FireflyTrialResult.Outcome.CYCLE, 345, cycle);
+                    assertEquals(123, cycle.getEntered());
+                } else {
+                    assertNull(cycle, "Read a line cut at " + cut);
+                }
+                
+                cache.put("c", 3, new FireflyTrialResult(0, true, 99));
+            }
+            
+            try (FireflySweepCache cache = new FireflySweepCache(path)) {
+                assertResult(FireflyTrialResult.Outcome.SYNCHRONISED, 99, cache.get("c", 3));
+            }
+        }
+    }
+    
+    /**
+     * Method which checks a result is there and has the outcome and timesteps
+     * we expect
+     * 
+     * @param outcome Outcome we expect
+     * @param timesteps Timesteps we expect
+     * @param result Result to check
+     */
+    private static void assertResult(FireflyTrialResult.Outcome outcome, int timesteps, FireflyTrialResult result) {
+        assertNotNull(result);
+        assertEquals(outcome, result.getOutcome());
+        assertEquals(timesteps, result.getTimesteps());
+    }
+    
+    /**
+     * Method which finds where the last line of a file starts
+     * 
+     * @param bytes Contents of the file, ending in a newline
+     * @return Index of the first byte of the last line
+     */
+    private static int lastLineStart(byte [] bytes) {
+        int i = bytes.length - 2;
+        while (i >= 0 && bytes[i] != '\n') i--;
+        return i + 1;
+    }
+}
@@ -0,0 +1,175 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Sync Clusters Test Class which runs grids with their clusters kept
+ * up to date as they step, and checks them every timestep against a plain
+ * flood fill of the whole grid written out here
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflySyncClustersTest {
+    
+    // Grid sizes, including tori so small a firefly is its own neighbour or
+    // sees the same neighbour twice
+    private static final int [][] SIZES = { { 1, 1 }, { 3, 1 }, { 2, 2 }, { 1, 5 }, { 9, 7 }, { 24, 24 } };
+    
+    // Seeds for each grid and the most timesteps we run it for
+    private static final long [] SEEDS = { 1, 2, 3, 4 };
+    private static final int TIMESTEPS = 400;
+    
+    /**
+     * Test which runs every neighbourhood, boundary, size and seed and checks
+     * our clusters after every timestep
+     */
+    @Test
+    public void matchesFloodFillEveryTimestep() {
+        for (FireflyInteraction.Neighbourhood neighbourhood : FireflyInteraction.Neighbourhood.values()) {
+            for (FireflyTopology.Boundary boundary : FireflyTopology.Boundary.values()) {
+                for (int [] size : SIZES) {
+                    for (long seed : SEEDS) {
+                        String name = neighbourhood + " " + boundary + " " + size[0] + "x" + size[1] + " seed " + seed;
+                        FireflyTopology topology = new FireflyTopology(size[0], size[1], neighbourhood, boundary, seed);
+                        FireflyEventGrid grid = new FireflyEventGrid(topology, seed);
+                        FireflySyncClusters clusters = grid.trackClusters();
+                        assertMatches(topology, grid, clusters, name + " at the start");
+                        
+                        while (!grid.isSynchronised() && grid.getTimesteps() < TIMESTEPS) {
+                            grid.step();
+                            assertMatches(topology, grid, clusters, name + " at timestep " + grid.getTimesteps());
+                        }
+                        
+                        // A synchronised grid is one cluster
+                        if (grid.isSynchronised()) assertEquals(1, clusters.getClusters(), name);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which checks our clusters split the grid up exactly as a flood
+     * fill does, and that every count we keep agrees with it
+     * 
+     * @param topology Topology of the grid
+     * @param grid Grid being stepped
+     * @param clusters Clusters being kept up to date
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertMatches(FireflyTopology topology, FireflyEngine grid, FireflySyncClusters clusters,
+                                      String name) {
+        int width = topology.getWidth();
+        int cells = topology.getCells();
+        byte [] steps = new byte[cells];
+        grid.copySteps(steps);
+        
+        int [] labels = floodFill(topology, steps);
+        int count = 0;
+        for (int label : labels) count = Math.max(count, label + 1);
+        
+        int [] sizes = new int[count];
+        int [] firsts = new int[count];
+        Arrays.fill(firsts, -1);
+        for (int i = 0; i < cells; i++) {
+            sizes[labels[i]]++;
+            if (firsts[labels[i]] < 0) firsts[labels[i]] = i;
+        }
+        
+        // Same number of clusters, and every firefly in the same one as the
+        // first of its flood fill, means the two agree completely
+        assertEquals(count, clusters.getClusters(), "Cluster count differs for " + name);
+        for (int i = 0; i < cells; i++) {
+            assertTrue(clusters.isSameCluster(i, firsts[labels[i]]), "Firefly " + i + " split off for " + name);
+            assertEquals(sizes[labels[i]], clusters.getClusterSize(i % width, i / width),
+                         "Size of the cluster of " + i + " differs for " + name);
+        }
+        
+        int [] histogram = new int[cells + 1];
+        int largest = 0;
+        for (int size : sizes) {
+            histogram[size]++;
+            largest = Math.max(largest, size);
+        }
+        assertEquals(largest, clusters.getLargest(), "Largest differs for " + name);
+        for (int size = 1; size <= cells; size++) {
+            assertEquals(histogram[size], clusters.getClustersOfSize(size),
+                         "Clusters of size " + size + " differ for " + name);
+        }
+    }
+    
+    /**
+     * Method which labels every firefly with its cluster by flood filling from
+     * each firefly not yet labelled, joining two fireflies on the same step if
+     * either of them listens to the other
+     * 
+     * @param topology Topology of the grid
+     * @param steps Step of every firefly
+     * @return Cluster of every firefly, numbered from 0
+     */
+    private static int [] floodFill(FireflyTopology topology, byte [] steps) {
+        int cells = topology.getCells();
+        int [] neighbours = topology.getNeighbours();
+        int stride = topology.getStride();
+        byte [] degrees = topology.getDegrees();
+        
+        // Turn who listens to who into links both ways, counting them first
+        // as a tiny torus can list the same neighbour many times over
+        int [] counts = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            for (int k = 0; k < degrees[i]; k++) {
+                counts[i]++;
+                counts[neighbours[i * stride + k]]++;
+            }
+        }
+        int [][] links = new int[cells][];
+        for (int i = 0; i < cells; i++) links[i] = new int[counts[i]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < cells; i++) {
+            for (int k = 0; k < degrees[i]; k++) {
+                int o = neighbours[i * stride + k];
+                links[i][counts[i]++] = o;
+                links[o][counts[o]++] = i;
+            }
+        }
+        
+        int [] labels = new int[cells];
+        Arrays.fill(labels, -1);
+        int [] queue = new int[cells];
+        int next = 0;
+        
+        for (int s = 0; s < cells; s++) {
+            if (labels[s] >= 0) continue;
+            
+            int head = 0;
+            int tail = 0;
+            labels[s] = next;
+            queue[tail++] = s;
+            while (head < tail) {
+                int i = queue[head++];
+                for (int k = 0; k < counts[i]; k++) {
+                    int o = links[i][k];
+                    if (labels[o] < 0 && steps[o] == steps[i]) {
+                        labels[o] = next;
+                        queue[tail++] = o;
+                    }
+                }
+            }
+            next++;
+        }
+        
+        return labels;
+    }
+}
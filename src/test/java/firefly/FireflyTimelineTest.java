@@ -0,0 +1,132 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Firefly Timeline Test Class which records grids with a FireflyTimelineWriter
+ * and checks every frame read back by a FireflyTimelineReader matches the grid
+ * stepped again from the same seed
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTimelineTest {
+    
+    // Folder for our timelines, cleared up after every test
+    @TempDir
+    Path folder;
+    
+    /**
+     * Test which records grids with an odd and an even number of fireflies
+     * at several keyframe intervals and reads every frame back
+     * 
+     * @throws IOException If the timeline can't be written or read
+     */
+    @Test
+    public void roundTripsEveryFrame() throws IOException {
+        int [][] sizes = { { 101, 77 }, { 64, 32 }, { 1, 1 } };
+        int [] intervals = { 1, 16, FireflyTimelineWriter.DEFAULT_KEYFRAME_INTERVAL };
+        
+        for (int [] size : sizes) {
+            for (int interval : intervals) {
+                int width = size[0];
+                int height = size[1];
+                String name = width + "x" + height + " every " + interval;
+                Path path = folder.resolve(width + "x" + height + "-" + interval + ".fftl");
+                
+                FireflyEngine recorded = engine(width, height);
+                try (FireflyTimelineWriter writer = new FireflyTimelineWriter(path, width, height, interval)) {
+                    writer.record(recorded);
+                    for (int t = 0; t < 300; t++) {
+                        recorded.step();
+                        writer.record(recorded);
+                    }
+                }
+                
+                FireflyEngine replayed = engine(width, height);
+                byte [] expected = new byte[width * height];
+                byte [] actual = new byte[width * height];
+                try (FireflyTimelineReader reader = new FireflyTimelineReader(path)) {
+                    assertEquals(301, reader.getFrames(), name);
+                    
+                    for (int frame = 0; frame <= 300; frame++) {
+                        if (frame > 0) replayed.step();
+                        replayed.copySteps(expected);
+                        reader.readFrame(frame, actual);
+                        
+                        assertArrayEquals(expected, actual, "Frame " + frame + " differs for " + name);
+                        assertEquals(replayed.getTimesteps(), reader.getTimestep(frame), name);
+                        assertEquals(replayed.isSynchronised(), reader.isSynchronised(frame), name);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which breaks the background thread while recording is waiting on
+     * it for a free generation, and checks recording goes on to fail rather
+     * than waiting for ever on a generation that will never be handed back.
+     * Every frame is a keyframe and the grid never steps, so writing is much
+     * slower than recording and recording spends nearly all its time waiting
+     * 
+     * @throws IOException If the timeline can't be created
+     */
+    @Test
+    public void failedWriterDoesNotBlockRecord() throws IOException {
+        final FireflyEngine engine = engine(1024, 1024);
+        final FireflyTimelineWriter writer = new FireflyTimelineWriter(folder.resolve("failed.fftl"), 1024, 1024, 1);
+        
+        // Interrupting the writer thread fails it whether it is waiting or in
+        // the middle of writing, so do that once a few frames are through
+        Thread breaker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writer.getFrames() < 4) Thread.onSpinWait();
+                for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                    if (thread.getName().equals("firefly-timeline-writer")) thread.interrupt();
+                }
+            }
+        });
+        breaker.setDaemon(true);
+        breaker.start();
+        
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+                assertThrows(IOException.class, () -> {
+                    while (true) writer.record(engine);
+                });
+            });
+        } finally {
+            assertThrows(IOException.class, writer::close);
+        }
+    }
+    
+    /**
+     * Method which creates the same grid every time it is called
+     * 
+     * @param width Number of Fireflies in width
+     * @param height Number of Fireflies in height
+     * @return New grid
+     */
+    private static FireflyEngine engine(int width, int height) {
+        return FireflyTrialRunner.factory("array", width, height, FireflyInteraction.Neighbourhood.MOORE,
+                                          FireflyTopology.Boundary.OPEN, 5).create(0);
+    }
+}
@@ -0,0 +1,129 @@
+package firefly;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Firefly Trial Runner Test Class which runs batches across different numbers
+ * of threads and engines, and checks they always come back with the same
+ * trials as running each one on its own, and that a stopping rule always
+ * stops at the same trial whoever finishes first
+ * 
+ * This code was created as part of the University of Birmingham Intro to
+ * Natural Computation module and open sourced because it shows something
+ * interesting and cool
+ * 
+ * Licensed under part of the Creative Commons Attribution-ShareAlike 3.0 Unported
+ * (CC BY-SA 3.0)
+ * 
+ * @author Suhail
+ */
+public class FireflyTrialRunnerTest {
+    
+    // Small grid so a batch is quick, and the limit every trial runs to
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 10;
+    private static final long SEED = 7;
+    private static final int LIMIT = 2500;
+    
+    // Thread counts to run every batch on
+    private static final int [] THREADS = { 1, 3, 8 };
+    
+    /**
+     * Test which runs a whole batch with no stopping rule and checks every
+     * trial comes back just as it does run on its own
+     * 
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    @Test
+    public void batchMatchesSingleTrials() throws InterruptedException {
+        FireflyTrialRunner.EngineFactory factory = factory("array");
+        FireflyTrialResult [] expected = new FireflyTrialResult[150];
+        for (int trial = 0; trial < expected.length; trial++) {
+            expected[trial] = FireflyTrialRunner.runTrial(factory.create(trial), trial, LIMIT, true);
+        }
+        
+        for (String engine : new String [] { "array", "lanes" }) {
+            for (int threads : THREADS) {
+                String name = engine + " on " + threads + " threads";
+                FireflyTrialRunner runner = new FireflyTrialRunner(threads, factory(engine));
+                FireflyTrialSummary summary = runner.run(expected.length, LIMIT);
+                
+                assertEquals(expected.length, summary.getTrials(), name);
+                for (int trial = 0; trial < expected.length; trial++) {
+                    assertSameResult(expected[trial], summary.getResults()[trial], name + " trial " + trial);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Test which runs batches with a stopping rule and checks they all stop
+     * at the first trial where the estimate over the trials before it is
+     * narrow enough, whichever engine and however many threads run them
+     * 
+     * @throws InterruptedException If we are interrupted while waiting
+     */
+    @Test
+    public void stoppingIsDeterministic() throws InterruptedException {
+        FireflyStoppingRule rule = new FireflyStoppingRule(0.05, 0.05);
+        int budget = 5000;
+        
+        // Work out where the rule should stop by running trials in order
+        FireflyTrialRunner.EngineFactory factory = factory("array");
+        FireflyTrialEstimate estimate = new FireflyTrialEstimate();
+        FireflyTrialResult [] expected = new FireflyTrialResult[budget];
+        int stop = 0;
+        while (stop < budget && !rule.isSatisfied(estimate)) {
+            expected[stop] = FireflyTrialRunner.runTrial(factory.create(stop), stop, LIMIT, true);
+            estimate.add(expected[stop]);
+            stop++;
+        }
+        assertTrue(stop < budget, "Rule never stopped the batch");
+        assertTrue(stop > rule.getMinTrials(), "Rule stopped as soon as it was allowed to");
+        
+        for (String engine : new String [] { "array", "lanes" }) {
+            for (int threads : THREADS) {
+                String name = engine + " on " + threads + " threads";
+                FireflyTrialRunner runner = new FireflyTrialRunner(threads, factory(engine));
+                runner.setStoppingRule(rule);
+                FireflyTrialSummary summary = runner.run(budget, LIMIT);
+                
+                assertEquals(stop, summary.getTrials(), "Stopped at a different trial for " + name);
+                assertEquals(stop, runner.getEstimate().getTrials(), name);
+                assertEquals(estimate.getSuccesses(), runner.getEstimate().getSuccesses(), name);
+                for (int trial = 0; trial < stop; trial++) {
+                    assertSameResult(expected[trial], summary.getResults()[trial], name + " trial " + trial);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method which returns a factory for one of our engines on our small grid
+     * 
+     * @param engine Name of the engine
+     * @return Factory which creates that engine
+     */
+    private static FireflyTrialRunner.EngineFactory factory(String engine) {
+        return FireflyTrialRunner.factory(engine, WIDTH, HEIGHT, FireflyInteraction.Neighbourhood.MOORE,
+                                          FireflyTopology.Boundary.OPEN, SEED);
+    }
+    
+    /**
+     * Method which checks two trial results are the same in every way
+     * 
+     * @param expected Result of running the trial on its own
+     * @param actual Result from a batch
+     * @param name What we are checking, for the failure message
+     */
+    private static void assertSameResult(FireflyTrialResult expected, FireflyTrialResult actual, String name) {
+        assertEquals(expected.getTrial(), actual.getTrial(), "Trial differs for " + name);
+        assertEquals(expected.getOutcome(), actual.getOutcome(), "Outcome differs for " + name);
+        assertEquals(expected.getTimesteps(), actual.getTimesteps(), "Timesteps differ for " + name);
+        assertEquals(expected.getPeriod(), actual.getPeriod(), "Period differs for " + name);
+        assertEquals(expected.getEntered(), actual.getEntered(), "Entry differs for " + name);
+    }
+}